@@ -2,6 +2,10 @@ package saarland.cispa.bletrackerlib;
 
 import android.app.Activity;
 import android.app.Notification;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.util.Log;
 
 import java.io.InputStream;
@@ -11,14 +15,18 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
 import saarland.cispa.bletrackerlib.exceptions.BleOtherServiceStillRunningException;
 import saarland.cispa.bletrackerlib.helper.BluetoothHelper;
 import saarland.cispa.bletrackerlib.helper.LocationHelper;
+import saarland.cispa.bletrackerlib.remote.FlushCoordinator;
+import saarland.cispa.bletrackerlib.remote.NetworkExecutor;
 import saarland.cispa.bletrackerlib.remote.RemoteConnection;
 import saarland.cispa.bletrackerlib.remote.RemotePreferences;
 import saarland.cispa.bletrackerlib.remote.SendMode;
 import saarland.cispa.bletrackerlib.service.BleTrackerService;
 import saarland.cispa.bletrackerlib.service.BeaconNotifier;
+import saarland.cispa.bletrackerlib.service.LayoutManager;
 
 /**
  * This is the main entry point for interacting with the lib.
@@ -39,6 +47,7 @@ public class BleTracker {
     private ArrayList<BeaconNotifier> beaconNotifiers = new ArrayList<>();
 
     private RemoteConnection cispaConnection;
+    private boolean screenReceiverRegistered = false;
 
     public static BleTracker getInstance() {
         if (bleTracker == null) {
@@ -63,7 +72,27 @@ public class BleTracker {
      */
     public void init(Activity activity) {
         setActivity(activity);
+        NetworkExecutor.configure(preferences.getNetworkThreads(), preferences.getNetworkCacheSize());
         initCispaConnection();
+        registerScreenReceiver();
+    }
+
+    /**
+     * Tells the {@link FlushCoordinator} if the screen is on, it holds uploads longer while it is off
+     */
+    private void registerScreenReceiver() {
+        if (screenReceiverRegistered || service == null) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        service.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                FlushCoordinator.getInstance().setScreenOn(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+            }
+        }, filter);
+        screenReceiverRegistered = true;
     }
 
     private void initCispaConnection() {
@@ -146,6 +175,40 @@ public class BleTracker {
         return cispaConnection;
     }
 
+    /**
+     * Adds a beacon layout to the scanner. This also works while the service is running.
+     * @param layout the layout to listen to
+     */
+    public void enableLayout(SimpleBeaconLayouts layout) {
+        LayoutManager layoutManager = getLayoutManager();
+        if (layoutManager != null) {
+            layoutManager.enableLayout(layout);
+        } else {
+            preferences.addLayout(layout);
+        }
+    }
+
+    /**
+     * Removes a beacon layout from the scanner. This also works while the service is running.
+     * @param layout the layout to not listen to anymore
+     */
+    public void disableLayout(SimpleBeaconLayouts layout) {
+        LayoutManager layoutManager = getLayoutManager();
+        if (layoutManager != null) {
+            layoutManager.disableLayout(layout);
+        } else {
+            preferences.removeLayout(layout);
+        }
+    }
+
+    /**
+     * Returns the layout manager which holds the active layouts and the match counts per layout
+     * @return the layout manager or null if no service was created yet
+     */
+    public LayoutManager getLayoutManager() {
+        return service != null ? service.getLayoutManager() : null;
+    }
+
     /**
      * Creates a background service which operates in the background and gets called from time to time by the system
      * This causes low battery drain but also the refresh rate is low
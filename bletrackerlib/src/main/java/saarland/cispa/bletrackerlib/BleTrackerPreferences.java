@@ -4,6 +4,10 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
+import java.util.EnumSet;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
 /**
  * Within this class you can specify your preferences how the lib should work.
  * Be aware that lib will stop sending to CISPA if your data quality is too bad.
@@ -19,6 +23,21 @@ public class BleTrackerPreferences {
     private int scanInterval = 1000;
     private int locationAccuracy = CISAP_LOCATION_ACCURACY_MINIMUM;
     private int locationFreshness = CISAP_LOCATION_FRESHNESS_MINIMUM;
+    private int locationUpdateInterval = CISAP_LOCATION_FRESHNESS_MINIMUM;
+    private int locationTrackSize = 16;
+    private int locationAttributionDelay = 0;
+    private int locationInterpolationGap = 60 * 1000;
+    private EnumSet<SimpleBeaconLayouts> layouts = EnumSet.allOf(SimpleBeaconLayouts.class);
+    private int layoutPruneTimeout = 0;
+    private int layoutProbeInterval = 5 * 60 * 1000;
+    private int layoutProbeDuration = 30 * 1000;
+    private boolean mergeSameDevice = true;
+    private boolean adaptiveSampling = false;
+    private int samplingMaxInterval = 60 * 1000;
+    private double samplingNearDistance = 2;
+    private double samplingFarDistance = 20;
+    private int networkThreads = 4;
+    private int networkCacheSize = 5 * 1024 * 1024;
 
 
 
@@ -100,6 +119,303 @@ public class BleTrackerPreferences {
         }
     }
 
+    /**
+     * get the minimum time between two GPS updates in ms
+     * default is 10,000ms (10s)
+     * @return the time in ms
+     */
+    public int getLocationUpdateInterval() {
+        return locationUpdateInterval;
+    }
+
+    /**
+     * set the minimum time between two GPS updates in ms.
+     * Use a higher value together with {@link #setLocationAttributionDelay(int)} to save battery
+     * default is 10,000ms (10s)
+     * @param locationUpdateInterval in ms
+     */
+    public void setLocationUpdateInterval(int locationUpdateInterval) {
+        this.locationUpdateInterval = locationUpdateInterval;
+    }
+
+    /**
+     * get how many recent GPS fixes are kept for location attribution
+     * default is 16
+     * @return the number of fixes
+     */
+    public int getLocationTrackSize() {
+        return locationTrackSize;
+    }
+
+    /**
+     * set how many recent GPS fixes are kept for location attribution
+     * default is 16
+     * @param locationTrackSize the number of fixes
+     */
+    public void setLocationTrackSize(int locationTrackSize) {
+        this.locationTrackSize = locationTrackSize;
+    }
+
+    /**
+     * get the time a sighting without location is held back before sending
+     * default is 0ms (disabled)
+     * @return the time in ms
+     */
+    public int getLocationAttributionDelay() {
+        return locationAttributionDelay;
+    }
+
+    /**
+     * set the time a sighting without location is held back before sending.
+     * Within this time the sighting gets a location interpolated between the GPS fix before and after it.
+     * If no matching fix arrives it is sent without location.
+     * default is 0ms (disabled)
+     * @param locationAttributionDelay in ms
+     */
+    public void setLocationAttributionDelay(int locationAttributionDelay) {
+        this.locationAttributionDelay = locationAttributionDelay;
+    }
+
+    /**
+     * get the maximum time between two GPS fixes which are used for interpolation
+     * default is 60,000ms (60s)
+     * @return the time in ms
+     */
+    public int getLocationInterpolationGap() {
+        return locationInterpolationGap;
+    }
+
+    /**
+     * set the maximum time between two GPS fixes which are used for interpolation
+     * default is 60,000ms (60s)
+     * @param locationInterpolationGap in ms
+     */
+    public void setLocationInterpolationGap(int locationInterpolationGap) {
+        this.locationInterpolationGap = locationInterpolationGap;
+    }
+
+    /**
+     * get the beacon layouts the scanner is listening to
+     * default are all layouts
+     * @return a copy of the layouts
+     */
+    public EnumSet<SimpleBeaconLayouts> getLayouts() {
+        return EnumSet.copyOf(layouts);
+    }
+
+    /**
+     * set the beacon layouts the scanner is listening to.
+     * To change them while the service is running use {@link BleTracker#enableLayout(SimpleBeaconLayouts)}
+     * default are all layouts
+     * @param layouts the layouts
+     */
+    public void setLayouts(EnumSet<SimpleBeaconLayouts> layouts) {
+        this.layouts = EnumSet.copyOf(layouts);
+    }
+
+    /**
+     * add a beacon layout the scanner is listening to
+     * @param layout the layout
+     */
+    public void addLayout(SimpleBeaconLayouts layout) {
+        layouts.add(layout);
+    }
+
+    /**
+     * remove a beacon layout the scanner is listening to
+     * @param layout the layout
+     */
+    public void removeLayout(SimpleBeaconLayouts layout) {
+        layouts.remove(layout);
+    }
+
+    /**
+     * get the time after which a layout without any match is removed from the scanner
+     * default is 0ms (disabled)
+     * @return the time in ms
+     */
+    public int getLayoutPruneTimeout() {
+        return layoutPruneTimeout;
+    }
+
+    /**
+     * set the time after which a layout without any match is removed from the scanner.
+     * Removed layouts are probed again every layout probe interval.
+     * default is 0ms (disabled)
+     * @param layoutPruneTimeout in ms
+     */
+    public void setLayoutPruneTimeout(int layoutPruneTimeout) {
+        this.layoutPruneTimeout = layoutPruneTimeout;
+    }
+
+    /**
+     * get the interval in which removed layouts are probed again
+     * default is 300,000ms (5min)
+     * @return the time in ms
+     */
+    public int getLayoutProbeInterval() {
+        return layoutProbeInterval;
+    }
+
+    /**
+     * set the interval in which removed layouts are probed again
+     * default is 300,000ms (5min)
+     * @param layoutProbeInterval in ms
+     */
+    public void setLayoutProbeInterval(int layoutProbeInterval) {
+        this.layoutProbeInterval = layoutProbeInterval;
+    }
+
+    /**
+     * get how long a removed layout is active again while probing
+     * default is 30,000ms (30s)
+     * @return the time in ms
+     */
+    public int getLayoutProbeDuration() {
+        return layoutProbeDuration;
+    }
+
+    /**
+     * set how long a removed layout is active again while probing
+     * default is 30,000ms (30s)
+     * @param layoutProbeDuration in ms
+     */
+    public void setLayoutProbeDuration(int layoutProbeDuration) {
+        this.layoutProbeDuration = layoutProbeDuration;
+    }
+
+    /**
+     * do you want beacons of one scan cycle which belong to the same device to be merged?
+     * default is true
+     * @return true if yes and false if no
+     */
+    public boolean isMergeSameDevice() {
+        return mergeSameDevice;
+    }
+
+    /**
+     * do you want beacons of one scan cycle which belong to the same device to be merged?
+     * If yes e.g. Eddystone UID, URL and TLM frames of one device become one SimpleBeacon
+     * before they are passed to the notifiers and remote connections.
+     * default is true
+     * @param mergeSameDevice true if yes false if no
+     */
+    public void setMergeSameDevice(boolean mergeSameDevice) {
+        this.mergeSameDevice = mergeSameDevice;
+    }
+
+    /**
+     * do you want near and moving beacons to be forwarded more often than far and static ones?
+     * default is false
+     * @return true if yes and false if no
+     */
+    public boolean isAdaptiveSampling() {
+        return adaptiveSampling;
+    }
+
+    /**
+     * do you want near and moving beacons to be forwarded more often than far and static ones?
+     * If yes each beacon is passed to the notifiers and remote connections at an interval between every cycle
+     * and the sampling max interval, depending on its distance and how fast its signal strength and distance change.
+     * default is false
+     * @param adaptiveSampling true if yes false if no
+     */
+    public void setAdaptiveSampling(boolean adaptiveSampling) {
+        this.adaptiveSampling = adaptiveSampling;
+    }
+
+    /**
+     * get the interval in which far and static beacons are forwarded if adaptive sampling is on
+     * default is 60,000ms (1min)
+     * @return the interval in ms
+     */
+    public int getSamplingMaxInterval() {
+        return samplingMaxInterval;
+    }
+
+    /**
+     * set the interval in which far and static beacons are forwarded if adaptive sampling is on
+     * default is 60,000ms (1min)
+     * @param samplingMaxInterval the interval in ms
+     */
+    public void setSamplingMaxInterval(int samplingMaxInterval) {
+        this.samplingMaxInterval = samplingMaxInterval;
+    }
+
+    /**
+     * get the distance up to which beacons are forwarded every cycle if adaptive sampling is on
+     * default is 2m
+     * @return the distance in m
+     */
+    public double getSamplingNearDistance() {
+        return samplingNearDistance;
+    }
+
+    /**
+     * set the distance up to which beacons are forwarded every cycle if adaptive sampling is on
+     * default is 2m
+     * @param samplingNearDistance the distance in m
+     */
+    public void setSamplingNearDistance(double samplingNearDistance) {
+        this.samplingNearDistance = samplingNearDistance;
+    }
+
+    /**
+     * get the distance from which static beacons are only forwarded every sampling max interval
+     * default is 20m
+     * @return the distance in m
+     */
+    public double getSamplingFarDistance() {
+        return samplingFarDistance;
+    }
+
+    /**
+     * set the distance from which static beacons are only forwarded every sampling max interval
+     * default is 20m
+     * @param samplingFarDistance the distance in m
+     */
+    public void setSamplingFarDistance(double samplingFarDistance) {
+        this.samplingFarDistance = samplingFarDistance;
+    }
+
+    /**
+     * get the number of network threads all remote connections share
+     * default is 4
+     * @return the number of threads
+     */
+    public int getNetworkThreads() {
+        return networkThreads;
+    }
+
+    /**
+     * set the number of network threads all remote connections share.
+     * This only has an effect if set before BleTracker.init() is called the first time.
+     * default is 4
+     * @param networkThreads the number of threads
+     */
+    public void setNetworkThreads(int networkThreads) {
+        this.networkThreads = networkThreads;
+    }
+
+    /**
+     * get the max size of the response cache all remote connections share
+     * default is 5MB
+     * @return the size in bytes
+     */
+    public int getNetworkCacheSize() {
+        return networkCacheSize;
+    }
+
+    /**
+     * set the max size of the response cache all remote connections share.
+     * This only has an effect if set before BleTracker.init() is called the first time.
+     * default is 5MB
+     * @param networkCacheSize the size in bytes
+     */
+    public void setNetworkCacheSize(int networkCacheSize) {
+        this.networkCacheSize = networkCacheSize;
+    }
+
     public BleTrackerPreferences() {
 
     }
@@ -0,0 +1,281 @@
+package saarland.cispa.bletrackerlib.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+/**
+ * A beacon layout string (e.g. m:0-3=4c000215,i:4-19,i:20-21,i:22-23,p:24-24) compiled into
+ * a precomputed matcher. All fixed bytes of the layout (service UUID and matching code) are checked
+ * with a single long comparison and identifiers, power and data fields are only stored as offsets
+ * into the raw scan record.
+ * The offsets are relative to the start of the advertisement data structure after its type byte,
+ * like they are in the AltBeacon {@link org.altbeacon.beacon.BeaconParser}.
+ * The scanner does not use it, AltBeacon hands out parsed beacons only. It is used by
+ * {@link RawBeaconParser} to replay recorded advertisements.
+ */
+
+public final class CompiledLayout {
+
+    static final int MANUFACTURER_DATA_TYPE = 0xff;
+    static final int SERVICE_DATA_TYPE = 0x16;
+
+    private static final EnumMap<SimpleBeaconLayouts, CompiledLayout> compiledLayouts = new EnumMap<>(SimpleBeaconLayouts.class);
+
+    private final String name;
+    private final boolean extraFrame;
+    private final int dataType;
+
+    // fixed bytes of the layout in the window [matchStart, matchStart + matchLength)
+    private final int matchStart;
+    private final int matchLength;
+    private final long matchMask;
+    private final long matchValue;
+    private final long typeCode;
+
+    final int[] idStarts;
+    final int[] idEnds;
+    final boolean[] idLittleEndian;
+    final boolean[] idVariable;
+
+    final int powerStart;
+    final int powerEnd;
+    final int powerCorrection;
+
+    final int[] dataStarts;
+    final int[] dataEnds;
+    final boolean[] dataLittleEndian;
+
+    // number of bytes a structure needs at least to match
+    private final int minLength;
+
+    private CompiledLayout(String name, boolean extraFrame, int dataType, int matchStart, int matchLength,
+                           long matchMask, long matchValue, long typeCode,
+                           int[] idStarts, int[] idEnds, boolean[] idLittleEndian, boolean[] idVariable,
+                           int powerStart, int powerEnd, int powerCorrection,
+                           int[] dataStarts, int[] dataEnds, boolean[] dataLittleEndian, int minLength) {
+        this.name = name;
+        this.extraFrame = extraFrame;
+        this.dataType = dataType;
+        this.matchStart = matchStart;
+        this.matchLength = matchLength;
+        this.matchMask = matchMask;
+        this.matchValue = matchValue;
+        this.typeCode = typeCode;
+        this.idStarts = idStarts;
+        this.idEnds = idEnds;
+        this.idLittleEndian = idLittleEndian;
+        this.idVariable = idVariable;
+        this.powerStart = powerStart;
+        this.powerEnd = powerEnd;
+        this.powerCorrection = powerCorrection;
+        this.dataStarts = dataStarts;
+        this.dataEnds = dataEnds;
+        this.dataLittleEndian = dataLittleEndian;
+        this.minLength = minLength;
+    }
+
+    /**
+     * Gets a SimpleBeaconLayout compiled into a byte level matcher. It is compiled at the first call.
+     * @param layout the layout
+     * @return the compiled layout
+     */
+    public static CompiledLayout forLayout(SimpleBeaconLayouts layout) {
+        synchronized (compiledLayouts) {
+            CompiledLayout compiledLayout = compiledLayouts.get(layout);
+            if (compiledLayout == null) {
+                compiledLayout = compile(layout.name(), layout.getLayout());
+                compiledLayouts.put(layout, compiledLayout);
+            }
+            return compiledLayout;
+        }
+    }
+
+    /**
+     * Compiles a layout string
+     * @param name the name of the layout e.g. the SimpleBeaconLayouts name
+     * @param layout the layout string in AltBeacon notation
+     * @return the compiled layout
+     * @throws IllegalArgumentException if the layout can not be parsed or its fixed bytes span more than 8 bytes
+     */
+    public static CompiledLayout compile(String name, String layout) {
+        boolean extraFrame = false;
+        int dataType = MANUFACTURER_DATA_TYPE;
+        // expected fixed bytes by offset, -1 means no fixed byte
+        int[] fixed = new int[64];
+        Arrays.fill(fixed, -1);
+        long typeCode = 0;
+        ArrayList<int[]> ids = new ArrayList<>();
+        ArrayList<int[]> data = new ArrayList<>();
+        int powerStart = -1;
+        int powerEnd = -1;
+        int powerCorrection = 0;
+        int minLength = 0;
+
+        for (String term : layout.split(",")) {
+            term = term.trim();
+            if (term.equals("x")) {
+                extraFrame = true;
+                continue;
+            }
+            if (term.length() < 3 || term.charAt(1) != ':') {
+                throw new IllegalArgumentException("Can not parse layout term " + term + " of " + name);
+            }
+            char type = term.charAt(0);
+            String value = term.substring(2);
+            String expected = null;
+            int equals = value.indexOf('=');
+            if (equals >= 0) {
+                expected = value.substring(equals + 1);
+                value = value.substring(0, equals);
+            }
+            String[] parts = value.split(":");
+            String range = parts[0];
+            boolean littleEndian = range.endsWith("l");
+            boolean variable = range.endsWith("v");
+            if (littleEndian || variable) {
+                range = range.substring(0, range.length() - 1);
+            }
+            int dash = range.indexOf('-');
+            int start = Integer.parseInt(range.substring(0, dash));
+            int end = Integer.parseInt(range.substring(dash + 1));
+            if (!variable) {
+                minLength = Math.max(minLength, end + 1);
+            }
+
+            switch (type) {
+                case 'm':
+                    typeCode = Long.parseLong(expected, 16);
+                    setFixed(fixed, start, end, typeCode, false);
+                    break;
+                case 's':
+                    dataType = SERVICE_DATA_TYPE;
+                    // service UUIDs are transmitted little endian
+                    setFixed(fixed, start, end, Long.parseLong(expected, 16), true);
+                    break;
+                case 'i':
+                    ids.add(new int[]{start, end, littleEndian ? 1 : 0, variable ? 1 : 0});
+                    break;
+                case 'p':
+                    powerStart = start;
+                    powerEnd = end;
+                    if (parts.length > 1) {
+                        powerCorrection = Integer.parseInt(parts[1]);
+                    }
+                    break;
+                case 'd':
+                    data.add(new int[]{start, end, littleEndian ? 1 : 0});
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown layout term " + term + " of " + name);
+            }
+        }
+
+        int matchStart = -1;
+        int matchEnd = -1;
+        for (int i = 0; i < fixed.length; i++) {
+            if (fixed[i] >= 0) {
+                if (matchStart < 0) {
+                    matchStart = i;
+                }
+                matchEnd = i;
+            }
+        }
+        int matchLength = matchStart < 0 ? 0 : matchEnd - matchStart + 1;
+        if (matchLength > 8) {
+            throw new IllegalArgumentException("Fixed bytes of " + name + " do not fit into a long");
+        }
+        long matchMask = 0;
+        long matchValue = 0;
+        for (int i = 0; i < matchLength; i++) {
+            int b = fixed[matchStart + i];
+            matchMask = (matchMask << 8) | (b >= 0 ? 0xff : 0);
+            matchValue = (matchValue << 8) | (b >= 0 ? b : 0);
+        }
+
+        int[] idStarts = new int[ids.size()];
+        int[] idEnds = new int[ids.size()];
+        boolean[] idLittleEndian = new boolean[ids.size()];
+        boolean[] idVariable = new boolean[ids.size()];
+        for (int i = 0; i < ids.size(); i++) {
+            idStarts[i] = ids.get(i)[0];
+            idEnds[i] = ids.get(i)[1];
+            idLittleEndian[i] = ids.get(i)[2] == 1;
+            idVariable[i] = ids.get(i)[3] == 1;
+        }
+        int[] dataStarts = new int[data.size()];
+        int[] dataEnds = new int[data.size()];
+        boolean[] dataLittleEndian = new boolean[data.size()];
+        for (int i = 0; i < data.size(); i++) {
+            dataStarts[i] = data.get(i)[0];
+            dataEnds[i] = data.get(i)[1];
+            dataLittleEndian[i] = data.get(i)[2] == 1;
+        }
+
+        return new CompiledLayout(name, extraFrame, dataType, Math.max(matchStart, 0), matchLength,
+                matchMask, matchValue, typeCode, idStarts, idEnds, idLittleEndian, idVariable,
+                powerStart, powerEnd, powerCorrection, dataStarts, dataEnds, dataLittleEndian, minLength);
+    }
+
+    private static void setFixed(int[] fixed, int start, int end, long value, boolean littleEndian) {
+        int length = end - start + 1;
+        for (int i = 0; i < length; i++) {
+            int shift = littleEndian ? 8 * i : 8 * (length - 1 - i);
+            fixed[start + i] = (int) ((value >>> shift) & 0xff);
+        }
+    }
+
+    /**
+     * Tries to match an advertisement data structure
+     * @param scanRecord the raw scan record
+     * @param start the index of the first byte after the structures type byte
+     * @param length the number of bytes of the structure after its type byte
+     * @param out the beacon which holds the offsets of a match. It gets overwritten
+     * @return true if the structure matches this layout
+     */
+    public boolean match(byte[] scanRecord, int start, int length, RawBeacon out) {
+        if (length < minLength) {
+            return false;
+        }
+        long value = 0;
+        int offset = start + matchStart;
+        for (int i = 0; i < matchLength; i++) {
+            value = (value << 8) | (scanRecord[offset + i] & 0xff);
+        }
+        if ((value & matchMask) != matchValue) {
+            return false;
+        }
+        out.set(this, scanRecord, start, length);
+        return true;
+    }
+
+    /**
+     * @return the type of advertisement data structure this layout matches (0xff or 0x16)
+     */
+    public int getDataType() {
+        return dataType;
+    }
+
+    /**
+     * @return true if this layout describes an extra frame like Eddystone TLM
+     */
+    public boolean isExtraFrame() {
+        return extraFrame;
+    }
+
+    /**
+     * @return the beacon type code of the matching term
+     */
+    public long getTypeCode() {
+        return typeCode;
+    }
+
+    /**
+     * @return the name of the layout
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,118 @@
+package saarland.cispa.bletrackerlib.parser;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * A small ring buffer of the most recent location fixes.
+ * It is used by {@link SimpleBeaconParser} to assign a location to a sighting afterwards
+ * by interpolating between the fix before and the fix after the time the beacon was seen.
+ */
+
+public class LocationTrack {
+
+    private final long[] times;
+    private final double[] longitudes;
+    private final double[] latitudes;
+    private final double[] radii;
+
+    // index of the oldest fix and number of stored fixes
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * @param capacity how many fixes are kept. Older ones get overwritten
+     */
+    public LocationTrack(int capacity) {
+        capacity = Math.max(2, capacity);
+        times = new long[capacity];
+        longitudes = new double[capacity];
+        latitudes = new double[capacity];
+        radii = new double[capacity];
+    }
+
+    /**
+     * Adds a fix to the track. Fixes older than the newest one are ignored.
+     * @param time the time of the fix in ms on the elapsed realtime clock
+     * @param longitude the longitude
+     * @param latitude the latitude
+     * @param radius the accuracy radius in m
+     */
+    public synchronized void add(long time, double longitude, double latitude, double radius) {
+        if (size > 0 && time <= times[index(size - 1)]) {
+            return;
+        }
+        int i;
+        if (size < times.length) {
+            i = index(size);
+            size++;
+        } else {
+            i = head;
+            head = (head + 1) % times.length;
+        }
+        times[i] = time;
+        longitudes[i] = longitude;
+        latitudes[i] = latitude;
+        radii[i] = radius;
+    }
+
+    /**
+     * Gets the time of the newest fix
+     * @return the time in ms or -1 if the track is empty
+     */
+    public synchronized long getNewestTime() {
+        return size == 0 ? -1 : times[index(size - 1)];
+    }
+
+    /**
+     * Gets the location at the given time.
+     * If there is a fix before and after the time which are not more than maxGap apart
+     * the location is linear interpolated between them. Otherwise the nearest fix is used
+     * if it is not more than freshness away from the time.
+     * @param time the time in ms on the elapsed realtime clock
+     * @param maxGap the maximum time in ms between the two fixes used for interpolation
+     * @param freshness the maximum time in ms between the time and a single fix
+     * @return the location or null if there is no matching fix
+     */
+    public synchronized SimpleBeacon.Location locate(long time, long maxGap, long freshness) {
+        int before = -1;
+        int after = -1;
+        for (int n = 0; n < size; n++) {
+            int i = index(n);
+            if (times[i] <= time) {
+                before = i;
+            } else {
+                after = i;
+                break;
+            }
+        }
+
+        if (before >= 0 && times[before] == time) {
+            return location(before);
+        }
+        if (before >= 0 && after >= 0 && times[after] - times[before] <= maxGap) {
+            double fraction = (double) (time - times[before]) / (times[after] - times[before]);
+            return new SimpleBeacon.Location(
+                    longitudes[before] + (longitudes[after] - longitudes[before]) * fraction,
+                    latitudes[before] + (latitudes[after] - latitudes[before]) * fraction,
+                    Math.max(radii[before], radii[after]));
+        }
+
+        long beforeAge = before >= 0 ? time - times[before] : Long.MAX_VALUE;
+        long afterAge = after >= 0 ? times[after] - time : Long.MAX_VALUE;
+        if (beforeAge <= afterAge && beforeAge <= freshness) {
+            return location(before);
+        }
+        if (afterAge < beforeAge && afterAge <= freshness) {
+            return location(after);
+        }
+        return null;
+    }
+
+    private SimpleBeacon.Location location(int i) {
+        return new SimpleBeacon.Location(longitudes[i], latitudes[i], radii[i]);
+    }
+
+    private int index(int n) {
+        return (head + n) % times.length;
+    }
+}
@@ -0,0 +1,153 @@
+package saarland.cispa.bletrackerlib.parser;
+
+/**
+ * The result of a {@link CompiledLayout} match. It does not copy anything out of the scan record
+ * but only holds the offsets, so identifiers, power and data fields are read on demand.
+ * An instance gets reused for every match so do not keep it after the next match.
+ */
+
+public final class RawBeacon {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private CompiledLayout layout;
+    private byte[] scanRecord;
+    private int start;
+    private int length;
+
+    void set(CompiledLayout layout, byte[] scanRecord, int start, int length) {
+        this.layout = layout;
+        this.scanRecord = scanRecord;
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * @return the layout which matched
+     */
+    public CompiledLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return the number of identifiers of the layout
+     */
+    public int getIdentifierCount() {
+        return layout.idStarts.length;
+    }
+
+    /**
+     * Gets the number of bytes of an identifier. Variable identifiers end with the structure.
+     * @param i the index of the identifier
+     * @return the length in bytes
+     */
+    public int getIdentifierLength(int i) {
+        int end = layout.idEnds[i];
+        if (layout.idVariable[i]) {
+            end = Math.min(end, length - 1);
+        }
+        return Math.max(0, end - layout.idStarts[i] + 1);
+    }
+
+    /**
+     * Reads an identifier of up to 8 bytes as number
+     * @param i the index of the identifier
+     * @return the value
+     */
+    public long getIdentifierAsLong(int i) {
+        return readLong(layout.idStarts[i], getIdentifierLength(i), layout.idLittleEndian[i]);
+    }
+
+    /**
+     * Copies an identifier out of the scan record
+     * @param i the index of the identifier
+     * @return the bytes of the identifier
+     */
+    public byte[] getIdentifierBytes(int i) {
+        int identifierLength = getIdentifierLength(i);
+        byte[] bytes = new byte[identifierLength];
+        for (int n = 0; n < identifierLength; n++) {
+            int index = layout.idLittleEndian[i] ? identifierLength - 1 - n : n;
+            bytes[index] = scanRecord[start + layout.idStarts[i] + n];
+        }
+        return bytes;
+    }
+
+    /**
+     * Formats an identifier the way AltBeacon does: 2 bytes as decimal number,
+     * 16 bytes as UUID and everything else as 0x prefixed hex string
+     * @param i the index of the identifier
+     * @return the formatted identifier
+     */
+    public String getIdentifierAsString(int i) {
+        int identifierLength = getIdentifierLength(i);
+        if (identifierLength == 2) {
+            return Long.toString(getIdentifierAsLong(i));
+        }
+        byte[] bytes = getIdentifierBytes(i);
+        StringBuilder sb = new StringBuilder(identifierLength * 2 + 4);
+        if (identifierLength != 16) {
+            sb.append("0x");
+        }
+        for (int n = 0; n < bytes.length; n++) {
+            if (identifierLength == 16 && (n == 4 || n == 6 || n == 8 || n == 10)) {
+                sb.append('-');
+            }
+            sb.append(HEX[(bytes[n] >> 4) & 0xf]).append(HEX[bytes[n] & 0xf]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return true if the layout has a power field
+     */
+    public boolean hasTxPower() {
+        return layout.powerStart >= 0;
+    }
+
+    /**
+     * @return the calibrated transmit power in dBm including the correction of the layout
+     */
+    public int getTxPower() {
+        int powerLength = layout.powerEnd - layout.powerStart + 1;
+        long value = readLong(layout.powerStart, powerLength, false);
+        // sign extend
+        int shift = 64 - 8 * powerLength;
+        return (int) ((value << shift) >> shift) + layout.powerCorrection;
+    }
+
+    /**
+     * @return the number of data fields of the layout
+     */
+    public int getDataFieldCount() {
+        return layout.dataStarts.length;
+    }
+
+    /**
+     * Reads a data field as unsigned number
+     * @param i the index of the data field
+     * @return the value
+     */
+    public long getDataField(int i) {
+        return readLong(layout.dataStarts[i], layout.dataEnds[i] - layout.dataStarts[i] + 1, layout.dataLittleEndian[i]);
+    }
+
+    /**
+     * @return the company ID of a manufacturer data structure or 0 for service data
+     */
+    public int getManufacturer() {
+        if (layout.getDataType() != CompiledLayout.MANUFACTURER_DATA_TYPE) {
+            return 0;
+        }
+        return (int) readLong(0, 2, true);
+    }
+
+    private long readLong(int offset, int count, boolean littleEndian) {
+        long value = 0;
+        for (int n = 0; n < count && n < 8; n++) {
+            int index = littleEndian ? offset + count - 1 - n : offset + n;
+            value = (value << 8) | (scanRecord[start + index] & 0xff);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,209 @@
+package saarland.cispa.bletrackerlib.parser;
+
+import org.altbeacon.beacon.utils.UrlBeaconUrlCompressor;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+/**
+ * Parses raw advertisements (scan records) into SimpleBeacons with the {@link CompiledLayout}s
+ * of the {@link SimpleBeaconLayouts}. This does not need the AltBeacon scanner or any Android class
+ * so it can be used to replay recorded advertisements on a plain JVM, e.g. in tests and benchmarks.
+ * The scanner does not use it because the AltBeacon ranging callback only hands out parsed beacons.
+ * The result is the same as {@link SimpleBeaconParser#parse(org.altbeacon.beacon.Beacon)} of the beacon the AltBeacon
+ * scanner reports for the advertisement, except for the distance which is estimated with the default curve only.
+ * Like there Eddystone TLM frames are no beacons on their own, their telemetry is added to the
+ * Eddystone frames of the same device.
+ */
+
+public class RawBeaconParser {
+
+    private final CompiledLayout[] manufacturerLayouts;
+    private final CompiledLayout[] serviceLayouts;
+    private final RawBeacon rawBeacon = new RawBeacon();
+    // the latest Eddystone telemetry per bluetooth address
+    private final LinkedHashMap<String, SimpleBeacon.Telemetry> telemetries = new LinkedHashMap<String, SimpleBeacon.Telemetry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SimpleBeacon.Telemetry> eldest) {
+            return size() > MAX_TELEMETRIES;
+        }
+    };
+
+    private static final int MAX_TELEMETRIES = 256;
+
+    /**
+     * Creates a parser for all layouts
+     */
+    public RawBeaconParser() {
+        this(EnumSet.allOf(SimpleBeaconLayouts.class));
+    }
+
+    /**
+     * Creates a parser for the given layouts
+     * @param layouts the layouts to match
+     */
+    public RawBeaconParser(Collection<SimpleBeaconLayouts> layouts) {
+        int manufacturerCount = 0;
+        for (SimpleBeaconLayouts layout : layouts) {
+            if (CompiledLayout.forLayout(layout).getDataType() == CompiledLayout.MANUFACTURER_DATA_TYPE) {
+                manufacturerCount++;
+            }
+        }
+        manufacturerLayouts = new CompiledLayout[manufacturerCount];
+        serviceLayouts = new CompiledLayout[layouts.size() - manufacturerCount];
+        int m = 0;
+        int s = 0;
+        for (SimpleBeaconLayouts layout : layouts) {
+            CompiledLayout compiledLayout = CompiledLayout.forLayout(layout);
+            if (compiledLayout.getDataType() == CompiledLayout.MANUFACTURER_DATA_TYPE) {
+                manufacturerLayouts[m++] = compiledLayout;
+            } else {
+                serviceLayouts[s++] = compiledLayout;
+            }
+        }
+    }
+
+    /**
+     * Finds the first advertisement data structure matching one of the layouts.
+     * The returned RawBeacon is reused by the next call.
+     * @param scanRecord the raw scan record
+     * @return the match or null if no layout matches
+     */
+    public RawBeacon match(byte[] scanRecord) {
+        int position = 0;
+        while (position + 1 < scanRecord.length) {
+            int length = scanRecord[position] & 0xff;
+            if (length == 0 || position + length >= scanRecord.length) {
+                break;
+            }
+            int type = scanRecord[position + 1] & 0xff;
+            CompiledLayout[] layouts = type == CompiledLayout.MANUFACTURER_DATA_TYPE ? manufacturerLayouts
+                    : type == CompiledLayout.SERVICE_DATA_TYPE ? serviceLayouts : null;
+            if (layouts != null) {
+                for (CompiledLayout layout : layouts) {
+                    if (layout.match(scanRecord, position + 2, length - 1, rawBeacon)) {
+                        return rawBeacon;
+                    }
+                }
+            }
+            position += length + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Parses a raw advertisement to SimpleBeacon
+     *
+     * @param scanRecord the raw scan record
+     * @param rssi the received signal strength in dBm
+     * @param bluetoothAddress the bluetooth MAC address
+     * @param bluetoothName the bluetooth name
+     * @param timestamp the time when the advertisement was received
+     * @return the SimpleBeacon or null if no layout matches or it is a telemetry frame
+     */
+    public SimpleBeacon parse(byte[] scanRecord, int rssi, String bluetoothAddress, String bluetoothName, String timestamp) {
+        RawBeacon raw = match(scanRecord);
+        if (raw == null) {
+            return null;
+        }
+        SimpleBeaconLayouts layout = SimpleBeaconLayouts.valueOf(raw.getLayout().getName());
+        if (layout == SimpleBeaconLayouts.EDDYSTONE_TLM_LAYOUT) {
+            if (raw.getDataFieldCount() >= 5) {
+                telemetries.put(String.valueOf(bluetoothAddress), new SimpleBeacon.Telemetry(raw.getDataField(0),
+                        raw.getDataField(1), getTemperatureFromTlmField(raw.getDataField(2)),
+                        raw.getDataField(3), raw.getDataField(4)));
+            }
+            return null;
+        }
+        int txPower = raw.hasTxPower() ? raw.getTxPower() : 0;
+        SimpleBeacon simpleBeacon = new SimpleBeacon(layout.name(), rssi, txPower, raw.getManufacturer(),
+                bluetoothAddress, bluetoothName, calculateDistance(txPower, rssi), timestamp);
+        simpleBeacon.hashcode = getHashcode(raw);
+
+        switch (layout) {
+            case EDDYSTONE_UID_LAYOUT:
+                simpleBeacon.telemetry = telemetries.get(String.valueOf(bluetoothAddress));
+                simpleBeacon.eddystoneUidData = new SimpleBeacon.EddystoneUID(raw.getIdentifierAsString(0),
+                        raw.getIdentifierAsString(1));
+                break;
+            case EDDYSTONE_URL_LAYOUT:
+                simpleBeacon.telemetry = telemetries.get(String.valueOf(bluetoothAddress));
+                addEddystoneUrl(simpleBeacon, raw.getIdentifierBytes(0));
+                break;
+            case ALTBEACON_LAYOUT:
+            case IBEACON_LAYOUT:
+            case RUUVI_LAYOUT:
+                simpleBeacon.altbeaconIBeaconData = new SimpleBeacon.AltbeaconIBeaconData(raw.getIdentifierAsString(0),
+                        raw.getIdentifierAsString(1), raw.getIdentifierAsString(2));
+                break;
+            default:
+                break;
+        }
+        return simpleBeacon;
+    }
+
+    /**
+     * Gets the hashcode AltBeacon gives the beacon of a match. The scanner registers every layout with its name
+     * as parser identifier (see {@link saarland.cispa.bletrackerlib.service.LayoutManager}) so this is the
+     * hash of "id1: &lt;id1&gt; id2: &lt;id2&gt; ... type &lt;layout name&gt;".
+     * @param raw the match
+     * @return the hashcode
+     */
+    static int getHashcode(RawBeacon raw) {
+        StringBuilder identity = new StringBuilder();
+        for (int i = 0; i < raw.getIdentifierCount(); i++) {
+            if (i > 0) {
+                identity.append(' ');
+            }
+            identity.append("id").append(i + 1).append(": ").append(raw.getIdentifierAsString(i));
+        }
+        identity.append(" type ").append(raw.getLayout().getName());
+        return identity.toString().hashCode();
+    }
+
+    /**
+     * Estimates the distance with the default curve of AltBeacon
+     * @param txPower the calibrated transmit power at 1m
+     * @param rssi the received signal strength
+     * @return the distance in m or -1 if it can not be estimated
+     */
+    public static double calculateDistance(int txPower, int rssi) {
+        if (rssi == 0 || txPower == 0) {
+            return -1.0;
+        }
+        double ratio = rssi * 1.0 / txPower;
+        if (ratio < 1.0) {
+            return Math.pow(ratio, 10);
+        }
+        return 0.42093 * Math.pow(ratio, 6.9476) + 0.54992;
+    }
+
+    /**
+     * Adds the Eddystone URL and if it is a RuuviTag URL also the sensor data
+     * @param simpleBeacon the beacon
+     * @param compressedUrl the compressed URL of the Eddystone frame
+     */
+    static void addEddystoneUrl(SimpleBeacon simpleBeacon, byte[] compressedUrl) {
+        simpleBeacon.beaconType = SimpleBeaconLayouts.EDDYSTONE_URL_LAYOUT.name();
+        String url = UrlBeaconUrlCompressor.uncompress(compressedUrl);
+        simpleBeacon.eddystoneUrlData = new SimpleBeacon.EddystoneURL(url);
+
+        if (url.startsWith("https://ruu.vi/#")) {
+            simpleBeacon.beaconType = SimpleBeaconLayouts.RUUVI_LAYOUT.name();
+            String hash = url.split("#")[1];
+            RuuviParser ruuviParser = new RuuviParser(hash);
+            simpleBeacon.ruuvi = new SimpleBeacon.Ruuvi(ruuviParser.getHumidity(),
+                    ruuviParser.getAirPressure(), ruuviParser.getTemp());
+        }
+    }
+
+    static double getTemperatureFromTlmField(long temperature) {
+        long unsignedTemp = (temperature >> 8);
+        return unsignedTemp > 128 ? unsignedTemp - 256 : unsignedTemp + (temperature & 0xff) / 256.0;
+    }
+}
@@ -7,9 +7,9 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 
 import org.altbeacon.beacon.Beacon;
-import org.altbeacon.beacon.utils.UrlBeaconUrlCompressor;
 
 import saarland.cispa.bletrackerlib.BleTracker;
 import saarland.cispa.bletrackerlib.BleTrackerPreferences;
@@ -31,12 +31,13 @@ public class SimpleBeaconParser implements LocationListener {
 
     private BleTrackerPreferences preferences = BleTracker.getPreferences();
     private Context context;
+    private final LocationTrack locationTrack = new LocationTrack(preferences.getLocationTrackSize());
 
     public SimpleBeaconParser(Context context) {
         this.context = context;
         LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
         if (checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
-            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, preferences.getLocationFreshness(), -1, this);
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, preferences.getLocationUpdateInterval(), -1, this);
         }
     }
 
@@ -63,7 +64,7 @@ public class SimpleBeaconParser implements LocationListener {
                     long uptime = beacon.getExtraDataFields().get(4);
 
                     simpleBeacon.telemetry = new SimpleBeacon.Telemetry(telemetryVersion, batteryMilliVolts,
-                            getTemperatureFromTlmField(temperature), pduCount, uptime);
+                            RawBeaconParser.getTemperatureFromTlmField(temperature), pduCount, uptime);
                 }
                 switch (beacon.getBeaconTypeCode()) {
                     case 0x00: {
@@ -73,17 +74,7 @@ public class SimpleBeaconParser implements LocationListener {
                         break;
                     }
                     case 0x10: {
-                        simpleBeacon.beaconType = SimpleBeaconLayouts.EDDYSTONE_URL_LAYOUT.name();
-                        String url = UrlBeaconUrlCompressor.uncompress(beacon.getId1().toByteArray());
-                        simpleBeacon.eddystoneUrlData = new SimpleBeacon.EddystoneURL(url);
-
-                        if (url.startsWith("https://ruu.vi/#")) {
-                            simpleBeacon.beaconType = SimpleBeaconLayouts.RUUVI_LAYOUT.name();
-                            String hash = url.split("#")[1];
-                            RuuviParser ruuviParser = new RuuviParser(hash);
-                            simpleBeacon.ruuvi = new SimpleBeacon.Ruuvi(ruuviParser.getHumidity(),
-                                    ruuviParser.getAirPressure(), ruuviParser.getTemp());
-                        }
+                        RawBeaconParser.addEddystoneUrl(simpleBeacon, beacon.getId1().toByteArray());
                         break;
                     }
                     default:
@@ -92,6 +83,9 @@ public class SimpleBeaconParser implements LocationListener {
             } else {
                 if (beacon.getBeaconTypeCode() == 0xbeac) {
                     simpleBeacon.beaconType = SimpleBeaconLayouts.ALTBEACON_LAYOUT.name();
+                } else if (SimpleBeaconLayouts.RUUVI_LAYOUT.name().equals(beacon.getParserIdentifier())) {
+                    // the parsers are registered with the layout name as identifier
+                    simpleBeacon.beaconType = SimpleBeaconLayouts.RUUVI_LAYOUT.name();
                 } else {
                     simpleBeacon.beaconType = SimpleBeaconLayouts.IBEACON_LAYOUT.name();
                 }
@@ -106,11 +100,6 @@ public class SimpleBeaconParser implements LocationListener {
         }
     }
 
-    private double getTemperatureFromTlmField(long temperature) {
-        long unsignedTemp = (temperature >> 8);
-        return unsignedTemp > 128 ? unsignedTemp - 256 : unsignedTemp + (temperature & 0xff) / 256.0;
-    }
-
     private void addLocationIfPossible(SimpleBeacon simpleBeacon) {
         LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
         if (checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
@@ -124,13 +113,53 @@ public class SimpleBeaconParser implements LocationListener {
 
 
 
+    /**
+     * Tries to locate a beacon which was seen at sightingTime from the recent GPS fixes.
+     * Until a fix newer than the sighting arrived this only succeeds if isFinal is set,
+     * then the nearest fix within the location freshness is taken.
+     * The beacon itself is not changed because notifiers may already hold it.
+     *
+     * @param simpleBeacon the beacon without location
+     * @param sightingTime the elapsed realtime in ms when the beacon was seen, see {@link SystemClock#elapsedRealtime()}
+     * @param isFinal true if we should not wait for a newer fix anymore
+     * @return a copy of the beacon with the location or null if it could not be located
+     */
+    public SimpleBeacon attributeLocation(SimpleBeacon simpleBeacon, long sightingTime, boolean isFinal) {
+        if (!isFinal && locationTrack.getNewestTime() < sightingTime) {
+            return null;
+        }
+        SimpleBeacon.Location location = locationTrack.locate(sightingTime,
+                preferences.getLocationInterpolationGap(), preferences.getLocationFreshness());
+        if (location == null) {
+            return null;
+        }
+        SimpleBeacon located = new SimpleBeacon(simpleBeacon.beaconType, simpleBeacon.signalStrength,
+                simpleBeacon.transmitPower, simpleBeacon.manufacturer, simpleBeacon.bluetoothAddress,
+                simpleBeacon.bluetoothName, simpleBeacon.distance, simpleBeacon.timestamp);
+        located.id = simpleBeacon.id;
+        located.hashcode = simpleBeacon.hashcode;
+        located.location = location;
+        located.telemetry = simpleBeacon.telemetry;
+        located.altbeaconIBeaconData = simpleBeacon.altbeaconIBeaconData;
+        located.ruuvi = simpleBeacon.ruuvi;
+        located.eddystoneUidData = simpleBeacon.eddystoneUidData;
+        located.eddystoneUrlData = simpleBeacon.eddystoneUrlData;
+        return located;
+    }
+
     private boolean isLocationFresh(Location location) {
         if (location == null) {
             return false;
         }
-        long gpsTime = location.getTime();
-        long systemTime = System.currentTimeMillis();
-        return (systemTime - gpsTime) <= preferences.getLocationFreshness();
+        return (SystemClock.elapsedRealtime() - getElapsedTime(location)) <= preferences.getLocationFreshness();
+    }
+
+    /**
+     * Gets the time of a fix on the elapsed realtime clock. The GPS time of the fix
+     * may differ from the system clock the device uses
+     */
+    private static long getElapsedTime(Location location) {
+        return location.getElapsedRealtimeNanos() / 1000000;
     }
 
     private boolean isLocationAccurate(Location location) {
@@ -143,7 +172,9 @@ public class SimpleBeaconParser implements LocationListener {
 
     @Override
     public void onLocationChanged(Location location) {
-
+        if (isLocationAccurate(location)) {
+            locationTrack.add(getElapsedTime(location), location.getLongitude(), location.getLatitude(), location.getAccuracy());
+        }
     }
 
     @Override
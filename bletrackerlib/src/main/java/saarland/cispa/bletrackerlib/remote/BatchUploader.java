@@ -0,0 +1,373 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Collects the beacons a {@link RemoteConnection} wants to send and uploads them as one JSON array
+ * (or one binary beacon list, see {@link WireFormat}) per flush to the batch endpoint ({@link RemotePreferences#getBatchUrl(String)}).
+ * A flush happens if the batch size or the byte budget is reached or the oldest beacon waited the max delay.
+ * A 415 answer first turns off the binary format and then compression like single uploads do. If the server
+ * does not support batches (404, 405 or 501, or 415 for a plain JSON batch) the connection falls back to single POSTs.
+ * Beacons the server answered with 429 or 5xx are added to a later batch again, after the max delay doubled per retry.
+ * While the circuit of the connection is open a flushed batch goes to the offline queue instead.
+ * The offline queue is replayed through the batch endpoint too.
+ */
+
+class BatchUploader {
+
+    private static final String TAG = "BatchUploader";
+    private static final int MAX_RETRIES = 3;
+
+    private final RemoteConnection connection;
+    private final RemotePreferences remotePreferences;
+    private final String batchUrl;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private ArrayList<BatchItem> items = new ArrayList<>();
+    private int itemBytes = 0;
+    private boolean flushScheduled = false;
+    private volatile boolean supported = true;
+    // requests built while holding the lock, they are executed after it was released
+    private ArrayList<BeaconBatchRequest> ready = new ArrayList<>();
+
+    private static class BatchItem {
+        final BeaconPayload payload;
+        final UploadLane lane;
+        final SimpleBeacon simpleBeacon;
+        final byte[] json;
+        final int retries;
+
+        BatchItem(BeaconPayload payload, UploadLane lane, int retries) {
+            this.payload = payload;
+            this.lane = lane;
+            this.simpleBeacon = payload.simpleBeacon;
+            this.json = payload.getJson();
+            this.retries = retries;
+        }
+    }
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BatchUploader.this) {
+                flushScheduled = false;
+                takeBatch();
+            }
+            executeReady();
+        }
+    };
+
+    BatchUploader(RemoteConnection connection, String url, RemotePreferences remotePreferences) {
+        this.connection = connection;
+        this.remotePreferences = remotePreferences;
+        this.batchUrl = remotePreferences.getBatchUrl(url);
+    }
+
+    /**
+     * Indicates if the server accepts batches. This turns false after the server rejected a batch request.
+     * @return true if batches are supported
+     */
+    boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Adds a beacon to the current batch
+     * @param payload the beacon to upload, its JSON is not modified
+     * @param lane the priority lane, the batch is sent with the priority of its highest lane
+     */
+    void add(BeaconPayload payload, UploadLane lane) {
+        synchronized (this) {
+            add(new BatchItem(payload, lane, 0));
+        }
+        executeReady();
+    }
+
+    private void add(BatchItem item) {
+        if (!items.isEmpty() && itemBytes + item.json.length + 1 > remotePreferences.getBatchMaxBytes()) {
+            takeBatch();
+        }
+        items.add(item);
+        itemBytes += item.json.length + 1;
+
+        if (items.size() >= remotePreferences.getBatchSize() || itemBytes >= remotePreferences.getBatchMaxBytes()) {
+            takeBatch();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, remotePreferences.getBatchMaxDelay());
+        }
+    }
+
+    /**
+     * Uploads the current batch now
+     */
+    void flush() {
+        synchronized (this) {
+            takeBatch();
+        }
+        executeReady();
+    }
+
+    /**
+     * Executes the requests built while holding the lock
+     */
+    private void executeReady() {
+        ArrayList<BeaconBatchRequest> requests;
+        synchronized (this) {
+            if (ready.isEmpty()) {
+                return;
+            }
+            requests = ready;
+            ready = new ArrayList<>();
+        }
+        for (BeaconBatchRequest request : requests) {
+            connection.execute(request);
+        }
+    }
+
+    /**
+     * Builds the request of the current batch, it is sent by {@link #executeReady()}. Must hold the lock.
+     */
+    private void takeBatch() {
+        if (flushScheduled) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        }
+        if (items.isEmpty()) {
+            return;
+        }
+        final ArrayList<BatchItem> batch = items;
+        items = new ArrayList<>();
+        itemBytes = 0;
+
+        final CircuitBreaker circuitBreaker = connection.getCircuitBreaker();
+        final long permit = circuitBreaker.allowRequest();
+        if (permit == CircuitBreaker.DENIED) {
+            for (BatchItem item : batch) {
+                connection.enqueueOffline(item.simpleBeacon.hashcode, item.json);
+            }
+            return;
+        }
+
+        boolean summaries = false;
+        UploadLane lane = UploadLane.LOW;
+        for (BatchItem item : batch) {
+            summaries |= item.payload.summary;
+            if (item.lane.ordinal() < lane.ordinal()) {
+                lane = item.lane;
+            }
+        }
+        // summaries have fields the binary format does not know
+        final boolean binary = !summaries && connection.isBinaryUploadAccepted();
+        byte[] body;
+        if (binary) {
+            ArrayList<SimpleBeacon> simpleBeacons = new ArrayList<>(batch.size());
+            for (BatchItem item : batch) {
+                simpleBeacons.add(item.simpleBeacon);
+            }
+            body = BeaconBinaryCodec.encode(simpleBeacons);
+        } else {
+            ArrayList<byte[]> encodedBeacons = new ArrayList<>(batch.size());
+            for (BatchItem item : batch) {
+                encodedBeacons.add(item.json);
+            }
+            body = BeaconJsonWriter.joinArray(encodedBeacons);
+        }
+
+        final BeaconBatchRequest[] request = new BeaconBatchRequest[1];
+        request[0] = new BeaconBatchRequest(batchUrl, body, remotePreferences,
+                connection.isCompressedUploadAccepted(), new Response.Listener<JSONArray>() {
+                    @Override
+                    public void onResponse(JSONArray statuses) {
+                        circuitBreaker.onSuccess(permit, request[0].getResponseHeaders());
+                        handleStatuses(batch, statuses);
+                    }
+                }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                handleError(batch, permit, error, binary, request[0].isCompressed());
+            }
+        });
+        if (binary) {
+            request[0].setBodyContentType(BeaconBinaryCodec.CONTENT_TYPE);
+        }
+        request[0].setPriority(lane.priority);
+        ready.add(request[0]);
+    }
+
+    /**
+     * Sends beacons of the offline queue again, in batches of at most the batch size and byte budget.
+     * They do not wait for the current batch and are sent with the lowest priority.
+     * @param beaconsAsJson the encoded beacons
+     * @param callbacks get the result of the beacon with the same index
+     */
+    void replay(List<byte[]> beaconsAsJson, List<UploadLog.ReplayCallback> callbacks) {
+        int start = 0;
+        while (start < beaconsAsJson.size()) {
+            int end = start;
+            int bytes = 0;
+            while (end < beaconsAsJson.size() && end - start < remotePreferences.getBatchSize()
+                    && (end == start || bytes + beaconsAsJson.get(end).length + 1 <= remotePreferences.getBatchMaxBytes())) {
+                bytes += beaconsAsJson.get(end).length + 1;
+                end++;
+            }
+            replayBatch(new ArrayList<>(beaconsAsJson.subList(start, end)), new ArrayList<>(callbacks.subList(start, end)));
+            start = end;
+        }
+    }
+
+    private void replayBatch(final List<byte[]> beaconsAsJson, final List<UploadLog.ReplayCallback> callbacks) {
+        final CircuitBreaker circuitBreaker = connection.getCircuitBreaker();
+        final long permit = circuitBreaker.allowRequest();
+        if (permit == CircuitBreaker.DENIED) {
+            for (UploadLog.ReplayCallback callback : callbacks) {
+                callback.onResult(false, true);
+            }
+            return;
+        }
+        final BeaconBatchRequest[] request = new BeaconBatchRequest[1];
+        request[0] = new BeaconBatchRequest(batchUrl, BeaconJsonWriter.joinArray(beaconsAsJson), remotePreferences,
+                connection.isCompressedUploadAccepted(), new Response.Listener<JSONArray>() {
+                    @Override
+                    public void onResponse(JSONArray statuses) {
+                        circuitBreaker.onSuccess(permit, request[0].getResponseHeaders());
+                        for (int i = 0; i < callbacks.size(); i++) {
+                            int status = i < statuses.length() ? getStatus(statuses.opt(i)) : 200;
+                            callbacks.get(i).onResult(status < 400, status == 429 || status >= 500);
+                        }
+                    }
+                }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                // replays are JSON, a 415 can only be about the compression
+                if (connection.isUploadFormatRejected(error, false, request[0].isCompressed())) {
+                    circuitBreaker.release(permit);
+                    replayBatch(beaconsAsJson, callbacks);
+                    return;
+                }
+                if (isBatchRejected(error)) {
+                    circuitBreaker.release(permit);
+                    supported = false;
+                    for (int i = 0; i < beaconsAsJson.size(); i++) {
+                        connection.replay(beaconsAsJson.get(i), callbacks.get(i));
+                    }
+                    return;
+                }
+                circuitBreaker.onFailure(permit, error);
+                boolean retryable = UploadLog.isRetryable(error);
+                for (UploadLog.ReplayCallback callback : callbacks) {
+                    callback.onResult(false, retryable);
+                }
+            }
+        });
+        request[0].setPriority(UploadLane.LOW.priority);
+        connection.execute(request[0]);
+    }
+
+    private void handleStatuses(ArrayList<BatchItem> batch, JSONArray statuses) {
+        Log.d(TAG, "batch of " + batch.size() + " sent");
+        connection.onDelivered();
+        for (int i = 0; i < batch.size() && i < statuses.length(); i++) {
+            int status = getStatus(statuses.opt(i));
+            BatchItem item = batch.get(i);
+            if (status == 429 || status >= 500) {
+                if (item.retries < MAX_RETRIES) {
+                    retryLater(new BatchItem(item.payload, item.lane, item.retries + 1));
+                } else {
+                    connection.enqueueOffline(item.simpleBeacon.hashcode, item.json);
+                }
+            } else if (status >= 400) {
+                Log.d(TAG, "beacon rejected with status " + status);
+            }
+        }
+    }
+
+    /**
+     * Adds a beacon the server could not take right now to a later batch, after the max delay doubled per retry
+     */
+    private void retryLater(final BatchItem item) {
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (BatchUploader.this) {
+                    add(item);
+                }
+                executeReady();
+            }
+        }, (long) remotePreferences.getBatchMaxDelay() << (item.retries - 1));
+    }
+
+    private void handleError(ArrayList<BatchItem> batch, long permit, VolleyError error, boolean binary, boolean compressed) {
+        CircuitBreaker circuitBreaker = connection.getCircuitBreaker();
+        // a 415 is about the format first, only a plain JSON batch rejected with 415 means there is no batch endpoint
+        if (connection.isUploadFormatRejected(error, binary, compressed)) {
+            // negotiation is no health signal of the endpoint
+            circuitBreaker.release(permit);
+            synchronized (this) {
+                for (BatchItem item : batch) {
+                    add(item);
+                }
+                takeBatch();
+            }
+            executeReady();
+            return;
+        }
+        if (isBatchRejected(error)) {
+            circuitBreaker.release(permit);
+            ArrayList<BatchItem> remaining = new ArrayList<>(batch);
+            synchronized (this) {
+                supported = false;
+                remaining.addAll(items);
+                items = new ArrayList<>();
+                itemBytes = 0;
+            }
+            for (BatchItem item : remaining) {
+                connection.send(item.payload, item.lane);
+            }
+            return;
+        }
+        circuitBreaker.onFailure(permit, error);
+        Log.d(TAG, "batch send error: " + error.getMessage());
+        if (UploadLog.isRetryable(error)) {
+            for (BatchItem item : batch) {
+                connection.enqueueOffline(item.simpleBeacon.hashcode, item.json);
+            }
+        }
+    }
+
+    /**
+     * Checks if the server has no batch endpoint (404, 405, 415 or 501)
+     */
+    private static boolean isBatchRejected(VolleyError error) {
+        int status = error.networkResponse != null ? error.networkResponse.statusCode : 0;
+        if (status == 404 || status == 405 || status == 415 || status == 501) {
+            Log.d(TAG, "batch not supported by server, falling back to single requests");
+            return true;
+        }
+        return false;
+    }
+
+    private static int getStatus(Object status) {
+        if (status instanceof Number) {
+            return ((Number) status).intValue();
+        }
+        if (status instanceof JSONObject) {
+            JSONObject object = (JSONObject) status;
+            return object.optInt("Status", object.optInt("status", 200));
+        }
+        return 200;
+    }
+}
@@ -0,0 +1,40 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * POSTs a JSON array of {@link RemoteBeaconObject}s in one request.
+ * The response is expected to be a JSON array with one status per beacon.
+ * An empty or non array response is delivered as empty array which means all beacons were accepted.
+ */
+
+class BeaconBatchRequest extends GzipJsonRequest<JSONArray> {
+
+    BeaconBatchRequest(String url, byte[] beaconsAsJsonArray, RemotePreferences remotePreferences, boolean compressBody,
+                       Response.Listener<JSONArray> listener, Response.ErrorListener errorListener) {
+        super(Request.Method.POST, url, beaconsAsJsonArray, remotePreferences, compressBody, listener, errorListener);
+    }
+
+    @Override
+    protected Response<JSONArray> parseNetworkResponse(NetworkResponse response) {
+        setResponseHeaders(response);
+        JSONArray statuses = new JSONArray();
+        try {
+            String body = getResponseString(response);
+            if (body.trim().startsWith("[")) {
+                statuses = new JSONArray(body);
+            }
+        } catch (IOException | JSONException e) {
+            // Treat an unreadable response like a response without item status
+        }
+        return Response.success(statuses, HttpHeaderParser.parseCacheHeaders(response));
+    }
+}
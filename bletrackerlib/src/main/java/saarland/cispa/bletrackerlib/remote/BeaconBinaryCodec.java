@@ -0,0 +1,364 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Compact binary encoding of a list of {@link RemoteBeaconObject}s.
+ *
+ * Layout: magic "BT", version byte, the string dictionary (varint count, then every string as
+ * varint length and UTF-8 bytes), varint number of beacons and the beacons.
+ * Every beacon starts with a varint bit mask of its fields followed by the present fields in bit order.
+ * Strings are varint indices into the dictionary, so repeated identifiers are only sent once per batch.
+ * Ints are zigzag varints, longs varints, doubles 8 byte IEEE 754 and canonical UUIDs 16 bytes.
+ * Fields which are null or zero are left out like in the JSON encoding.
+ * A beacon with the deleted bit is the removal of a delta sync, only its ID is read.
+ */
+
+class BeaconBinaryCodec {
+
+    static final String CONTENT_TYPE = "application/x-bletracker-beacons";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAGIC_B = 'B';
+    private static final int MAGIC_T = 'T';
+    private static final int VERSION = 1;
+
+    private static final int ID = 1;
+    private static final int BEACON_TYPE = 1 << 1;
+    private static final int HASH_CODE = 1 << 2;
+    private static final int DISCOVERY_TIME = 1 << 3;
+    private static final int LOCATION = 1 << 4;
+    private static final int DISTANCE = 1 << 5;
+    private static final int SIGNAL_STRENGTH = 1 << 6;
+    private static final int TRANSMITTER_POWER = 1 << 7;
+    private static final int MANUFACTURER = 1 << 8;
+    private static final int BLUETOOTH_ADDRESS = 1 << 9;
+    private static final int BLUETOOTH_NAME = 1 << 10;
+    private static final int UUID_BINARY = 1 << 11;
+    private static final int UUID_STRING = 1 << 12;
+    private static final int MAJOR = 1 << 13;
+    private static final int MINOR = 1 << 14;
+    private static final int NAMESPACE_ID = 1 << 15;
+    private static final int INSTANCE_ID = 1 << 16;
+    private static final int TELEMETRY_VERSION = 1 << 17;
+    private static final int BATTERY_MILLI_VOLTS = 1 << 18;
+    private static final int PDU_COUNT = 1 << 19;
+    private static final int UPTIME = 1 << 20;
+    private static final int URL = 1 << 21;
+    private static final int AIR_PRESSURE = 1 << 22;
+    private static final int TEMPERATURE = 1 << 23;
+    private static final int HUMIDITY = 1 << 24;
+    private static final int DELETED = 1 << 25;
+
+    private BeaconBinaryCodec() {
+    }
+
+    /**
+     * Encodes beacons
+     * @param simpleBeacons the beacons
+     * @return the encoded beacons
+     */
+    static byte[] encode(List<SimpleBeacon> simpleBeacons) {
+        LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<>();
+        for (SimpleBeacon simpleBeacon : simpleBeacons) {
+            addStrings(dictionary, simpleBeacon);
+        }
+
+        Output out = new Output(64 + simpleBeacons.size() * 48);
+        out.write(MAGIC_B);
+        out.write(MAGIC_T);
+        out.write(VERSION);
+        out.writeVarint(dictionary.size());
+        for (String string : dictionary.keySet()) {
+            byte[] bytes = string.getBytes(UTF_8);
+            out.writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.writeVarint(simpleBeacons.size());
+        for (SimpleBeacon simpleBeacon : simpleBeacons) {
+            writeBeacon(out, dictionary, simpleBeacon);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes beacons
+     * @param in the encoded beacons
+     * @param deletedIds gets the IDs of the beacons removed in a delta sync
+     * @return the beacons
+     * @throws IOException if the stream can not be read or is not in this format
+     */
+    static ArrayList<SimpleBeacon> decode(InputStream in, ArrayList<Long> deletedIds) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        try {
+            if (data.read() != MAGIC_B || data.read() != MAGIC_T) {
+                throw new IOException("not a binary beacon list");
+            }
+            int version = data.read();
+            if (version != VERSION) {
+                throw new IOException("unsupported binary beacon list version " + version);
+            }
+            String[] dictionary = new String[readCount(data)];
+            for (int i = 0; i < dictionary.length; i++) {
+                byte[] bytes = new byte[readCount(data)];
+                data.readFully(bytes);
+                dictionary[i] = new String(bytes, UTF_8);
+            }
+            int count = readCount(data);
+            ArrayList<SimpleBeacon> simpleBeacons = new ArrayList<>(count);
+            BeaconFields fields = new BeaconFields();
+            for (int i = 0; i < count; i++) {
+                fields.clear();
+                readBeacon(data, dictionary, fields);
+                if (fields.deleted) {
+                    deletedIds.add((long) fields.id);
+                } else {
+                    simpleBeacons.add(fields.toSimpleBeacon());
+                }
+            }
+            return simpleBeacons;
+        } finally {
+            data.close();
+        }
+    }
+
+    private static void addStrings(LinkedHashMap<String, Integer> dictionary, SimpleBeacon simpleBeacon) {
+        addString(dictionary, simpleBeacon.beaconType);
+        addString(dictionary, simpleBeacon.timestamp);
+        addString(dictionary, simpleBeacon.bluetoothAddress);
+        addString(dictionary, simpleBeacon.bluetoothName);
+        if (simpleBeacon.altbeaconIBeaconData != null) {
+            if (toUuid(simpleBeacon.altbeaconIBeaconData.uuid) == null) {
+                addString(dictionary, simpleBeacon.altbeaconIBeaconData.uuid);
+            }
+            addString(dictionary, simpleBeacon.altbeaconIBeaconData.major);
+            addString(dictionary, simpleBeacon.altbeaconIBeaconData.minor);
+        }
+        if (simpleBeacon.eddystoneUidData != null) {
+            addString(dictionary, simpleBeacon.eddystoneUidData.namespaceId);
+            addString(dictionary, simpleBeacon.eddystoneUidData.instanceId);
+        }
+        if (simpleBeacon.eddystoneUrlData != null) {
+            addString(dictionary, simpleBeacon.eddystoneUrlData.url);
+        }
+    }
+
+    private static void addString(LinkedHashMap<String, Integer> dictionary, String string) {
+        if (string != null && !dictionary.containsKey(string)) {
+            dictionary.put(string, dictionary.size());
+        }
+    }
+
+    private static void writeBeacon(Output out, LinkedHashMap<String, Integer> dictionary, SimpleBeacon simpleBeacon) {
+        SimpleBeacon.Location location = simpleBeacon.location;
+        SimpleBeacon.AltbeaconIBeaconData altbeacon = simpleBeacon.altbeaconIBeaconData;
+        SimpleBeacon.EddystoneUID uid = simpleBeacon.eddystoneUidData;
+        SimpleBeacon.Telemetry telemetry = simpleBeacon.telemetry;
+        SimpleBeacon.EddystoneURL url = simpleBeacon.eddystoneUrlData;
+        SimpleBeacon.Ruuvi ruuvi = simpleBeacon.ruuvi;
+        UUID uuid = altbeacon != null ? toUuid(altbeacon.uuid) : null;
+
+        int mask = 0;
+        mask |= simpleBeacon.id != 0 ? ID : 0;
+        mask |= simpleBeacon.beaconType != null ? BEACON_TYPE : 0;
+        mask |= simpleBeacon.hashcode != 0 ? HASH_CODE : 0;
+        mask |= simpleBeacon.timestamp != null ? DISCOVERY_TIME : 0;
+        mask |= location != null ? LOCATION : 0;
+        mask |= simpleBeacon.distance != 0 ? DISTANCE : 0;
+        mask |= simpleBeacon.signalStrength != 0 ? SIGNAL_STRENGTH : 0;
+        mask |= simpleBeacon.transmitPower != 0 ? TRANSMITTER_POWER : 0;
+        mask |= simpleBeacon.manufacturer != 0 ? MANUFACTURER : 0;
+        mask |= simpleBeacon.bluetoothAddress != null ? BLUETOOTH_ADDRESS : 0;
+        mask |= simpleBeacon.bluetoothName != null ? BLUETOOTH_NAME : 0;
+        if (altbeacon != null) {
+            mask |= uuid != null ? UUID_BINARY : altbeacon.uuid != null ? UUID_STRING : 0;
+            mask |= altbeacon.major != null ? MAJOR : 0;
+            mask |= altbeacon.minor != null ? MINOR : 0;
+        }
+        if (uid != null) {
+            mask |= uid.namespaceId != null ? NAMESPACE_ID : 0;
+            mask |= uid.instanceId != null ? INSTANCE_ID : 0;
+        }
+        if (telemetry != null) {
+            mask |= telemetry.telemetryVersion != 0 ? TELEMETRY_VERSION : 0;
+            mask |= telemetry.batteryMilliVolts != 0 ? BATTERY_MILLI_VOLTS : 0;
+            mask |= telemetry.pduCount != 0 ? PDU_COUNT : 0;
+            mask |= telemetry.uptime != 0 ? UPTIME : 0;
+        }
+        if (url != null && url.url != null) {
+            mask |= URL;
+        }
+        if (ruuvi != null) {
+            mask |= ruuvi.airPressure != 0 ? AIR_PRESSURE : 0;
+            mask |= ruuvi.temperature != 0 ? TEMPERATURE : 0;
+            mask |= ruuvi.humidity != 0 ? HUMIDITY : 0;
+        }
+
+        out.writeVarint(mask);
+        if ((mask & ID) != 0) out.writeZigzag((int) simpleBeacon.id);
+        if ((mask & BEACON_TYPE) != 0) out.writeVarint(dictionary.get(simpleBeacon.beaconType));
+        if ((mask & HASH_CODE) != 0) out.writeZigzag(simpleBeacon.hashcode);
+        if ((mask & DISCOVERY_TIME) != 0) out.writeVarint(dictionary.get(simpleBeacon.timestamp));
+        if ((mask & LOCATION) != 0) {
+            out.writeDouble(location.locationLong);
+            out.writeDouble(location.locationLat);
+            out.writeDouble(location.locationRadius);
+        }
+        if ((mask & DISTANCE) != 0) out.writeDouble(simpleBeacon.distance);
+        if ((mask & SIGNAL_STRENGTH) != 0) out.writeZigzag(simpleBeacon.signalStrength);
+        if ((mask & TRANSMITTER_POWER) != 0) out.writeZigzag(simpleBeacon.transmitPower);
+        if ((mask & MANUFACTURER) != 0) out.writeZigzag(simpleBeacon.manufacturer);
+        if ((mask & BLUETOOTH_ADDRESS) != 0) out.writeVarint(dictionary.get(simpleBeacon.bluetoothAddress));
+        if ((mask & BLUETOOTH_NAME) != 0) out.writeVarint(dictionary.get(simpleBeacon.bluetoothName));
+        if ((mask & UUID_BINARY) != 0) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+        if ((mask & UUID_STRING) != 0) out.writeVarint(dictionary.get(altbeacon.uuid));
+        if ((mask & MAJOR) != 0) out.writeVarint(dictionary.get(altbeacon.major));
+        if ((mask & MINOR) != 0) out.writeVarint(dictionary.get(altbeacon.minor));
+        if ((mask & NAMESPACE_ID) != 0) out.writeVarint(dictionary.get(uid.namespaceId));
+        if ((mask & INSTANCE_ID) != 0) out.writeVarint(dictionary.get(uid.instanceId));
+        if ((mask & TELEMETRY_VERSION) != 0) out.writeVarint(telemetry.telemetryVersion);
+        if ((mask & BATTERY_MILLI_VOLTS) != 0) out.writeVarint(telemetry.batteryMilliVolts);
+        if ((mask & PDU_COUNT) != 0) out.writeVarint(telemetry.pduCount);
+        if ((mask & UPTIME) != 0) out.writeVarint(telemetry.uptime);
+        if ((mask & URL) != 0) out.writeVarint(dictionary.get(url.url));
+        if ((mask & AIR_PRESSURE) != 0) out.writeDouble(ruuvi.airPressure);
+        if ((mask & TEMPERATURE) != 0) out.writeDouble(ruuvi.temperature);
+        if ((mask & HUMIDITY) != 0) out.writeDouble(ruuvi.humidity);
+    }
+
+    private static void readBeacon(DataInputStream in, String[] dictionary, BeaconFields fields) throws IOException {
+        int mask = (int) readVarint(in);
+        if ((mask & ID) != 0) fields.id = readZigzag(in);
+        if ((mask & BEACON_TYPE) != 0) fields.beaconType = readString(in, dictionary);
+        if ((mask & HASH_CODE) != 0) fields.hashCode = readZigzag(in);
+        if ((mask & DISCOVERY_TIME) != 0) fields.discoveryTime = readString(in, dictionary);
+        if ((mask & LOCATION) != 0) {
+            fields.locationLong = in.readDouble();
+            fields.locationLat = in.readDouble();
+            fields.locationRadius = in.readDouble();
+        }
+        if ((mask & DISTANCE) != 0) fields.distance = in.readDouble();
+        if ((mask & SIGNAL_STRENGTH) != 0) fields.signalStrength = readZigzag(in);
+        if ((mask & TRANSMITTER_POWER) != 0) fields.transmitterPower = readZigzag(in);
+        if ((mask & MANUFACTURER) != 0) fields.manufacturer = readZigzag(in);
+        if ((mask & BLUETOOTH_ADDRESS) != 0) fields.bluetoothAddress = readString(in, dictionary);
+        if ((mask & BLUETOOTH_NAME) != 0) fields.bluetoothName = readString(in, dictionary);
+        if ((mask & UUID_BINARY) != 0) fields.uuid = new UUID(in.readLong(), in.readLong()).toString();
+        if ((mask & UUID_STRING) != 0) fields.uuid = readString(in, dictionary);
+        if ((mask & MAJOR) != 0) fields.major = readString(in, dictionary);
+        if ((mask & MINOR) != 0) fields.minor = readString(in, dictionary);
+        if ((mask & NAMESPACE_ID) != 0) fields.namespaceId = readString(in, dictionary);
+        if ((mask & INSTANCE_ID) != 0) fields.instanceId = readString(in, dictionary);
+        if ((mask & TELEMETRY_VERSION) != 0) fields.telemetryVersion = readVarint(in);
+        if ((mask & BATTERY_MILLI_VOLTS) != 0) fields.batteryMilliVolts = readVarint(in);
+        if ((mask & PDU_COUNT) != 0) fields.pduCount = readVarint(in);
+        if ((mask & UPTIME) != 0) fields.uptime = readVarint(in);
+        if ((mask & URL) != 0) fields.url = readString(in, dictionary);
+        if ((mask & AIR_PRESSURE) != 0) fields.airPressure = in.readDouble();
+        if ((mask & TEMPERATURE) != 0) fields.temperature = in.readDouble();
+        if ((mask & HUMIDITY) != 0) fields.humidity = in.readDouble();
+        fields.deleted = (mask & DELETED) != 0;
+    }
+
+    /**
+     * Parses a UUID if it is in the canonical lower case form, others are sent as string to keep them as they are
+     */
+    private static UUID toUuid(String uuid) {
+        if (uuid == null || uuid.length() != 36) {
+            return null;
+        }
+        try {
+            UUID parsed = UUID.fromString(uuid);
+            return parsed.toString().equals(uuid) ? parsed : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String readString(DataInputStream in, String[] dictionary) throws IOException {
+        int index = readCount(in);
+        if (index >= dictionary.length) {
+            throw new IOException("string index out of dictionary");
+        }
+        return dictionary[index];
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        long count = readVarint(in);
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException("invalid count");
+        }
+        return (int) count;
+    }
+
+    private static int readZigzag(DataInputStream in) throws IOException {
+        long value = readVarint(in);
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+
+    /**
+     * Growable output buffer which hands out its array without copying if it is full
+     */
+    private static class Output extends ByteArrayOutputStream {
+
+        Output(int size) {
+            super(size);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeZigzag(int value) {
+            writeVarint(((value << 1) ^ (value >> 31)) & 0xffffffffL);
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+
+        void writeDouble(double value) {
+            writeLong(Double.doubleToLongBits(value));
+        }
+
+        @Override
+        public synchronized byte[] toByteArray() {
+            return count == buf.length ? buf : super.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Sends the sightings of a scan cycle to several {@link RemoteConnection}s, e.g. the CISPA connection and all custom ones.
+ * Each sighting is prepared once ({@link BeaconPayload}) and shared: the connections only apply their own
+ * send mode and send interval, so the work per beacon does not grow with the number of connections.
+ */
+
+public class BeaconFanOut {
+
+    private final ArrayList<RemoteConnection> connections = new ArrayList<>();
+
+    /**
+     * Adds a connection which gets all sightings sent by this fan-out
+     * @param connection the connection
+     */
+    public synchronized void addConnection(RemoteConnection connection) {
+        if (connection != null && !connections.contains(connection)) {
+            connections.add(connection);
+        }
+    }
+
+    /**
+     * Removes a connection
+     * @param connection the connection
+     */
+    public synchronized void removeConnection(RemoteConnection connection) {
+        connections.remove(connection);
+    }
+
+    /**
+     * Sends the beacons to all connections.
+     * Be aware that each connection only sends them if its SendMode allows this.
+     * @param simpleBeacons the beacons to send
+     */
+    public synchronized void send(List<SimpleBeacon> simpleBeacons) {
+        if (connections.isEmpty()) {
+            return;
+        }
+        for (SimpleBeacon simpleBeacon : simpleBeacons) {
+            BeaconPayload payload = new BeaconPayload(simpleBeacon);
+            for (RemoteConnection connection : connections) {
+                connection.sendPayload(payload);
+            }
+        }
+    }
+}
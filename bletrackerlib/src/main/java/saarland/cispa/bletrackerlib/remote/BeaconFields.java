@@ -0,0 +1,97 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+/**
+ * The fields of a {@link RemoteBeaconObject} while it is decoded by one of the streaming decoders.
+ * It is reused for every beacon of a response and turned into a SimpleBeacon
+ * the same way as {@link RemoteBeaconObject#GetSimpleBeacon()}.
+ */
+
+class BeaconFields {
+
+    int id;
+    String beaconType;
+    int hashCode;
+    String discoveryTime;
+    double locationLong;
+    double locationLat;
+    double locationRadius;
+    double distance;
+    int signalStrength;
+    int transmitterPower;
+    int manufacturer;
+    String bluetoothAddress;
+    String bluetoothName;
+    String uuid;
+    String major;
+    String minor;
+    String namespaceId;
+    String instanceId;
+    long telemetryVersion;
+    long batteryMilliVolts;
+    long pduCount;
+    long uptime;
+    String url;
+    double airPressure;
+    double temperature;
+    double humidity;
+    // set in delta sync responses for beacons which were removed
+    boolean deleted;
+
+    /**
+     * Resets all fields for the next beacon
+     */
+    void clear() {
+        id = 0;
+        beaconType = null;
+        hashCode = 0;
+        discoveryTime = null;
+        locationLong = locationLat = locationRadius = 0;
+        distance = 0;
+        signalStrength = transmitterPower = manufacturer = 0;
+        bluetoothAddress = bluetoothName = null;
+        uuid = major = minor = null;
+        namespaceId = instanceId = null;
+        telemetryVersion = batteryMilliVolts = pduCount = uptime = 0;
+        url = null;
+        airPressure = temperature = humidity = 0;
+        deleted = false;
+    }
+
+    SimpleBeacon toSimpleBeacon() {
+        SimpleBeacon simpleBeacon = new SimpleBeacon();
+        simpleBeacon.id = id;
+        simpleBeacon.beaconType = beaconType;
+        simpleBeacon.timestamp = discoveryTime;
+        simpleBeacon.hashcode = hashCode;
+        if (locationLat != 0) {
+            simpleBeacon.location = new SimpleBeacon.Location(locationLong, locationLat, locationRadius);
+        }
+        simpleBeacon.distance = distance;
+        simpleBeacon.signalStrength = signalStrength;
+        simpleBeacon.transmitPower = transmitterPower;
+        simpleBeacon.manufacturer = manufacturer;
+        simpleBeacon.bluetoothAddress = bluetoothAddress;
+        simpleBeacon.bluetoothName = bluetoothName;
+
+        if (beaconType == null) {
+            return simpleBeacon;
+        }
+        if (beaconType.equals(SimpleBeaconLayouts.IBEACON_LAYOUT.name()) || beaconType.equals(SimpleBeaconLayouts.ALTBEACON_LAYOUT.name())) {
+            simpleBeacon.altbeaconIBeaconData = new SimpleBeacon.AltbeaconIBeaconData(uuid, major, minor);
+        }
+        if (beaconType.equals(SimpleBeaconLayouts.EDDYSTONE_UID_LAYOUT.name())) {
+            simpleBeacon.eddystoneUidData = new SimpleBeacon.EddystoneUID(namespaceId, instanceId);
+        }
+        simpleBeacon.telemetry = new SimpleBeacon.Telemetry(telemetryVersion, batteryMilliVolts, temperature, pduCount, uptime);
+        if (beaconType.equals(SimpleBeaconLayouts.EDDYSTONE_URL_LAYOUT.name())) {
+            simpleBeacon.eddystoneUrlData = new SimpleBeacon.EddystoneURL(url);
+        }
+        if (beaconType.equals(SimpleBeaconLayouts.RUUVI_LAYOUT.name())) {
+            simpleBeacon.ruuvi = new SimpleBeacon.Ruuvi(humidity, airPressure, temperature);
+        }
+        return simpleBeacon;
+    }
+}
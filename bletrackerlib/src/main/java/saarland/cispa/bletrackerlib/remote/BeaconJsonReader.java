@@ -0,0 +1,113 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Decodes a JSON array of {@link RemoteBeaconObject}s straight into SimpleBeacons while reading the stream.
+ * No RemoteBeaconObject is created and unknown fields are skipped.
+ * The result is the same as {@link RemoteBeaconObject#GetSimpleBeacon()} of each element, see {@link BeaconFields}.
+ */
+
+class BeaconJsonReader {
+
+    private BeaconJsonReader() {
+    }
+
+    /**
+     * Reads all beacons of a JSON array.
+     * Objects with "Deleted": true are removals of a delta sync, only their ID is kept.
+     * @param in the JSON
+     * @param deletedIds gets the IDs of the removed beacons
+     * @return the beacons, empty if the JSON is empty or null
+     * @throws IOException if the stream can not be read or is no valid JSON array of beacons
+     */
+    static ArrayList<SimpleBeacon> readArray(Reader in, ArrayList<Long> deletedIds) throws IOException {
+        ArrayList<SimpleBeacon> simpleBeacons = new ArrayList<>();
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        try {
+            JsonToken token;
+            try {
+                token = reader.peek();
+            } catch (EOFException e) {
+                // An empty body is an empty result
+                return simpleBeacons;
+            }
+            if (token == JsonToken.NULL) {
+                return simpleBeacons;
+            }
+            BeaconFields fields = new BeaconFields();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                SimpleBeacon simpleBeacon = readBeacon(reader, fields);
+                if (fields.deleted) {
+                    deletedIds.add(simpleBeacon.id);
+                } else {
+                    simpleBeacons.add(simpleBeacon);
+                }
+            }
+            reader.endArray();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException(e);
+        } finally {
+            reader.close();
+        }
+        return simpleBeacons;
+    }
+
+    private static SimpleBeacon readBeacon(JsonReader reader, BeaconFields fields) throws IOException {
+        fields.clear();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "ID": fields.id = reader.nextInt(); break;
+                case "BeaconType": fields.beaconType = reader.nextString(); break;
+                case "HashCode": fields.hashCode = reader.nextInt(); break;
+                case "DiscoveryTime": fields.discoveryTime = reader.nextString(); break;
+                case "LocationLong": fields.locationLong = reader.nextDouble(); break;
+                case "LocationLat": fields.locationLat = reader.nextDouble(); break;
+                case "LocationRadius": fields.locationRadius = reader.nextDouble(); break;
+                case "Distance": fields.distance = reader.nextDouble(); break;
+                case "SignalStrength": fields.signalStrength = reader.nextInt(); break;
+                case "TransmitterPower": fields.transmitterPower = reader.nextInt(); break;
+                case "Manufacturer": fields.manufacturer = reader.nextInt(); break;
+                case "BluetoothAddress": fields.bluetoothAddress = reader.nextString(); break;
+                case "BluetoothName": fields.bluetoothName = reader.nextString(); break;
+                case "UUID": fields.uuid = reader.nextString(); break;
+                case "Major": fields.major = reader.nextString(); break;
+                case "Minor": fields.minor = reader.nextString(); break;
+                case "NamespaceID": fields.namespaceId = reader.nextString(); break;
+                case "InstanceID": fields.instanceId = reader.nextString(); break;
+                case "TelemetryVersion": fields.telemetryVersion = reader.nextLong(); break;
+                case "BatterMilliVolts": fields.batteryMilliVolts = reader.nextLong(); break;
+                case "PduCount": fields.pduCount = reader.nextLong(); break;
+                case "Uptime": fields.uptime = reader.nextLong(); break;
+                case "Url": fields.url = reader.nextString(); break;
+                case "AirPressure": fields.airPressure = reader.nextDouble(); break;
+                case "Temperature": fields.temperature = reader.nextDouble(); break;
+                case "Humidity": fields.humidity = reader.nextDouble(); break;
+                case "Deleted": fields.deleted = reader.nextBoolean(); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+        return fields.toSimpleBeacon();
+    }
+}
@@ -0,0 +1,174 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Encodes SimpleBeacons straight into the JSON format of {@link RemoteBeaconObject} without creating one.
+ * One JsonWriter and its byte buffer are reused for every beacon and fields which are null or zero are omitted.
+ */
+
+class BeaconJsonWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final BeaconJsonWriter INSTANCE = new BeaconJsonWriter();
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+    private final OutputStreamWriter streamWriter = new OutputStreamWriter(buffer, UTF_8);
+    private final JsonWriter writer = new JsonWriter(streamWriter);
+
+    private BeaconJsonWriter() {
+        // lenient allows to write one top level object after the other
+        writer.setLenient(true);
+    }
+
+    /**
+     * Encodes a beacon as JSON object
+     * @param simpleBeacon the beacon
+     * @return the UTF-8 encoded JSON
+     */
+    static byte[] encode(SimpleBeacon simpleBeacon) {
+        synchronized (INSTANCE) {
+            try {
+                return INSTANCE.write(simpleBeacon);
+            } catch (IOException e) {
+                // can not happen, we only write into memory
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Encodes a summary of a {@link SightingAggregator} as JSON object
+     * @param simpleBeacon the summary, its timestamp is the last time the beacon was seen
+     * @param firstSeen the first time the beacon was seen in the window
+     * @param count the number of sightings
+     * @param minSignalStrength the min signal strength
+     * @param maxSignalStrength the max signal strength
+     * @return the UTF-8 encoded JSON
+     */
+    static byte[] encodeSummary(SimpleBeacon simpleBeacon, String firstSeen, int count,
+                                int minSignalStrength, int maxSignalStrength) {
+        synchronized (INSTANCE) {
+            try {
+                INSTANCE.begin(simpleBeacon);
+                INSTANCE.string("FirstSeen", firstSeen);
+                INSTANCE.string("LastSeen", simpleBeacon.timestamp);
+                INSTANCE.writer.name("Count").value(count);
+                INSTANCE.writer.name("MinSignalStrength").value(minSignalStrength);
+                INSTANCE.writer.name("MaxSignalStrength").value(maxSignalStrength);
+                return INSTANCE.end();
+            } catch (IOException e) {
+                // can not happen, we only write into memory
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Joins encoded beacons into one JSON array
+     * @param encodedBeacons the beacons encoded by {@link #encode(SimpleBeacon)}
+     * @return the UTF-8 encoded JSON array
+     */
+    static byte[] joinArray(List<byte[]> encodedBeacons) {
+        int size = 2 + Math.max(0, encodedBeacons.size() - 1);
+        for (byte[] encodedBeacon : encodedBeacons) {
+            size += encodedBeacon.length;
+        }
+        byte[] array = new byte[size];
+        int position = 0;
+        array[position++] = '[';
+        for (byte[] encodedBeacon : encodedBeacons) {
+            if (position > 1) {
+                array[position++] = ',';
+            }
+            System.arraycopy(encodedBeacon, 0, array, position, encodedBeacon.length);
+            position += encodedBeacon.length;
+        }
+        array[position] = ']';
+        return array;
+    }
+
+    private byte[] write(SimpleBeacon simpleBeacon) throws IOException {
+        begin(simpleBeacon);
+        return end();
+    }
+
+    /**
+     * Starts the object and writes the fields of the beacon, more fields can be written before {@link #end()}
+     */
+    private void begin(SimpleBeacon simpleBeacon) throws IOException {
+        buffer.reset();
+        writer.beginObject();
+        string("BeaconType", simpleBeacon.beaconType);
+        number("HashCode", simpleBeacon.hashcode);
+        string("DiscoveryTime", simpleBeacon.timestamp);
+        if (simpleBeacon.location != null) {
+            number("LocationLong", simpleBeacon.location.locationLong);
+            number("LocationLat", simpleBeacon.location.locationLat);
+            number("LocationRadius", simpleBeacon.location.locationRadius);
+        }
+
+        number("Distance", simpleBeacon.distance);
+        number("SignalStrength", simpleBeacon.signalStrength);
+        number("TransmitterPower", simpleBeacon.transmitPower);
+        number("Manufacturer", simpleBeacon.manufacturer);
+        string("BluetoothAddress", simpleBeacon.bluetoothAddress);
+        string("BluetoothName", simpleBeacon.bluetoothName);
+
+        if (simpleBeacon.altbeaconIBeaconData != null) {
+            string("UUID", simpleBeacon.altbeaconIBeaconData.uuid);
+            string("Major", simpleBeacon.altbeaconIBeaconData.major);
+            string("Minor", simpleBeacon.altbeaconIBeaconData.minor);
+        }
+        if (simpleBeacon.eddystoneUidData != null) {
+            string("NamespaceID", simpleBeacon.eddystoneUidData.namespaceId);
+            string("InstanceID", simpleBeacon.eddystoneUidData.instanceId);
+        }
+        if (simpleBeacon.telemetry != null) {
+            number("TelemetryVersion", simpleBeacon.telemetry.telemetryVersion);
+            number("BatterMilliVolts", simpleBeacon.telemetry.batteryMilliVolts);
+            number("PduCount", simpleBeacon.telemetry.pduCount);
+            number("Uptime", simpleBeacon.telemetry.uptime);
+        }
+        if (simpleBeacon.eddystoneUrlData != null) {
+            string("Url", simpleBeacon.eddystoneUrlData.url);
+        }
+        if (simpleBeacon.ruuvi != null) {
+            number("AirPressure", simpleBeacon.ruuvi.airPressure);
+            number("Temperature", simpleBeacon.ruuvi.temperature);
+            number("Humidity", simpleBeacon.ruuvi.humidity);
+        }
+    }
+
+    private byte[] end() throws IOException {
+        writer.endObject();
+        writer.flush();
+        return buffer.toByteArray();
+    }
+
+    private void string(String name, String value) throws IOException {
+        if (value != null) {
+            writer.name(name).value(value);
+        }
+    }
+
+    private void number(String name, long value) throws IOException {
+        if (value != 0) {
+            writer.name(name).value(value);
+        }
+    }
+
+    private void number(String name, double value) throws IOException {
+        if (value != 0 && !Double.isNaN(value) && !Double.isInfinite(value)) {
+            writer.name(name).value(value);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.util.Date;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+import saarland.cispa.bletrackerlib.parser.DateParser;
+
+/**
+ * One sighting prepared once for all {@link RemoteConnection}s it is sent to.
+ * The discovery time is parsed once and the JSON is encoded the first time a connection needs it,
+ * afterwards every connection shares the same bytes. They must not be modified.
+ */
+
+final class BeaconPayload {
+
+    final SimpleBeacon simpleBeacon;
+    /**
+     * The discovery time in ms or -1 if the timestamp can not be parsed
+     */
+    final long time;
+    /**
+     * True for a summary of a {@link SightingAggregator}, it can only be sent as JSON
+     */
+    final boolean summary;
+    private byte[] json;
+
+    BeaconPayload(SimpleBeacon simpleBeacon) {
+        this.simpleBeacon = simpleBeacon;
+        Date date = simpleBeacon.timestamp != null ? DateParser.stringDateToDate(simpleBeacon.timestamp) : null;
+        this.time = date != null ? date.getTime() : -1;
+        this.summary = false;
+    }
+
+    /**
+     * Creates the payload of a summary which is already encoded
+     * @param simpleBeacon the summary
+     * @param json the encoded summary
+     */
+    BeaconPayload(SimpleBeacon simpleBeacon, byte[] json) {
+        this.simpleBeacon = simpleBeacon;
+        this.time = -1;
+        this.summary = true;
+        this.json = json;
+    }
+
+    /**
+     * Gets the beacon encoded by {@link BeaconJsonWriter}, it is encoded on the first call
+     * @return the UTF-8 encoded JSON
+     */
+    synchronized byte[] getJson() {
+        if (json == null) {
+            json = BeaconJsonWriter.encode(simpleBeacon);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,121 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * GETs the beacons of an area. The (possibly gzip compressed) response body is decoded
+ * by {@link BeaconJsonReader} or {@link BeaconBinaryCodec} depending on its content type
+ * on the network thread while it is decompressed.
+ */
+
+class BeaconQueryRequest extends GzipJsonRequest<BeaconQueryRequest.Page> {
+
+    private static final String HEADER_NEXT_PAGE_TOKEN = "X-Next-Page-Token";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_SYNC_CURSOR = "X-Sync-Cursor";
+    private static final String HEADER_SYNC_FULL = "X-Sync-Full";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private String ifNoneMatch = null;
+
+    /**
+     * One page of the response
+     */
+    static class Page {
+        final ArrayList<SimpleBeacon> beacons;
+        // IDs of beacons removed since the cursor of a delta sync
+        final ArrayList<Long> deletedIds;
+        // cursor for the next delta sync or null if the endpoint does not support it
+        final String syncCursor;
+        // true if the endpoint sent the full set instead of the changes
+        final boolean syncFull;
+        // null on the last page
+        final String nextPageToken;
+        final String etag;
+        // true if the endpoint answered 304 to If-None-Match, beacons is empty then
+        final boolean notModified;
+        final int bytes;
+
+        Page(ArrayList<SimpleBeacon> beacons, ArrayList<Long> deletedIds, String nextPageToken, String etag,
+             boolean notModified, int bytes, String syncCursor, boolean syncFull) {
+            this.beacons = beacons;
+            this.deletedIds = deletedIds;
+            this.syncCursor = syncCursor;
+            this.syncFull = syncFull;
+            this.nextPageToken = nextPageToken;
+            this.etag = etag;
+            this.notModified = notModified;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Copies the page with its own lists, for sharing one response between several queries
+         */
+        Page copy() {
+            return new Page(new ArrayList<>(beacons), new ArrayList<>(deletedIds), nextPageToken, etag,
+                    notModified, bytes, syncCursor, syncFull);
+        }
+    }
+
+    BeaconQueryRequest(String url, RemotePreferences remotePreferences,
+                       Response.Listener<Page> listener, Response.ErrorListener errorListener) {
+        super(Request.Method.GET, url, null, remotePreferences, false, listener, errorListener);
+    }
+
+    /**
+     * Asks the endpoint to answer 304 Not Modified if the beacons did not change.
+     * The Volley cache is bypassed then because the caller caches itself.
+     * @param etag the ETag of the cached response
+     */
+    void setIfNoneMatch(String etag) {
+        this.ifNoneMatch = etag;
+        setShouldCache(false);
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = super.getHeaders();
+        if (ifNoneMatch != null) {
+            headers.put(HEADER_IF_NONE_MATCH, ifNoneMatch);
+        }
+        return headers;
+    }
+
+    @Override
+    protected Response<Page> parseNetworkResponse(NetworkResponse response) {
+        String etag = response.headers != null ? response.headers.get(HEADER_ETAG) : null;
+        if (response.notModified || response.statusCode == 304) {
+            return Response.success(new Page(new ArrayList<SimpleBeacon>(), new ArrayList<Long>(), null,
+                            etag != null ? etag : ifNoneMatch, true, 0, null, false),
+                    HttpHeaderParser.parseCacheHeaders(response));
+        }
+        try {
+            ArrayList<Long> deletedIds = new ArrayList<>();
+            ArrayList<SimpleBeacon> simpleBeacons = isBinaryResponse(response)
+                    ? BeaconBinaryCodec.decode(getResponseStream(response), deletedIds)
+                    : BeaconJsonReader.readArray(getResponseReader(response), deletedIds);
+            String nextPageToken = response.headers != null ? response.headers.get(HEADER_NEXT_PAGE_TOKEN) : null;
+            if (nextPageToken != null && nextPageToken.isEmpty()) {
+                nextPageToken = null;
+            }
+            int bytes = response.data != null ? response.data.length : 0;
+            String syncCursor = response.headers != null ? response.headers.get(HEADER_SYNC_CURSOR) : null;
+            boolean syncFull = response.headers != null && "true".equalsIgnoreCase(response.headers.get(HEADER_SYNC_FULL));
+            return Response.success(new Page(simpleBeacons, deletedIds, nextPageToken, etag, false, bytes, syncCursor, syncFull),
+                    HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * The beacons of one area which a {@link RemoteConnection} keeps in sync with its endpoint
+ * and the cursor to ask for the changes since the last sync.
+ */
+
+class BeaconSyncState {
+
+    private String cursor = null;
+    private final LinkedHashMap<Long, SimpleBeacon> beacons = new LinkedHashMap<>();
+
+    /**
+     * Gets the cursor of the last sync
+     * @return the cursor or null if the next sync has to fetch the full set
+     */
+    synchronized String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Applies the result of a sync
+     * @param changed the added or changed beacons
+     * @param deletedIds the IDs of the removed beacons
+     * @param full true if changed is the full set and replaces the current one
+     * @param cursor the cursor for the next sync or null if the endpoint does not support delta sync
+     */
+    synchronized void apply(List<SimpleBeacon> changed, List<Long> deletedIds, boolean full, String cursor) {
+        if (full) {
+            beacons.clear();
+        }
+        for (Long id : deletedIds) {
+            beacons.remove(id);
+        }
+        for (SimpleBeacon simpleBeacon : changed) {
+            beacons.put(key(simpleBeacon), simpleBeacon);
+        }
+        this.cursor = cursor;
+    }
+
+    /**
+     * Gets a copy of the current set
+     * @return the beacons
+     */
+    synchronized ArrayList<SimpleBeacon> getBeacons() {
+        return new ArrayList<>(beacons.values());
+    }
+
+    private static long key(SimpleBeacon simpleBeacon) {
+        // beacons without an ID of the endpoint can only be told apart by their hashcode
+        return simpleBeacon.id != 0 ? simpleBeacon.id : Long.MIN_VALUE + (simpleBeacon.hashcode & 0xffffffffL);
+    }
+}
@@ -0,0 +1,32 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.IOException;
+
+/**
+ * POSTs a single {@link RemoteBeaconObject} encoded as JSON.
+ * The response body is delivered as string.
+ */
+
+class BeaconUploadRequest extends GzipJsonRequest<String> {
+
+    BeaconUploadRequest(String url, byte[] beaconAsJson, RemotePreferences remotePreferences, boolean compressBody,
+                        Response.Listener<String> listener, Response.ErrorListener errorListener) {
+        super(Request.Method.POST, url, beaconAsJson, remotePreferences, compressBody, listener, errorListener);
+    }
+
+    @Override
+    protected Response<String> parseNetworkResponse(NetworkResponse response) {
+        setResponseHeaders(response);
+        try {
+            return Response.success(getResponseString(response), HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+}
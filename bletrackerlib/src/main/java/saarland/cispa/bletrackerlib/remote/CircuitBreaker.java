@@ -0,0 +1,230 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.util.Log;
+
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tracks the health of the endpoint of a {@link RemoteConnection}.
+ * After a number of failures in a row (network errors, 408, 429 and 5xx) the circuit opens and no upload is sent
+ * for a jittered, exponentially growing delay. Then one upload probes the endpoint: if it succeeds the circuit
+ * closes again, else it opens with a longer delay. Results of requests which were sent before the last state change
+ * are stale and do not close or open the circuit.
+ * A Retry-After header or a rate limit hint (RateLimit-Remaining: 0 with RateLimit-Reset, also with X- prefix)
+ * opens the circuit at least for the time the server asked for.
+ */
+
+class CircuitBreaker {
+
+    private static final String TAG = "CircuitBreaker";
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+    private static final String[] HEADERS_REMAINING = {"RateLimit-Remaining", "X-RateLimit-Remaining"};
+    private static final String[] HEADERS_RESET = {"RateLimit-Reset", "X-RateLimit-Reset"};
+    // larger reset values are a point in time (epoch seconds) and not a number of seconds
+    private static final long EPOCH_SECONDS_THRESHOLD = 1000000000L;
+
+    /**
+     * Returned by {@link #allowRequest()} if the request may not be sent
+     */
+    static final long DENIED = -1;
+
+    private final RemotePreferences remotePreferences;
+    private final Clock clock;
+    private final Random random;
+
+    private CircuitState state = CircuitState.CLOSED;
+    private int failures = 0;
+    private int opened = 0;
+    private long openUntil = 0;
+    private boolean probeInFlight = false;
+    // changes with every state change, results of requests allowed in an older one are stale
+    private long generation = 0;
+
+    CircuitBreaker(RemotePreferences remotePreferences) {
+        this(remotePreferences, Clock.SYSTEM, new Random());
+    }
+
+    CircuitBreaker(RemotePreferences remotePreferences, Clock clock, Random random) {
+        this.remotePreferences = remotePreferences;
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * Asks if a request may be sent now. In half-open state only one probe is allowed at a time.
+     * Every allowed request must report its result with the returned permit by {@link #onSuccess(long, Map)},
+     * {@link #onFailure(long, VolleyError)} or {@link #release(long)}.
+     * @return the permit of the request or {@link #DENIED} if it may not be sent
+     */
+    synchronized long allowRequest() {
+        switch (state) {
+            case OPEN:
+                if (clock.now() < openUntil) {
+                    return DENIED;
+                }
+                state = CircuitState.HALF_OPEN;
+                generation++;
+                probeInFlight = true;
+                return generation;
+            case HALF_OPEN:
+                if (probeInFlight) {
+                    return DENIED;
+                }
+                probeInFlight = true;
+                return generation;
+            default:
+                return generation;
+        }
+    }
+
+    /**
+     * Gets the time until the next request will be allowed
+     * @return the time in ms, 0 if requests are allowed now
+     */
+    synchronized long getDelay() {
+        if (state == CircuitState.OPEN) {
+            return Math.max(0, openUntil - clock.now());
+        }
+        return 0;
+    }
+
+    synchronized CircuitState getState() {
+        if (state == CircuitState.OPEN && clock.now() >= openUntil) {
+            return CircuitState.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Reports a successful request. Only the probe or a request sent after it closes the circuit,
+     * a request which was sent before the circuit opened says nothing about the endpoint now.
+     * @param permit the permit the request got from {@link #allowRequest()}
+     * @param headers the response headers or null, checked for rate limit hints
+     */
+    synchronized void onSuccess(long permit, Map<String, String> headers) {
+        if (permit == generation) {
+            healthy();
+        }
+        // the server asked for it, so even an old response counts
+        long delay = getRateLimitDelay(headers);
+        if (delay > 0) {
+            open(delay);
+        }
+    }
+
+    /**
+     * Reports a failed request. Errors which are not retryable (e.g. 400) are no health signal,
+     * the endpoint answered but did not like this request, so they only release the permit.
+     * @param permit the permit the request got from {@link #allowRequest()}
+     * @param error the error
+     */
+    synchronized void onFailure(long permit, VolleyError error) {
+        Map<String, String> headers = error.networkResponse != null ? error.networkResponse.headers : null;
+        long delay = Math.max(getRetryAfter(headers), getRateLimitDelay(headers));
+        if (!UploadLog.isRetryable(error) || permit != generation) {
+            release(permit);
+            if (delay > 0) {
+                open(delay);
+            }
+            return;
+        }
+        failures++;
+        if (state == CircuitState.HALF_OPEN || failures >= remotePreferences.getCircuitFailureThreshold() || delay > 0) {
+            open(delay);
+        }
+    }
+
+    /**
+     * Reports a request whose result says nothing about the health of the endpoint, e.g. a 415 while negotiating
+     * the upload format. If it was the probe, the next request probes again.
+     * @param permit the permit the request got from {@link #allowRequest()}
+     */
+    synchronized void release(long permit) {
+        if (permit == generation && state == CircuitState.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    private void healthy() {
+        if (state != CircuitState.CLOSED) {
+            Log.d(TAG, "circuit closed");
+            generation++;
+        }
+        state = CircuitState.CLOSED;
+        failures = 0;
+        opened = 0;
+        probeInFlight = false;
+    }
+
+    private void open(long minDelay) {
+        opened++;
+        long delay = Math.min((long) remotePreferences.getCircuitOpenDelay() << Math.min(opened - 1, 16),
+                remotePreferences.getCircuitMaxOpenDelay());
+        // full delay in the worst case but spread over the second half so devices do not come back at once
+        delay = delay / 2 + (long) (random.nextDouble() * (delay - delay / 2));
+        delay = Math.max(delay, minDelay);
+        state = CircuitState.OPEN;
+        generation++;
+        openUntil = clock.now() + delay;
+        probeInFlight = false;
+        Log.d(TAG, "circuit open for " + delay + "ms");
+    }
+
+    /**
+     * Parses a Retry-After header which is a number of seconds or a HTTP date
+     * @param headers the response headers or null
+     * @return the time in ms, 0 if there is none
+     */
+    static long getRetryAfter(Map<String, String> headers) {
+        String value = headers != null ? headers.get(HEADER_RETRY_AFTER) : null;
+        if (value == null) {
+            return 0;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            long date = HttpHeaderParser.parseDateAsEpoch(value);
+            return date > 0 ? Math.max(0, date - System.currentTimeMillis()) : 0;
+        }
+    }
+
+    /**
+     * Gets the time until the rate limit resets if the server said that no requests are remaining
+     * @param headers the response headers or null
+     * @return the time in ms, 0 if requests are remaining or there is no hint
+     */
+    static long getRateLimitDelay(Map<String, String> headers) {
+        if (headers == null) {
+            return 0;
+        }
+        try {
+            String remaining = getFirst(headers, HEADERS_REMAINING);
+            String reset = getFirst(headers, HEADERS_RESET);
+            if (remaining == null || reset == null || Long.parseLong(remaining.trim()) > 0) {
+                return 0;
+            }
+            long seconds = Long.parseLong(reset.trim());
+            if (seconds >= EPOCH_SECONDS_THRESHOLD) {
+                return Math.max(0, seconds * 1000 - System.currentTimeMillis());
+            }
+            return Math.max(0, seconds * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String getFirst(Map<String, String> headers, String[] names) {
+        for (String name : names) {
+            String value = headers.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,20 @@
+package saarland.cispa.bletrackerlib.remote;
+
+/**
+ * State of the circuit breaker which protects the endpoint of a {@link RemoteConnection}
+ */
+
+public enum CircuitState {
+    /**
+     * The endpoint is healthy, uploads are sent
+     */
+    CLOSED,
+    /**
+     * The endpoint failed or asked to back off, uploads are buffered locally until the delay expired
+     */
+    OPEN,
+    /**
+     * The delay expired, one upload probes if the endpoint is healthy again
+     */
+    HALF_OPEN
+}
@@ -0,0 +1,26 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.os.SystemClock;
+
+/**
+ * Source of the monotonic time used for timeouts and delays, replaceable to control time in tests
+ */
+
+interface Clock {
+
+    /**
+     * The clock of the device, it keeps running in deep sleep
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    /**
+     * Gets the current time
+     * @return the time in ms since an arbitrary point
+     */
+    long now();
+}
@@ -0,0 +1,251 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * Holds the uploads of all {@link RemoteConnection}s and releases them together in one burst,
+ * so the radio wakes up once per burst instead of once per beacon.
+ * A burst is released at the next multiple of the flush cadence, when any connection uses the network anyway
+ * or when the oldest held upload waited the max latency, whatever comes first.
+ * While the screen is off the (longer) screen-off cadence is used, it then also bounds the latency.
+ * With a flush cadence of 0 (default) nothing is held and every upload is sent right away.
+ */
+
+public class FlushCoordinator {
+
+    private static FlushCoordinator instance;
+
+    private final Clock clock;
+    private final Handler handler;
+    private final ArrayList<HeldUpload> held = new ArrayList<>();
+    private long oldestHeldTime = 0;
+    private long nextFlushTime = 0;
+    private boolean releasing = false;
+
+    private int flushCadence = 0;
+    private int screenOffFlushCadence = 5 * 60 * 1000;
+    private int flushMaxLatency = 2 * 60 * 1000;
+    private boolean screenOn = true;
+
+    private static class HeldUpload {
+        final RemoteConnection connection;
+        final BeaconPayload payload;
+        final UploadLane lane;
+
+        HeldUpload(RemoteConnection connection, BeaconPayload payload, UploadLane lane) {
+            this.connection = connection;
+            this.payload = payload;
+            this.lane = lane;
+        }
+    }
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onFlushTime();
+        }
+    };
+
+    /**
+     * Gets the coordinator which is shared by all connections of the app
+     * @return the coordinator
+     */
+    public static synchronized FlushCoordinator getInstance() {
+        if (instance == null) {
+            instance = new FlushCoordinator(Clock.SYSTEM, new Handler(Looper.getMainLooper()));
+        }
+        return instance;
+    }
+
+    FlushCoordinator(Clock clock, Handler handler) {
+        this.clock = clock;
+        this.handler = handler;
+    }
+
+    /**
+     * get the cadence to which bursts are aligned while the screen is on
+     * default 0 (uploads are not held)
+     * @return the time in ms
+     */
+    public synchronized int getFlushCadence() {
+        return flushCadence;
+    }
+
+    /**
+     * set the cadence to which bursts are aligned while the screen is on
+     * default 0 (uploads are not held)
+     * @param flushCadence the time in ms, 0 to send every upload right away
+     */
+    public void setFlushCadence(int flushCadence) {
+        synchronized (this) {
+            this.flushCadence = flushCadence;
+            schedule();
+        }
+        if (flushCadence <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * get the cadence to which bursts are aligned while the screen is off
+     * default 300,000ms (5min)
+     * @return the time in ms
+     */
+    public synchronized int getScreenOffFlushCadence() {
+        return screenOffFlushCadence;
+    }
+
+    /**
+     * set the cadence to which bursts are aligned while the screen is off.
+     * It is only used if a flush cadence is set.
+     * default 300,000ms (5min)
+     * @param screenOffFlushCadence the time in ms
+     */
+    public synchronized void setScreenOffFlushCadence(int screenOffFlushCadence) {
+        this.screenOffFlushCadence = screenOffFlushCadence;
+        schedule();
+    }
+
+    /**
+     * get the max time an upload is held while the screen is on
+     * default 120,000ms (2min)
+     * @return the time in ms
+     */
+    public synchronized int getFlushMaxLatency() {
+        return flushMaxLatency;
+    }
+
+    /**
+     * set the max time an upload is held while the screen is on, while it is off the screen-off cadence is the bound
+     * default 120,000ms (2min)
+     * @param flushMaxLatency the time in ms
+     */
+    public synchronized void setFlushMaxLatency(int flushMaxLatency) {
+        this.flushMaxLatency = flushMaxLatency;
+        schedule();
+    }
+
+    /**
+     * Tells the coordinator if the screen is on, while it is off the screen-off cadence is used
+     * @param screenOn true if the screen is on
+     */
+    public synchronized void setScreenOn(boolean screenOn) {
+        this.screenOn = screenOn;
+        schedule();
+    }
+
+    /**
+     * Tells the coordinator that the app uses the network right now, e.g. for its own requests.
+     * The radio is awake then, so the held uploads are released with it.
+     */
+    public void onNetworkActivity() {
+        synchronized (this) {
+            if (held.isEmpty() || releasing) {
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Releases all held uploads right now
+     */
+    public void flush() {
+        ArrayList<HeldUpload> burst;
+        synchronized (this) {
+            if (held.isEmpty()) {
+                return;
+            }
+            burst = new ArrayList<>(held);
+            held.clear();
+            handler.removeCallbacks(flushRunnable);
+            nextFlushTime = 0;
+            releasing = true;
+        }
+        try {
+            LinkedHashSet<RemoteConnection> connections = new LinkedHashSet<>();
+            for (HeldUpload upload : burst) {
+                upload.connection.release(upload.payload, upload.lane);
+                connections.add(upload.connection);
+            }
+            // batches leave with the burst instead of waiting for their own delay
+            for (RemoteConnection connection : connections) {
+                connection.flushBatch();
+            }
+        } finally {
+            synchronized (this) {
+                releasing = false;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of uploads which are held for the next burst
+     * @return the number of uploads
+     */
+    public synchronized int getHeldCount() {
+        return held.size();
+    }
+
+    /**
+     * Holds an upload for the next burst
+     * @param connection the connection which uploads it
+     * @param payload the beacon
+     * @param lane the priority lane
+     * @return false if uploads are not held and it has to be sent right away
+     */
+    synchronized boolean hold(RemoteConnection connection, BeaconPayload payload, UploadLane lane) {
+        if (flushCadence <= 0 || releasing) {
+            return false;
+        }
+        if (held.isEmpty()) {
+            oldestHeldTime = clock.now();
+        }
+        held.add(new HeldUpload(connection, payload, lane));
+        schedule();
+        return true;
+    }
+
+    /**
+     * Gets the time of the next burst
+     * @return the time of the {@link Clock} or 0 if nothing is held
+     */
+    synchronized long getNextFlushTime() {
+        return nextFlushTime;
+    }
+
+    private void onFlushTime() {
+        synchronized (this) {
+            // the runnable may be late or early, only release if it is due
+            if (nextFlushTime == 0 || clock.now() < nextFlushTime) {
+                // it ran already, so it has to be posted again even if the flush time did not change
+                nextFlushTime = 0;
+                schedule();
+                return;
+            }
+        }
+        flush();
+    }
+
+    private void schedule() {
+        if (held.isEmpty() || flushCadence <= 0) {
+            return;
+        }
+        long now = clock.now();
+        long cadence = screenOn ? flushCadence : Math.max(flushCadence, screenOffFlushCadence);
+        // while the screen is off the longer cadence is also the latency bound
+        long maxLatency = screenOn ? flushMaxLatency : Math.max(flushMaxLatency, cadence);
+        long aligned = (now / cadence + 1) * cadence;
+        long flushTime = Math.min(aligned, oldestHeldTime + maxLatency);
+        if (flushTime == nextFlushTime) {
+            return;
+        }
+        nextFlushTime = flushTime;
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, Math.max(0, flushTime - now));
+    }
+}
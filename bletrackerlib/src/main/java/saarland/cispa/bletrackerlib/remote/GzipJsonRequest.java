@@ -0,0 +1,258 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Base request of the {@link RemoteConnection} which gzips the request body if compression is enabled
+ * in the {@link RemotePreferences} and the body is at least the compression threshold big.
+ * It also asks for gzip compressed responses and decompresses them.
+ * The body is taken as already encoded UTF-8 JSON so it is not copied into a String first.
+ *
+ * @param <T> the type of the parsed response
+ */
+
+abstract class GzipJsonRequest<T> extends Request<T> {
+
+    static final String PROTOCOL_CHARSET = "utf-8";
+    private static final String PROTOCOL_CONTENT_TYPE = "application/json; charset=" + PROTOCOL_CHARSET;
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_ACCEPT = "Accept";
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    private static final String GZIP = "gzip";
+
+    private final Response.Listener<T> listener;
+    private final byte[] requestBody;
+    private final boolean compressionEnabled;
+    private final boolean acceptBinary;
+    private String bodyContentType = PROTOCOL_CONTENT_TYPE;
+    private final boolean compressBody;
+    private final int compressionThreshold;
+    private byte[] encodedBody;
+    private boolean bodyEncoded = false;
+    private boolean compressed = false;
+    private volatile Map<String, String> responseHeaders;
+    private Priority priority = Priority.NORMAL;
+
+    /**
+     * @param method the HTTP method
+     * @param url the URL
+     * @param requestBody the UTF-8 encoded JSON body or null
+     * @param remotePreferences the preferences of the connection
+     * @param compressBody false if the server does not accept compressed bodies
+     * @param listener the response listener
+     * @param errorListener the error listener
+     */
+    GzipJsonRequest(int method, String url, byte[] requestBody, RemotePreferences remotePreferences,
+                    boolean compressBody, Response.Listener<T> listener, Response.ErrorListener errorListener) {
+        super(method, url, errorListener);
+        this.listener = listener;
+        this.requestBody = requestBody;
+        this.compressionEnabled = remotePreferences.isCompressionEnabled();
+        this.acceptBinary = remotePreferences.getWireFormat() == WireFormat.BINARY;
+        this.compressBody = compressionEnabled && compressBody;
+        this.compressionThreshold = remotePreferences.getCompressionThreshold();
+    }
+
+    /**
+     * Indicates if the body of this request was sent gzip compressed
+     * @return true if it was compressed
+     */
+    boolean isCompressed() {
+        getBody();
+        return compressed;
+    }
+
+    /**
+     * Gets the headers of the response, they are known once the response was parsed
+     * @return the headers or null
+     */
+    Map<String, String> getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    /**
+     * Keeps the headers of the response, called while parsing it
+     * @param response the network response
+     */
+    void setResponseHeaders(NetworkResponse response) {
+        responseHeaders = response.headers;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority in the request queue, default is NORMAL
+     * @param priority the priority
+     */
+    void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    @Override
+    protected void deliverResponse(T response) {
+        if (listener != null) {
+            listener.onResponse(response);
+        }
+    }
+
+    @Override
+    public String getBodyContentType() {
+        return bodyContentType;
+    }
+
+    /**
+     * Sets the content type of the body, default is JSON
+     * @param bodyContentType the content type
+     */
+    void setBodyContentType(String bodyContentType) {
+        this.bodyContentType = bodyContentType;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = new HashMap<>(super.getHeaders());
+        if (compressionEnabled) {
+            headers.put(HEADER_ACCEPT_ENCODING, GZIP);
+        }
+        if (acceptBinary) {
+            headers.put(HEADER_ACCEPT, BeaconBinaryCodec.CONTENT_TYPE + ", application/json;q=0.5");
+        }
+        if (isCompressed()) {
+            headers.put(HEADER_CONTENT_ENCODING, GZIP);
+        }
+        return headers;
+    }
+
+    @Override
+    public synchronized byte[] getBody() {
+        if (!bodyEncoded) {
+            bodyEncoded = true;
+            encodedBody = requestBody;
+            if (compressBody && encodedBody != null && encodedBody.length >= compressionThreshold) {
+                try {
+                    encodedBody = gzip(encodedBody);
+                    compressed = true;
+                } catch (IOException e) {
+                    // send it uncompressed
+                }
+            }
+        }
+        return encodedBody;
+    }
+
+    /**
+     * Gets the response body and decompresses it if needed
+     * @param response the network response
+     * @return the body
+     * @throws IOException if the body can not be decompressed
+     */
+    static byte[] getResponseBody(NetworkResponse response) throws IOException {
+        String encoding = response.headers != null ? response.headers.get(HEADER_CONTENT_ENCODING) : null;
+        if (encoding == null || !encoding.toLowerCase().contains(GZIP) || response.data == null) {
+            return response.data;
+        }
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(response.data.length * 4);
+        byte[] buffer = new byte[4096];
+        int read;
+        try {
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Gets the response body as string and decompresses it if needed
+     * @param response the network response
+     * @return the body
+     * @throws IOException if the body can not be decompressed or decoded
+     */
+    static String getResponseString(NetworkResponse response) throws IOException {
+        byte[] body = getResponseBody(response);
+        if (body == null) {
+            return "";
+        }
+        try {
+            return new String(body, HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET));
+        } catch (UnsupportedEncodingException e) {
+            return new String(body, PROTOCOL_CHARSET);
+        }
+    }
+
+    /**
+     * Opens a reader on the response body which decompresses it while reading if needed
+     * @param response the network response
+     * @return the reader, it is empty if the response has no body
+     * @throws IOException if the decompression can not be started
+     */
+    static Reader getResponseReader(NetworkResponse response) throws IOException {
+        InputStream in = getResponseStream(response);
+        String charset = HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET);
+        try {
+            return new InputStreamReader(in, charset);
+        } catch (UnsupportedEncodingException e) {
+            return new InputStreamReader(in, PROTOCOL_CHARSET);
+        }
+    }
+
+    /**
+     * Opens a stream on the response body which decompresses it while reading if needed
+     * @param response the network response
+     * @return the stream, it is empty if the response has no body
+     * @throws IOException if the decompression can not be started
+     */
+    static InputStream getResponseStream(NetworkResponse response) throws IOException {
+        byte[] data = response.data != null ? response.data : new byte[0];
+        InputStream in = new ByteArrayInputStream(data);
+        String encoding = response.headers != null ? response.headers.get(HEADER_CONTENT_ENCODING) : null;
+        if (encoding != null && encoding.toLowerCase().contains(GZIP) && data.length > 0) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    /**
+     * Indicates if the response body is in the binary wire format
+     * @param response the network response
+     * @return true if binary
+     */
+    static boolean isBinaryResponse(NetworkResponse response) {
+        String contentType = response.headers != null ? response.headers.get(HEADER_CONTENT_TYPE) : null;
+        return contentType != null && contentType.toLowerCase().startsWith(BeaconBinaryCodec.CONTENT_TYPE);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        try {
+            gzip.write(data);
+        } finally {
+            gzip.close();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Wraps the socket factory of a {@link VolleyTransport} to count its TLS handshakes.
+ * A handshake counts as resumed if its session ID was seen before.
+ */
+
+class HandshakeCountingSocketFactory extends SSLSocketFactory {
+
+    private static final int MAX_SESSION_IDS = 256;
+
+    private final SSLSocketFactory delegate;
+    private final TransportStats stats;
+    private final LinkedHashMap<String, Boolean> sessionIds = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_SESSION_IDS;
+        }
+    };
+
+    private final HandshakeCompletedListener listener = new HandshakeCompletedListener() {
+        @Override
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            byte[] id = event.getSession().getId();
+            boolean resumed = false;
+            if (id != null && id.length > 0) {
+                String key = new BigInteger(1, id).toString(16);
+                synchronized (sessionIds) {
+                    resumed = sessionIds.put(key, Boolean.TRUE) != null;
+                }
+            }
+            stats.handshake(resumed);
+        }
+    };
+
+    HandshakeCountingSocketFactory(SSLSocketFactory delegate, TransportStats stats) {
+        this.delegate = delegate;
+        this.stats = stats;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+        return observe(delegate.createSocket(socket, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return observe(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return observe(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return observe(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return observe(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return observe(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private Socket observe(Socket socket) {
+        if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).addHandshakeCompletedListener(listener);
+        }
+        return socket;
+    }
+}
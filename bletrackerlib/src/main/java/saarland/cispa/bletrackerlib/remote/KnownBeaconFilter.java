@@ -0,0 +1,106 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Bloom filter of the beacons the server has confirmed at least min confirmations times in one region.
+ * The key of a beacon is its hashcode (the HashCode field of {@link RemoteBeaconObject}).
+ * Bit i of the k bits of a key is (h1 + i * h2) mod m, where h1 and h2 are the lower and upper
+ * 32 bits of the 64 bit FNV-1a hash of the 4 big endian bytes of the hashcode.
+ * <p>
+ * Wire format (big endian), optionally gzip compressed:
+ * magic "KBF1", flags byte (bit 0: delta), version long, base version long,
+ * m int, k int, then the bits in (m + 7) / 8 bytes, bit j is bit j % 8 of byte j / 8.
+ * A delta only has the bits which were set since the base version and is ORed into the filter of that version.
+ */
+
+final class KnownBeaconFilter {
+
+    static final String CONTENT_TYPE = "application/x-known-beacon-filter";
+
+    private static final byte[] MAGIC = {'K', 'B', 'F', '1'};
+    private static final int FLAG_DELTA = 1;
+    // a filter bigger than this is no compact filter anymore
+    private static final int MAX_BITS = 64 * 1024 * 1024;
+    private static final int MAX_HASHES = 32;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    final long version;
+    private final int bitCount;
+    private final int hashCount;
+    private final byte[] bits;
+
+    private KnownBeaconFilter(long version, int bitCount, int hashCount, byte[] bits) {
+        this.version = version;
+        this.bitCount = bitCount;
+        this.hashCount = hashCount;
+        this.bits = bits;
+    }
+
+    /**
+     * Checks if a beacon is in the filter, false positives are possible with the rate the server chose
+     * @param hashcode the hashcode of the beacon
+     * @return true if the beacon is probably known
+     */
+    boolean contains(int hashcode) {
+        long hash = FNV_OFFSET;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            hash ^= (hashcode >>> shift) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        long h1 = hash & 0xffffffffL;
+        long h2 = hash >>> 32;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) ((h1 + i * h2) % bitCount);
+            if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a filter or a delta
+     * @param in the decompressed response body
+     * @param base the current filter of the region or null
+     * @return the new filter or null if the response is a delta which does not fit the base, the full filter has to be loaded then
+     * @throws IOException if the stream can not be read or is no valid filter
+     */
+    static KnownBeaconFilter read(InputStream in, KnownBeaconFilter base) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            data.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException("no known beacon filter");
+                }
+            }
+            boolean delta = (data.readByte() & FLAG_DELTA) != 0;
+            long version = data.readLong();
+            long baseVersion = data.readLong();
+            int bitCount = data.readInt();
+            int hashCount = data.readInt();
+            if (bitCount <= 0 || bitCount > MAX_BITS || hashCount <= 0 || hashCount > MAX_HASHES) {
+                throw new IOException("invalid known beacon filter size " + bitCount + "/" + hashCount);
+            }
+            byte[] bits = new byte[(bitCount + 7) / 8];
+            data.readFully(bits);
+            if (!delta) {
+                return new KnownBeaconFilter(version, bitCount, hashCount, bits);
+            }
+            if (base == null || base.version != baseVersion || base.bitCount != bitCount || base.hashCount != hashCount) {
+                return null;
+            }
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] |= base.bits[i];
+            }
+            return new KnownBeaconFilter(version, bitCount, hashCount, bits);
+        } finally {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * GETs the {@link KnownBeaconFilter} of a region. If a filter is loaded already its version is sent as since
+ * parameter and the endpoint answers with a delta, the full filter or 304 Not Modified (204 works too).
+ * The response is the base filter then, or null if a delta did not fit the base filter.
+ */
+
+class KnownBeaconFilterRequest extends GzipJsonRequest<KnownBeaconFilter> {
+
+    private static final String HEADER_ACCEPT = "Accept";
+
+    private final KnownBeaconFilter base;
+
+    /**
+     * @param url the URL of the region without since parameter
+     * @param base the current filter of the region or null
+     * @param remotePreferences the preferences of the connection
+     * @param listener the response listener
+     * @param errorListener the error listener
+     */
+    KnownBeaconFilterRequest(String url, KnownBeaconFilter base, RemotePreferences remotePreferences,
+                             Response.Listener<KnownBeaconFilter> listener, Response.ErrorListener errorListener) {
+        super(Request.Method.GET, base != null ? url + "?since=" + base.version : url, null,
+                remotePreferences, false, listener, errorListener);
+        this.base = base;
+        // the versions do the caching
+        setShouldCache(false);
+        setPriority(Priority.LOW);
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        Map<String, String> headers = super.getHeaders();
+        headers.put(HEADER_ACCEPT, KnownBeaconFilter.CONTENT_TYPE);
+        return headers;
+    }
+
+    @Override
+    protected Response<KnownBeaconFilter> parseNetworkResponse(NetworkResponse response) {
+        if (response.notModified || response.statusCode == 304 || response.statusCode == 204) {
+            return Response.success(base, HttpHeaderParser.parseCacheHeaders(response));
+        }
+        try {
+            return Response.success(KnownBeaconFilter.read(getResponseStream(response), base),
+                    HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+}
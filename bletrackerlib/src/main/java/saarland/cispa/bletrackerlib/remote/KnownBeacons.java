@@ -0,0 +1,106 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.util.Log;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * The {@link KnownBeaconFilter}s of the regions a {@link RemoteConnection} sends beacons from.
+ * A region is {@link RemotePreferences#getKnownBeaconRegionSize()} degrees wide and high, region x, y is requested
+ * from the known beacon filter URL followed by /minConfirmations/x/y. The filter of a region is loaded
+ * with the first sighting in it and refreshed after the refresh interval, until then beacons count as unknown.
+ * The least recently used regions are evicted.
+ */
+
+class KnownBeacons {
+
+    private static final String TAG = "KnownBeacons";
+    private static final int MAX_REGIONS = 16;
+
+    private final RemoteConnection connection;
+    private final RemotePreferences remotePreferences;
+    private final String filterUrl;
+    private final Clock clock;
+    private final LinkedHashMap<Long, Region> regions = new LinkedHashMap<Long, Region>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Region> eldest) {
+            return size() > MAX_REGIONS;
+        }
+    };
+
+    private static class Region {
+        KnownBeaconFilter filter;
+        long loadedAt;
+        boolean loading;
+    }
+
+    KnownBeacons(RemoteConnection connection, String url, RemotePreferences remotePreferences, Clock clock) {
+        this.connection = connection;
+        this.remotePreferences = remotePreferences;
+        this.filterUrl = remotePreferences.getKnownBeaconFilterUrl(url);
+        this.clock = clock;
+    }
+
+    /**
+     * Checks if the server already confirmed a beacon in the region of its location.
+     * Loads or refreshes the filter of the region if needed.
+     * @param simpleBeacon the sighting
+     * @return true if it is probably known, false if it is new or has no location or the filter is not loaded yet
+     */
+    synchronized boolean isKnown(SimpleBeacon simpleBeacon) {
+        if (simpleBeacon.location == null) {
+            return false;
+        }
+        double regionSize = remotePreferences.getKnownBeaconRegionSize();
+        int x = (int) Math.floor(simpleBeacon.location.locationLong / regionSize);
+        int y = (int) Math.floor(simpleBeacon.location.locationLat / regionSize);
+        long key = TileCache.key(x, y);
+        Region region = regions.get(key);
+        if (region == null) {
+            region = new Region();
+            regions.put(key, region);
+        }
+        if (!region.loading && (region.loadedAt == 0
+                || clock.now() - region.loadedAt >= remotePreferences.getKnownBeaconFilterRefreshInterval())) {
+            load(region, x, y, region.filter);
+        }
+        return region.filter != null && region.filter.contains(simpleBeacon.hashcode);
+    }
+
+    private void load(final Region region, final int x, final int y, final KnownBeaconFilter base) {
+        region.loading = true;
+        String regionUrl = String.format(Locale.ENGLISH, "%s/%d/%d/%d", filterUrl, remotePreferences.getMinConfirmations(), x, y);
+        connection.execute(new KnownBeaconFilterRequest(regionUrl, base, remotePreferences, new Response.Listener<KnownBeaconFilter>() {
+            @Override
+            public void onResponse(KnownBeaconFilter filter) {
+                synchronized (KnownBeacons.this) {
+                    if (filter == null && base != null) {
+                        Log.d(TAG, "delta does not fit version " + base.version + ", loading full filter");
+                        load(region, x, y, null);
+                        return;
+                    }
+                    region.loading = false;
+                    region.loadedAt = clock.now();
+                    region.filter = filter;
+                }
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                Log.d(TAG, "known beacon filter error: " + error.getMessage());
+                synchronized (KnownBeacons.this) {
+                    // keep the old filter and try again after the refresh interval
+                    region.loading = false;
+                    region.loadedAt = clock.now();
+                }
+            }
+        }));
+    }
+}
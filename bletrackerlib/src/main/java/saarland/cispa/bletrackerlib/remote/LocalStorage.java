@@ -0,0 +1,56 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.File;
+
+/**
+ * The files {@link RemoteConnection}s keep in the app storage: one background thread for all file access
+ * of all connections and one directory per connection and kind of data.
+ */
+
+final class LocalStorage {
+
+    private static final String TAG = "LocalStorage";
+    private static final int MAX_URL_CHARS = 64;
+
+    private static Handler handler;
+
+    private LocalStorage() {
+    }
+
+    /**
+     * Gets the handler of the storage thread, the thread is started on the first call and runs as long as the app
+     * @return the handler
+     */
+    static synchronized Handler getHandler() {
+        if (handler == null) {
+            HandlerThread thread = new HandlerThread(TAG);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+        return handler;
+    }
+
+    /**
+     * Gets the directory of a connection. Its name is made of the prefix, the URL with all characters
+     * which are not allowed in file names replaced and the hash of the URL, so two URLs only share a
+     * directory if both the readable part and the hash are the same.
+     * @param context the application context
+     * @param prefix the kind of data, e.g. bletracker_uploads
+     * @param url the URL of the connection
+     * @return the directory, it is not created
+     */
+    static File getDirectory(Context context, String prefix, String url) {
+        StringBuilder name = new StringBuilder(prefix).append('_');
+        String readable = url.replaceFirst("^[a-zA-Z]+://", "");
+        for (int i = 0; i < readable.length() && i < MAX_URL_CHARS; i++) {
+            char c = readable.charAt(i);
+            name.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-' ? c : '_');
+        }
+        name.append('_').append(Integer.toHexString(url.hashCode()));
+        return new File(context.getFilesDir(), name.toString());
+    }
+}
@@ -0,0 +1,163 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HttpResponse;
+import com.android.volley.toolbox.HurlStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * The one Volley RequestQueue of the app which all {@link VolleyTransport}s and so all {@link RemoteConnection}s use.
+ * It has one bounded pool of network threads and one response cache. The socket factory (and so the pinning)
+ * is picked per request, so connections with different KeyStores still share the threads.
+ * Configure it with {@link #configure(int, int)} (done by BleTracker.init) before the first connection is created.
+ */
+
+public class NetworkExecutor {
+
+    private static final String TAG = "NetworkExecutor";
+    private static final String CACHE_DIRECTORY = "volley";
+
+    private static int threadPoolSize = 4;
+    private static int cacheSize = 5 * 1024 * 1024;
+    private static NetworkExecutor instance;
+
+    private final RequestQueue queue;
+    private final SocketFactoryStack stack = new SocketFactoryStack();
+    private final Map<Request<?>, Runnable> finishedCallbacks = new IdentityHashMap<>();
+
+    /**
+     * HurlStack which uses the socket factory the request was sent with
+     */
+    private static class SocketFactoryStack extends HurlStack {
+
+        private final Map<Request<?>, SSLSocketFactory> socketFactories = new IdentityHashMap<>();
+        private final ThreadLocal<SSLSocketFactory> current = new ThreadLocal<>();
+
+        @Override
+        public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
+                throws IOException, AuthFailureError {
+            synchronized (socketFactories) {
+                current.set(socketFactories.get(request));
+            }
+            try {
+                return super.executeRequest(request, additionalHeaders);
+            } finally {
+                current.remove();
+            }
+        }
+
+        @Override
+        protected HttpURLConnection createConnection(URL url) throws IOException {
+            HttpURLConnection connection = super.createConnection(url);
+            SSLSocketFactory socketFactory = current.get();
+            if (socketFactory != null && connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+            }
+            return connection;
+        }
+    }
+
+    /**
+     * Sets the size of the shared thread pool and response cache.
+     * This only has an effect before the first connection is created.
+     * @param threadPoolSize the number of network threads
+     * @param cacheSize the max size of the response cache in bytes
+     */
+    public static synchronized void configure(int threadPoolSize, int cacheSize) {
+        if (instance != null) {
+            Log.d(TAG, "already started, configuration ignored");
+            return;
+        }
+        NetworkExecutor.threadPoolSize = threadPoolSize;
+        NetworkExecutor.cacheSize = cacheSize;
+    }
+
+    /**
+     * Gets the shared executor, it is started on the first call
+     * @param context the application context
+     * @return the executor
+     */
+    static synchronized NetworkExecutor getInstance(Context context) {
+        if (instance == null) {
+            instance = new NetworkExecutor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // addRequestFinishedListener is deprecated since Volley 1.2 in favour of addRequestEventListener,
+    // which the Volley 1.1.1 this library is built against does not have yet
+    @SuppressWarnings("deprecation")
+    private NetworkExecutor(Context context) {
+        File cacheDirectory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+        queue = new RequestQueue(new DiskBasedCache(cacheDirectory, cacheSize), new BasicNetwork(stack), threadPoolSize);
+        queue.addRequestFinishedListener(new RequestQueue.RequestFinishedListener<Object>() {
+            @Override
+            public void onRequestFinished(Request<Object> request) {
+                Runnable finished = forget(request);
+                if (finished != null) {
+                    finished.run();
+                }
+            }
+        });
+        queue.start();
+    }
+
+    /**
+     * Sends a request
+     * @param request the request
+     * @param socketFactory the socket factory for HTTPS connections or null for the default one
+     * @param finished called when the request finished, failed or was cancelled, may be null
+     */
+    void send(Request<?> request, SSLSocketFactory socketFactory, Runnable finished) {
+        if (socketFactory != null) {
+            synchronized (stack.socketFactories) {
+                stack.socketFactories.put(request, socketFactory);
+            }
+        }
+        if (finished != null) {
+            synchronized (finishedCallbacks) {
+                finishedCallbacks.put(request, finished);
+            }
+        }
+        try {
+            queue.add(request);
+        } catch (RuntimeException e) {
+            // the queue never saw the request, so it will not report it finished
+            Runnable callback = forget(request);
+            if (callback != null) {
+                callback.run();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the entries of a request which finished or was never dispatched
+     * @param request the request
+     * @return the finished callback of the request or null
+     */
+    private Runnable forget(Request<?> request) {
+        synchronized (stack.socketFactories) {
+            stack.socketFactories.remove(request);
+        }
+        synchronized (finishedCallbacks) {
+            return finishedCallbacks.remove(request);
+        }
+    }
+}
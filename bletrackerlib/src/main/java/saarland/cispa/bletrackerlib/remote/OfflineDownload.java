@@ -0,0 +1,130 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Downloads the missing tiles of an {@link OfflineRegion} into the {@link OfflineStore} of a {@link RemoteConnection},
+ * a few tiles at a time. A refresh downloads all tiles again, tiles with a sync cursor only get the changes since it.
+ * Everything but the file access runs on the main thread.
+ */
+
+class OfflineDownload {
+
+    private static final int PARALLEL_TILES = 2;
+
+    private final RemoteConnection connection;
+    private final OfflineStore store;
+    private final double tileSize;
+    private final String name;
+    private final OfflineDownloadListener listener;
+    private final RemoteQuery query = new RemoteQuery();
+
+    private Iterator<Map.Entry<Long, String>> pending;
+    private int tilesTotal = 0;
+    private int tilesDone = 0;
+    private int running = 0;
+
+    OfflineDownload(RemoteConnection connection, OfflineStore store, double tileSize, String name,
+                    OfflineDownloadListener listener) {
+        this.connection = connection;
+        this.store = store;
+        this.tileSize = tileSize;
+        this.name = name;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the download
+     * @param region the region to download or null to refresh the stored region with the name of this download
+     * @return the handle to cancel the download
+     */
+    RemoteQuery start(OfflineRegion region) {
+        store.prepare(region, name, new OfflineStore.PrepareCallback() {
+            @Override
+            public void onPrepared(OfflineRegion stored, LinkedHashMap<Long, String> tiles) {
+                if (query.isCancelled()) {
+                    return;
+                }
+                if (stored == null) {
+                    fail("region " + name + " can not be stored or is not stored");
+                    return;
+                }
+                tilesTotal = stored.tiles.size();
+                tilesDone = tilesTotal - tiles.size();
+                pending = tiles.entrySet().iterator();
+                listener.onDownloadProgress(name, tilesDone, tilesTotal);
+                next();
+            }
+        });
+        return query;
+    }
+
+    private void next() {
+        while (running < PARALLEL_TILES && pending.hasNext()) {
+            Map.Entry<Long, String> tile = pending.next();
+            running++;
+            download(tile.getKey(), tile.getValue());
+        }
+        if (running == 0) {
+            query.setDone();
+            listener.onDownloadComplete(name);
+        }
+    }
+
+    private void download(final long key, final String cursor) {
+        double longS = TileCache.tileX(key) * tileSize;
+        double latS = TileCache.tileY(key) * tileSize;
+        String apiUrl = RemoteConnection.withCursor(connection.getApiUrl(longS, longS + tileSize, latS, latS + tileSize), cursor);
+        final ArrayList<SimpleBeacon> changed = new ArrayList<>();
+        final ArrayList<Long> deletedIds = new ArrayList<>();
+        final boolean[] full = {cursor == null};
+        connection.requestPages(apiUrl, null, null, query, new RemoteConnection.PageListener() {
+            @Override
+            public void onPage(BeaconQueryRequest.Page page, boolean lastPage) {
+                changed.addAll(page.beacons);
+                deletedIds.addAll(page.deletedIds);
+                full[0] |= page.syncFull;
+                if (!lastPage) {
+                    return;
+                }
+                // without a cursor the endpoint does not support delta sync and sent everything
+                full[0] |= page.syncCursor == null;
+                store.saveTile(key, changed, deletedIds, full[0], page.syncCursor, new OfflineStore.SaveCallback() {
+                    @Override
+                    public void onSaved(boolean saved) {
+                        if (query.isCancelled()) {
+                            return;
+                        }
+                        if (!saved) {
+                            fail("tile of region " + name + " can not be stored");
+                            return;
+                        }
+                        running--;
+                        tilesDone++;
+                        listener.onDownloadProgress(name, tilesDone, tilesTotal);
+                        next();
+                    }
+                });
+            }
+
+            @Override
+            public void onError(VolleyError error) {
+                fail(error.getMessage());
+            }
+        });
+    }
+
+    private void fail(String errorMessage) {
+        // the tiles which are stored already stay, the next download continues with the others
+        query.cancel();
+        query.setDone();
+        listener.onDownloadError(name, errorMessage);
+    }
+}
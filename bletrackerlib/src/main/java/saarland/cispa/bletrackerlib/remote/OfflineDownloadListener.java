@@ -0,0 +1,26 @@
+package saarland.cispa.bletrackerlib.remote;
+
+/**
+ * Callbacks for {@link RemoteConnection#downloadRegion(String, double, double, double, double, OfflineDownloadListener)}
+ * and {@link RemoteConnection#refreshRegion(String, OfflineDownloadListener)}. They are fired on the main thread.
+ */
+public interface OfflineDownloadListener {
+
+    /**
+     * Called when the download started and after every stored tile
+     * @param region the name of the region
+     * @param tilesDone the number of stored tiles, tiles stored by an earlier interrupted download are counted too
+     * @param tilesTotal the number of tiles of the region
+     */
+    void onDownloadProgress(String region, int tilesDone, int tilesTotal);
+
+    void onDownloadComplete(String region);
+
+    /**
+     * Called if a tile could not be downloaded or stored. The stored tiles are kept,
+     * downloading the region again continues with the missing ones.
+     * @param region the name of the region
+     * @param errorMessage the error message
+     */
+    void onDownloadError(String region, String errorMessage);
+}
@@ -0,0 +1,135 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.util.ArrayList;
+
+/**
+ * An area downloaded for offline use by {@link RemoteConnection#downloadRegion(String, double, double, double, double, OfflineDownloadListener)}.
+ * It is made of the tiles of {@link RemotePreferences#getOfflineTileSize()} degrees which touch the area,
+ * tile x, y covers the longitude x * tileSize to (x + 1) * tileSize and the latitude y * tileSize to (y + 1) * tileSize.
+ */
+
+final class OfflineRegion {
+
+    /**
+     * Max number of tiles of the bounding box of a region
+     */
+    static final int MAX_TILES = 4096;
+
+    final String name;
+    final ArrayList<Long> tiles;
+
+    OfflineRegion(String name, ArrayList<Long> tiles) {
+        this.name = name;
+        this.tiles = tiles;
+    }
+
+    /**
+     * Gets the tiles of a bounding box
+     * @param name the name of the region
+     * @param tileSize the tile size in degrees
+     * @return the region or null if the box has more than {@link #MAX_TILES} tiles
+     */
+    static OfflineRegion box(String name, double tileSize, double longS, double longE, double latS, double latE) {
+        int x0 = index(Math.min(longS, longE), tileSize);
+        int x1 = index(Math.max(longS, longE), tileSize);
+        int y0 = index(Math.min(latS, latE), tileSize);
+        int y1 = index(Math.max(latS, latE), tileSize);
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > MAX_TILES) {
+            return null;
+        }
+        ArrayList<Long> tiles = new ArrayList<>();
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                tiles.add(TileCache.key(x, y));
+            }
+        }
+        return new OfflineRegion(name, tiles);
+    }
+
+    /**
+     * Gets the tiles which touch a polygon
+     * @param name the name of the region
+     * @param tileSize the tile size in degrees
+     * @param longitudes the longitudes of the corners
+     * @param latitudes the latitudes of the corners, in the same order
+     * @return the region or null if the bounding box of the polygon has more than {@link #MAX_TILES} tiles
+     */
+    static OfflineRegion polygon(String name, double tileSize, double[] longitudes, double[] latitudes) {
+        if (longitudes.length != latitudes.length || longitudes.length < 3) {
+            throw new IllegalArgumentException("a polygon needs at least 3 corners");
+        }
+        double longS = longitudes[0], longE = longitudes[0], latS = latitudes[0], latE = latitudes[0];
+        for (int i = 1; i < longitudes.length; i++) {
+            longS = Math.min(longS, longitudes[i]);
+            longE = Math.max(longE, longitudes[i]);
+            latS = Math.min(latS, latitudes[i]);
+            latE = Math.max(latE, latitudes[i]);
+        }
+        OfflineRegion bounds = box(name, tileSize, longS, longE, latS, latE);
+        if (bounds == null) {
+            return null;
+        }
+        ArrayList<Long> tiles = new ArrayList<>();
+        for (long key : bounds.tiles) {
+            double x0 = TileCache.tileX(key) * tileSize;
+            double y0 = TileCache.tileY(key) * tileSize;
+            if (touches(longitudes, latitudes, x0, y0, x0 + tileSize, y0 + tileSize)) {
+                tiles.add(key);
+            }
+        }
+        return new OfflineRegion(name, tiles);
+    }
+
+    static int index(double coordinate, double tileSize) {
+        return (int) Math.floor(coordinate / tileSize);
+    }
+
+    /**
+     * Checks if a polygon and a rectangle overlap: a corner of one is inside the other or their edges cross
+     */
+    private static boolean touches(double[] xs, double[] ys, double x0, double y0, double x1, double y1) {
+        for (int i = 0; i < xs.length; i++) {
+            if (xs[i] >= x0 && xs[i] <= x1 && ys[i] >= y0 && ys[i] <= y1) {
+                return true;
+            }
+        }
+        if (contains(xs, ys, x0, y0) || contains(xs, ys, x1, y0) || contains(xs, ys, x0, y1) || contains(xs, ys, x1, y1)) {
+            return true;
+        }
+        for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+            if (crosses(xs[j], ys[j], xs[i], ys[i], x0, y0, x1, y0)
+                    || crosses(xs[j], ys[j], xs[i], ys[i], x1, y0, x1, y1)
+                    || crosses(xs[j], ys[j], xs[i], ys[i], x1, y1, x0, y1)
+                    || crosses(xs[j], ys[j], xs[i], ys[i], x0, y1, x0, y0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Even-odd rule point in polygon test
+     */
+    private static boolean contains(double[] xs, double[] ys, double x, double y) {
+        boolean inside = false;
+        for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+            if ((ys[i] > y) != (ys[j] > y) && x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private static boolean crosses(double ax, double ay, double bx, double by,
+                                   double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+        return ((d1 > 0) != (d2 > 0)) && ((d3 > 0) != (d4 > 0));
+    }
+
+    private static double cross(double ox, double oy, double ax, double ay, double bx, double by) {
+        return (ax - ox) * (by - oy) - (ay - oy) * (bx - ox);
+    }
+}
@@ -0,0 +1,461 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Local store of the tiles of the {@link OfflineRegion}s of a {@link RemoteConnection}.
+ * Every tile is one file with the sync cursor of the endpoint and its beacons in the {@link BeaconBinaryCodec} format,
+ * every region one file with its name and tiles. Region files are named by the hash of the name and numbered if
+ * names share a hash, the stored name decides which file is the one of a region. Files are replaced atomically,
+ * so a tile is either stored completely or not at all and an interrupted download continues with the missing tiles.
+ *
+ * All file access is done on the storage thread of {@link LocalStorage}, the callbacks are fired on the main thread.
+ */
+
+class OfflineStore {
+
+    private static final String TAG = "OfflineStore";
+    private static final String TILE_SUFFIX = ".tile";
+    private static final String REGION_SUFFIX = ".region";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int TILE_MAGIC = 0x424c5431;
+    private static final int REGION_MAGIC = 0x424c5231;
+
+    /**
+     * Result of {@link #prepare(OfflineRegion, String, PrepareCallback)}
+     */
+    interface PrepareCallback {
+        /**
+         * @param region the region or null if it is not stored
+         * @param pending the tiles to download and their sync cursors, the cursor is null for a full download
+         */
+        void onPrepared(OfflineRegion region, LinkedHashMap<Long, String> pending);
+    }
+
+    /**
+     * Result of {@link #saveTile(long, List, List, boolean, String, SaveCallback)}
+     */
+    interface SaveCallback {
+        /**
+         * @param saved false if the tile could not be written
+         */
+        void onSaved(boolean saved);
+    }
+
+    /**
+     * Result of {@link #readTiles(List, ReadCallback)}
+     */
+    interface ReadCallback {
+        void onRead(ArrayList<SimpleBeacon> simpleBeacons);
+    }
+
+    private final File directory;
+    private final Handler handler;
+    private final Handler mainHandler;
+    // tiles stored completely and when they were written, filled on the storage thread
+    private final HashMap<Long, Long> tiles = new HashMap<>();
+    private boolean opened = false;
+
+    /**
+     * Opens the store of a connection and reads which tiles it has. Every URL and tile size has its own store,
+     * its directory is only created by the first download.
+     * @param context the application context
+     * @param url the URL of the connection
+     * @param tileSize the offline tile size
+     */
+    OfflineStore(Context context, String url, double tileSize) {
+        this(getDirectory(context, url, tileSize), LocalStorage.getHandler(), new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * @param directory the directory of the store
+     * @param handler the handler of the thread which accesses the files
+     * @param mainHandler the handler of the thread which gets the callbacks
+     */
+    OfflineStore(File directory, Handler handler, Handler mainHandler) {
+        this.directory = directory;
+        this.handler = handler;
+        this.mainHandler = mainHandler;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    /**
+     * Gets the directory of the store of a connection
+     * @param context the application context
+     * @param url the URL of the connection
+     * @param tileSize the offline tile size
+     * @return the directory, it exists once a region was downloaded
+     */
+    static File getDirectory(Context context, String url, double tileSize) {
+        return LocalStorage.getDirectory(context,
+                "bletracker_offline_" + Long.toHexString(Double.doubleToLongBits(tileSize)), url);
+    }
+
+    /**
+     * Indicates if all tiles are stored, until the store is opened no tile is
+     * @param keys the tiles
+     * @param maxAge the max time since a tile was written in ms, 0 for no limit
+     * @return true if all are stored and none is older
+     */
+    synchronized boolean hasTiles(Collection<Long> keys, long maxAge) {
+        if (!opened) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        for (long key : keys) {
+            Long writtenAt = tiles.get(key);
+            if (writtenAt == null || (maxAge > 0 && now - writtenAt > maxAge)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores a region and gets its tiles which have to be downloaded
+     * @param region the region to download or null to refresh a stored region
+     * @param name the name of the region to refresh, ignored if region is not null
+     * @param callback gets the tiles which are not stored yet, or all tiles with their cursors for a refresh
+     */
+    void prepare(final OfflineRegion region, final String name, final PrepareCallback callback) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                OfflineRegion stored = region;
+                LinkedHashMap<Long, String> pending = new LinkedHashMap<>();
+                try {
+                    if (stored != null) {
+                        writeRegion(stored);
+                        for (long key : stored.tiles) {
+                            if (!isStored(key)) {
+                                pending.put(key, null);
+                            }
+                        }
+                    } else {
+                        File regionFile = getRegionFile(name);
+                        if (!regionFile.exists()) {
+                            throw new IOException("region " + name + " is not stored");
+                        }
+                        stored = readRegion(regionFile);
+                        for (long key : stored.tiles) {
+                            pending.put(key, isStored(key) ? readCursor(key) : null);
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.d(TAG, "can not prepare region: " + e.getMessage());
+                    stored = null;
+                }
+                final OfflineRegion result = stored;
+                final LinkedHashMap<Long, String> tilesToLoad = pending;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPrepared(result, tilesToLoad);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Merges the result of a tile download into the stored tile like {@link BeaconSyncState}
+     * @param key the tile
+     * @param changed the added or changed beacons
+     * @param deletedIds the IDs of the removed beacons
+     * @param full true if changed is the full set of the tile
+     * @param cursor the cursor for the next refresh or null if the endpoint does not support delta sync
+     * @param callback gets the result
+     */
+    void saveTile(final long key, final List<SimpleBeacon> changed, final List<Long> deletedIds, final boolean full,
+                  final String cursor, final SaveCallback callback) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean saved = true;
+                try {
+                    BeaconSyncState state = new BeaconSyncState();
+                    if (!full && isStored(key)) {
+                        state.apply(readTile(key), new ArrayList<Long>(), true, null);
+                    }
+                    state.apply(changed, deletedIds, full, cursor);
+                    writeTile(key, state.getBeacons(), cursor);
+                } catch (IOException e) {
+                    Log.d(TAG, "can not save tile: " + e.getMessage());
+                    saved = false;
+                }
+                final boolean result = saved;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onSaved(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the beacons of stored tiles. A tile which can not be read is removed so it is downloaded again.
+     * @param keys the tiles
+     * @param callback gets the beacons
+     */
+    void readTiles(final List<Long> keys, final ReadCallback callback) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<SimpleBeacon> simpleBeacons = new ArrayList<>();
+                for (long key : keys) {
+                    try {
+                        simpleBeacons.addAll(readTile(key));
+                    } catch (IOException e) {
+                        Log.d(TAG, "can not read tile: " + e.getMessage());
+                        deleteTile(key);
+                    }
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onRead(simpleBeacons);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Deletes a region and its tiles which are not part of another region
+     * @param name the name of the region
+     */
+    void deleteRegion(final String name) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                File regionFile = getRegionFile(name);
+                if (!regionFile.delete()) {
+                    return;
+                }
+                HashSet<Long> used = new HashSet<>();
+                File[] files = directory.listFiles();
+                for (File file : files != null ? files : new File[0]) {
+                    if (file.getName().endsWith(REGION_SUFFIX)) {
+                        try {
+                            used.addAll(readRegion(file).tiles);
+                        } catch (IOException e) {
+                            Log.d(TAG, "can not read region: " + e.getMessage());
+                        }
+                    }
+                }
+                ArrayList<Long> stored;
+                synchronized (OfflineStore.this) {
+                    stored = new ArrayList<>(tiles.keySet());
+                }
+                for (long key : stored) {
+                    if (!used.contains(key)) {
+                        deleteTile(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private void open() {
+        HashMap<Long, Long> found = new HashMap<>();
+        File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            String fileName = file.getName();
+            if (fileName.endsWith(TMP_SUFFIX)) {
+                // left over from an interrupted write
+                file.delete();
+            } else if (fileName.endsWith(TILE_SUFFIX)) {
+                String[] xy = fileName.substring(0, fileName.length() - TILE_SUFFIX.length()).split("_");
+                try {
+                    found.put(TileCache.key(Integer.parseInt(xy[0]), Integer.parseInt(xy[1])), file.lastModified());
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    Log.d(TAG, "unknown file " + fileName);
+                }
+            }
+        }
+        synchronized (this) {
+            tiles.putAll(found);
+            opened = true;
+        }
+    }
+
+    private synchronized boolean isStored(long key) {
+        return tiles.containsKey(key);
+    }
+
+    private void createDirectory() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create " + directory);
+        }
+    }
+
+    private File getTileFile(long key) {
+        return new File(directory, String.format(Locale.ENGLISH, "%d_%d%s", TileCache.tileX(key), TileCache.tileY(key), TILE_SUFFIX));
+    }
+
+    /**
+     * Gets the file of a region, regions whose names have the same hash are told apart by the stored name
+     * @param name the name of the region
+     * @return the file of the region or a free file for it if it is not stored
+     */
+    private File getRegionFile(String name) {
+        String prefix = Integer.toHexString(name.hashCode());
+        HashSet<String> taken = new HashSet<>();
+        File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            String fileName = file.getName();
+            if (fileName.endsWith(REGION_SUFFIX) && (fileName.equals(prefix + REGION_SUFFIX) || fileName.startsWith(prefix + "_"))) {
+                taken.add(fileName);
+                try {
+                    if (name.equals(readRegion(file).name)) {
+                        return file;
+                    }
+                } catch (IOException e) {
+                    // keeps its number, so it is not overwritten
+                    Log.d(TAG, "can not read region: " + e.getMessage());
+                }
+            }
+        }
+        String fileName = prefix + REGION_SUFFIX;
+        for (int i = 1; taken.contains(fileName); i++) {
+            fileName = prefix + "_" + i + REGION_SUFFIX;
+        }
+        return new File(directory, fileName);
+    }
+
+    private void deleteTile(long key) {
+        synchronized (this) {
+            tiles.remove(key);
+        }
+        getTileFile(key).delete();
+    }
+
+    private ArrayList<SimpleBeacon> readTile(long key) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getTileFile(key))));
+        try {
+            readTileHeader(in);
+            byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            return BeaconBinaryCodec.decode(new ByteArrayInputStream(encoded), new ArrayList<Long>());
+        } finally {
+            in.close();
+        }
+    }
+
+    private String readCursor(long key) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getTileFile(key))));
+        try {
+            return readTileHeader(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readTileHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != TILE_MAGIC) {
+            throw new IOException("not an offline tile");
+        }
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void writeTile(long key, List<SimpleBeacon> simpleBeacons, String cursor) throws IOException {
+        createDirectory();
+        byte[] encoded = BeaconBinaryCodec.encode(simpleBeacons);
+        File file = getTileFile(key);
+        File tmp = new File(directory, file.getName() + TMP_SUFFIX);
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(TILE_MAGIC);
+            out.writeBoolean(cursor != null);
+            if (cursor != null) {
+                out.writeUTF(cursor);
+            }
+            out.writeInt(encoded.length);
+            out.write(encoded);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can not replace " + file);
+        }
+        synchronized (this) {
+            tiles.put(key, System.currentTimeMillis());
+        }
+    }
+
+    private static OfflineRegion readRegion(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != REGION_MAGIC) {
+                throw new IOException("not an offline region");
+            }
+            String name = in.readUTF();
+            int count = in.readInt();
+            if (count < 0 || count > OfflineRegion.MAX_TILES) {
+                throw new IOException("invalid tile count " + count);
+            }
+            ArrayList<Long> keys = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                keys.add(in.readLong());
+            }
+            return new OfflineRegion(name, keys);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeRegion(OfflineRegion region) throws IOException {
+        createDirectory();
+        File file = getRegionFile(region.name);
+        File tmp = new File(directory, file.getName() + TMP_SUFFIX);
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            out.writeInt(REGION_MAGIC);
+            out.writeUTF(region.name);
+            out.writeInt(region.tiles.size());
+            for (long key : region.tiles) {
+                out.writeLong(key);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can not replace " + file);
+        }
+    }
+}
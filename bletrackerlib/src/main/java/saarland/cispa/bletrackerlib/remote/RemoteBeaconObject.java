@@ -9,7 +9,7 @@ import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
  * Class needed for sending data to the REST service.
  * Your endpoint must be able to parse this class encoded as JSON
  *
- * @see RemoteConnection#send(SimpleBeacon) how sending works in detail
+ * @see RemoteConnection#sendBeacon(SimpleBeacon) how sending works in detail
  * @see RemoteConnection#request(double, double, double, double, ArrayList) how requesting works in detail
  *
  */
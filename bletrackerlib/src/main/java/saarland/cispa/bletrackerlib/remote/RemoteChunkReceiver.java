@@ -0,0 +1,19 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.util.ArrayList;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * A {@link RemoteRequestReceiver} which gets the beacons of a paged or tiled request page by page (or tile by tile)
+ * as soon as each part arrives instead of all at once after the last one.
+ * A request which is neither paged nor tiled is delivered as one last chunk.
+ * {@link #onBeaconsReceived(ArrayList)} is not called for a RemoteChunkReceiver.
+ *
+ * @see RemotePreferences#setPageSize(int) how to enable paging
+ * @see RemotePreferences#setTileSize(double) how to enable the tile cache
+ */
+public interface RemoteChunkReceiver extends RemoteRequestReceiver {
+
+    void onBeaconsChunk(ArrayList<SimpleBeacon> beacons, boolean lastChunk);
+}
@@ -3,32 +3,22 @@ package saarland.cispa.bletrackerlib.remote;
 import android.content.Context;
 import android.util.Log;
 
-import com.android.volley.RequestQueue;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.HurlStack;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.StringRequest;
-import com.android.volley.toolbox.Volley;
-import com.google.gson.Gson;
-
-import org.json.JSONException;
-import org.json.JSONObject;
-
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
-
 import saarland.cispa.bletrackerlib.data.SimpleBeacon;
-import saarland.cispa.bletrackerlib.parser.DateParser;
 
 /**
  * Here the interaction with the rest service(s) is done.
@@ -40,14 +30,38 @@ import saarland.cispa.bletrackerlib.parser.DateParser;
 public class RemoteConnection {
 
     private String url;
-    private final RequestQueue queue;
-    private Map<Integer,String> sentBeacons = new HashMap<>();
+    private final Transport transport;
+    private final SendFilter sendFilter;
+    private final UploadScheduler uploadScheduler;
+    private final FlushCoordinator flushCoordinator;
+    private final ArrayList<Request<?>> waitingRequests = new ArrayList<>();
+    private int requestsInFlight = 0;
+    private final SightingAggregator aggregator;
     private RemotePreferences remotePreferences;
-
+    private final BatchUploader batchUploader;
+    private final UploadLog uploadLog;
+    private final TileCache tileCache;
+    private final Context context;
+    private OfflineStore offlineStore;
+    private boolean offlineStoreChecked = false;
+    private final CircuitBreaker circuitBreaker;
+    private final HashMap<String, SharedRequest> inFlight = new HashMap<>();
+    private long queryCount = 0;
+    private long coalescedQueryCount = 0;
+    private final LinkedHashMap<String, BeaconSyncState> syncStates = new LinkedHashMap<String, BeaconSyncState>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BeaconSyncState> eldest) {
+            return size() > MAX_SYNC_AREAS;
+        }
+    };
+    private volatile boolean compressedUploadsAccepted = true;
+    private volatile boolean binaryUploadsAccepted = true;
 
     private ArrayList<RemoteRequestReceiver> remoteRequestReceivers = new ArrayList<>();
 
     private static final String TAG = "RemoteConnection";
+    private static final int MAX_TILES_PER_REQUEST = 64;
+    private static final int MAX_SYNC_AREAS = 16;
 
     /**
      * Creates a new connection to an RESTful endpoint
@@ -56,151 +70,870 @@ public class RemoteConnection {
      * @param remotePreferences the settings. This specifies how sending and receiving will behave
      */
     public RemoteConnection(String url, Context context, RemotePreferences remotePreferences) {
-        this.url = url;
-        this.remotePreferences = remotePreferences;
-
-        queue = Volley.newRequestQueue(context,getPinnedSocketFactory());
+        this(url, context, remotePreferences, VolleyTransport.get(context, remotePreferences.getKeyStore()));
     }
 
-
     /**
-     * Returns the HurlStack if a keystore has been provided or null for default
-     * @return a HurlStack
+     * Creates a new connection to an RESTful endpoint which sends its requests with the given transport
+     * @param url the URL
+     * @param context the application context
+     * @param remotePreferences the settings. This specifies how sending and receiving will behave
+     * @param transport the transport, connections with the same transport share its connections
      */
-    private HurlStack getPinnedSocketFactory() {
+    public RemoteConnection(String url, Context context, RemotePreferences remotePreferences, Transport transport) {
+        this.url = url;
+        this.context = context;
+        this.remotePreferences = remotePreferences;
+        this.transport = transport;
+        this.circuitBreaker = new CircuitBreaker(remotePreferences);
+        this.sendFilter = new SendFilter(remotePreferences, remotePreferences.isKnownBeaconFilterEnabled()
+                ? new KnownBeacons(this, url, remotePreferences, Clock.SYSTEM) : null);
+        this.uploadScheduler = new UploadScheduler(this, remotePreferences);
+        this.flushCoordinator = FlushCoordinator.getInstance();
+        this.aggregator = remotePreferences.getAggregationWindow() > 0 ? new SightingAggregator(this, remotePreferences) : null;
 
-        if(remotePreferences.getKeyStore() == null)
-            return null;
-        // Create a TrustManager that trusts the CAs in our KeyStore
-        String tmfAlgorithm = TrustManagerFactory.getDefaultAlgorithm();
-        TrustManagerFactory tmf = null;
-        try {
-            tmf = TrustManagerFactory.getInstance(tmfAlgorithm);
-            tmf.init(remotePreferences.getKeyStore());
-            // Create an SSLContext that uses our TrustManager
-            SSLContext sslcontext = SSLContext.getInstance("TLS");
-            sslcontext.init(null, tmf.getTrustManagers(), null);
-            return new HurlStack(null, sslcontext.getSocketFactory());
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        batchUploader = remotePreferences.getBatchSize() > 1 ? new BatchUploader(this, url, remotePreferences) : null;
+        tileCache = remotePreferences.getTileSize() > 0 ? new TileCache(remotePreferences) : null;
+        uploadLog = remotePreferences.isOfflineQueueEnabled() ? new UploadLog(this, context, url, remotePreferences) : null;
+        // the offline store is opened with the first download, see getOfflineStore()
     }
 
+
     /**
      * Request beacons in the specified range.
      * You get the response sent to all RemoteRequestReceiver callbacks you have registered.
+     * {@link RemoteChunkReceiver}s get every page or tile as soon as it arrives.
+     * If the range is part of downloaded regions it is answered from the device, the stored beacons are as old
+     * as the last download or {@link #refreshRegion(String, OfflineDownloadListener)} unless
+     * {@link RemotePreferences#setOfflineMaxAge(int)} limits their age.
      * @param longitudeStart the longitude start coordinate
      * @param longitudeEnd the longitude end coordinate
      * @param latitudeStart the latitude start coordinate
      * @param latitudeEnd the latitude end coordinate
+     * @return a handle to cancel the request
      */
-    public void requestBeacons(double longitudeStart, double longitudeEnd, double latitudeStart, double latitudeEnd) {
-        request(longitudeStart, longitudeEnd, latitudeStart, latitudeEnd, remoteRequestReceivers);
+    public RemoteQuery requestBeacons(double longitudeStart, double longitudeEnd, double latitudeStart, double latitudeEnd) {
+        return request(longitudeStart, longitudeEnd, latitudeStart, latitudeEnd, remoteRequestReceivers);
     }
 
     /**
      * Request beacons in the specified range
      * You get the response sent ONLY to the RemoteRequestReceiver you have passed as argument!
+     * A {@link RemoteChunkReceiver} gets every page or tile as soon as it arrives.
+     * Ranges which are part of downloaded regions are answered from the device like
+     * {@link #requestBeacons(double, double, double, double)}.
      * @param longitudeStart the longitude start coordinate
      * @param longitudeEnd the longitude end coordinate
      * @param latitudeStart the latitude start coordinate
      * @param latitudeEnd the latitude end coordinate
      * @param receiver the callback which receives the requested beacons
+     * @return a handle to cancel the request
      */
-    public void requestBeacons(double longitudeStart, double longitudeEnd, double latitudeStart, double latitudeEnd, final RemoteRequestReceiver receiver)
+    public RemoteQuery requestBeacons(double longitudeStart, double longitudeEnd, double latitudeStart, double latitudeEnd, final RemoteRequestReceiver receiver)
     {
         ArrayList<RemoteRequestReceiver> dummyList = new ArrayList<>();
         dummyList.add(receiver);
-        request(longitudeStart, longitudeEnd, latitudeStart, latitudeEnd, dummyList);
+        return request(longitudeStart, longitudeEnd, latitudeStart, latitudeEnd, dummyList);
     }
 
-    private void request(double longS, double longE, double latS, double latE, final ArrayList<RemoteRequestReceiver> receivers) {
-        String apiUrl = String.format(Locale.ENGLISH,"%s/%d/%f/%f/%f/%f", url, remotePreferences.getMinConfirmations(), longS, longE, latS, latE);
+    private RemoteQuery request(double longS, double longE, double latS, double latE, final ArrayList<RemoteRequestReceiver> receivers) {
+        RemoteQuery offlineQuery = requestOffline(longS, longE, latS, latE, receivers);
+        if (offlineQuery != null) {
+            return offlineQuery;
+        }
+        if (tileCache != null && remotePreferences.getTileSize() > 0) {
+            RemoteQuery query = requestTiles(longS, longE, latS, latE, receivers);
+            if (query != null) {
+                return query;
+            }
+        }
+        String apiUrl = getApiUrl(longS, longE, latS, latE);
+        final RemoteQuery query = new RemoteQuery();
+        final ArrayList<SimpleBeacon> collected = new ArrayList<>();
+        requestPages(apiUrl, null, null, query, new PageListener() {
+            @Override
+            public void onPage(BeaconQueryRequest.Page page, boolean lastPage) {
+                if (lastPage) {
+                    query.setDone();
+                }
+                deliver(receivers, page.beacons, collected, lastPage);
+            }
 
-        StringRequest stringRequest = new StringRequest(Request.Method.GET, apiUrl,
-                new Response.Listener<String>() {
-                    @Override
-                    public void onResponse(String response) {
+            @Override
+            public void onError(VolleyError error) {
+                query.setDone();
+                deliverError(receivers, error);
+            }
+        });
+        return query;
+    }
+
+    /**
+     * Keeps the beacons of an area in sync with the endpoint.
+     * The first call downloads the full set, later calls only ask for the beacons which were added,
+     * changed or removed since the last one (query parameter since) and merge them into the local set.
+     * The merged full set is sent to all RemoteRequestReceiver callbacks you have registered.
+     * The endpoint returns the cursor for the next sync in the X-Sync-Cursor header, changes as usual beacon objects
+     * and removals as objects with ID and "Deleted": true. If it sends the full set instead it sets X-Sync-Full: true.
+     * Endpoints which do not send a cursor always get full requests.
+     * @param longitudeStart the longitude start coordinate
+     * @param longitudeEnd the longitude end coordinate
+     * @param latitudeStart the latitude start coordinate
+     * @param latitudeEnd the latitude end coordinate
+     * @return a handle to cancel the sync
+     */
+    public RemoteQuery syncBeacons(double longitudeStart, double longitudeEnd, double latitudeStart, double latitudeEnd) {
+        return sync(longitudeStart, longitudeEnd, latitudeStart, latitudeEnd, remoteRequestReceivers);
+    }
+
+    /**
+     * Keeps the beacons of an area in sync with the endpoint, see {@link #syncBeacons(double, double, double, double)}.
+     * You get the merged full set sent ONLY to the RemoteRequestReceiver you have passed as argument!
+     * @param longitudeStart the longitude start coordinate
+     * @param longitudeEnd the longitude end coordinate
+     * @param latitudeStart the latitude start coordinate
+     * @param latitudeEnd the latitude end coordinate
+     * @param receiver the callback which receives the beacons
+     * @return a handle to cancel the sync
+     */
+    public RemoteQuery syncBeacons(double longitudeStart, double longitudeEnd, double latitudeStart, double latitudeEnd, RemoteRequestReceiver receiver) {
+        ArrayList<RemoteRequestReceiver> dummyList = new ArrayList<>();
+        dummyList.add(receiver);
+        return sync(longitudeStart, longitudeEnd, latitudeStart, latitudeEnd, dummyList);
+    }
+
+    /**
+     * Forgets the synced beacons of all areas, the next sync of an area downloads its full set
+     */
+    public void clearSyncState() {
+        synchronized (syncStates) {
+            syncStates.clear();
+        }
+    }
+
+    private RemoteQuery sync(double longS, double longE, double latS, double latE, final ArrayList<RemoteRequestReceiver> receivers) {
+        String apiUrl = getApiUrl(longS, longE, latS, latE);
+        final BeaconSyncState state;
+        synchronized (syncStates) {
+            BeaconSyncState existing = syncStates.get(apiUrl);
+            if (existing == null) {
+                existing = new BeaconSyncState();
+                syncStates.put(apiUrl, existing);
+            }
+            state = existing;
+        }
+        final String cursor = state.getCursor();
+        apiUrl = withCursor(apiUrl, cursor);
+
+        final RemoteQuery query = new RemoteQuery();
+        final ArrayList<SimpleBeacon> changed = new ArrayList<>();
+        final ArrayList<Long> deletedIds = new ArrayList<>();
+        final boolean[] full = {cursor == null};
+        requestPages(apiUrl, null, null, query, new PageListener() {
+            @Override
+            public void onPage(BeaconQueryRequest.Page page, boolean lastPage) {
+                changed.addAll(page.beacons);
+                deletedIds.addAll(page.deletedIds);
+                full[0] |= page.syncFull;
+                if (!lastPage) {
+                    return;
+                }
+                // without a cursor the endpoint does not support delta sync and sent everything
+                full[0] |= page.syncCursor == null;
+                // the set only changes if all pages arrived
+                state.apply(changed, deletedIds, full[0], page.syncCursor);
+                query.setDone();
+                deliver(receivers, state.getBeacons(), new ArrayList<SimpleBeacon>(), true);
+            }
+
+            @Override
+            public void onError(VolleyError error) {
+                query.setDone();
+                deliverError(receivers, error);
+            }
+        });
+        return query;
+    }
+
+    /**
+     * Adds the cursor of the last sync to a query URL
+     * @param apiUrl the URL
+     * @param cursor the cursor or null for a full request
+     * @return the URL with the since parameter
+     */
+    static String withCursor(String apiUrl, String cursor) {
+        if (cursor == null) {
+            return apiUrl;
+        }
+        try {
+            return apiUrl + "?since=" + URLEncoder.encode(cursor, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            return apiUrl;
+        }
+    }
+
+    /**
+     * Downloads all beacons of an area into the local store, later requests of areas which are stored completely
+     * are answered from it without network. The area is downloaded tile by tile, see {@link RemotePreferences#setOfflineTileSize(double)}.
+     * If the download is interrupted (error, cancel or the app is killed) downloading the region again only fetches
+     * the missing tiles. The stored beacons are not updated until {@link #refreshRegion(String, OfflineDownloadListener)}.
+     * @param name the name of the region, a stored region with the same name is replaced
+     * @param longitudeStart the longitude start coordinate
+     * @param longitudeEnd the longitude end coordinate
+     * @param latitudeStart the latitude start coordinate
+     * @param latitudeEnd the latitude end coordinate
+     * @param listener gets the progress
+     * @return a handle to cancel the download
+     */
+    public RemoteQuery downloadRegion(String name, double longitudeStart, double longitudeEnd, double latitudeStart,
+                                      double latitudeEnd, OfflineDownloadListener listener) {
+        return download(name, OfflineRegion.box(name, remotePreferences.getOfflineTileSize(),
+                longitudeStart, longitudeEnd, latitudeStart, latitudeEnd), listener);
+    }
+
+    /**
+     * Downloads all beacons of a polygon into the local store, see {@link #downloadRegion(String, double, double, double, double, OfflineDownloadListener)}.
+     * Only the tiles touching the polygon are downloaded.
+     * @param name the name of the region, a stored region with the same name is replaced
+     * @param longitudes the longitudes of the corners
+     * @param latitudes the latitudes of the corners, in the same order
+     * @param listener gets the progress
+     * @return a handle to cancel the download
+     */
+    public RemoteQuery downloadRegion(String name, double[] longitudes, double[] latitudes, OfflineDownloadListener listener) {
+        return download(name, OfflineRegion.polygon(name, remotePreferences.getOfflineTileSize(), longitudes, latitudes), listener);
+    }
 
-                        RemoteBeaconObject[] rcvBeacons = new Gson().fromJson(response, RemoteBeaconObject[].class);
-                        ArrayList<SimpleBeacon> simpleBeacons = new ArrayList<>();
-                        for (RemoteBeaconObject rmt : rcvBeacons) {
-                            simpleBeacons.add(rmt.GetSimpleBeacon());
+    /**
+     * Updates the beacons of a downloaded region. Tiles the endpoint sent a sync cursor for only get the beacons
+     * which were added, changed or removed since (see {@link #syncBeacons(double, double, double, double)}),
+     * the others are downloaded again.
+     * @param name the name of the region
+     * @param listener gets the progress
+     * @return a handle to cancel the refresh
+     */
+    public RemoteQuery refreshRegion(String name, OfflineDownloadListener listener) {
+        return new OfflineDownload(this, getOfflineStore(), remotePreferences.getOfflineTileSize(), name, listener).start(null);
+    }
+
+    /**
+     * Deletes a downloaded region, tiles which are part of another region are kept
+     * @param name the name of the region
+     */
+    public void deleteRegion(String name) {
+        getOfflineStore().deleteRegion(name);
+    }
+
+    private RemoteQuery download(String name, OfflineRegion region, OfflineDownloadListener listener) {
+        if (region == null) {
+            RemoteQuery query = new RemoteQuery();
+            query.setDone();
+            listener.onDownloadError(name, "region has more than " + OfflineRegion.MAX_TILES + " tiles");
+            return query;
+        }
+        return new OfflineDownload(this, getOfflineStore(), remotePreferences.getOfflineTileSize(), name, listener).start(region);
+    }
+
+    /**
+     * Gets the offline store, it is opened on the storage thread with the first call
+     */
+    private synchronized OfflineStore getOfflineStore() {
+        if (offlineStore == null) {
+            offlineStore = openOfflineStore();
+        }
+        return offlineStore;
+    }
+
+    /**
+     * Gets the offline store if a region was downloaded, by now or by an earlier run of the app.
+     * Only the first call checks if the directory of the store exists, requests do not open the store before.
+     * @return the store or null if no region was downloaded
+     */
+    private synchronized OfflineStore getDownloadedStore() {
+        if (offlineStore == null && !offlineStoreChecked) {
+            offlineStoreChecked = true;
+            if (OfflineStore.getDirectory(context, url, remotePreferences.getOfflineTileSize()).isDirectory()) {
+                getOfflineStore();
+            }
+        }
+        return offlineStore;
+    }
+
+    /**
+     * Opens the offline store of this connection
+     * @return the store
+     */
+    OfflineStore openOfflineStore() {
+        return new OfflineStore(context, url, remotePreferences.getOfflineTileSize());
+    }
+
+    /**
+     * Answers a request from the offline store if all tiles of the area are stored and not older than the offline max age
+     * @return the query or null if the area is not stored completely
+     */
+    private RemoteQuery requestOffline(final double longS, final double longE, final double latS, final double latE,
+                                       final ArrayList<RemoteRequestReceiver> receivers) {
+        OfflineStore store = getDownloadedStore();
+        if (store == null) {
+            return null;
+        }
+        OfflineRegion area = OfflineRegion.box(null, remotePreferences.getOfflineTileSize(), longS, longE, latS, latE);
+        if (area == null || !store.hasTiles(area.tiles, remotePreferences.getOfflineMaxAge())) {
+            return null;
+        }
+        final RemoteQuery query = new RemoteQuery();
+        store.readTiles(area.tiles, new OfflineStore.ReadCallback() {
+            @Override
+            public void onRead(ArrayList<SimpleBeacon> simpleBeacons) {
+                if (query.isCancelled()) {
+                    return;
+                }
+                query.setDone();
+                deliver(receivers, filterArea(simpleBeacons, longS, longE, latS, latE, new HashSet<Long>()),
+                        new ArrayList<SimpleBeacon>(), true);
+            }
+        });
+        return query;
+    }
+
+    /**
+     * Requests the tiles covering the area which are not cached or expired and delivers the cached ones right away
+     * @return the query or null if the area has too many tiles for the cache
+     */
+    private RemoteQuery requestTiles(final double longS, final double longE, final double latS, final double latE,
+                                     final ArrayList<RemoteRequestReceiver> receivers) {
+        int x0 = tileCache.index(Math.min(longS, longE));
+        int x1 = tileCache.index(Math.max(longS, longE));
+        int y0 = tileCache.index(Math.min(latS, latE));
+        int y1 = tileCache.index(Math.max(latS, latE));
+        if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > MAX_TILES_PER_REQUEST) {
+            Log.d(TAG, "area too big for tile cache");
+            return null;
+        }
+
+        final RemoteQuery query = new RemoteQuery();
+        final ArrayList<SimpleBeacon> collected = new ArrayList<>();
+        final HashSet<Long> deliveredIds = new HashSet<>();
+        ArrayList<SimpleBeacon> cached = new ArrayList<>();
+        ArrayList<Long> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                long key = TileCache.key(x, y);
+                TileCache.Tile tile = tileCache.get(key);
+                if (tile != null && tileCache.isFresh(tile, now)) {
+                    tileCache.getStats().hit(tile.bytes);
+                    cached.addAll(tile.beacons);
+                } else {
+                    missing.add(key);
+                }
+            }
+        }
+
+        final double tileSize = remotePreferences.getTileSize();
+        final int[] outstanding = {missing.size()};
+        cached = filterArea(cached, longS, longE, latS, latE, deliveredIds);
+        if (missing.isEmpty()) {
+            query.setDone();
+            deliver(receivers, cached, collected, true);
+            return query;
+        }
+        if (!cached.isEmpty()) {
+            deliver(receivers, cached, collected, false);
+        }
+
+        for (final long key : missing) {
+            final TileCache.Tile expired = tileCache.get(key);
+            final ArrayList<SimpleBeacon> tileBeacons = new ArrayList<>();
+            final String[] etag = {null};
+            final int[] bytes = {0};
+            final int[] pages = {0};
+            double tileLongS = TileCache.tileX(key) * tileSize;
+            double tileLatS = TileCache.tileY(key) * tileSize;
+            String apiUrl = getApiUrl(tileLongS, tileLongS + tileSize, tileLatS, tileLatS + tileSize);
+            requestPages(apiUrl, null, expired != null ? expired.etag : null, query, new PageListener() {
+                @Override
+                public void onPage(BeaconQueryRequest.Page page, boolean lastPage) {
+                    TileCache.Tile tile;
+                    if (page.notModified && expired != null) {
+                        tileCache.getStats().revalidated(expired.bytes);
+                        expired.fetchedAt = System.currentTimeMillis();
+                        tile = expired;
+                    } else {
+                        // a tile is one miss however many pages it has, the etag is the one of the first page
+                        if (pages[0]++ == 0) {
+                            tileCache.getStats().miss();
+                            etag[0] = page.etag;
                         }
-                        for (RemoteRequestReceiver receiver : receivers) {
-                            receiver.onBeaconsReceived(simpleBeacons);
+                        tileBeacons.addAll(page.beacons);
+                        bytes[0] += page.bytes;
+                        if (!lastPage) {
+                            return;
                         }
+                        tile = new TileCache.Tile(tileBeacons, etag[0], bytes[0], System.currentTimeMillis());
                     }
-                }, new Response.ErrorListener() {
+                    tileCache.put(key, tile);
+                    outstanding[0]--;
+                    if (outstanding[0] == 0) {
+                        query.setDone();
+                    }
+                    deliver(receivers, filterArea(tile.beacons, longS, longE, latS, latE, deliveredIds),
+                            collected, outstanding[0] == 0);
+                }
+
+                @Override
+                public void onError(VolleyError error) {
+                    query.cancel();
+                    query.setDone();
+                    deliverError(receivers, error);
+                }
+            });
+        }
+        return query;
+    }
+
+    /**
+     * Callbacks of {@link #requestPages(String, String, String, RemoteQuery, PageListener)}
+     */
+    interface PageListener {
+        void onPage(BeaconQueryRequest.Page page, boolean lastPage);
+
+        void onError(VolleyError error);
+    }
+
+    /**
+     * Requests one page and the following ones after it arrived
+     * @param apiUrl the URL without paging parameters
+     * @param pageToken the token of the page or null for the first one
+     * @param etag the ETag for If-None-Match of the first page or null
+     * @param query the handle of the request
+     * @param listener gets the pages, they are not delivered if the query was cancelled
+     */
+    void requestPages(final String apiUrl, String pageToken, String etag, final RemoteQuery query,
+                              final PageListener listener) {
+        String pageUrl = apiUrl;
+        if (remotePreferences.getPageSize() > 0) {
+            pageUrl += (pageUrl.indexOf('?') < 0 ? "?" : "&") + "pageSize=" + remotePreferences.getPageSize();
+            if (pageToken != null) {
+                try {
+                    pageUrl += "&pageToken=" + URLEncoder.encode(pageToken, "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    // UTF-8 is always supported
+                }
+            }
+        }
+
+        Response.Listener<BeaconQueryRequest.Page> pageListener = new Response.Listener<BeaconQueryRequest.Page>() {
+            @Override
+            public void onResponse(BeaconQueryRequest.Page page) {
+                if (query.isCancelled()) {
+                    return;
+                }
+                boolean lastPage = remotePreferences.getPageSize() <= 0 || page.nextPageToken == null;
+                listener.onPage(page, lastPage);
+                if (!lastPage) {
+                    requestPages(apiUrl, page.nextPageToken, null, query, listener);
+                }
+            }
+        };
+        Response.ErrorListener errorListener = new Response.ErrorListener() {
             @Override
             public void onErrorResponse(VolleyError error) {
-                for (RemoteRequestReceiver receiver : receivers) {
-                    receiver.onBeaconReceiveError(error.getMessage());
+                if (query.isCancelled()) {
+                    return;
                 }
+                listener.onError(error);
             }
-        });
+        };
 
-        // Add the request to the RequestQueue.
-        queue.add(stringRequest);
+        // Queries for the same page at the same time share one request
+        String key = etag != null ? pageUrl + "\n" + etag : pageUrl;
+        synchronized (inFlight) {
+            SharedRequest shared = inFlight.get(key);
+            if (shared != null) {
+                if (shared.subscribe(query, pageListener, errorListener)) {
+                    coalescedQueryCount++;
+                }
+                return;
+            }
+            shared = new SharedRequest(inFlight, key);
+            BeaconQueryRequest queryRequest = new BeaconQueryRequest(pageUrl, remotePreferences, shared.listener, shared.errorListener);
+            if (etag != null) {
+                queryRequest.setIfNoneMatch(etag);
+            }
+            shared.setRequest(queryRequest);
+            if (!shared.subscribe(query, pageListener, errorListener)) {
+                return;
+            }
+            inFlight.put(key, shared);
+            queryCount++;
+            // Add the request to the RequestQueue.
+            execute(queryRequest);
+        }
     }
 
-    private void send(SimpleBeacon simpleBeacon)
-    {
-        JSONObject beaconAsJson = null;
-        try {
-            beaconAsJson = new JSONObject(new Gson().toJson(new RemoteBeaconObject(simpleBeacon)));
-        } catch (JSONException e) {
-            e.printStackTrace();
+    /**
+     * Number of beacon requests this connection sent to the endpoint
+     * @return the number of requests
+     */
+    public long getQueryCount() {
+        synchronized (inFlight) {
+            return queryCount;
         }
-        JsonObjectRequest jsonObjectRequest = new JsonObjectRequest(Request.Method.POST,url,beaconAsJson,
-                new Response.Listener<JSONObject>() {
+    }
+
+    /**
+     * Number of beacon requests which were not sent because the same request was already in flight
+     * @return the number of requests
+     */
+    public long getCoalescedQueryCount() {
+        synchronized (inFlight) {
+            return coalescedQueryCount;
+        }
+    }
+
+    String getApiUrl(double longS, double longE, double latS, double latE) {
+        return String.format(Locale.ENGLISH,"%s/%d/%f/%f/%f/%f", url, remotePreferences.getMinConfirmations(), longS, longE, latS, latE);
+    }
+
+    /**
+     * Delivers beacons to RemoteChunkReceivers right away and to the other receivers with the last chunk.
+     * Every receiver gets its own list, so none of them can change the lists of the others or of the tile cache.
+     * @param receivers the callbacks
+     * @param chunk the beacons which arrived
+     * @param collected the beacons of the previous chunks for receivers which are no RemoteChunkReceiver
+     * @param lastChunk true if no more beacons will arrive
+     */
+    private static void deliver(ArrayList<RemoteRequestReceiver> receivers, ArrayList<SimpleBeacon> chunk,
+                                ArrayList<SimpleBeacon> collected, boolean lastChunk) {
+        boolean collect = false;
+        for (RemoteRequestReceiver receiver : receivers) {
+            if (receiver instanceof RemoteChunkReceiver) {
+                ((RemoteChunkReceiver) receiver).onBeaconsChunk(new ArrayList<>(chunk), lastChunk);
+            } else {
+                collect = true;
+            }
+        }
+        if (collect) {
+            collected.addAll(chunk);
+        }
+        if (lastChunk) {
+            for (RemoteRequestReceiver receiver : receivers) {
+                if (!(receiver instanceof RemoteChunkReceiver)) {
+                    receiver.onBeaconsReceived(new ArrayList<>(collected));
+                }
+            }
+        }
+    }
+
+    private static void deliverError(ArrayList<RemoteRequestReceiver> receivers, VolleyError error) {
+        for (RemoteRequestReceiver receiver : receivers) {
+            receiver.onBeaconReceiveError(error.getMessage());
+        }
+    }
+
+    /**
+     * Gets the beacons of tiles which are in the requested area and were not delivered by another tile
+     */
+    private static ArrayList<SimpleBeacon> filterArea(ArrayList<SimpleBeacon> simpleBeacons, double longS, double longE,
+                                                      double latS, double latE, HashSet<Long> deliveredIds) {
+        ArrayList<SimpleBeacon> inArea = new ArrayList<>();
+        for (SimpleBeacon simpleBeacon : simpleBeacons) {
+            SimpleBeacon.Location location = simpleBeacon.location;
+            if (location != null && (location.locationLong < Math.min(longS, longE) || location.locationLong > Math.max(longS, longE)
+                    || location.locationLat < Math.min(latS, latE) || location.locationLat > Math.max(latS, latE))) {
+                continue;
+            }
+            if (simpleBeacon.id != 0 && !deliveredIds.add(simpleBeacon.id)) {
+                continue;
+            }
+            inArea.add(simpleBeacon);
+        }
+        return inArea;
+    }
+
+    /**
+     * Gets the transport which sends the requests of this connection
+     * @return the transport
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Gets the state of the circuit breaker. While it is open, uploads are buffered in the offline queue
+     * (or dropped if it is disabled) until the endpoint is healthy again.
+     * @return the state
+     */
+    public CircuitState getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    /**
+     * Gets the number of single uploads waiting in a priority lane because all upload slots are busy
+     * @param lane the lane
+     * @return the number of uploads
+     */
+    public int getUploadQueueDepth(UploadLane lane) {
+        return uploadScheduler.getQueueDepth(lane);
+    }
+
+    /**
+     * Gets the number of uploads which were dropped because the upload queue was full, lower lanes are dropped first
+     * @return the number of uploads
+     */
+    public long getShedUploadCount() {
+        return uploadScheduler.getShedCount();
+    }
+
+    /**
+     * Gets the counters of the tile cache
+     * @return the counters or null if the tile cache is disabled
+     */
+    public TileCacheStats getTileCacheStats() {
+        return tileCache != null ? tileCache.getStats() : null;
+    }
+
+    /**
+     * Removes all tiles from the tile cache, e.g. after own uploads should be visible right away
+     */
+    public void clearTileCache() {
+        if (tileCache != null) {
+            tileCache.clear();
+        }
+    }
+
+    /**
+     * Uploads a beacon, it is held by the flush coordinator for the next burst if a flush cadence is set
+     * @param payload the beacon to upload
+     * @param lane the priority lane
+     */
+    private void upload(BeaconPayload payload, UploadLane lane) {
+        if (!flushCoordinator.hold(this, payload, lane)) {
+            release(payload, lane);
+        }
+    }
+
+    /**
+     * Uploads a beacon in the next batch if batching is enabled and supported or else directly
+     * @param payload the beacon to upload
+     * @param lane the priority lane
+     */
+    void release(BeaconPayload payload, UploadLane lane) {
+        if (batchUploader != null && batchUploader.isSupported()) {
+            batchUploader.add(payload, lane);
+        } else {
+            send(payload, lane);
+        }
+    }
+
+    /**
+     * Uploads a beacon directly, it waits in its lane of the upload scheduler if all upload slots are busy
+     * @param payload the beacon to upload
+     * @param lane the priority lane
+     */
+    void send(BeaconPayload payload, UploadLane lane) {
+        uploadScheduler.submit(payload, lane);
+    }
+
+    /**
+     * Starts an upload picked by the upload scheduler, it must report {@link UploadScheduler#onFinished()}
+     * @param payload the beacon to upload
+     * @param lane the priority lane
+     */
+    void start(BeaconPayload payload, UploadLane lane) {
+        SimpleBeacon simpleBeacon = payload.simpleBeacon;
+        if (payload.summary) {
+            // summaries are only sent as JSON
+            post(null, simpleBeacon.hashcode, payload.getJson(), lane, null);
+        } else if (isBinaryUploadAccepted()) {
+            // the JSON is only needed if the upload fails
+            post(simpleBeacon, simpleBeacon.hashcode, null, lane, null);
+        } else {
+            post(simpleBeacon, simpleBeacon.hashcode, payload.getJson(), lane, null);
+        }
+    }
+
+    /**
+     * Sends beacons of the offline queue again, as batches if batching is enabled and supported
+     * @param beaconsAsJson the encoded beacons
+     * @param callbacks get the result of the beacon with the same index
+     */
+    void replay(List<byte[]> beaconsAsJson, List<UploadLog.ReplayCallback> callbacks) {
+        if (batchUploader != null && batchUploader.isSupported()) {
+            batchUploader.replay(beaconsAsJson, callbacks);
+            return;
+        }
+        for (int i = 0; i < beaconsAsJson.size(); i++) {
+            replay(beaconsAsJson.get(i), callbacks.get(i));
+        }
+    }
+
+    /**
+     * Sends a beacon of the offline queue again
+     * @param beaconAsJson the encoded beacon
+     * @param callback gets the result
+     */
+    void replay(byte[] beaconAsJson, UploadLog.ReplayCallback callback) {
+        post(null, 0, beaconAsJson, null, callback);
+    }
+
+    /**
+     * Uploads one beacon, binary if the wire format is BINARY and the endpoint accepts it.
+     * While the circuit is open the beacon goes to the offline queue instead and the upload scheduler pauses.
+     * @param simpleBeacon the beacon or null if only the JSON is known
+     * @param hashcode the hashcode of the beacon
+     * @param beaconAsJson the beacon encoded as JSON or null if it is encoded when needed
+     * @param lane the lane of an upload started by the upload scheduler or null for a replay
+     * @param callback gets the result of a replay or null
+     */
+    private void post(final SimpleBeacon simpleBeacon, final int hashcode, final byte[] beaconAsJson,
+                      final UploadLane lane, final UploadLog.ReplayCallback callback) {
+        final long permit = circuitBreaker.allowRequest();
+        if (permit == CircuitBreaker.DENIED) {
+            if (callback != null) {
+                callback.onResult(false, true);
+            } else {
+                enqueueOffline(hashcode, beaconAsJson != null ? beaconAsJson : BeaconJsonWriter.encode(simpleBeacon));
+                uploadScheduler.onDenied(circuitBreaker.getDelay());
+            }
+            return;
+        }
+        final boolean binary = simpleBeacon != null && isBinaryUploadAccepted();
+        byte[] body;
+        if (binary) {
+            body = BeaconBinaryCodec.encode(Collections.singletonList(simpleBeacon));
+        } else {
+            body = beaconAsJson != null ? beaconAsJson : BeaconJsonWriter.encode(simpleBeacon);
+        }
+        final BeaconUploadRequest[] uploadRequest = new BeaconUploadRequest[1];
+        uploadRequest[0] = new BeaconUploadRequest(url, body, remotePreferences,
+                compressedUploadsAccepted, new Response.Listener<String>() {
                     @Override
-                    public void onResponse(JSONObject response) {
+                    public void onResponse(String response) {
                         //TODO: Give user feedback of successfull submission?
-                        Log.d(TAG, "send successful");
+                        circuitBreaker.onSuccess(permit, uploadRequest[0].getResponseHeaders());
+                        if (callback != null) {
+                            callback.onResult(true, false);
+                        } else {
+                            Log.d(TAG, "send successful");
+                            uploadScheduler.onFinished();
+                            onDelivered();
+                        }
                     }
                 }, new Response.ErrorListener() {
             @Override
             public void onErrorResponse(VolleyError error) {
-                // TODO: Handle error
+                if (isUploadFormatRejected(error, binary, uploadRequest[0].isCompressed())) {
+                    // format negotiation, the endpoint is neither healthy nor unhealthy
+                    circuitBreaker.release(permit);
+                    post(simpleBeacon, hashcode, beaconAsJson, lane, callback);
+                    return;
+                }
+                circuitBreaker.onFailure(permit, error);
+                boolean retryable = UploadLog.isRetryable(error);
+                if (callback != null) {
+                    callback.onResult(false, retryable);
+                    return;
+                }
                 Log.d(TAG, "send error: " + error.getMessage());
+                uploadScheduler.onFinished();
+                if (retryable) {
+                    enqueueOffline(hashcode, beaconAsJson != null ? beaconAsJson : BeaconJsonWriter.encode(simpleBeacon));
+                }
             }
         });
-        queue.add(jsonObjectRequest);
+        if (binary) {
+            uploadRequest[0].setBodyContentType(BeaconBinaryCodec.CONTENT_TYPE);
+        }
+        // replays of the offline queue are the least urgent
+        uploadRequest[0].setPriority(lane != null ? lane.priority : Request.Priority.LOW);
+        execute(uploadRequest[0]);
     }
 
     /**
-     * Send a beacon.
-     * Be aware that this beacon only gets send if SendMode allows this.
-     * @param simpleBeacon the beacon to send
+     * Called after an upload succeeded, the endpoint is reachable so the offline queue is sent now
      */
-    public void sendBeacon(SimpleBeacon simpleBeacon) {
-        if(sentBeacons.containsKey(simpleBeacon.hashcode))
-        {
-            Date lastSend = DateParser.stringDateToDate(sentBeacons.get(simpleBeacon.hashcode));
-            Date currentSend = DateParser.stringDateToDate(simpleBeacon.timestamp);
-            long timediff = currentSend.getTime() - lastSend.getTime();
-            if(timediff < remotePreferences.getSendInterval())
-                return;
+    void onDelivered() {
+        if (uploadLog != null) {
+            uploadLog.retryNow();
         }
-        sentBeacons.put(simpleBeacon.hashcode,simpleBeacon.timestamp);
+    }
 
-        switch (remotePreferences.getSendMode()) {
-            case DO_SEND_BEACONS:
-                send(simpleBeacon);
-                break;
+    /**
+     * Gets the circuit breaker which guards the uploads of this connection
+     * @return the circuit breaker
+     */
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
 
-            case DO_ONLY_SEND_IF_BEACONS_HAVE_GPS:
-                if (simpleBeacon.location != null) {
-                    send(simpleBeacon);
-                }
-                break;
-            case DO_NOT_SEND_BEACONS:
-                break;
-            default:
-                break;
+    /**
+     * Stores a beacon whose upload failed in the offline queue if it is enabled
+     * @param hashcode the hashcode of the beacon
+     * @param beaconAsJson the encoded beacon
+     */
+    void enqueueOffline(int hashcode, byte[] beaconAsJson) {
+        if (uploadLog != null) {
+            uploadLog.append(hashcode, beaconAsJson);
+        }
+    }
+
+    /**
+     * Checks if the server rejected an upload because of its binary or gzip body.
+     * If so binary uploads and then compressed uploads are turned off for this connection.
+     * @param error the error of the upload
+     * @param binary true if the body of the upload was binary
+     * @param compressed true if the body of the upload was gzip compressed
+     * @return true if the upload should be sent again as JSON or uncompressed
+     */
+    boolean isUploadFormatRejected(VolleyError error, boolean binary, boolean compressed) {
+        if (error.networkResponse == null || error.networkResponse.statusCode != 415) {
+            return false;
         }
+        if (binary) {
+            if (binaryUploadsAccepted) {
+                Log.d(TAG, "server does not accept binary bodies, sending JSON");
+                binaryUploadsAccepted = false;
+            }
+            return true;
+        }
+        if (compressed) {
+            if (compressedUploadsAccepted) {
+                Log.d(TAG, "server does not accept gzip bodies, sending uncompressed");
+                compressedUploadsAccepted = false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indicates if the server of this connection accepts gzip compressed request bodies.
+     * This is assumed until the server answers a compressed request with 415 Unsupported Media Type.
+     * @return true if compressed uploads are accepted
+     */
+    boolean isCompressedUploadAccepted() {
+        return compressedUploadsAccepted;
+    }
+
+    /**
+     * Indicates if uploads of this connection are sent in the binary wire format.
+     * This is the case if it is selected and the server did not answer a binary request with 415 Unsupported Media Type.
+     * @return true if binary uploads are used
+     */
+    boolean isBinaryUploadAccepted() {
+        return remotePreferences.getWireFormat() == WireFormat.BINARY && binaryUploadsAccepted;
+    }
+
+    /**
+     * Send a beacon.
+     * Be aware that this beacon only gets send if SendMode allows this.
+     * @param simpleBeacon the beacon to send
+     */
+    public void sendBeacon(SimpleBeacon simpleBeacon) {
+        sendPayload(new BeaconPayload(simpleBeacon));
     }
 
     /**
@@ -214,6 +947,96 @@ public class RemoteConnection {
         }
     }
 
+    /**
+     * Sends a prepared sighting if the SendPolicy and the SendMode of this connection allow this.
+     * If aggregation is enabled it is added to the current window instead.
+     * @param payload the sighting, it may be shared with other connections
+     */
+    void sendPayload(BeaconPayload payload) {
+        UploadLane lane = sendFilter.classify(payload);
+        if (lane == null) {
+            return;
+        }
+        if (aggregator != null) {
+            aggregator.add(payload.simpleBeacon);
+        } else {
+            upload(payload, lane);
+        }
+    }
+
+    /**
+     * Sends a summary of the aggregator if the SendMode of this connection allows this.
+     * Its sightings already passed the {@link SendFilter}.
+     * @param payload the summary
+     */
+    void sendSummary(BeaconPayload payload) {
+        if (sendFilter.isAllowedBySendMode(payload.simpleBeacon)) {
+            upload(payload, SendFilter.hasSensorData(payload.simpleBeacon) ? UploadLane.HIGH : UploadLane.NORMAL);
+        }
+    }
+
+    /**
+     * Uploads the beacons collected for the next batch right now, called after a burst of the flush coordinator
+     */
+    void flushBatch() {
+        if (batchUploader != null) {
+            batchUploader.flush();
+        }
+    }
+
+    /**
+     * Sends a request and tells the flush coordinator that the radio is awake.
+     * If the connection has max requests in flight already, it waits until one finished.
+     * @param request the request
+     */
+    void execute(Request<?> request) {
+        flushCoordinator.onNetworkActivity();
+        synchronized (waitingRequests) {
+            if (requestsInFlight >= remotePreferences.getMaxRequestsInFlight()) {
+                waitingRequests.add(request);
+                return;
+            }
+            requestsInFlight++;
+        }
+        transport.send(request, requestFinished);
+    }
+
+    /**
+     * Starts the waiting request with the highest priority after a request of this connection finished
+     */
+    private final Runnable requestFinished = new Runnable() {
+        @Override
+        public void run() {
+            Request<?> next = null;
+            synchronized (waitingRequests) {
+                for (Request<?> request : waitingRequests) {
+                    if (next == null || request.getPriority().ordinal() > next.getPriority().ordinal()) {
+                        next = request;
+                    }
+                }
+                if (next == null) {
+                    requestsInFlight--;
+                    return;
+                }
+                waitingRequests.remove(next);
+            }
+            transport.send(next, requestFinished);
+        }
+    };
+
+    /**
+     * Closes the current aggregation window and uploads the beacons collected for the next batch right now.
+     * Does nothing if aggregation and batching are disabled.
+     */
+    public void flush() {
+        if (aggregator != null) {
+            aggregator.close();
+        }
+        if (batchUploader != null) {
+            batchUploader.flush();
+        }
+    }
+
     /**
      * Adds a callback to callback list which gets fired if beacons are received.
      * @param callback the callback
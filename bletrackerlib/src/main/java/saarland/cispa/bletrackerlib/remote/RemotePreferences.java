@@ -10,8 +10,41 @@ public class RemotePreferences {
 
     private SendMode sendMode = SendMode.DO_ONLY_SEND_IF_BEACONS_HAVE_GPS;
     private int sendInterval = 15 * 1000;
+    private SendPolicy sendPolicy = SendPolicy.INTERVAL;
+    private double changeDistance = 25;
+    private int changeSignalStrength = 10;
+    private int heartbeatInterval = 15 * 60 * 1000;
+    private int aggregationWindow = 0;
+    private int uploadQueueSize = 128;
+    private int maxUploadsInFlight = 4;
+    private int maxRequestsInFlight = 4;
     private int minConfirmations = 1;
     private KeyStore keyStore = null;
+    private int batchSize = 1;
+    private int batchMaxBytes = 64 * 1024;
+    private int batchMaxDelay = 5 * 1000;
+    private String batchUrl = null;
+    private boolean compressionEnabled = false;
+    private int compressionThreshold = 1024;
+    private int pageSize = 0;
+    private WireFormat wireFormat = WireFormat.JSON;
+    private double tileSize = 0;
+    private int tileCacheSize = 256;
+    private int tileCacheTtl = 60 * 1000;
+    private boolean offlineQueueEnabled = false;
+    private int offlineQueueMaxBytes = 4 * 1024 * 1024;
+    private int offlineQueueRetryDelay = 10 * 1000;
+    private int offlineQueueMaxRetryDelay = 15 * 60 * 1000;
+    private int circuitFailureThreshold = 5;
+    private int circuitOpenDelay = 5 * 1000;
+    private int circuitMaxOpenDelay = 5 * 60 * 1000;
+    private boolean knownBeaconFilterEnabled = false;
+    private String knownBeaconFilterUrl = null;
+    private double knownBeaconRegionSize = 0.1;
+    private int knownBeaconFilterRefreshInterval = 60 * 60 * 1000;
+    private int knownBeaconHeartbeatInterval = 60 * 60 * 1000;
+    private double offlineTileSize = 0.05;
+    private int offlineMaxAge = 0;
 
     /**
      * get the send mode
@@ -49,6 +82,99 @@ public class RemotePreferences {
         this.sendInterval = sendInterval;
     }
 
+    /**
+     * get when beacons which were already sent are sent again
+     * default INTERVAL
+     * @return the send policy
+     */
+    public SendPolicy getSendPolicy() {
+        return sendPolicy;
+    }
+
+    /**
+     * set when beacons which were already sent are sent again.
+     * With ON_CHANGE a beacon is only sent again if something changed or the heartbeat interval passed.
+     * default INTERVAL
+     * @param sendPolicy the send policy
+     */
+    public void setSendPolicy(SendPolicy sendPolicy) {
+        this.sendPolicy = sendPolicy;
+    }
+
+    /**
+     * get the distance the device has to move until a beacon is sent again (ON_CHANGE only)
+     * default 25m
+     * @return the distance in m
+     */
+    public double getChangeDistance() {
+        return changeDistance;
+    }
+
+    /**
+     * set the distance the device has to move until a beacon is sent again (ON_CHANGE only)
+     * default 25m
+     * @param changeDistance the distance in m
+     */
+    public void setChangeDistance(double changeDistance) {
+        this.changeDistance = changeDistance;
+    }
+
+    /**
+     * get the change of the signal strength after which a beacon is sent again (ON_CHANGE only)
+     * default 10dBm
+     * @return the change in dBm
+     */
+    public int getChangeSignalStrength() {
+        return changeSignalStrength;
+    }
+
+    /**
+     * set the change of the signal strength after which a beacon is sent again (ON_CHANGE only)
+     * default 10dBm
+     * @param changeSignalStrength the change in dBm
+     */
+    public void setChangeSignalStrength(int changeSignalStrength) {
+        this.changeSignalStrength = changeSignalStrength;
+    }
+
+    /**
+     * get the interval in which an unchanged beacon is sent again (ON_CHANGE only)
+     * default 900,000ms (15min)
+     * @return the time in ms
+     */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * set the interval in which an unchanged beacon is sent again (ON_CHANGE only)
+     * default 900,000ms (15min)
+     * @param heartbeatInterval the time in ms
+     */
+    public void setHeartbeatInterval(int heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    /**
+     * get the window over which the sightings of a beacon are aggregated into one summary
+     * default 0 (every sighting is sent)
+     * @return the time in ms
+     */
+    public int getAggregationWindow() {
+        return aggregationWindow;
+    }
+
+    /**
+     * set the window over which the sightings of a beacon are aggregated into one summary.
+     * If set, the sightings which pass the send mode and send policy are aggregated and one summary per beacon is sent when the window closes.
+     * Your endpoint has to accept the additional summary fields.
+     * default 0 (every sighting is sent)
+     * @param aggregationWindow the time in ms, 0 to disable
+     */
+    public void setAggregationWindow(int aggregationWindow) {
+        this.aggregationWindow = aggregationWindow;
+    }
+
     /**
      * get the number of times a beacon has been seen to be approved
      * default 1
@@ -83,4 +209,529 @@ public class RemotePreferences {
     public void setKeyStore(KeyStore keyStore) {
         this.keyStore = keyStore;
     }
+
+    /**
+     * get the max number of beacons uploaded in one batch request
+     * default 1 (batching disabled)
+     * @return the number of beacons
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * set the max number of beacons uploaded in one batch request.
+     * Values greater than 1 enable batching: beacons are collected and POSTed as one JSON array
+     * to the batch URL. Your endpoint has to answer with one status per beacon.
+     * default 1 (batching disabled)
+     * @param batchSize the number of beacons
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * get the max size of one batch request in bytes
+     * default 65,536 bytes (64KB)
+     * @return the size in bytes
+     */
+    public int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    /**
+     * set the max size of one batch request in bytes
+     * default 65,536 bytes (64KB)
+     * @param batchMaxBytes the size in bytes
+     */
+    public void setBatchMaxBytes(int batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    /**
+     * get the max time a beacon waits in a batch before it is uploaded
+     * default 5,000ms (5s)
+     * @return the time in ms
+     */
+    public int getBatchMaxDelay() {
+        return batchMaxDelay;
+    }
+
+    /**
+     * set the max time a beacon waits in a batch before it is uploaded
+     * default 5,000ms (5s)
+     * @param batchMaxDelay in ms
+     */
+    public void setBatchMaxDelay(int batchMaxDelay) {
+        this.batchMaxDelay = batchMaxDelay;
+    }
+
+    /**
+     * get the URL batches are POSTed to
+     * @param url the URL of the connection
+     * @return the batch URL or url/batch if none was set
+     */
+    public String getBatchUrl(String url) {
+        return batchUrl != null ? batchUrl : url + "/batch";
+    }
+
+    /**
+     * set the URL batches are POSTed to
+     * default null (the URL of the connection followed by /batch)
+     * @param batchUrl the batch URL
+     */
+    public void setBatchUrl(String batchUrl) {
+        this.batchUrl = batchUrl;
+    }
+
+    /**
+     * is gzip compression of request and response bodies enabled?
+     * default false
+     * @return true if enabled
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * enable gzip compression of request and response bodies.
+     * Uploads bigger than the compression threshold are sent gzip compressed until the endpoint
+     * answers one with 415 Unsupported Media Type, then this connection sends uncompressed.
+     * Queries ask for gzip compressed responses.
+     * default false
+     * @param compressionEnabled true to enable
+     */
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * get the size in bytes from which on request bodies are compressed
+     * default 1,024 bytes
+     * @return the size in bytes
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * set the size in bytes from which on request bodies are compressed
+     * default 1,024 bytes
+     * @param compressionThreshold the size in bytes
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * get the max number of beacons the endpoint should return per page of a request
+     * default 0 (paging disabled, all beacons in one response)
+     * @return the number of beacons
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * set the max number of beacons the endpoint should return per page of a request.
+     * The page size and the token of the next page are sent as query parameters pageSize and pageToken.
+     * The endpoint returns the token of the next page in the X-Next-Page-Token header and omits it on the last page.
+     * default 0 (paging disabled, all beacons in one response)
+     * @param pageSize the number of beacons or 0 to disable
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * is the offline queue enabled? Uploads which failed because the endpoint was not reachable
+     * are stored in the app storage and sent again later.
+     * default false
+     * @return true if enabled
+     */
+    public boolean isOfflineQueueEnabled() {
+        return offlineQueueEnabled;
+    }
+
+    /**
+     * enable the offline queue. Uploads which failed because the endpoint was not reachable
+     * are stored in the app storage and sent again later.
+     * default false
+     * @param offlineQueueEnabled true to enable
+     */
+    public void setOfflineQueueEnabled(boolean offlineQueueEnabled) {
+        this.offlineQueueEnabled = offlineQueueEnabled;
+    }
+
+    /**
+     * get the max disk size of the offline queue. If it is full the oldest sightings are dropped.
+     * default 4 MB
+     * @return the size in bytes
+     */
+    public int getOfflineQueueMaxBytes() {
+        return offlineQueueMaxBytes;
+    }
+
+    /**
+     * set the max disk size of the offline queue. If it is full the oldest sightings are dropped.
+     * default 4 MB
+     * @param offlineQueueMaxBytes the size in bytes
+     */
+    public void setOfflineQueueMaxBytes(int offlineQueueMaxBytes) {
+        this.offlineQueueMaxBytes = offlineQueueMaxBytes;
+    }
+
+    /**
+     * get the delay after which queued uploads are sent again. It doubles after every failed attempt.
+     * default 10,000ms (10s)
+     * @return the time in ms
+     */
+    public int getOfflineQueueRetryDelay() {
+        return offlineQueueRetryDelay;
+    }
+
+    /**
+     * set the delay after which queued uploads are sent again. It doubles after every failed attempt.
+     * default 10,000ms (10s)
+     * @param offlineQueueRetryDelay the time in ms
+     */
+    public void setOfflineQueueRetryDelay(int offlineQueueRetryDelay) {
+        this.offlineQueueRetryDelay = offlineQueueRetryDelay;
+    }
+
+    /**
+     * get the max delay after which queued uploads are sent again
+     * default 900,000ms (15min)
+     * @return the time in ms
+     */
+    public int getOfflineQueueMaxRetryDelay() {
+        return offlineQueueMaxRetryDelay;
+    }
+
+    /**
+     * set the max delay after which queued uploads are sent again
+     * default 900,000ms (15min)
+     * @param offlineQueueMaxRetryDelay the time in ms
+     */
+    public void setOfflineQueueMaxRetryDelay(int offlineQueueMaxRetryDelay) {
+        this.offlineQueueMaxRetryDelay = offlineQueueMaxRetryDelay;
+    }
+
+    /**
+     * get the encoding of uploads and requested beacons
+     * default JSON
+     * @return the wire format
+     */
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    /**
+     * set the encoding of uploads and requested beacons.
+     * With BINARY uploads are sent binary until the endpoint answers 415 Unsupported Media Type
+     * and requests accept binary and JSON responses.
+     * default JSON
+     * @param wireFormat the wire format
+     */
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
+
+    /**
+     * get the size of the tiles of the tile cache in degrees
+     * default 0 (tile cache disabled)
+     * @return the size in degrees
+     */
+    public double getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * set the size of the tiles of the tile cache in degrees.
+     * Requested areas are snapped to tiles of this size, only tiles which are not cached are downloaded
+     * and expired ones are revalidated with If-None-Match. Areas with more than 64 tiles bypass the cache.
+     * default 0 (tile cache disabled)
+     * @param tileSize the size in degrees or 0 to disable
+     */
+    public void setTileSize(double tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * get the max number of tiles kept in memory
+     * default 256
+     * @return the number of tiles
+     */
+    public int getTileCacheSize() {
+        return tileCacheSize;
+    }
+
+    /**
+     * set the max number of tiles kept in memory, the least recently used ones are evicted
+     * default 256
+     * @param tileCacheSize the number of tiles
+     */
+    public void setTileCacheSize(int tileCacheSize) {
+        this.tileCacheSize = tileCacheSize;
+    }
+
+    /**
+     * get the time a cached tile is used without asking the endpoint
+     * default 60,000ms (60s)
+     * @return the time in ms
+     */
+    public int getTileCacheTtl() {
+        return tileCacheTtl;
+    }
+
+    /**
+     * set the time a cached tile is used without asking the endpoint
+     * default 60,000ms (60s)
+     * @param tileCacheTtl the time in ms
+     */
+    public void setTileCacheTtl(int tileCacheTtl) {
+        this.tileCacheTtl = tileCacheTtl;
+    }
+
+    /**
+     * get the number of failed uploads in a row after which the circuit opens and uploads are buffered locally
+     * default 5
+     * @return the number of failures
+     */
+    public int getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+
+    /**
+     * set the number of failed uploads in a row after which the circuit opens and uploads are buffered locally
+     * default 5
+     * @param circuitFailureThreshold the number of failures
+     */
+    public void setCircuitFailureThreshold(int circuitFailureThreshold) {
+        this.circuitFailureThreshold = circuitFailureThreshold;
+    }
+
+    /**
+     * get the time the circuit stays open the first time, it doubles each time the probe after it fails
+     * default 5,000ms (5s)
+     * @return the time in ms
+     */
+    public int getCircuitOpenDelay() {
+        return circuitOpenDelay;
+    }
+
+    /**
+     * set the time the circuit stays open the first time, it doubles each time the probe after it fails
+     * default 5,000ms (5s)
+     * @param circuitOpenDelay the time in ms
+     */
+    public void setCircuitOpenDelay(int circuitOpenDelay) {
+        this.circuitOpenDelay = circuitOpenDelay;
+    }
+
+    /**
+     * get the max time the circuit stays open, a longer Retry-After of the server is still honoured
+     * default 300,000ms (5min)
+     * @return the time in ms
+     */
+    public int getCircuitMaxOpenDelay() {
+        return circuitMaxOpenDelay;
+    }
+
+    /**
+     * set the max time the circuit stays open, a longer Retry-After of the server is still honoured
+     * default 300,000ms (5min)
+     * @param circuitMaxOpenDelay the time in ms
+     */
+    public void setCircuitMaxOpenDelay(int circuitMaxOpenDelay) {
+        this.circuitMaxOpenDelay = circuitMaxOpenDelay;
+    }
+
+    /**
+     * get the max number of single uploads waiting for a free upload slot, lower lanes are dropped first if it is full
+     * default 128
+     * @return the number of uploads
+     */
+    public int getUploadQueueSize() {
+        return uploadQueueSize;
+    }
+
+    /**
+     * set the max number of single uploads waiting for a free upload slot, lower lanes are dropped first if it is full
+     * default 128
+     * @param uploadQueueSize the number of uploads
+     */
+    public void setUploadQueueSize(int uploadQueueSize) {
+        this.uploadQueueSize = uploadQueueSize;
+    }
+
+    /**
+     * get the max number of single uploads which are sent at the same time
+     * default 4
+     * @return the number of uploads
+     */
+    public int getMaxUploadsInFlight() {
+        return maxUploadsInFlight;
+    }
+
+    /**
+     * set the max number of single uploads which are sent at the same time
+     * default 4
+     * @param maxUploadsInFlight the number of uploads
+     */
+    public void setMaxUploadsInFlight(int maxUploadsInFlight) {
+        this.maxUploadsInFlight = maxUploadsInFlight;
+    }
+
+    /**
+     * get the max number of requests of this connection which use the shared network threads at the same time
+     * default 4
+     * @return the number of requests
+     */
+    public int getMaxRequestsInFlight() {
+        return maxRequestsInFlight;
+    }
+
+    /**
+     * set the max number of requests of this connection which use the shared network threads at the same time,
+     * so one busy connection can not block the others
+     * default 4
+     * @param maxRequestsInFlight the number of requests
+     */
+    public void setMaxRequestsInFlight(int maxRequestsInFlight) {
+        this.maxRequestsInFlight = maxRequestsInFlight;
+    }
+
+    /**
+     * is the known beacon filter enabled?
+     * default false
+     * @return true if enabled
+     */
+    public boolean isKnownBeaconFilterEnabled() {
+        return knownBeaconFilterEnabled;
+    }
+
+    /**
+     * enable the known beacon filter. The connection downloads a Bloom filter of the beacons the server confirmed
+     * at least min confirmations times for the regions it sends from and sends those beacons only every
+     * known beacon heartbeat interval. The endpoint has to support {@link #getKnownBeaconFilterUrl(String)}.
+     * default false
+     * @param knownBeaconFilterEnabled true to enable
+     */
+    public void setKnownBeaconFilterEnabled(boolean knownBeaconFilterEnabled) {
+        this.knownBeaconFilterEnabled = knownBeaconFilterEnabled;
+    }
+
+    /**
+     * get the URL the known beacon filters are downloaded from, the min confirmations, region x and y are appended
+     * default null (the URL of the connection followed by /known)
+     * @param url the URL of the connection
+     * @return the URL
+     */
+    public String getKnownBeaconFilterUrl(String url) {
+        return knownBeaconFilterUrl != null ? knownBeaconFilterUrl : url + "/known";
+    }
+
+    /**
+     * set the URL the known beacon filters are downloaded from
+     * default null (the URL of the connection followed by /known)
+     * @param knownBeaconFilterUrl the URL
+     */
+    public void setKnownBeaconFilterUrl(String knownBeaconFilterUrl) {
+        this.knownBeaconFilterUrl = knownBeaconFilterUrl;
+    }
+
+    /**
+     * get the width and height of the region one known beacon filter covers
+     * default 0.1
+     * @return the size in degrees
+     */
+    public double getKnownBeaconRegionSize() {
+        return knownBeaconRegionSize;
+    }
+
+    /**
+     * set the width and height of the region one known beacon filter covers
+     * default 0.1
+     * @param knownBeaconRegionSize the size in degrees
+     */
+    public void setKnownBeaconRegionSize(double knownBeaconRegionSize) {
+        this.knownBeaconRegionSize = knownBeaconRegionSize;
+    }
+
+    /**
+     * get the time after which a known beacon filter is refreshed
+     * default 1h
+     * @return the time in ms
+     */
+    public int getKnownBeaconFilterRefreshInterval() {
+        return knownBeaconFilterRefreshInterval;
+    }
+
+    /**
+     * set the time after which a known beacon filter is refreshed, only the changes since its version are downloaded
+     * default 1h
+     * @param knownBeaconFilterRefreshInterval the time in ms
+     */
+    public void setKnownBeaconFilterRefreshInterval(int knownBeaconFilterRefreshInterval) {
+        this.knownBeaconFilterRefreshInterval = knownBeaconFilterRefreshInterval;
+    }
+
+    /**
+     * get the min time between two sends of a beacon which is in the known beacon filter
+     * default 1h
+     * @return the time in ms
+     */
+    public int getKnownBeaconHeartbeatInterval() {
+        return knownBeaconHeartbeatInterval;
+    }
+
+    /**
+     * set the min time between two sends of a beacon which is in the known beacon filter.
+     * Sightings with sensor readings are sent as usual. 0 means known beacons are not sent at all.
+     * default 1h
+     * @param knownBeaconHeartbeatInterval the time in ms
+     */
+    public void setKnownBeaconHeartbeatInterval(int knownBeaconHeartbeatInterval) {
+        this.knownBeaconHeartbeatInterval = knownBeaconHeartbeatInterval;
+    }
+
+    /**
+     * get the size of the tiles of offline regions in degrees
+     * default 0.05
+     * @return the size in degrees
+     */
+    public double getOfflineTileSize() {
+        return offlineTileSize;
+    }
+
+    /**
+     * set the size of the tiles of offline regions in degrees.
+     * A region is downloaded and refreshed tile by tile. Regions downloaded with another tile size are not used anymore.
+     * default 0.05
+     * @param offlineTileSize the size in degrees
+     */
+    public void setOfflineTileSize(double offlineTileSize) {
+        this.offlineTileSize = offlineTileSize;
+    }
+
+    /**
+     * get the max age of the stored tiles of offline regions with which requests are answered
+     * default 0 (no limit)
+     * @return the age in ms
+     */
+    public int getOfflineMaxAge() {
+        return offlineMaxAge;
+    }
+
+    /**
+     * set the max age of the stored tiles of offline regions with which requests are answered.
+     * If a tile of the requested area is older, the request is sent to the endpoint instead.
+     * The tiles are only updated by refreshRegion.
+     * default 0 (no limit)
+     * @param offlineMaxAge the age in ms, 0 to always answer from the stored tiles
+     */
+    public void setOfflineMaxAge(int offlineMaxAge) {
+        this.offlineMaxAge = offlineMaxAge;
+    }
 }
@@ -0,0 +1,73 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.util.ArrayList;
+
+/**
+ * Handle of a running beacon request of a {@link RemoteConnection}.
+ * Cancel it if the requested area is not needed anymore (e.g. the map viewport changed),
+ * then no further pages are requested and no callbacks are fired.
+ */
+
+public class RemoteQuery {
+
+    private final ArrayList<SharedRequest> requests = new ArrayList<>();
+    private boolean cancelled = false;
+    private boolean done = false;
+
+    RemoteQuery() {
+    }
+
+    /**
+     * Cancels the request. Callbacks of pages which have not been delivered yet are not fired.
+     */
+    public void cancel() {
+        ArrayList<SharedRequest> running;
+        synchronized (this) {
+            cancelled = true;
+            running = new ArrayList<>(requests);
+            requests.clear();
+        }
+        // other queries may still wait for a shared request, it is only cancelled if nobody does
+        for (SharedRequest request : running) {
+            request.detach(this);
+        }
+    }
+
+    /**
+     * Indicates if the request was cancelled
+     * @return true if cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Indicates if all pages (or tiles) were delivered or the request failed
+     * @return true if the request finished
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Adds a request of a page or tile which is loading now
+     * @param request the request
+     * @return false if the query was cancelled and the request must not be started
+     */
+    synchronized boolean addRequest(SharedRequest request) {
+        if (cancelled) {
+            return false;
+        }
+        requests.add(request);
+        return true;
+    }
+
+    synchronized void removeRequest(SharedRequest request) {
+        requests.remove(request);
+    }
+
+    synchronized void setDone() {
+        done = true;
+        requests.clear();
+    }
+}
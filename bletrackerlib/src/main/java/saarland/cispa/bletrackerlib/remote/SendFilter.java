@@ -0,0 +1,165 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Decides if a {@link RemoteConnection} sends a beacon it has already sent, based on the {@link SendPolicy},
+ * and in which {@link UploadLane} it is uploaded.
+ * Beacons the server already knows (see {@link KnownBeacons}) are only sent every known beacon heartbeat interval.
+ * Only the least recently sent beacons are forgotten, a forgotten beacon counts as new again.
+ */
+
+class SendFilter {
+
+    private static final double EARTH_RADIUS = 6371000;
+    // sensor readings jitter, smaller changes are no change
+    private static final double TEMPERATURE_TOLERANCE = 0.5;
+    private static final long BATTERY_TOLERANCE = 50;
+    private static final int MAX_SENT_BEACONS = 1024;
+
+    private final RemotePreferences remotePreferences;
+    private final KnownBeacons knownBeacons;
+    private final LinkedHashMap<Integer, SentBeacon> sentBeacons = new LinkedHashMap<Integer, SentBeacon>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, SentBeacon> eldest) {
+            return size() > MAX_SENT_BEACONS;
+        }
+    };
+
+    private static class SentBeacon {
+        final long time;
+        final SimpleBeacon simpleBeacon;
+
+        SentBeacon(long time, SimpleBeacon simpleBeacon) {
+            this.time = time;
+            this.simpleBeacon = simpleBeacon;
+        }
+    }
+
+    /**
+     * @param remotePreferences the preferences of the connection
+     * @param knownBeacons the filters of the beacons the server knows or null if disabled
+     */
+    SendFilter(RemotePreferences remotePreferences, KnownBeacons knownBeacons) {
+        this.remotePreferences = remotePreferences;
+        this.knownBeacons = knownBeacons;
+    }
+
+    /**
+     * Checks if the SendMode and the SendPolicy allow to send the beacon and remembers it as sent if so
+     * @param payload the sighting
+     * @return the lane to upload it in or null if it should not be sent
+     */
+    synchronized UploadLane classify(BeaconPayload payload) {
+        SimpleBeacon simpleBeacon = payload.simpleBeacon;
+        if (!isAllowedBySendMode(simpleBeacon)) {
+            return null;
+        }
+        if (payload.time < 0) {
+            return hasSensorData(simpleBeacon) ? UploadLane.HIGH : UploadLane.NORMAL;
+        }
+        SentBeacon sent = sentBeacons.get(simpleBeacon.hashcode);
+        UploadLane lane;
+        // sensor readings are news even if the beacon is known
+        if (knownBeacons != null && !hasSensorData(simpleBeacon) && knownBeacons.isKnown(simpleBeacon)) {
+            int heartbeat = remotePreferences.getKnownBeaconHeartbeatInterval();
+            if (heartbeat <= 0 || (sent != null && payload.time - sent.time < heartbeat)) {
+                return null;
+            }
+            lane = UploadLane.LOW;
+        } else if (sent == null) {
+            lane = UploadLane.HIGH;
+        } else {
+            long elapsed = payload.time - sent.time;
+            if (elapsed < remotePreferences.getSendInterval()) {
+                return null;
+            }
+            lane = hasSensorData(simpleBeacon) ? UploadLane.HIGH : UploadLane.LOW;
+            if (remotePreferences.getSendPolicy() == SendPolicy.ON_CHANGE) {
+                if (hasChanged(sent.simpleBeacon, simpleBeacon)) {
+                    lane = lane == UploadLane.HIGH ? UploadLane.HIGH : UploadLane.NORMAL;
+                } else if (elapsed < remotePreferences.getHeartbeatInterval()) {
+                    return null;
+                } else {
+                    // nothing changed, this is only a heartbeat
+                    lane = UploadLane.LOW;
+                }
+            }
+        }
+        sentBeacons.put(simpleBeacon.hashcode, new SentBeacon(payload.time, simpleBeacon));
+        return lane;
+    }
+
+    /**
+     * Checks if the SendMode of the connection allows to send a beacon
+     * @param simpleBeacon the sighting or summary
+     * @return true if it may be sent
+     */
+    boolean isAllowedBySendMode(SimpleBeacon simpleBeacon) {
+        switch (remotePreferences.getSendMode()) {
+            case DO_SEND_BEACONS:
+                return true;
+            case DO_ONLY_SEND_IF_BEACONS_HAVE_GPS:
+                return simpleBeacon.location != null;
+            case DO_NOT_SEND_BEACONS:
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Indicates if a sighting carries sensor or telemetry readings
+     * @param simpleBeacon the sighting
+     * @return true if it has readings
+     */
+    static boolean hasSensorData(SimpleBeacon simpleBeacon) {
+        return simpleBeacon.ruuvi != null || simpleBeacon.telemetry != null;
+    }
+
+    private boolean hasChanged(SimpleBeacon sent, SimpleBeacon current) {
+        if (Math.abs(current.signalStrength - sent.signalStrength) >= remotePreferences.getChangeSignalStrength()) {
+            return true;
+        }
+        if ((sent.location == null) != (current.location == null)) {
+            return true;
+        }
+        if (current.location != null && getDistance(sent.location, current.location) > remotePreferences.getChangeDistance()) {
+            return true;
+        }
+        if ((sent.telemetry == null) != (current.telemetry == null)) {
+            return true;
+        }
+        // pdu count and uptime grow all the time, they are no change
+        if (current.telemetry != null && (Math.abs(current.telemetry.batteryMilliVolts - sent.telemetry.batteryMilliVolts) > BATTERY_TOLERANCE
+                || Math.abs(current.telemetry.temperature - sent.telemetry.temperature) >= TEMPERATURE_TOLERANCE)) {
+            return true;
+        }
+        if ((sent.ruuvi == null) != (current.ruuvi == null)) {
+            return true;
+        }
+        if (current.ruuvi != null && (current.ruuvi.humidity != sent.ruuvi.humidity
+                || current.ruuvi.airPressure != sent.ruuvi.airPressure
+                || Math.abs(current.ruuvi.temperature - sent.ruuvi.temperature) >= TEMPERATURE_TOLERANCE)) {
+            return true;
+        }
+        if ((sent.eddystoneUrlData == null) != (current.eddystoneUrlData == null)) {
+            return true;
+        }
+        return current.eddystoneUrlData != null && current.eddystoneUrlData.url != null
+                && !current.eddystoneUrlData.url.equals(sent.eddystoneUrlData.url);
+    }
+
+    /**
+     * Approximates the distance between two locations, exact enough for the few meters which are compared here
+     * @return the distance in meters
+     */
+    private static double getDistance(SimpleBeacon.Location from, SimpleBeacon.Location to) {
+        double meanLatitude = Math.toRadians((from.locationLat + to.locationLat) / 2);
+        double x = Math.toRadians(to.locationLong - from.locationLong) * Math.cos(meanLatitude);
+        double y = Math.toRadians(to.locationLat - from.locationLat);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+}
@@ -3,7 +3,7 @@ package saarland.cispa.bletrackerlib.remote;
 import saarland.cispa.bletrackerlib.data.SimpleBeacon;
 
 /**
- * How a {@link RemoteConnection#send(SimpleBeacon)} will send beacons.
+ * How a {@link RemoteConnection#sendBeacon(SimpleBeacon)} will send beacons.
  * The send mode is part of {@link RemotePreferences}.
  */
 public enum SendMode {
@@ -0,0 +1,17 @@
+package saarland.cispa.bletrackerlib.remote;
+
+/**
+ * When a {@link RemoteConnection} sends a beacon again which it has already sent.
+ * The send policy is part of {@link RemotePreferences}.
+ */
+public enum SendPolicy {
+    /**
+     * Send the beacon again every send interval while it is in range
+     */
+    INTERVAL,
+    /**
+     * Send the beacon again only if the device moved, the signal strength or the sensor values changed
+     * or the heartbeat interval passed. The send interval is the min time between two uploads.
+     */
+    ON_CHANGE
+}
@@ -0,0 +1,120 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * One beacon request in flight which is shared by all {@link RemoteQuery}s asking for the same URL at the same time.
+ * Every query subscribes with its own listeners and gets the single response.
+ * The request is cancelled when the last subscribed query is cancelled.
+ */
+
+class SharedRequest {
+
+    private final Map<String, SharedRequest> inFlight;
+    private final String key;
+    private final ArrayList<RemoteQuery> queries = new ArrayList<>();
+    private final ArrayList<Response.Listener<BeaconQueryRequest.Page>> listeners = new ArrayList<>();
+    private final ArrayList<Response.ErrorListener> errorListeners = new ArrayList<>();
+    private BeaconQueryRequest request;
+
+    /**
+     * @param inFlight the shared requests of the connection by key, this one is removed when it finished
+     * @param key the key of the request
+     */
+    SharedRequest(Map<String, SharedRequest> inFlight, String key) {
+        this.inFlight = inFlight;
+        this.key = key;
+    }
+
+    /**
+     * Listener to pass to the request, it hands the response to all subscribers.
+     * Every subscriber gets its own copy of the page, so none of them sees the changes of another.
+     */
+    final Response.Listener<BeaconQueryRequest.Page> listener = new Response.Listener<BeaconQueryRequest.Page>() {
+        @Override
+        public void onResponse(BeaconQueryRequest.Page page) {
+            ArrayList<Response.Listener<BeaconQueryRequest.Page>> subscribed = finish();
+            for (int i = 0; i < subscribed.size(); i++) {
+                subscribed.get(i).onResponse(i == subscribed.size() - 1 ? page : page.copy());
+            }
+        }
+    };
+
+    /**
+     * Error listener to pass to the request, it hands the error to all subscribers
+     */
+    final Response.ErrorListener errorListener = new Response.ErrorListener() {
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            ArrayList<Response.ErrorListener> subscribed;
+            synchronized (inFlight) {
+                subscribed = new ArrayList<>(errorListeners);
+                finish();
+            }
+            for (Response.ErrorListener subscriber : subscribed) {
+                subscriber.onErrorResponse(error);
+            }
+        }
+    };
+
+    void setRequest(BeaconQueryRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * Subscribes a query, call it while holding the lock of the in flight map
+     * @param query the query
+     * @param listener gets the response
+     * @param errorListener gets the error
+     * @return false if the query was cancelled
+     */
+    boolean subscribe(RemoteQuery query, Response.Listener<BeaconQueryRequest.Page> listener, Response.ErrorListener errorListener) {
+        if (!query.addRequest(this)) {
+            return false;
+        }
+        queries.add(query);
+        listeners.add(listener);
+        errorListeners.add(errorListener);
+        return true;
+    }
+
+    /**
+     * Unsubscribes a cancelled query and cancels the request if nobody else waits for it
+     * @param query the query
+     */
+    void detach(RemoteQuery query) {
+        synchronized (inFlight) {
+            int index = queries.indexOf(query);
+            if (index < 0) {
+                return;
+            }
+            queries.remove(index);
+            listeners.remove(index);
+            errorListeners.remove(index);
+            if (queries.isEmpty() && inFlight.get(key) == this) {
+                inFlight.remove(key);
+                request.cancel();
+            }
+        }
+    }
+
+    private ArrayList<Response.Listener<BeaconQueryRequest.Page>> finish() {
+        synchronized (inFlight) {
+            if (inFlight.get(key) == this) {
+                inFlight.remove(key);
+            }
+            for (RemoteQuery query : queries) {
+                query.removeRequest(this);
+            }
+            ArrayList<Response.Listener<BeaconQueryRequest.Page>> subscribed = new ArrayList<>(listeners);
+            queries.clear();
+            listeners.clear();
+            errorListeners.clear();
+            return subscribed;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Aggregates the sightings of a {@link RemoteConnection} per beacon over a time window
+ * ({@link RemotePreferences#setAggregationWindow(int)}) and emits one summary per beacon when the window closes.
+ * The running aggregates are kept in primitive arrays with one slot per beacon which are reused for every window.
+ * <p>
+ * A summary is the latest sighting with the mean signal strength, the mean known distance and the most accurate location
+ * of the window. It has the additional JSON fields FirstSeen, LastSeen, Count, MinSignalStrength and MaxSignalStrength.
+ */
+
+class SightingAggregator {
+
+    private static final int INITIAL_SLOTS = 16;
+
+    private final RemoteConnection connection;
+    private final RemotePreferences remotePreferences;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final HashMap<Integer, Integer> slots = new HashMap<>();
+
+    private int size = 0;
+    private int[] count = new int[INITIAL_SLOTS];
+    private int[] minSignalStrength = new int[INITIAL_SLOTS];
+    private int[] maxSignalStrength = new int[INITIAL_SLOTS];
+    private long[] signalStrengthSum = new long[INITIAL_SLOTS];
+    private double[] distanceSum = new double[INITIAL_SLOTS];
+    private int[] distanceCount = new int[INITIAL_SLOTS];
+    private double[] bestLocationLong = new double[INITIAL_SLOTS];
+    private double[] bestLocationLat = new double[INITIAL_SLOTS];
+    private double[] bestLocationRadius = new double[INITIAL_SLOTS];
+    private String[] firstSeen = new String[INITIAL_SLOTS];
+    private SimpleBeacon[] latest = new SimpleBeacon[INITIAL_SLOTS];
+    private boolean windowOpen = false;
+
+    private final Runnable closeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            close();
+        }
+    };
+
+    SightingAggregator(RemoteConnection connection, RemotePreferences remotePreferences) {
+        this.connection = connection;
+        this.remotePreferences = remotePreferences;
+    }
+
+    /**
+     * Adds a sighting to the current window, the first sighting opens a new window
+     * @param simpleBeacon the sighting
+     */
+    synchronized void add(SimpleBeacon simpleBeacon) {
+        Integer slot = slots.get(simpleBeacon.hashcode);
+        if (slot == null) {
+            slot = newSlot();
+            slots.put(simpleBeacon.hashcode, slot);
+            firstSeen[slot] = simpleBeacon.timestamp;
+        }
+        int i = slot;
+        count[i]++;
+        minSignalStrength[i] = Math.min(minSignalStrength[i], simpleBeacon.signalStrength);
+        maxSignalStrength[i] = Math.max(maxSignalStrength[i], simpleBeacon.signalStrength);
+        signalStrengthSum[i] += simpleBeacon.signalStrength;
+        // a negative distance is unknown
+        if (simpleBeacon.distance >= 0) {
+            distanceSum[i] += simpleBeacon.distance;
+            distanceCount[i]++;
+        }
+        SimpleBeacon.Location location = simpleBeacon.location;
+        if (location != null && location.locationRadius < bestLocationRadius[i]) {
+            bestLocationLong[i] = location.locationLong;
+            bestLocationLat[i] = location.locationLat;
+            bestLocationRadius[i] = location.locationRadius;
+        }
+        latest[i] = simpleBeacon;
+
+        if (!windowOpen) {
+            windowOpen = true;
+            handler.postDelayed(closeRunnable, remotePreferences.getAggregationWindow());
+        }
+    }
+
+    /**
+     * Closes the current window and emits its summaries to the connection
+     */
+    synchronized void close() {
+        if (windowOpen) {
+            handler.removeCallbacks(closeRunnable);
+            windowOpen = false;
+        }
+        for (int i = 0; i < size; i++) {
+            SimpleBeacon summary = summarize(i);
+            connection.sendSummary(new BeaconPayload(summary, BeaconJsonWriter.encodeSummary(summary, firstSeen[i],
+                    count[i], minSignalStrength[i], maxSignalStrength[i])));
+            firstSeen[i] = null;
+            latest[i] = null;
+        }
+        slots.clear();
+        size = 0;
+    }
+
+    private SimpleBeacon summarize(int i) {
+        SimpleBeacon last = latest[i];
+        SimpleBeacon summary = new SimpleBeacon(last.beaconType, (int) Math.round((double) signalStrengthSum[i] / count[i]),
+                last.transmitPower, last.manufacturer, last.bluetoothAddress, last.bluetoothName,
+                distanceCount[i] > 0 ? distanceSum[i] / distanceCount[i] : last.distance, last.timestamp);
+        summary.id = last.id;
+        summary.hashcode = last.hashcode;
+        if (bestLocationRadius[i] != Double.MAX_VALUE) {
+            summary.location = new SimpleBeacon.Location(bestLocationLong[i], bestLocationLat[i], bestLocationRadius[i]);
+        }
+        // the payload data of the latest sighting, this includes the latest telemetry
+        summary.telemetry = last.telemetry;
+        summary.altbeaconIBeaconData = last.altbeaconIBeaconData;
+        summary.ruuvi = last.ruuvi;
+        summary.eddystoneUidData = last.eddystoneUidData;
+        summary.eddystoneUrlData = last.eddystoneUrlData;
+        return summary;
+    }
+
+    private int newSlot() {
+        if (size == count.length) {
+            int capacity = size * 2;
+            count = Arrays.copyOf(count, capacity);
+            minSignalStrength = Arrays.copyOf(minSignalStrength, capacity);
+            maxSignalStrength = Arrays.copyOf(maxSignalStrength, capacity);
+            signalStrengthSum = Arrays.copyOf(signalStrengthSum, capacity);
+            distanceSum = Arrays.copyOf(distanceSum, capacity);
+            distanceCount = Arrays.copyOf(distanceCount, capacity);
+            bestLocationLong = Arrays.copyOf(bestLocationLong, capacity);
+            bestLocationLat = Arrays.copyOf(bestLocationLat, capacity);
+            bestLocationRadius = Arrays.copyOf(bestLocationRadius, capacity);
+            firstSeen = Arrays.copyOf(firstSeen, capacity);
+            latest = Arrays.copyOf(latest, capacity);
+        }
+        int i = size++;
+        count[i] = 0;
+        minSignalStrength[i] = Integer.MAX_VALUE;
+        maxSignalStrength[i] = Integer.MIN_VALUE;
+        signalStrengthSum[i] = 0;
+        distanceSum[i] = 0;
+        distanceCount[i] = 0;
+        bestLocationRadius[i] = Double.MAX_VALUE;
+        return i;
+    }
+}
@@ -0,0 +1,103 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * In memory cache of the beacons of fixed geo tiles for the requests of a {@link RemoteConnection}.
+ * A tile is {@link RemotePreferences#getTileSize()} degrees wide and high and tile x, y covers
+ * the longitude x * tileSize to (x + 1) * tileSize and the latitude y * tileSize to (y + 1) * tileSize.
+ * The least recently used tiles are evicted if more than {@link RemotePreferences#getTileCacheSize()} are cached.
+ */
+
+class TileCache {
+
+    /**
+     * The beacons of one tile
+     */
+    static class Tile {
+        final ArrayList<SimpleBeacon> beacons;
+        final String etag;
+        final int bytes;
+        long fetchedAt;
+
+        Tile(ArrayList<SimpleBeacon> beacons, String etag, int bytes, long fetchedAt) {
+            this.beacons = beacons;
+            this.etag = etag;
+            this.bytes = bytes;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private final RemotePreferences remotePreferences;
+    private final TileCacheStats stats = new TileCacheStats();
+    private final LinkedHashMap<Long, Tile> tiles;
+
+    TileCache(final RemotePreferences remotePreferences) {
+        this.remotePreferences = remotePreferences;
+        this.tiles = new LinkedHashMap<Long, Tile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+                return size() > remotePreferences.getTileCacheSize();
+            }
+        };
+    }
+
+    static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    static int tileX(long key) {
+        return (int) (key >> 32);
+    }
+
+    static int tileY(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Gets the tile index of a coordinate
+     * @param degrees the longitude or latitude
+     * @return the index
+     */
+    int index(double degrees) {
+        return (int) Math.floor(degrees / remotePreferences.getTileSize());
+    }
+
+    /**
+     * Gets a tile
+     * @param key the key of the tile
+     * @return the tile or null if it is not cached
+     */
+    synchronized Tile get(long key) {
+        return tiles.get(key);
+    }
+
+    /**
+     * Indicates if a tile is younger than the TTL and can be used without asking the endpoint
+     * @param tile the tile
+     * @param now the current time in ms
+     * @return true if fresh
+     */
+    boolean isFresh(Tile tile, long now) {
+        return now - tile.fetchedAt < remotePreferences.getTileCacheTtl();
+    }
+
+    synchronized void put(long key, Tile tile) {
+        tiles.put(key, tile);
+    }
+
+    /**
+     * Removes all tiles
+     */
+    synchronized void clear() {
+        tiles.clear();
+    }
+
+    TileCacheStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,73 @@
+package saarland.cispa.bletrackerlib.remote;
+
+/**
+ * Counters of the tile cache of a {@link RemoteConnection}
+ *
+ * @see RemotePreferences#setTileSize(double) how to enable the tile cache
+ */
+
+public class TileCacheStats {
+
+    private long hits = 0;
+    private long misses = 0;
+    private long revalidations = 0;
+    private long bytesSaved = 0;
+
+    TileCacheStats() {
+    }
+
+    /**
+     * Number of tiles which were served from memory
+     * @return the number of tiles
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of tiles which had to be downloaded
+     * @return the number of tiles
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Number of expired tiles which the endpoint confirmed to be unchanged (304 Not Modified)
+     * @return the number of tiles
+     */
+    public synchronized long getRevalidations() {
+        return revalidations;
+    }
+
+    /**
+     * Response bytes which did not have to be downloaded because of hits and revalidations
+     * @return the bytes
+     */
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * Share of tiles which did not have to be downloaded, hits and revalidations count as hit
+     * @return the ratio between 0 and 1
+     */
+    public synchronized double getHitRatio() {
+        long total = hits + revalidations + misses;
+        return total == 0 ? 0 : (double) (hits + revalidations) / total;
+    }
+
+    synchronized void hit(int bytes) {
+        hits++;
+        bytesSaved += bytes;
+    }
+
+    synchronized void miss() {
+        misses++;
+    }
+
+    synchronized void revalidated(int bytes) {
+        revalidations++;
+        bytesSaved += bytes;
+    }
+}
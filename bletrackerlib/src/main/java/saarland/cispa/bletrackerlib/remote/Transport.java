@@ -0,0 +1,26 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.Request;
+
+/**
+ * Sends the requests of a {@link RemoteConnection}.
+ * Connections which use the same transport share its connection pool and TLS sessions.
+ *
+ * @see VolleyTransport the default implementation
+ */
+
+public interface Transport {
+
+    /**
+     * Sends a request, the response is delivered to the listeners of the request
+     * @param request the request
+     * @param finished called after the request finished, failed or was cancelled, may be null
+     */
+    void send(Request<?> request, Runnable finished);
+
+    /**
+     * Gets the counters of this transport
+     * @return the counters
+     */
+    TransportStats getStats();
+}
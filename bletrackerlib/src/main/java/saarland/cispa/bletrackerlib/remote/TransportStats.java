@@ -0,0 +1,70 @@
+package saarland.cispa.bletrackerlib.remote;
+
+/**
+ * Counters of a {@link Transport}, e.g. to check if TLS sessions are reused
+ */
+
+public class TransportStats {
+
+    private long handshakes = 0;
+    private long resumedHandshakes = 0;
+    private long requests = 0;
+    private long totalLatency = 0;
+    private long maxLatency = 0;
+
+    TransportStats() {
+    }
+
+    /**
+     * Number of TLS handshakes, resumed ones included
+     * @return the number of handshakes
+     */
+    public synchronized long getHandshakes() {
+        return handshakes;
+    }
+
+    /**
+     * Number of TLS handshakes which resumed a cached session instead of doing a full handshake
+     * @return the number of handshakes
+     */
+    public synchronized long getResumedHandshakes() {
+        return resumedHandshakes;
+    }
+
+    /**
+     * Number of finished requests, failed and cancelled ones included
+     * @return the number of requests
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Average time between sending a request and its response
+     * @return the latency in milliseconds
+     */
+    public synchronized long getAverageLatency() {
+        return requests == 0 ? 0 : totalLatency / requests;
+    }
+
+    /**
+     * Longest time between sending a request and its response
+     * @return the latency in milliseconds
+     */
+    public synchronized long getMaxLatency() {
+        return maxLatency;
+    }
+
+    synchronized void handshake(boolean resumed) {
+        handshakes++;
+        if (resumed) {
+            resumedHandshakes++;
+        }
+    }
+
+    synchronized void finished(long latency) {
+        requests++;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+    }
+}
@@ -0,0 +1,30 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.Request;
+
+/**
+ * Priority lane of an upload of a {@link RemoteConnection}.
+ * Higher lanes get more of the upload slots and lower lanes are shed first if the queue is full.
+ */
+public enum UploadLane {
+    /**
+     * The first sighting of a beacon or a sighting with sensor or telemetry data
+     */
+    HIGH(4, Request.Priority.HIGH),
+    /**
+     * A beacon which changed (see {@link SendPolicy#ON_CHANGE}) or a summary of an aggregation window
+     */
+    NORMAL(2, Request.Priority.NORMAL),
+    /**
+     * A routine resend of a known beacon
+     */
+    LOW(1, Request.Priority.LOW);
+
+    final int weight;
+    final Request.Priority priority;
+
+    UploadLane(int weight, Request.Priority priority) {
+        this.weight = weight;
+        this.priority = priority;
+    }
+}
@@ -0,0 +1,592 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.content.Context;
+import android.os.Handler;
+import android.util.Log;
+
+import com.android.volley.VolleyError;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent queue of the uploads of a {@link RemoteConnection} which failed because the endpoint was not reachable.
+ * The encoded beacons are appended to segment files in the app storage and replayed with exponential backoff.
+ * A replay starts immediately when an upload of the connection succeeds again.
+ *
+ * Every record is stored as length, CRC32, beacon hashcode and JSON. A torn record at the end of the log
+ * (e.g. after a crash) fails the CRC check and is cut off. The read position is kept in a checkpoint file
+ * which is replaced atomically, so a sighting is sent at least once.
+ * If the log gets bigger than {@link RemotePreferences#getOfflineQueueMaxBytes()} the oldest segments are dropped.
+ * If too many segments pile up they are compacted to the newest sighting of every beacon.
+ *
+ * All file access is done on the storage thread of {@link LocalStorage}.
+ * If batching is enabled the queued beacons are replayed as batches.
+ */
+
+class UploadLog {
+
+    private static final String TAG = "UploadLog";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String CHECKPOINT_TMP_FILE = "checkpoint.tmp";
+    private static final long CHECKPOINT_MAGIC = 0x424c45545241434bL;
+    private static final int HEADER_BYTES = 12;
+    private static final int SEGMENT_MAX_BYTES = 256 * 1024;
+    private static final int COMPACT_SEGMENT_COUNT = 4;
+    private static final int REPLAY_WINDOW = 32;
+    private static final long SYNC_DELAY = 1000;
+
+    /**
+     * Result of a replayed upload
+     */
+    interface ReplayCallback {
+        /**
+         * @param delivered true if the endpoint accepted the beacon
+         * @param retryable true if it failed but may succeed later
+         */
+        void onResult(boolean delivered, boolean retryable);
+    }
+
+    private static class Record {
+        final int hashcode;
+        final byte[] json;
+
+        Record(int hashcode, byte[] json) {
+            this.hashcode = hashcode;
+            this.json = json;
+        }
+    }
+
+    private final RemoteConnection connection;
+    private final RemotePreferences remotePreferences;
+    private final File directory;
+    private final Handler handler;
+
+    private final ArrayList<Long> segments = new ArrayList<>();
+    private long checkpointSegment = 0;
+    private long checkpointOffset = 0;
+    private FileOutputStream out;
+    private long outSize = 0;
+    private long totalBytes = 0;
+    private int compactedSegments = 0;
+    private boolean opened = false;
+    private boolean syncScheduled = false;
+    private boolean replayScheduled = false;
+    private boolean replayInFlight = false;
+    private int failures = 0;
+    private volatile boolean pending = false;
+
+    private final Runnable replayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            replayScheduled = false;
+            replay();
+        }
+    };
+
+    private final Runnable syncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            syncScheduled = false;
+            try {
+                if (out != null) {
+                    out.getFD().sync();
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "can not sync upload log: " + e.getMessage());
+            }
+        }
+    };
+
+    /**
+     * Opens the log of a connection and replays what is left from earlier runs
+     * @param connection the connection which sends the replayed beacons
+     * @param context the application context
+     * @param url the URL of the connection, every URL has its own log
+     * @param remotePreferences the preferences of the connection
+     */
+    UploadLog(RemoteConnection connection, Context context, String url, RemotePreferences remotePreferences) {
+        this.connection = connection;
+        this.remotePreferences = remotePreferences;
+        this.directory = LocalStorage.getDirectory(context, "bletracker_uploads", url);
+        this.handler = LocalStorage.getHandler();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (open() && hasPending()) {
+                    scheduleReplay();
+                }
+            }
+        });
+    }
+
+    /**
+     * Indicates if a failed upload should be queued, this is the case if the endpoint
+     * was not reachable, timed out, is overloaded or had an internal error
+     * @param error the error of the upload
+     * @return true if it may succeed later
+     */
+    static boolean isRetryable(VolleyError error) {
+        if (error.networkResponse == null) {
+            return true;
+        }
+        int status = error.networkResponse.statusCode;
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    /**
+     * Appends an encoded beacon whose upload failed
+     * @param hashcode the hashcode of the beacon
+     * @param json the beacon encoded by {@link BeaconJsonWriter}
+     */
+    void append(final int hashcode, final byte[] json) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!open()) {
+                    return;
+                }
+                try {
+                    write(hashcode, json);
+                    enforceLimits();
+                } catch (IOException e) {
+                    Log.d(TAG, "can not write upload log: " + e.getMessage());
+                }
+                scheduleReplay();
+            }
+        });
+    }
+
+    /**
+     * Starts a replay right now if there is something queued, e.g. because an upload succeeded again
+     */
+    void retryNow() {
+        if (!pending) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                failures = 0;
+                if (replayScheduled) {
+                    handler.removeCallbacks(replayRunnable);
+                    replayScheduled = false;
+                }
+                replay();
+            }
+        });
+    }
+
+    private boolean open() {
+        if (opened) {
+            return true;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.d(TAG, "can not create upload log directory");
+            return false;
+        }
+        try {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(SEGMENT_SUFFIX)) {
+                        try {
+                            segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                        } catch (NumberFormatException e) {
+                            // not ours
+                        }
+                    }
+                }
+            }
+            Collections.sort(segments);
+            readCheckpoint();
+            while (!segments.isEmpty() && segments.get(0) < checkpointSegment) {
+                deleteSegment(segments.get(0));
+            }
+            if (segments.isEmpty()) {
+                startSegment(checkpointSegment);
+            } else {
+                long last = segments.get(segments.size() - 1);
+                if (checkpointSegment < segments.get(0)) {
+                    checkpointSegment = segments.get(0);
+                    checkpointOffset = 0;
+                }
+                recoverSegment(last);
+                if (checkpointSegment > last) {
+                    checkpointSegment = last;
+                    checkpointOffset = segmentFile(last).length();
+                }
+                out = new FileOutputStream(segmentFile(last), true);
+                outSize = segmentFile(last).length();
+            }
+            totalBytes = 0;
+            for (long segment : segments) {
+                totalBytes += segmentFile(segment).length();
+            }
+            compactedSegments = segments.size();
+            opened = true;
+            pending = hasPending();
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "can not open upload log: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Cuts off a torn record at the end of a segment
+     */
+    private void recoverSegment(long segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+        try {
+            long offset = 0;
+            long end;
+            while ((end = skipRecord(file, offset)) > 0) {
+                offset = end;
+            }
+            if (offset < file.length()) {
+                Log.d(TAG, "cut off torn record of upload log");
+                file.setLength(offset);
+            }
+            if (segment == checkpointSegment && checkpointOffset > offset) {
+                checkpointOffset = offset;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void write(int hashcode, byte[] json) throws IOException {
+        int segmentMaxBytes = Math.min(SEGMENT_MAX_BYTES, Math.max(HEADER_BYTES, remotePreferences.getOfflineQueueMaxBytes() / 4));
+        if (outSize >= segmentMaxBytes) {
+            startSegment(segments.get(segments.size() - 1) + 1);
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + json.length);
+        record.putInt(json.length);
+        record.putInt(crc(hashcode, json));
+        record.putInt(hashcode);
+        record.put(json);
+        out.write(record.array());
+        outSize += record.capacity();
+        totalBytes += record.capacity();
+        pending = true;
+        if (!syncScheduled) {
+            syncScheduled = true;
+            handler.postDelayed(syncRunnable, SYNC_DELAY);
+        }
+    }
+
+    private void startSegment(long segment) throws IOException {
+        closeOut();
+        segments.add(segment);
+        out = new FileOutputStream(segmentFile(segment), true);
+        outSize = 0;
+    }
+
+    private void closeOut() throws IOException {
+        if (out != null) {
+            out.getFD().sync();
+            out.close();
+            out = null;
+        }
+    }
+
+    private void enforceLimits() throws IOException {
+        long maxBytes = remotePreferences.getOfflineQueueMaxBytes();
+        // not while a replay is running, it still points into the old segments
+        if (!replayInFlight && (segments.size() >= compactedSegments + COMPACT_SEGMENT_COUNT
+                || (totalBytes > maxBytes && segments.size() > compactedSegments))) {
+            compact();
+        }
+        while (totalBytes > maxBytes && segments.size() > 1) {
+            long oldest = segments.get(0);
+            deleteSegment(oldest);
+            if (checkpointSegment <= oldest) {
+                checkpointSegment = segments.get(0);
+                checkpointOffset = 0;
+                writeCheckpoint();
+            }
+            Log.d(TAG, "upload log full, dropped oldest sightings");
+        }
+    }
+
+    /**
+     * Rewrites the pending records into new segments keeping only the newest sighting of every beacon
+     */
+    private void compact() throws IOException {
+        closeOut();
+        LinkedHashMap<Integer, byte[]> newest = new LinkedHashMap<>();
+        long[] position = {checkpointSegment, checkpointOffset};
+        int records = 0;
+        for (Record record : read(Integer.MAX_VALUE, position)) {
+            newest.remove(record.hashcode);
+            newest.put(record.hashcode, record.json);
+            records++;
+        }
+        ArrayList<Long> oldSegments = new ArrayList<>(segments);
+        startSegment(oldSegments.get(oldSegments.size() - 1) + 1);
+        long first = segments.get(segments.size() - 1);
+        for (Map.Entry<Integer, byte[]> entry : newest.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+        out.getFD().sync();
+        checkpointSegment = first;
+        checkpointOffset = 0;
+        writeCheckpoint();
+        for (long segment : oldSegments) {
+            deleteSegment(segment);
+        }
+        totalBytes = 0;
+        for (long segment : segments) {
+            totalBytes += segmentFile(segment).length();
+        }
+        compactedSegments = segments.size();
+        Log.d(TAG, "compacted upload log from " + records + " to " + newest.size() + " sightings");
+    }
+
+    private void replay() {
+        if (replayInFlight || !open()) {
+            return;
+        }
+        if (connection.getCircuitBreaker().getDelay() > 0) {
+            // the endpoint asked to back off, wait until the circuit allows a probe
+            scheduleReplay();
+            return;
+        }
+        final long[] position = {checkpointSegment, checkpointOffset};
+        final ArrayList<Record> window;
+        try {
+            window = read(REPLAY_WINDOW, position);
+        } catch (IOException e) {
+            Log.d(TAG, "can not read upload log: " + e.getMessage());
+            return;
+        }
+        if (window.isEmpty()) {
+            advance(position);
+            return;
+        }
+        replayInFlight = true;
+        final int[] answers = {0, 0};
+        final ArrayList<Record> failed = new ArrayList<>();
+        ArrayList<byte[]> beaconsAsJson = new ArrayList<>(window.size());
+        ArrayList<ReplayCallback> callbacks = new ArrayList<>(window.size());
+        for (final Record record : window) {
+            beaconsAsJson.add(record.json);
+            callbacks.add(new ReplayCallback() {
+                @Override
+                public void onResult(final boolean delivered, final boolean retryable) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            answers[0]++;
+                            if (delivered) {
+                                answers[1]++;
+                            } else if (retryable) {
+                                failed.add(record);
+                            }
+                            if (answers[0] == window.size()) {
+                                finishReplay(window, failed, position);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+        connection.replay(beaconsAsJson, callbacks);
+    }
+
+    private void finishReplay(ArrayList<Record> window, ArrayList<Record> failed, long[] position) {
+        replayInFlight = false;
+        if (failed.size() == window.size()) {
+            // nothing got through, the endpoint is still not reachable
+            failures++;
+            scheduleReplay();
+            return;
+        }
+        failures = 0;
+        advance(position);
+        try {
+            for (Record record : failed) {
+                write(record.hashcode, record.json);
+            }
+            enforceLimits();
+        } catch (IOException e) {
+            Log.d(TAG, "can not write upload log: " + e.getMessage());
+        }
+        if (hasPending()) {
+            handler.post(replayRunnable);
+        }
+    }
+
+    private void advance(long[] position) {
+        // the log may have dropped the replayed segments while the replay was running
+        if (segments.contains(position[0]) && (position[0] > checkpointSegment
+                || (position[0] == checkpointSegment && position[1] > checkpointOffset))) {
+            checkpointSegment = position[0];
+            checkpointOffset = position[1];
+        }
+        try {
+            writeCheckpoint();
+            while (segments.size() > 1 && segments.get(0) < checkpointSegment) {
+                deleteSegment(segments.get(0));
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "can not write upload log checkpoint: " + e.getMessage());
+        }
+        pending = hasPending();
+    }
+
+    private void scheduleReplay() {
+        if (replayScheduled || replayInFlight) {
+            return;
+        }
+        replayScheduled = true;
+        long delay = (long) remotePreferences.getOfflineQueueRetryDelay() << Math.min(failures, 16);
+        delay = Math.min(delay, remotePreferences.getOfflineQueueMaxRetryDelay());
+        handler.postDelayed(replayRunnable, Math.max(delay, connection.getCircuitBreaker().getDelay()));
+    }
+
+    private boolean hasPending() {
+        if (segments.isEmpty()) {
+            return false;
+        }
+        long last = segments.get(segments.size() - 1);
+        return checkpointSegment < last || checkpointOffset < outSize;
+    }
+
+    /**
+     * Reads records from a position on and moves the position behind the last one
+     * @param max the max number of records
+     * @param position the segment and offset to start at
+     * @return the records
+     */
+    private ArrayList<Record> read(int max, long[] position) throws IOException {
+        ArrayList<Record> records = new ArrayList<>();
+        int index = segments.indexOf(position[0]);
+        while (index >= 0 && index < segments.size() && records.size() < max) {
+            long segment = segments.get(index);
+            RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "r");
+            try {
+                Record record;
+                while (records.size() < max && (record = readRecord(file, position[1])) != null) {
+                    records.add(record);
+                    position[1] += HEADER_BYTES + record.json.length;
+                }
+            } finally {
+                file.close();
+            }
+            if (records.size() >= max || index == segments.size() - 1) {
+                break;
+            }
+            // the rest of an older segment is done or broken, go on with the next one
+            index++;
+            position[0] = segments.get(index);
+            position[1] = 0;
+        }
+        return records;
+    }
+
+    private static Record readRecord(RandomAccessFile file, long offset) throws IOException {
+        if (offset + HEADER_BYTES > file.length()) {
+            return null;
+        }
+        file.seek(offset);
+        int length = file.readInt();
+        int crc = file.readInt();
+        int hashcode = file.readInt();
+        if (length < 0 || offset + HEADER_BYTES + length > file.length()) {
+            return null;
+        }
+        byte[] json = new byte[length];
+        file.readFully(json);
+        if (crc(hashcode, json) != crc) {
+            return null;
+        }
+        return new Record(hashcode, json);
+    }
+
+    private static long skipRecord(RandomAccessFile file, long offset) throws IOException {
+        Record record = readRecord(file, offset);
+        return record != null ? offset + HEADER_BYTES + record.json.length : -1;
+    }
+
+    private static int crc(int hashcode, byte[] json) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(4).putInt(hashcode).array());
+        crc.update(json);
+        return (int) crc.getValue();
+    }
+
+    private void readCheckpoint() {
+        File file = new File(directory, CHECKPOINT_FILE);
+        if (!file.isFile()) {
+            checkpointSegment = segments.isEmpty() ? 0 : segments.get(0);
+            checkpointOffset = 0;
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                long segment = in.readLong();
+                long offset = in.readLong();
+                if ((segment ^ offset ^ CHECKPOINT_MAGIC) == in.readLong()) {
+                    checkpointSegment = segment;
+                    checkpointOffset = offset;
+                    return;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // broken, start at the beginning
+        }
+        Log.d(TAG, "upload log checkpoint broken, replaying everything");
+        checkpointSegment = segments.isEmpty() ? 0 : segments.get(0);
+        checkpointOffset = 0;
+    }
+
+    private void writeCheckpoint() throws IOException {
+        File tmp = new File(directory, CHECKPOINT_TMP_FILE);
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        try {
+            DataOutputStream dataOut = new DataOutputStream(fileOut);
+            dataOut.writeLong(checkpointSegment);
+            dataOut.writeLong(checkpointOffset);
+            dataOut.writeLong(checkpointSegment ^ checkpointOffset ^ CHECKPOINT_MAGIC);
+            dataOut.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!tmp.renameTo(new File(directory, CHECKPOINT_FILE))) {
+            throw new IOException("can not replace checkpoint");
+        }
+    }
+
+    private void deleteSegment(long segment) {
+        File file = segmentFile(segment);
+        totalBytes -= file.length();
+        if (!file.delete()) {
+            Log.d(TAG, "can not delete upload log segment " + segment);
+        }
+        segments.remove(Long.valueOf(segment));
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format(Locale.ENGLISH, "%019d%s", segment, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,167 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queues the single uploads of a {@link RemoteConnection} in one bounded queue per {@link UploadLane}
+ * and starts at most {@link RemotePreferences#getMaxUploadsInFlight()} at a time.
+ * The next upload is picked by smooth weighted round robin over the lanes with waiting uploads,
+ * so lower lanes still get a share. If all lanes together hold {@link RemotePreferences#getUploadQueueSize()}
+ * uploads, the oldest upload of the lowest lane is dropped, or the new one if it is in an even lower lane.
+ * When the circuit breaker denies an upload, no further uploads are started until the circuit lets requests through again.
+ */
+
+class UploadScheduler {
+
+    private static final String TAG = "UploadScheduler";
+    private static final UploadLane[] LANES = UploadLane.values();
+    // while a probe is in flight the breaker has no delay, try again after this
+    private static final long MIN_RESUME_DELAY = 1000;
+
+    private final RemoteConnection connection;
+    private final RemotePreferences remotePreferences;
+    private final Handler handler;
+    // one queue per lane, by ordinal
+    private final List<ArrayDeque<BeaconPayload>> queues = new ArrayList<>(LANES.length);
+    private final int[] credits = new int[LANES.length];
+    private int queued = 0;
+    private int inFlight = 0;
+    private long shed = 0;
+    private boolean paused = false;
+
+    private final Runnable resumeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (UploadScheduler.this) {
+                paused = false;
+            }
+            drain();
+        }
+    };
+
+    UploadScheduler(RemoteConnection connection, RemotePreferences remotePreferences) {
+        this(connection, remotePreferences, new Handler(Looper.getMainLooper()));
+    }
+
+    UploadScheduler(RemoteConnection connection, RemotePreferences remotePreferences, Handler handler) {
+        this.connection = connection;
+        this.remotePreferences = remotePreferences;
+        this.handler = handler;
+        for (int i = 0; i < LANES.length; i++) {
+            queues.add(new ArrayDeque<BeaconPayload>());
+        }
+    }
+
+    /**
+     * Starts the upload now if a slot is free or queues it in its lane
+     * @param payload the beacon to upload
+     * @param lane the lane
+     */
+    void submit(BeaconPayload payload, UploadLane lane) {
+        synchronized (this) {
+            if (queued >= remotePreferences.getUploadQueueSize() && !shed(lane)) {
+                shed++;
+                Log.d(TAG, "upload queue full, dropped " + lane + " upload");
+                return;
+            }
+            queues.get(lane.ordinal()).addLast(payload);
+            queued++;
+        }
+        drain();
+    }
+
+    /**
+     * Called when a started upload finished, successful or not
+     */
+    void onFinished() {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    /**
+     * Called instead of {@link #onFinished()} when the circuit breaker denied a started upload.
+     * The waiting uploads stay queued until the delay passed.
+     * @param delay the time until the circuit breaker allows requests again in ms
+     */
+    void onDenied(long delay) {
+        synchronized (this) {
+            inFlight--;
+            if (paused) {
+                return;
+            }
+            paused = true;
+        }
+        Log.d(TAG, "circuit open, pausing uploads for " + delay + "ms");
+        handler.postDelayed(resumeRunnable, Math.max(delay, MIN_RESUME_DELAY));
+    }
+
+    synchronized int getQueueDepth(UploadLane lane) {
+        return queues.get(lane.ordinal()).size();
+    }
+
+    synchronized long getShedCount() {
+        return shed;
+    }
+
+    private void drain() {
+        while (true) {
+            BeaconPayload payload;
+            UploadLane lane;
+            synchronized (this) {
+                if (paused || queued == 0 || inFlight >= remotePreferences.getMaxUploadsInFlight()) {
+                    return;
+                }
+                lane = next();
+                payload = queues.get(lane.ordinal()).pollFirst();
+                queued--;
+                inFlight++;
+            }
+            connection.start(payload, lane);
+        }
+    }
+
+    /**
+     * Picks the lane of the next upload by smooth weighted round robin
+     */
+    private UploadLane next() {
+        int total = 0;
+        int best = -1;
+        for (int i = 0; i < LANES.length; i++) {
+            if (queues.get(i).isEmpty()) {
+                continue;
+            }
+            credits[i] += LANES[i].weight;
+            total += LANES[i].weight;
+            if (best < 0 || credits[i] > credits[best]) {
+                best = i;
+            }
+        }
+        credits[best] -= total;
+        return LANES[best];
+    }
+
+    /**
+     * Drops the oldest upload of the lowest lane which is not higher than the given one
+     * @return false if there is none, then the new upload has to be dropped
+     */
+    private boolean shed(UploadLane lane) {
+        for (int i = LANES.length - 1; i >= lane.ordinal(); i--) {
+            if (!queues.get(i).isEmpty()) {
+                queues.get(i).pollFirst();
+                queued--;
+                shed++;
+                Log.d(TAG, "upload queue full, dropped " + LANES[i] + " upload");
+                return true;
+            }
+        }
+        return false;
+    }
+}
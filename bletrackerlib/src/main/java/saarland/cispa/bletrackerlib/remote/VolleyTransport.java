@@ -0,0 +1,106 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.Request;
+
+import java.security.KeyStore;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * {@link Transport} based on Volley.
+ * There is one transport per KeyStore (and one for the default trust store) in the whole process,
+ * so all {@link RemoteConnection}s with the same pinning share the keep-alive connections and the SSLContext.
+ * Because the SSLContext is shared, TLS sessions are resumed instead of doing a full handshake for every connection.
+ * All transports send through the {@link NetworkExecutor}, so they share one thread pool and response cache.
+ */
+
+public class VolleyTransport implements Transport {
+
+    private static final String TAG = "VolleyTransport";
+
+    private static final Map<KeyStore, VolleyTransport> pinnedTransports = new IdentityHashMap<>();
+    private static VolleyTransport defaultTransport;
+
+    private final NetworkExecutor executor;
+    private final SSLSocketFactory socketFactory;
+    private final TransportStats stats = new TransportStats();
+
+    /**
+     * Gets the shared transport for a trust store
+     * @param context the application context
+     * @param keyStore the KeyStore with the trusted CAs or null for the default trust store
+     * @return the transport
+     */
+    public static synchronized VolleyTransport get(Context context, KeyStore keyStore) {
+        if (keyStore == null) {
+            if (defaultTransport == null) {
+                defaultTransport = new VolleyTransport(context, HttpsURLConnection.getDefaultSSLSocketFactory());
+            }
+            return defaultTransport;
+        }
+        VolleyTransport transport = pinnedTransports.get(keyStore);
+        if (transport == null) {
+            SSLSocketFactory socketFactory = getPinnedSocketFactory(keyStore);
+            if (socketFactory == null) {
+                // same behaviour as before, an unusable KeyStore falls back to the default trust store
+                return get(context, null);
+            }
+            transport = new VolleyTransport(context, socketFactory);
+            pinnedTransports.put(keyStore, transport);
+        }
+        return transport;
+    }
+
+    private VolleyTransport(Context context, SSLSocketFactory socketFactory) {
+        this.executor = NetworkExecutor.getInstance(context);
+        this.socketFactory = new HandshakeCountingSocketFactory(socketFactory, stats);
+    }
+
+    /**
+     * Creates the socket factory which only trusts the CAs of the KeyStore
+     * @param keyStore the KeyStore
+     * @return the socket factory or null if the KeyStore can not be used
+     */
+    static SSLSocketFactory getPinnedSocketFactory(KeyStore keyStore) {
+        try {
+            // Create a TrustManager that trusts the CAs in our KeyStore
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(keyStore);
+            // Create an SSLContext that uses our TrustManager
+            SSLContext sslcontext = SSLContext.getInstance("TLS");
+            sslcontext.init(null, tmf.getTrustManagers(), null);
+            return sslcontext.getSocketFactory();
+        } catch (Exception e) {
+            Log.d(TAG, "can not use KeyStore: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void send(Request<?> request, final Runnable finished) {
+        final long startTime = SystemClock.elapsedRealtime();
+        executor.send(request, socketFactory, new Runnable() {
+            @Override
+            public void run() {
+                stats.finished(SystemClock.elapsedRealtime() - startTime);
+                if (finished != null) {
+                    finished.run();
+                }
+            }
+        });
+    }
+
+    @Override
+    public TransportStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,17 @@
+package saarland.cispa.bletrackerlib.remote;
+
+/**
+ * How beacons are encoded between a {@link RemoteConnection} and its endpoint.
+ * The wire format is part of {@link RemotePreferences}.
+ */
+public enum WireFormat {
+    /**
+     * JSON encoded {@link RemoteBeaconObject}s
+     */
+    JSON,
+    /**
+     * The compact binary encoding of {@link BeaconBinaryCodec} with content type application/x-bletracker-beacons.
+     * Falls back to JSON if the endpoint does not accept it.
+     */
+    BINARY
+}
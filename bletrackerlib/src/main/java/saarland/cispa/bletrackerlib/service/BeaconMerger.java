@@ -0,0 +1,176 @@
+package saarland.cispa.bletrackerlib.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+/**
+ * Merges the SimpleBeacons of one scan cycle which belong to the same physical device.
+ * A device can be matched by more than one layout (e.g. Eddystone UID, URL and TLM frames
+ * from the same MAC or iBeacon and AltBeacon with the same identifiers).
+ * Beacons are merged if they have the same bluetooth address and their identities do not conflict.
+ * A merged device keeps the hashcode of the first frame it was seen with, also in later cycles
+ * in which this frame is missing, so it is reported with the same identity every cycle.
+ */
+
+public class BeaconMerger {
+
+    private static final int MAX_IDENTITIES = 1024;
+
+    // the device hashcode per frame hashcode of the devices seen so far
+    private final LinkedHashMap<Integer, Integer> identities = new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+            return size() > MAX_IDENTITIES;
+        }
+    };
+
+    // The beacon type of a merged beacon is the one with the lowest rank
+    private static final String[] TYPE_RANKING = {
+            SimpleBeaconLayouts.EDDYSTONE_UID_LAYOUT.name(),
+            SimpleBeaconLayouts.IBEACON_LAYOUT.name(),
+            SimpleBeaconLayouts.ALTBEACON_LAYOUT.name(),
+            SimpleBeaconLayouts.RUUVI_LAYOUT.name(),
+            SimpleBeaconLayouts.EDDYSTONE_URL_LAYOUT.name(),
+            SimpleBeaconLayouts.EDDYSTONE_URI_LAYOUT.name(),
+            SimpleBeaconLayouts.EDDYSTONE_TLM_LAYOUT.name()
+    };
+
+    /**
+     * Merges the beacons of one cycle. The order of first appearance is kept.
+     * @param simpleBeacons the beacons of one cycle
+     * @return one beacon per device
+     */
+    public ArrayList<SimpleBeacon> merge(List<SimpleBeacon> simpleBeacons) {
+        ArrayList<SimpleBeacon> merged = new ArrayList<>(simpleBeacons.size());
+        HashMap<String, ArrayList<SimpleBeacon>> byAddress = new HashMap<>();
+        // the frame hashcodes of every merged beacon, by merged beacon
+        HashMap<SimpleBeacon, ArrayList<Integer>> frames = new HashMap<>();
+
+        for (SimpleBeacon simpleBeacon : simpleBeacons) {
+            if (simpleBeacon.bluetoothAddress == null) {
+                merged.add(simpleBeacon);
+                continue;
+            }
+            ArrayList<SimpleBeacon> sameAddress = byAddress.get(simpleBeacon.bluetoothAddress);
+            if (sameAddress == null) {
+                sameAddress = new ArrayList<>(1);
+                byAddress.put(simpleBeacon.bluetoothAddress, sameAddress);
+            }
+            SimpleBeacon target = null;
+            for (SimpleBeacon candidate : sameAddress) {
+                if (isSameDevice(candidate, simpleBeacon)) {
+                    target = candidate;
+                    break;
+                }
+            }
+            if (target == null) {
+                sameAddress.add(simpleBeacon);
+                merged.add(simpleBeacon);
+                ArrayList<Integer> hashcodes = new ArrayList<>(1);
+                hashcodes.add(simpleBeacon.hashcode);
+                frames.put(simpleBeacon, hashcodes);
+            } else {
+                frames.get(target).add(simpleBeacon.hashcode);
+                mergeInto(target, simpleBeacon);
+            }
+        }
+        for (Map.Entry<SimpleBeacon, ArrayList<Integer>> device : frames.entrySet()) {
+            device.getKey().hashcode = getIdentity(device.getValue());
+        }
+        return merged;
+    }
+
+    /**
+     * Gets the hashcode of a device: the one of a frame already known or else of its first frame.
+     * All frames of the device are remembered with it.
+     * @param hashcodes the frame hashcodes of the device in order of appearance
+     * @return the device hashcode
+     */
+    private int getIdentity(ArrayList<Integer> hashcodes) {
+        Integer identity = null;
+        for (Integer hashcode : hashcodes) {
+            identity = identities.get(hashcode);
+            if (identity != null) {
+                break;
+            }
+        }
+        if (identity == null) {
+            identity = hashcodes.get(0);
+        }
+        for (Integer hashcode : hashcodes) {
+            identities.put(hashcode, identity);
+        }
+        return identity;
+    }
+
+    private static boolean isSameDevice(SimpleBeacon a, SimpleBeacon b) {
+        if (a.altbeaconIBeaconData != null || b.altbeaconIBeaconData != null) {
+            if (a.altbeaconIBeaconData == null || b.altbeaconIBeaconData == null) {
+                return false;
+            }
+            return equalsIgnoreCase(a.altbeaconIBeaconData.uuid, b.altbeaconIBeaconData.uuid)
+                    && equalsIgnoreCase(a.altbeaconIBeaconData.major, b.altbeaconIBeaconData.major)
+                    && equalsIgnoreCase(a.altbeaconIBeaconData.minor, b.altbeaconIBeaconData.minor);
+        }
+        // Eddystone frames of one device, they only must not advertise different identities
+        if (a.eddystoneUidData != null && b.eddystoneUidData != null
+                && !(equalsIgnoreCase(a.eddystoneUidData.namespaceId, b.eddystoneUidData.namespaceId)
+                && equalsIgnoreCase(a.eddystoneUidData.instanceId, b.eddystoneUidData.instanceId))) {
+            return false;
+        }
+        return !(a.eddystoneUrlData != null && b.eddystoneUrlData != null
+                && !equalsIgnoreCase(a.eddystoneUrlData.url, b.eddystoneUrlData.url));
+    }
+
+    private static void mergeInto(SimpleBeacon target, SimpleBeacon source) {
+        if (rank(source.beaconType) < rank(target.beaconType)) {
+            target.beaconType = source.beaconType;
+            target.transmitPower = source.transmitPower;
+            target.manufacturer = source.manufacturer;
+        }
+        target.signalStrength = Math.max(target.signalStrength, source.signalStrength);
+        if (source.distance >= 0 && (target.distance < 0 || source.distance < target.distance)) {
+            target.distance = source.distance;
+        }
+        if (target.bluetoothName == null) {
+            target.bluetoothName = source.bluetoothName;
+        }
+        if (target.location == null) {
+            target.location = source.location;
+        }
+        if (target.telemetry == null) {
+            target.telemetry = source.telemetry;
+        }
+        if (target.altbeaconIBeaconData == null) {
+            target.altbeaconIBeaconData = source.altbeaconIBeaconData;
+        }
+        if (target.ruuvi == null) {
+            target.ruuvi = source.ruuvi;
+        }
+        if (target.eddystoneUidData == null) {
+            target.eddystoneUidData = source.eddystoneUidData;
+        }
+        if (target.eddystoneUrlData == null) {
+            target.eddystoneUrlData = source.eddystoneUrlData;
+        }
+    }
+
+    private static int rank(String beaconType) {
+        for (int i = 0; i < TYPE_RANKING.length; i++) {
+            if (TYPE_RANKING[i].equals(beaconType)) {
+                return i;
+            }
+        }
+        return TYPE_RANKING.length;
+    }
+
+    private static boolean equalsIgnoreCase(String a, String b) {
+        return a == null ? b == null : a.equalsIgnoreCase(b);
+    }
+}
@@ -0,0 +1,147 @@
+package saarland.cispa.bletrackerlib.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.BleTrackerPreferences;
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+/**
+ * Decides per beacon how often it is forwarded to the {@link BeaconNotifier}s and remote connections.
+ * Near beacons and beacons whose signal strength or distance changes fast are forwarded every cycle,
+ * far and static ones only every {@link BleTrackerPreferences#getSamplingMaxInterval()}.
+ * The state per beacon (smoothed signal strength and distance and their rate of change) is kept in primitive arrays,
+ * one slot per beacon, and slots of beacons which are gone are reused.
+ */
+
+public class BeaconSampler {
+
+    private static final int INITIAL_SLOTS = 32;
+    // weight of a new measurement in the exponential moving averages
+    private static final double SMOOTHING = 0.3;
+    // rates of change at which a beacon counts as moving fast
+    private static final double FAST_SIGNAL_RATE = 2.0; // dBm per second
+    private static final double FAST_DISTANCE_RATE = 0.5; // m per second
+
+    private final BleTrackerPreferences preferences;
+    private final HashMap<Integer, Integer> slots = new HashMap<>();
+
+    private int size = 0;
+    private int[] hashcodes = new int[INITIAL_SLOTS];
+    private long[] lastSeen = new long[INITIAL_SLOTS];
+    private long[] lastForwarded = new long[INITIAL_SLOTS];
+    private double[] signalStrength = new double[INITIAL_SLOTS];
+    private double[] signalRate = new double[INITIAL_SLOTS];
+    private double[] distance = new double[INITIAL_SLOTS];
+    private double[] distanceRate = new double[INITIAL_SLOTS];
+
+    public BeaconSampler(BleTrackerPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    /**
+     * Updates the state of the beacons of one cycle and returns the ones which are due
+     * @param simpleBeacons the beacons of this cycle
+     * @param now the time of this cycle in ms
+     * @return the beacons to forward
+     */
+    public ArrayList<SimpleBeacon> sample(List<SimpleBeacon> simpleBeacons, long now) {
+        ArrayList<SimpleBeacon> sampled = new ArrayList<>(simpleBeacons.size());
+        for (SimpleBeacon simpleBeacon : simpleBeacons) {
+            if (update(simpleBeacon, now)) {
+                sampled.add(simpleBeacon);
+            }
+        }
+        prune(now);
+        return sampled;
+    }
+
+    private boolean update(SimpleBeacon simpleBeacon, long now) {
+        Integer slot = slots.get(simpleBeacon.hashcode);
+        if (slot == null) {
+            int i = newSlot();
+            hashcodes[i] = simpleBeacon.hashcode;
+            lastSeen[i] = now;
+            lastForwarded[i] = now;
+            signalStrength[i] = simpleBeacon.signalStrength;
+            signalRate[i] = 0;
+            distance[i] = simpleBeacon.distance;
+            distanceRate[i] = 0;
+            slots.put(simpleBeacon.hashcode, i);
+            // a new beacon is always forwarded
+            return true;
+        }
+        int i = slot;
+        double seconds = Math.max(now - lastSeen[i], 1) / 1000.0;
+        double newSignalRate = (simpleBeacon.signalStrength - signalStrength[i]) / seconds;
+        double newDistanceRate = (simpleBeacon.distance - distance[i]) / seconds;
+        signalRate[i] += SMOOTHING * (newSignalRate - signalRate[i]);
+        distanceRate[i] += SMOOTHING * (newDistanceRate - distanceRate[i]);
+        signalStrength[i] += SMOOTHING * (simpleBeacon.signalStrength - signalStrength[i]);
+        distance[i] += SMOOTHING * (simpleBeacon.distance - distance[i]);
+        lastSeen[i] = now;
+
+        if (now - lastForwarded[i] < getInterval(i)) {
+            return false;
+        }
+        lastForwarded[i] = now;
+        return true;
+    }
+
+    /**
+     * Gets the time between two forwards of the beacon in a slot:
+     * 0 if it is near or moving fast, growing to the max interval the farther and the more static it is
+     */
+    private long getInterval(int i) {
+        double near = preferences.getSamplingNearDistance();
+        double far = preferences.getSamplingFarDistance();
+        double farness = far > near ? (distance[i] - near) / (far - near) : (distance[i] > near ? 1 : 0);
+        farness = Math.max(0, Math.min(1, farness));
+        double motion = Math.max(Math.abs(signalRate[i]) / FAST_SIGNAL_RATE, Math.abs(distanceRate[i]) / FAST_DISTANCE_RATE);
+        double stillness = 1 - Math.min(1, motion);
+        return (long) (preferences.getSamplingMaxInterval() * farness * stillness);
+    }
+
+    /**
+     * Frees the slots of beacons which were not seen for twice the max interval
+     */
+    private void prune(long now) {
+        long timeout = 2L * Math.max(preferences.getSamplingMaxInterval(), preferences.getScanInterval());
+        int i = 0;
+        while (i < size) {
+            if (now - lastSeen[i] <= timeout) {
+                i++;
+                continue;
+            }
+            // move the last slot into the gap
+            slots.remove(hashcodes[i]);
+            int last = --size;
+            if (i != last) {
+                hashcodes[i] = hashcodes[last];
+                lastSeen[i] = lastSeen[last];
+                lastForwarded[i] = lastForwarded[last];
+                signalStrength[i] = signalStrength[last];
+                signalRate[i] = signalRate[last];
+                distance[i] = distance[last];
+                distanceRate[i] = distanceRate[last];
+                slots.put(hashcodes[i], i);
+            }
+        }
+    }
+
+    private int newSlot() {
+        if (size == hashcodes.length) {
+            int capacity = size * 2;
+            hashcodes = Arrays.copyOf(hashcodes, capacity);
+            lastSeen = Arrays.copyOf(lastSeen, capacity);
+            lastForwarded = Arrays.copyOf(lastForwarded, capacity);
+            signalStrength = Arrays.copyOf(signalStrength, capacity);
+            signalRate = Arrays.copyOf(signalRate, capacity);
+            distance = Arrays.copyOf(distance, capacity);
+            distanceRate = Arrays.copyOf(distanceRate, capacity);
+        }
+        return size++;
+    }
+}
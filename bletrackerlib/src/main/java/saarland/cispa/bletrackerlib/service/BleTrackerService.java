@@ -34,6 +34,7 @@ public final class BleTrackerService extends Application implements BootstrapNot
     private RegionBootstrap regionBootstrap;
     private BackgroundPowerSaver backgroundPowerSaver;
     private RangeNotifierImpl rangeNotifier;
+    private LayoutManager layoutManager;
     private ArrayList<BeaconNotifier> stateNotifiers;
 
     public BleTrackerService() {
@@ -53,9 +54,9 @@ public final class BleTrackerService extends Application implements BootstrapNot
      */
     public void createBackgroundService(ArrayList<BeaconNotifier> stateNotifiers, RemoteConnection cispaConnection) {
         this.stateNotifiers = stateNotifiers;
-        this.rangeNotifier = new RangeNotifierImpl(this, stateNotifiers, cispaConnection);
-
         beaconManager = BeaconManager.getInstanceForApplication(this);
+        layoutManager = new LayoutManager(beaconManager);
+        this.rangeNotifier = new RangeNotifierImpl(this, stateNotifiers, cispaConnection, layoutManager);
 
         //backgroundPowerSaver = new BackgroundPowerSaver(this);
 
@@ -70,7 +71,7 @@ public final class BleTrackerService extends Application implements BootstrapNot
         beaconManager.addRangeNotifier(rangeNotifier);
 
         // Set the Layout of the beacons to which are we listening to
-        LayoutManager.setAllLayouts(beaconManager);
+        layoutManager.applyProfile();
     }
 
     /**
@@ -82,9 +83,9 @@ public final class BleTrackerService extends Application implements BootstrapNot
      */
     public void createForegroundService(ArrayList<BeaconNotifier> stateNotifiers, Notification notification, RemoteConnection cispaConnection) {
         this.stateNotifiers = stateNotifiers;
-        this.rangeNotifier = new RangeNotifierImpl(this, stateNotifiers, cispaConnection);
-
         beaconManager = BeaconManager.getInstanceForApplication(this);
+        layoutManager = new LayoutManager(beaconManager);
+        this.rangeNotifier = new RangeNotifierImpl(this, stateNotifiers, cispaConnection, layoutManager);
 
         beaconManager.disableForegroundServiceScanning();
         beaconManager.enableForegroundServiceScanning(notification, 456);
@@ -105,7 +106,7 @@ public final class BleTrackerService extends Application implements BootstrapNot
         beaconManager.addRangeNotifier(rangeNotifier);
 
         // Set the Layout of the beacons to which are we listening to
-        LayoutManager.setAllLayouts(beaconManager);
+        layoutManager.applyProfile();
     }
 
     /**
@@ -171,4 +172,12 @@ public final class BleTrackerService extends Application implements BootstrapNot
     public void addRemoteConnection(RemoteConnection connection) {
         rangeNotifier.addRemoteConnection(connection);
     }
+
+    /**
+     * Gets the layout manager of the created service
+     * @return the layout manager or null if no service was created yet
+     */
+    public LayoutManager getLayoutManager() {
+        return layoutManager;
+    }
 }
@@ -1,16 +1,58 @@
 package saarland.cispa.bletrackerlib.service;
 
+import android.util.Log;
+
+import org.altbeacon.beacon.Beacon;
 import org.altbeacon.beacon.BeaconManager;
 import org.altbeacon.beacon.BeaconParser;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.BleTracker;
+import saarland.cispa.bletrackerlib.BleTrackerPreferences;
 import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
 
 /**
- * A small manager for setting the beacon layouts for the used {@link org.altbeacon.beacon.BeaconManager}
+ * A small manager for setting the beacon layouts for the used {@link org.altbeacon.beacon.BeaconManager}.
+ * Only the layouts of the profile in {@link BleTrackerPreferences#getLayouts()} get registered.
+ * Layouts can be added or removed while the service is running and if a layout prune timeout is set,
+ * layouts which did not match for that time are removed and probed again from time to time.
+ * The parsers are changed in the list of {@link BeaconManager#getBeaconParsers()} and pushed to the
+ * scanner with {@link BeaconManager#applySettings()}. If the beacon manager does not allow changes
+ * while the scanner is bound, the layouts stay as they are until the service is created again.
  */
 
 public class LayoutManager {
 
+    private static final String TAG = "LayoutManager";
+    private static final SimpleBeaconLayouts[] LAYOUTS = SimpleBeaconLayouts.values();
+
+    private final BleTrackerPreferences preferences;
+    private final BeaconManager beaconManager;
+    // set if the beacon manager rejected a change of its parsers
+    private boolean parsersLocked = false;
+
+    private final EnumSet<SimpleBeaconLayouts> activeLayouts = EnumSet.noneOf(SimpleBeaconLayouts.class);
+    private final long[] matchCounts = new long[LAYOUTS.length];
+    // last match or activation of a layout
+    private final long[] lastMatches = new long[LAYOUTS.length];
+    // end of the current probe of a pruned layout or 0 if it is not probing
+    private final long[] probeEnds = new long[LAYOUTS.length];
+    // next probe of a pruned layout
+    private final long[] nextProbes = new long[LAYOUTS.length];
+
+    LayoutManager(BeaconManager beaconManager) {
+        this(beaconManager, BleTracker.getPreferences());
+    }
+
+    LayoutManager(BeaconManager beaconManager, BleTrackerPreferences preferences) {
+        this.beaconManager = beaconManager;
+        this.preferences = preferences;
+    }
+
     public static void setAllLayouts(BeaconManager beaconManager) {
         beaconManager.getBeaconParsers().clear();
         for(SimpleBeaconLayouts layout : SimpleBeaconLayouts.values()) {
@@ -21,4 +63,216 @@ public class LayoutManager {
     public static void addLayout(BeaconManager beaconManager, SimpleBeaconLayouts layout) {
         beaconManager.getBeaconParsers().add(new BeaconParser(layout.name()).setBeaconLayout(layout.getLayout()));
     }
+
+    /**
+     * Registers exactly the layouts of the profile in the preferences
+     */
+    synchronized void applyProfile() {
+        long now = System.currentTimeMillis();
+        clearParsers();
+        activeLayouts.clear();
+        for (SimpleBeaconLayouts layout : preferences.getLayouts()) {
+            activate(layout, now);
+        }
+        applySettings();
+    }
+
+    /**
+     * Adds a layout to the profile and starts listening to it without restarting the service
+     * @param layout the layout
+     */
+    public synchronized void enableLayout(SimpleBeaconLayouts layout) {
+        preferences.addLayout(layout);
+        if (activate(layout, System.currentTimeMillis())) {
+            applySettings();
+        }
+    }
+
+    /**
+     * Removes a layout from the profile and stops listening to it without restarting the service
+     * @param layout the layout
+     */
+    public synchronized void disableLayout(SimpleBeaconLayouts layout) {
+        preferences.removeLayout(layout);
+        if (deactivate(layout)) {
+            applySettings();
+        }
+    }
+
+    /**
+     * Indicates if the scanner is listening to this layout at the moment.
+     * A layout of the profile is not active if it got pruned and is not probing.
+     * @param layout the layout
+     * @return true if it is active
+     */
+    public synchronized boolean isActive(SimpleBeaconLayouts layout) {
+        return activeLayouts.contains(layout);
+    }
+
+    /**
+     * Gets how many beacons were matched by this layout since the service was created
+     * @param layout the layout
+     * @return the number of matches
+     */
+    public synchronized long getMatchCount(SimpleBeaconLayouts layout) {
+        return matchCounts[layout.ordinal()];
+    }
+
+    /**
+     * Gets the match counts of all layouts
+     * @return the number of matches per layout
+     */
+    public synchronized EnumMap<SimpleBeaconLayouts, Long> getMatchCounts() {
+        EnumMap<SimpleBeaconLayouts, Long> counts = new EnumMap<>(SimpleBeaconLayouts.class);
+        for (SimpleBeaconLayouts layout : LAYOUTS) {
+            counts.put(layout, matchCounts[layout.ordinal()]);
+        }
+        return counts;
+    }
+
+    /**
+     * Counts a ranged beacon for the layout which parsed it
+     * @param beacon the beacon
+     * @param now the current time in ms
+     */
+    void onMatch(Beacon beacon, long now) {
+        // telemetry frames are merged into the Eddystone beacon they belong to
+        boolean telemetry = beacon.getServiceUuid() == 0xfeaa
+                && beacon.getExtraDataFields() != null && beacon.getExtraDataFields().size() >= 5;
+        onMatch(getLayout(beacon.getParserIdentifier()), telemetry, now);
+    }
+
+    /**
+     * Counts a ranged beacon for its layout and for the TLM layout if a telemetry frame was merged into it
+     * @param layout the layout which parsed the beacon or null if it is unknown
+     * @param telemetry true if the beacon carries an Eddystone TLM frame
+     * @param now the current time in ms
+     */
+    synchronized void onMatch(SimpleBeaconLayouts layout, boolean telemetry, long now) {
+        if (layout != null) {
+            countMatch(layout, now);
+        }
+        if (telemetry && layout != SimpleBeaconLayouts.EDDYSTONE_TLM_LAYOUT) {
+            countMatch(SimpleBeaconLayouts.EDDYSTONE_TLM_LAYOUT, now);
+        }
+    }
+
+    /**
+     * Prunes layouts without match and starts or ends probes of pruned layouts.
+     * Gets called once every scan cycle.
+     * @param now the current time in ms
+     */
+    synchronized void onCycle(long now) {
+        int pruneTimeout = preferences.getLayoutPruneTimeout();
+        if (pruneTimeout <= 0 || parsersLocked) {
+            return;
+        }
+        boolean changed = false;
+        for (SimpleBeaconLayouts layout : preferences.getLayouts()) {
+            int i = layout.ordinal();
+            if (activeLayouts.contains(layout)) {
+                boolean probeOver = probeEnds[i] > 0 && now >= probeEnds[i];
+                boolean timedOut = probeEnds[i] == 0 && now - lastMatches[i] >= pruneTimeout;
+                if ((probeOver || timedOut) && deactivate(layout)) {
+                    changed = true;
+                    nextProbes[i] = now + preferences.getLayoutProbeInterval();
+                }
+            } else if (now >= nextProbes[i] && activate(layout, now)) {
+                changed = true;
+                probeEnds[i] = now + preferences.getLayoutProbeDuration();
+            }
+        }
+        if (changed) {
+            applySettings();
+        }
+    }
+
+    private void countMatch(SimpleBeaconLayouts layout, long now) {
+        int i = layout.ordinal();
+        matchCounts[i]++;
+        lastMatches[i] = now;
+        probeEnds[i] = 0;
+    }
+
+    private boolean activate(SimpleBeaconLayouts layout, long now) {
+        lastMatches[layout.ordinal()] = now;
+        probeEnds[layout.ordinal()] = 0;
+        if (activeLayouts.contains(layout) || !changeParsers(layout, true)) {
+            return false;
+        }
+        activeLayouts.add(layout);
+        return true;
+    }
+
+    private boolean deactivate(SimpleBeaconLayouts layout) {
+        if (!activeLayouts.contains(layout) || !changeParsers(layout, false)) {
+            return false;
+        }
+        activeLayouts.remove(layout);
+        return true;
+    }
+
+    private boolean changeParsers(SimpleBeaconLayouts layout, boolean add) {
+        try {
+            if (add) {
+                register(layout);
+            } else {
+                unregister(layout);
+            }
+            return true;
+        } catch (UnsupportedOperationException e) {
+            if (!parsersLocked) {
+                Log.w(TAG, "The beacon parsers can not be changed while the scanner is bound", e);
+            }
+            parsersLocked = true;
+            return false;
+        }
+    }
+
+    /**
+     * Removes all parsers from the beacon manager, also the default one of AltBeacon
+     */
+    void clearParsers() {
+        beaconManager.getBeaconParsers().clear();
+    }
+
+    /**
+     * Adds the parser of a layout to the beacon manager
+     * @param layout the layout
+     */
+    void register(SimpleBeaconLayouts layout) {
+        addLayout(beaconManager, layout);
+    }
+
+    /**
+     * Removes the parser of a layout from the beacon manager
+     * @param layout the layout
+     */
+    void unregister(SimpleBeaconLayouts layout) {
+        List<BeaconParser> parsers = beaconManager.getBeaconParsers();
+        for (BeaconParser parser : new ArrayList<>(parsers)) {
+            if (layout.name().equals(parser.getIdentifier())) {
+                parsers.remove(parser);
+            }
+        }
+    }
+
+    /**
+     * Pushes the changed parsers to the scanner
+     */
+    void applySettings() {
+        beaconManager.applySettings();
+    }
+
+    private static SimpleBeaconLayouts getLayout(String parserIdentifier) {
+        if (parserIdentifier == null) {
+            return null;
+        }
+        for (SimpleBeaconLayouts layout : LAYOUTS) {
+            if (layout.name().equals(parserIdentifier)) {
+                return layout;
+            }
+        }
+        return null;
+    }
 }
@@ -1,6 +1,7 @@
 package saarland.cispa.bletrackerlib.service;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.altbeacon.beacon.Beacon;
@@ -9,11 +10,15 @@ import org.altbeacon.beacon.Region;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
+import saarland.cispa.bletrackerlib.BleTracker;
 import saarland.cispa.bletrackerlib.data.SimpleBeacon;
 import saarland.cispa.bletrackerlib.exceptions.BleParseException;
 import saarland.cispa.bletrackerlib.parser.SimpleBeaconParser;
+import saarland.cispa.bletrackerlib.remote.BeaconFanOut;
 import saarland.cispa.bletrackerlib.remote.RemoteConnection;
 
 /**
@@ -27,24 +32,43 @@ public class RangeNotifierImpl implements RangeNotifier {
     private static final String TAG = "RangeNotifierImpl";
     private final ArrayList<BeaconNotifier> stateNotifiers;
     private final SimpleBeaconParser parser;
-    private ArrayList<RemoteConnection> customConnections = new ArrayList<>();
-    private RemoteConnection cispaConnection;
+    private final LayoutManager layoutManager;
+    private final BeaconFanOut fanOut = new BeaconFanOut();
+    private final BeaconMerger merger = new BeaconMerger();
+    private final BeaconSampler sampler = new BeaconSampler(BleTracker.getPreferences());
+
+    // Sightings without location which wait for a GPS fix, the latest one per beacon
+    private final LinkedHashMap<Integer, PendingSighting> pendingSightings = new LinkedHashMap<>();
+
+    private static class PendingSighting {
+        SimpleBeacon simpleBeacon;
+        // elapsed realtime of the first sighting. The location is interpolated at this time,
+        // so the first fix after it releases the beacon, and after the delay it is sent anyway
+        final long since;
+
+        PendingSighting(SimpleBeacon simpleBeacon, long since) {
+            this.simpleBeacon = simpleBeacon;
+            this.since = since;
+        }
+    }
 
     /**
      * A RangeNotifier which starts parsing if beacons are near
      * @param context a context
      * @param stateNotifiers the callbacks
      * @param cispaConnection the cispaConnection
+     * @param layoutManager the layout manager which counts the matches per layout
      */
-    RangeNotifierImpl(Context context, ArrayList<BeaconNotifier> stateNotifiers, RemoteConnection cispaConnection) {
-        this.cispaConnection = cispaConnection;
+    RangeNotifierImpl(Context context, ArrayList<BeaconNotifier> stateNotifiers, RemoteConnection cispaConnection, LayoutManager layoutManager) {
+        fanOut.addConnection(cispaConnection);
+        this.layoutManager = layoutManager;
         this.stateNotifiers = stateNotifiers;
         parser = new SimpleBeaconParser(context);
 
     }
 
     void addRemoteConnection(RemoteConnection connection) {
-        customConnections.add(connection);
+        fanOut.addConnection(connection);
     }
 
     /**
@@ -54,8 +78,10 @@ public class RangeNotifierImpl implements RangeNotifier {
      */
     @Override
     public void didRangeBeaconsInRegion(Collection<Beacon> beacons, Region region) {
+        long now = System.currentTimeMillis();
         ArrayList<SimpleBeacon> simpleBeacons = new ArrayList<>();
         for (Beacon beacon: beacons) {
+            layoutManager.onMatch(beacon, now);
             try {
                 SimpleBeacon simpleBeacon = parser.parse(beacon);
                 simpleBeacons.add(simpleBeacon);
@@ -63,8 +89,20 @@ public class RangeNotifierImpl implements RangeNotifier {
                 Log.e(TAG, e.getMessage(), e);
             }
         }
+        layoutManager.onCycle(now);
+
+        if (BleTracker.getPreferences().isMergeSameDevice() && simpleBeacons.size() > 1) {
+            simpleBeacons = merger.merge(simpleBeacons);
+        }
+        if (BleTracker.getPreferences().isAdaptiveSampling()) {
+            simpleBeacons = sampler.sample(simpleBeacons, now);
+        }
+
+        List<SimpleBeacon> beaconsToSend = holdForLocation(simpleBeacons, SystemClock.elapsedRealtime());
+        if (beaconsToSend.size() > 0) {
+            sendAll(beaconsToSend);
+        }
         if (simpleBeacons.size() > 0) {
-            sendAll(simpleBeacons);
             for (BeaconNotifier stateNotifier : stateNotifiers) {
                 stateNotifier.onUpdate(simpleBeacons);
             }
@@ -72,15 +110,52 @@ public class RangeNotifierImpl implements RangeNotifier {
     }
 
     /**
-     * Sends the list of simple beacon to cispa or custom connection if they are not null
-     * @param simpleBeacons the simple beacons
+     * Holds back beacons without location if a location attribution delay is set and
+     * releases the held ones which got a location from a later GPS fix or which waited long enough.
+     * @param simpleBeacons the beacons of this cycle
+     * @param now the elapsed realtime of this cycle in ms, the clock of the GPS fixes
+     * @return the beacons which should be sent now
      */
-    private void sendAll(List<SimpleBeacon> simpleBeacons) {
-        if (cispaConnection != null) {
-            cispaConnection.sendAllBeacons(simpleBeacons);
+    private List<SimpleBeacon> holdForLocation(List<SimpleBeacon> simpleBeacons, long now) {
+        int delay = BleTracker.getPreferences().getLocationAttributionDelay();
+        if (delay <= 0 && pendingSightings.isEmpty()) {
+            return simpleBeacons;
         }
-        for (RemoteConnection customConnection : customConnections) {
-            customConnection.sendAllBeacons(simpleBeacons);
+
+        ArrayList<SimpleBeacon> beaconsToSend = new ArrayList<>();
+        for (SimpleBeacon simpleBeacon : simpleBeacons) {
+            if (delay <= 0 || simpleBeacon.location != null) {
+                // a located sighting makes a waiting one of the same beacon obsolete
+                pendingSightings.remove(simpleBeacon.hashcode);
+                beaconsToSend.add(simpleBeacon);
+            } else {
+                PendingSighting pending = pendingSightings.get(simpleBeacon.hashcode);
+                if (pending == null) {
+                    pendingSightings.put(simpleBeacon.hashcode, new PendingSighting(simpleBeacon, now));
+                } else {
+                    pending.simpleBeacon = simpleBeacon;
+                }
+            }
+        }
+
+        Iterator<PendingSighting> iterator = pendingSightings.values().iterator();
+        while (iterator.hasNext()) {
+            PendingSighting pending = iterator.next();
+            boolean expired = now - pending.since >= delay;
+            SimpleBeacon located = parser.attributeLocation(pending.simpleBeacon, pending.since, expired);
+            if (located != null || expired) {
+                iterator.remove();
+                beaconsToSend.add(located != null ? located : pending.simpleBeacon);
+            }
         }
+        return beaconsToSend;
+    }
+
+    /**
+     * Sends the list of simple beacon to cispa and all custom connections, each beacon is encoded only once
+     * @param simpleBeacons the simple beacons
+     */
+    private void sendAll(List<SimpleBeacon> simpleBeacons) {
+        fanOut.send(simpleBeacons);
     }
 }
@@ -0,0 +1,8 @@
+package saarland.cispa.bletrackerlib;
+
+/**
+ * JUnit category of the benchmark tests. They are left out of the unit tests
+ * and only run with ./gradlew test -Pbenchmarks
+ */
+public interface Benchmark {
+}
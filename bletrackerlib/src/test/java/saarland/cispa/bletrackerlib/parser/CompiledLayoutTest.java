@@ -0,0 +1,85 @@
+package saarland.cispa.bletrackerlib.parser;
+
+import org.junit.Test;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static saarland.cispa.bletrackerlib.parser.RecordedAdvertisements.hex;
+
+public class CompiledLayoutTest {
+
+    @Test
+    public void compilesManufacturerLayout() {
+        CompiledLayout layout = CompiledLayout.forLayout(SimpleBeaconLayouts.IBEACON_LAYOUT);
+        assertEquals(CompiledLayout.MANUFACTURER_DATA_TYPE, layout.getDataType());
+        assertEquals(0x4c000215L, layout.getTypeCode());
+        assertFalse(layout.isExtraFrame());
+        assertEquals(3, layout.idStarts.length);
+    }
+
+    @Test
+    public void compilesServiceLayout() {
+        CompiledLayout layout = CompiledLayout.forLayout(SimpleBeaconLayouts.EDDYSTONE_TLM_LAYOUT);
+        assertEquals(CompiledLayout.SERVICE_DATA_TYPE, layout.getDataType());
+        assertEquals(0x20L, layout.getTypeCode());
+        assertTrue(layout.isExtraFrame());
+        assertEquals(5, layout.dataStarts.length);
+    }
+
+    @Test
+    public void matchesStructureAfterTypeByte() {
+        CompiledLayout layout = CompiledLayout.forLayout(SimpleBeaconLayouts.IBEACON_LAYOUT);
+        byte[] scanRecord = RecordedAdvertisements.IBEACON;
+        RawBeacon raw = new RawBeacon();
+        assertTrue(layout.match(scanRecord, 5, 25, raw));
+        assertEquals(RecordedAdvertisements.UUID, raw.getIdentifierAsString(0));
+        assertEquals("1", raw.getIdentifierAsString(1));
+        assertEquals("2", raw.getIdentifierAsString(2));
+        assertEquals(-59, raw.getTxPower());
+        assertEquals(0x004c, raw.getManufacturer());
+    }
+
+    @Test
+    public void rejectsOtherTypeCodeAndShortStructures() {
+        CompiledLayout layout = CompiledLayout.forLayout(SimpleBeaconLayouts.IBEACON_LAYOUT);
+        RawBeacon raw = new RawBeacon();
+        assertFalse(layout.match(RecordedAdvertisements.OTHER_MANUFACTURER, 5, 25, raw));
+        assertFalse(layout.match(RecordedAdvertisements.TRUNCATED_IBEACON, 5, 14, raw));
+    }
+
+    @Test
+    public void readsServiceUuidLittleEndianAndAppliesPowerCorrection() {
+        CompiledLayout layout = CompiledLayout.forLayout(SimpleBeaconLayouts.EDDYSTONE_UID_LAYOUT);
+        byte[] scanRecord = RecordedAdvertisements.EDDYSTONE_UID;
+        RawBeacon raw = new RawBeacon();
+        assertTrue(layout.match(scanRecord, 9, 22, raw));
+        assertEquals("0x00010203040506070809", raw.getIdentifierAsString(0));
+        assertEquals("0x0a0b0c0d0e0f", raw.getIdentifierAsString(1));
+        assertEquals(-18 - 41, raw.getTxPower());
+        assertEquals(0, raw.getManufacturer());
+    }
+
+    @Test
+    public void readsLittleEndianFields() {
+        CompiledLayout layout = CompiledLayout.compile("TEST", "m:0-1=abcd,i:2-3l,d:4-5l,d:4-5");
+        RawBeacon raw = new RawBeacon();
+        assertTrue(layout.match(hex("07ffabcd3412cdab"), 2, 6, raw));
+        assertEquals(0x1234, raw.getIdentifierAsLong(0));
+        assertEquals(0xabcd, raw.getDataField(0));
+        assertEquals(0xcdab, raw.getDataField(1));
+        assertFalse(raw.hasTxPower());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownTerms() {
+        CompiledLayout.compile("TEST", "m:0-1=abcd,q:2-3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFixedBytesWiderThanLong() {
+        CompiledLayout.compile("TEST", "s:0-1=feaa,m:10-10=00");
+    }
+}
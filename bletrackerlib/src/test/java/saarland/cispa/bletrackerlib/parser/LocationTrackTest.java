@@ -0,0 +1,82 @@
+package saarland.cispa.bletrackerlib.parser;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LocationTrackTest {
+
+    private static final double DELTA = 1e-9;
+    private static final long GAP = 60 * 1000;
+    private static final long FRESHNESS = 10 * 1000;
+
+    private LocationTrack track;
+
+    @Before
+    public void setUp() {
+        track = new LocationTrack(4);
+        track.add(100000, 7.0, 49.0, 5);
+        track.add(130000, 7.3, 49.6, 10);
+    }
+
+    private static void assertLocation(double longitude, double latitude, double radius, SimpleBeacon.Location location) {
+        assertEquals(longitude, location.locationLong, DELTA);
+        assertEquals(latitude, location.locationLat, DELTA);
+        assertEquals(radius, location.locationRadius, DELTA);
+    }
+
+    @Test
+    public void interpolatesBetweenTheFixes() {
+        // a third of the way, the larger radius of both fixes
+        assertLocation(7.1, 49.2, 10, track.locate(110000, GAP, FRESHNESS));
+    }
+
+    @Test
+    public void usesAFixAtTheExactTime() {
+        assertLocation(7.3, 49.6, 10, track.locate(130000, GAP, FRESHNESS));
+    }
+
+    @Test
+    public void takesTheNearestFreshFixIfTheGapIsTooLarge() {
+        // the fixes are 30s apart
+        assertLocation(7.0, 49.0, 5, track.locate(105000, 20000, FRESHNESS));
+        assertLocation(7.3, 49.6, 10, track.locate(125000, 20000, FRESHNESS));
+        assertNull(track.locate(115000, 20000, FRESHNESS));
+    }
+
+    @Test
+    public void beforeTheFirstFixOnlyAFreshOneIsUsed() {
+        assertLocation(7.0, 49.0, 5, track.locate(95000, GAP, FRESHNESS));
+        assertNull(track.locate(85000, GAP, FRESHNESS));
+    }
+
+    @Test
+    public void afterTheLastFixOnlyAFreshOneIsUsed() {
+        assertLocation(7.3, 49.6, 10, track.locate(140000, GAP, FRESHNESS));
+        assertNull(track.locate(145000, GAP, FRESHNESS));
+    }
+
+    @Test
+    public void emptyTrackLocatesNothing() {
+        LocationTrack empty = new LocationTrack(4);
+        assertEquals(-1, empty.getNewestTime());
+        assertNull(empty.locate(100000, GAP, FRESHNESS));
+    }
+
+    @Test
+    public void ignoresOlderFixesAndOverwritesTheOldest() {
+        track.add(120000, 0, 0, 1);
+        assertEquals(130000, track.getNewestTime());
+        track.add(160000, 7.6, 50.2, 10);
+        track.add(190000, 7.9, 50.8, 10);
+        track.add(220000, 8.2, 51.4, 10);
+        // the fix at 100s was overwritten, 130s is the oldest one now
+        assertNull(track.locate(105000, GAP, FRESHNESS));
+        assertLocation(7.75, 50.5, 10, track.locate(175000, GAP, FRESHNESS));
+        assertEquals(220000, track.getNewestTime());
+    }
+}
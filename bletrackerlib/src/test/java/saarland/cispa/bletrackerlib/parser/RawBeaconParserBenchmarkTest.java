@@ -0,0 +1,117 @@
+package saarland.cispa.bletrackerlib.parser;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.BeaconParser;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.Benchmark;
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the compiled layouts with the AltBeacon parsers the scanner uses, for the result and the time per record
+ */
+public class RawBeaconParserBenchmarkTest {
+
+    private static final String MAC = "C4:7C:8D:6A:3B:01";
+    private static final int ROUNDS = 20000;
+    private static final byte[][] RECORDS = {
+            RecordedAdvertisements.IBEACON,
+            RecordedAdvertisements.ALTBEACON,
+            RecordedAdvertisements.RUUVI,
+            RecordedAdvertisements.EDDYSTONE_UID,
+            RecordedAdvertisements.RUUVI_URL,
+            RecordedAdvertisements.FLAGS_ONLY
+    };
+
+    private final List<BeaconParser> beaconParsers = new ArrayList<>();
+    private RawBeaconParser rawBeaconParser;
+
+    @Before
+    public void setUp() {
+        // registered like LayoutManager does it, with the layout name as identifier
+        for (SimpleBeaconLayouts layout : SimpleBeaconLayouts.values()) {
+            beaconParsers.add(new BeaconParser(layout.name()).setBeaconLayout(layout.getLayout()));
+        }
+        rawBeaconParser = new RawBeaconParser();
+    }
+
+    private Beacon fromScanData(byte[] scanRecord) {
+        for (BeaconParser beaconParser : beaconParsers) {
+            Beacon beacon = beaconParser.fromScanData(scanRecord, -70, null);
+            if (beacon != null) {
+                return beacon;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void sameBeaconsAsAltBeacon() {
+        for (byte[] scanRecord : RECORDS) {
+            Beacon beacon = fromScanData(scanRecord);
+            SimpleBeacon simpleBeacon = rawBeaconParser.parse(scanRecord, -70, MAC, null, null);
+            if (beacon == null) {
+                assertNull(simpleBeacon);
+                continue;
+            }
+            assertNotNull(simpleBeacon);
+            assertEquals(beacon.hashCode(), simpleBeacon.hashcode);
+            assertEquals(beacon.getTxPower(), simpleBeacon.transmitPower);
+            RawBeacon raw = rawBeaconParser.match(scanRecord);
+            assertEquals(beacon.getIdentifiers().size(), raw.getIdentifierCount());
+            for (int i = 0; i < raw.getIdentifierCount(); i++) {
+                assertEquals(beacon.getIdentifiers().get(i).toString(), raw.getIdentifierAsString(i));
+            }
+        }
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void benchmark() {
+        // warm up both before measuring
+        long altBeaconNanos = runAltBeacon();
+        long compiledNanos = runCompiled();
+        altBeaconNanos = runAltBeacon();
+        compiledNanos = runCompiled();
+        long records = (long) ROUNDS * RECORDS.length;
+        assertTrue(String.format("AltBeacon parsers: %d ns per record, compiled layouts: %d ns per record",
+                altBeaconNanos / records, compiledNanos / records), compiledNanos < altBeaconNanos);
+    }
+
+    private long runAltBeacon() {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (byte[] scanRecord : RECORDS) {
+                found += fromScanData(scanRecord) != null ? 1 : 0;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        assertEquals(ROUNDS * (RECORDS.length - 1), found);
+        return nanos;
+    }
+
+    private long runCompiled() {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (byte[] scanRecord : RECORDS) {
+                found += rawBeaconParser.parse(scanRecord, -70, MAC, null, null) != null ? 1 : 0;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        assertEquals(ROUNDS * (RECORDS.length - 1), found);
+        return nanos;
+    }
+}
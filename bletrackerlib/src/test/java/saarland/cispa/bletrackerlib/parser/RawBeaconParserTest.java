@@ -0,0 +1,123 @@
+package saarland.cispa.bletrackerlib.parser;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RawBeaconParserTest {
+
+    private static final String MAC = "C4:7C:8D:6A:3B:01";
+    private static final String TIMESTAMP = "2019-01-01 12:00:00";
+
+    private RawBeaconParser parser;
+
+    @Before
+    public void setUp() {
+        parser = new RawBeaconParser();
+    }
+
+    private SimpleBeacon parse(byte[] scanRecord) {
+        return parser.parse(scanRecord, -70, MAC, "beacon", TIMESTAMP);
+    }
+
+    @Test
+    public void parsesIBeacon() {
+        SimpleBeacon simpleBeacon = parse(RecordedAdvertisements.IBEACON);
+        assertEquals(SimpleBeaconLayouts.IBEACON_LAYOUT.name(), simpleBeacon.beaconType);
+        assertEquals(RecordedAdvertisements.UUID, simpleBeacon.altbeaconIBeaconData.uuid);
+        assertEquals("1", simpleBeacon.altbeaconIBeaconData.major);
+        assertEquals("2", simpleBeacon.altbeaconIBeaconData.minor);
+        assertEquals(-59, simpleBeacon.transmitPower);
+        assertEquals(0x004c, simpleBeacon.manufacturer);
+        assertEquals(-70, simpleBeacon.signalStrength);
+        assertEquals(MAC, simpleBeacon.bluetoothAddress);
+    }
+
+    @Test
+    public void parsesAltBeacon() {
+        SimpleBeacon simpleBeacon = parse(RecordedAdvertisements.ALTBEACON);
+        assertEquals(SimpleBeaconLayouts.ALTBEACON_LAYOUT.name(), simpleBeacon.beaconType);
+        assertEquals("3", simpleBeacon.altbeaconIBeaconData.major);
+        assertEquals(0x0118, simpleBeacon.manufacturer);
+    }
+
+    @Test
+    public void typesRuuviManufacturerData() {
+        SimpleBeacon simpleBeacon = parse(RecordedAdvertisements.RUUVI);
+        assertEquals(SimpleBeaconLayouts.RUUVI_LAYOUT.name(), simpleBeacon.beaconType);
+        assertEquals("5", simpleBeacon.altbeaconIBeaconData.major);
+    }
+
+    @Test
+    public void typesRuuviUrl() {
+        SimpleBeacon simpleBeacon = parse(RecordedAdvertisements.RUUVI_URL);
+        assertEquals(SimpleBeaconLayouts.RUUVI_LAYOUT.name(), simpleBeacon.beaconType);
+        assertEquals("https://ruu.vi/#BEAtAMLEv", simpleBeacon.eddystoneUrlData.url);
+        assertNotNull(simpleBeacon.ruuvi);
+    }
+
+    @Test
+    public void parsesEddystoneUid() {
+        SimpleBeacon simpleBeacon = parse(RecordedAdvertisements.EDDYSTONE_UID);
+        assertEquals(SimpleBeaconLayouts.EDDYSTONE_UID_LAYOUT.name(), simpleBeacon.beaconType);
+        assertEquals("0x00010203040506070809", simpleBeacon.eddystoneUidData.namespaceId);
+        assertEquals("0x0a0b0c0d0e0f", simpleBeacon.eddystoneUidData.instanceId);
+        assertNull(simpleBeacon.telemetry);
+    }
+
+    @Test
+    public void hashcodeIsTheAltBeaconHashcode() {
+        assertEquals(("id1: " + RecordedAdvertisements.UUID + " id2: 1 id3: 2 type IBEACON_LAYOUT").hashCode(),
+                parse(RecordedAdvertisements.IBEACON).hashcode);
+        assertEquals(("id1: " + RecordedAdvertisements.UUID + " id2: 5 id3: 6 type RUUVI_LAYOUT").hashCode(),
+                parse(RecordedAdvertisements.RUUVI).hashcode);
+        assertEquals("id1: 0x00010203040506070809 id2: 0x0a0b0c0d0e0f type EDDYSTONE_UID_LAYOUT".hashCode(),
+                parse(RecordedAdvertisements.EDDYSTONE_UID).hashcode);
+    }
+
+    @Test
+    public void hashcodeDoesNotDependOnSignal() {
+        assertEquals(parser.parse(RecordedAdvertisements.IBEACON, -40, MAC, null, TIMESTAMP).hashcode,
+                parser.parse(RecordedAdvertisements.IBEACON, -90, "00:11:22:33:44:55", null, TIMESTAMP).hashcode);
+    }
+
+    @Test
+    public void telemetryIsAttachedToFramesOfTheSameDevice() {
+        assertNull(parse(RecordedAdvertisements.EDDYSTONE_TLM));
+
+        SimpleBeacon simpleBeacon = parse(RecordedAdvertisements.EDDYSTONE_UID);
+        assertNotNull(simpleBeacon.telemetry);
+        assertEquals(0, simpleBeacon.telemetry.telemetryVersion);
+        assertEquals(3000, simpleBeacon.telemetry.batteryMilliVolts);
+        assertEquals(23.5, simpleBeacon.telemetry.temperature, 0.001);
+        assertEquals(100, simpleBeacon.telemetry.pduCount);
+        assertEquals(1000, simpleBeacon.telemetry.uptime);
+
+        SimpleBeacon otherDevice = parser.parse(RecordedAdvertisements.EDDYSTONE_UID, -70, "00:11:22:33:44:55", null, TIMESTAMP);
+        assertNull(otherDevice.telemetry);
+    }
+
+    @Test
+    public void ignoresUnknownAdvertisements() {
+        assertNull(parse(RecordedAdvertisements.FLAGS_ONLY));
+        assertNull(parse(RecordedAdvertisements.OTHER_MANUFACTURER));
+        assertNull(parse(RecordedAdvertisements.TRUNCATED_IBEACON));
+        assertNull(parse(new byte[0]));
+    }
+
+    @Test
+    public void onlyMatchesGivenLayouts() {
+        RawBeaconParser iBeaconParser = new RawBeaconParser(EnumSet.of(SimpleBeaconLayouts.IBEACON_LAYOUT));
+        assertNotNull(iBeaconParser.match(RecordedAdvertisements.IBEACON));
+        assertNull(iBeaconParser.match(RecordedAdvertisements.ALTBEACON));
+        assertNull(iBeaconParser.match(RecordedAdvertisements.EDDYSTONE_UID));
+    }
+}
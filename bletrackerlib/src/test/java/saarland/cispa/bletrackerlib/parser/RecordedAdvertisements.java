@@ -0,0 +1,50 @@
+package saarland.cispa.bletrackerlib.parser;
+
+/**
+ * Scan records of the beacon types the library recognizes, with flags and service UUID list
+ * structures in front like real advertisements have them.
+ */
+
+final class RecordedAdvertisements {
+
+    static final String UUID = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+
+    static final byte[] IBEACON = hex("020106" + "1aff4c000215" + "2f234454cf6d4a0fadf2f4911ba9ffa6" + "0001" + "0002" + "c5");
+
+    static final byte[] ALTBEACON = hex("020106" + "1bff1801beac" + "2f234454cf6d4a0fadf2f4911ba9ffa6" + "0003" + "0004" + "c3" + "00");
+
+    static final byte[] RUUVI = hex("020106" + "1aff00049900" + "2f234454cf6d4a0fadf2f4911ba9ffa6" + "0005" + "0006" + "c0");
+
+    static final byte[] EDDYSTONE_UID = hex("020106" + "0303aafe" + "1716aafe00ee" + "00010203040506070809" + "0a0b0c0d0e0f" + "0000");
+
+    // battery 3000 mV, 23.5 °C, 100 PDUs, uptime 1000
+    static final byte[] EDDYSTONE_TLM = hex("020106" + "0303aafe" + "1116aafe2000" + "0bb8" + "1780" + "00000064" + "000003e8");
+
+    // https://ruu.vi/#BEAtAMLEv
+    static final byte[] RUUVI_URL = hex("020106" + "0303aafe" + "1716aafe10ee03" + ascii("ruu.vi/#BEAtAMLEv"));
+
+    static final byte[] FLAGS_ONLY = hex("020106");
+
+    static final byte[] OTHER_MANUFACTURER = hex("020106" + "1aff4c000216" + "2f234454cf6d4a0fadf2f4911ba9ffa6" + "0001" + "0002" + "c5");
+
+    static final byte[] TRUNCATED_IBEACON = hex("020106" + "0fff4c000215" + "2f234454cf6d4a0fadf2f4");
+
+    private RecordedAdvertisements() {
+    }
+
+    static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String ascii(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            sb.append(String.format("%02x", (int) c));
+        }
+        return sb.toString();
+    }
+}
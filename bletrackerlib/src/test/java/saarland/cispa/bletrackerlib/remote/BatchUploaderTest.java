@@ -0,0 +1,119 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class BatchUploaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubServer server;
+    private TestTransport transport;
+    private RemotePreferences remotePreferences;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer();
+        transport = new TestTransport();
+        remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        remotePreferences.setBatchSize(3);
+        remotePreferences.setCompressionEnabled(true);
+        server.respond("/beacons", 200, "");
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+        server.stop();
+    }
+
+    private RemoteConnection connect() {
+        return new RemoteConnection(server.getUrl("/beacons"), new TestContext(folder.getRoot()), remotePreferences, transport);
+    }
+
+    private static BeaconPayload payload(int hashcode) {
+        SimpleBeacon simpleBeacon = new SimpleBeacon("IBEACON_LAYOUT", -70, -59, 0x4c, "C4:7C:8D:6A:3B:01", null, 1.5, null);
+        simpleBeacon.hashcode = hashcode;
+        return new BeaconPayload(simpleBeacon);
+    }
+
+    @Test
+    public void sendsOneRequestPerBatch() throws Exception {
+        server.respond("/beacons/batch", 200, "[200, 200, 200]");
+        RemoteConnection connection = connect();
+        for (int i = 0; i < 6; i++) {
+            connection.release(payload(i), UploadLane.NORMAL);
+        }
+        transport.awaitIdle();
+        assertEquals(2, server.getRequestCount("/beacons/batch"));
+        assertEquals(0, server.getRequestCount("/beacons"));
+    }
+
+    @Test
+    public void negotiatesTheFormatBeforeGivingUpOnBatches() throws Exception {
+        remotePreferences.setWireFormat(WireFormat.BINARY);
+        remotePreferences.setCompressionThreshold(0);
+        server.enqueue("/beacons/batch", 415, "");
+        server.enqueue("/beacons/batch", 415, "");
+        server.respond("/beacons/batch", 200, "[200, 200, 200]");
+        RemoteConnection connection = connect();
+        for (int i = 0; i < 3; i++) {
+            connection.release(payload(i), UploadLane.NORMAL);
+        }
+        transport.awaitIdle();
+
+        // binary first, then gzip JSON, then plain JSON
+        List<StubServer.Received> requests = server.getRequests("/beacons/batch");
+        assertEquals(3, requests.size());
+        assertEquals(BeaconBinaryCodec.CONTENT_TYPE, requests.get(0).getHeader("Content-Type"));
+        assertEquals("gzip", requests.get(1).getHeader("Content-Encoding"));
+        assertNull(requests.get(2).getHeader("Content-Encoding"));
+        assertFalse(requests.get(2).getHeader("Content-Type").startsWith(BeaconBinaryCodec.CONTENT_TYPE));
+        assertEquals(0, server.getRequestCount("/beacons"));
+        assertFalse(connection.isBinaryUploadAccepted());
+        assertFalse(connection.isCompressedUploadAccepted());
+    }
+
+    @Test
+    public void fallsBackToSingleUploadsIfPlainJsonIsRejected() throws Exception {
+        remotePreferences.setCompressionEnabled(false);
+        server.respond("/beacons/batch", 415, "");
+        RemoteConnection connection = connect();
+        for (int i = 0; i < 3; i++) {
+            connection.release(payload(i), UploadLane.NORMAL);
+        }
+        transport.awaitIdle();
+        assertEquals(1, server.getRequestCount("/beacons/batch"));
+        assertEquals(3, server.getRequestCount("/beacons"));
+
+        // later beacons are sent one by one right away
+        connection.release(payload(3), UploadLane.NORMAL);
+        transport.awaitIdle();
+        assertEquals(1, server.getRequestCount("/beacons/batch"));
+        assertEquals(4, server.getRequestCount("/beacons"));
+    }
+
+    @Test
+    public void fallsBackToSingleUploadsWithoutBatchEndpoint() throws Exception {
+        RemoteConnection connection = connect();
+        for (int i = 0; i < 3; i++) {
+            connection.release(payload(i), UploadLane.NORMAL);
+        }
+        transport.awaitIdle();
+        assertEquals(1, server.getRequestCount("/beacons/batch"));
+        assertEquals(3, server.getRequestCount("/beacons"));
+    }
+}
@@ -0,0 +1,105 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.Benchmark;
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares size and encode + decode time of a batch in the binary format, as streamed JSON and
+ * the way the Gson path did it (a RemoteBeaconObject per beacon, Gson for both directions)
+ */
+@Category(Benchmark.class)
+public class BeaconBinaryCodecBenchmarkTest {
+
+    private static final int BATCH_SIZE = 100;
+    private static final int ROUNDS = 500;
+
+    private static List<SimpleBeacon> batch() {
+        List<SimpleBeacon> simpleBeacons = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            SimpleBeacon simpleBeacon = TestBeacons.all().get(i % 5);
+            simpleBeacon.hashcode += i;
+            simpleBeacon.signalStrength -= i % 20;
+            simpleBeacons.add(simpleBeacon);
+        }
+        return simpleBeacons;
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        List<SimpleBeacon> simpleBeacons = batch();
+        // warm up all before measuring
+        runBinary(simpleBeacons);
+        runJson(simpleBeacons);
+        runGson(simpleBeacons);
+        long[] binary = runBinary(simpleBeacons);
+        long[] json = runJson(simpleBeacons);
+        long[] gson = runGson(simpleBeacons);
+        long beacons = (long) ROUNDS * BATCH_SIZE;
+        String result = String.format("per beacon - binary: %d bytes, %d ns; JSON: %d bytes, %d ns; Gson: %d bytes, %d ns",
+                binary[1] / BATCH_SIZE, binary[0] / beacons, json[1] / BATCH_SIZE, json[0] / beacons,
+                gson[1] / BATCH_SIZE, gson[0] / beacons);
+        assertTrue(result, binary[1] < json[1]);
+        assertTrue(result, binary[0] < gson[0]);
+    }
+
+    private static long[] runBinary(List<SimpleBeacon> simpleBeacons) throws Exception {
+        long start = System.nanoTime();
+        int size = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] encoded = BeaconBinaryCodec.encode(simpleBeacons);
+            size = encoded.length;
+            assertEquals(BATCH_SIZE, BeaconBinaryCodec.decode(new ByteArrayInputStream(encoded), new ArrayList<Long>()).size());
+        }
+        return new long[]{System.nanoTime() - start, size};
+    }
+
+    private static long[] runJson(List<SimpleBeacon> simpleBeacons) throws Exception {
+        long start = System.nanoTime();
+        int size = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            List<byte[]> encodedBeacons = new ArrayList<>(simpleBeacons.size());
+            for (SimpleBeacon simpleBeacon : simpleBeacons) {
+                encodedBeacons.add(BeaconJsonWriter.encode(simpleBeacon));
+            }
+            byte[] encoded = BeaconJsonWriter.joinArray(encodedBeacons);
+            size = encoded.length;
+            assertEquals(BATCH_SIZE, BeaconJsonReader.readArray(new InputStreamReader(new ByteArrayInputStream(encoded),
+                    StandardCharsets.UTF_8), new ArrayList<Long>()).size());
+        }
+        return new long[]{System.nanoTime() - start, size};
+    }
+
+    private static long[] runGson(List<SimpleBeacon> simpleBeacons) {
+        long start = System.nanoTime();
+        int size = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            List<RemoteBeaconObject> remoteBeaconObjects = new ArrayList<>(simpleBeacons.size());
+            for (SimpleBeacon simpleBeacon : simpleBeacons) {
+                remoteBeaconObjects.add(new RemoteBeaconObject(simpleBeacon));
+            }
+            byte[] encoded = new Gson().toJson(remoteBeaconObjects).getBytes(StandardCharsets.UTF_8);
+            size = encoded.length;
+            RemoteBeaconObject[] decoded = new Gson().fromJson(new String(encoded, StandardCharsets.UTF_8), RemoteBeaconObject[].class);
+            int count = 0;
+            for (RemoteBeaconObject remoteBeaconObject : decoded) {
+                count += remoteBeaconObject.GetSimpleBeacon() != null ? 1 : 0;
+            }
+            assertEquals(BATCH_SIZE, count);
+        }
+        return new long[]{System.nanoTime() - start, size};
+    }
+}
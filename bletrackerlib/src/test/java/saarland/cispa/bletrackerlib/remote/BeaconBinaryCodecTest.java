@@ -0,0 +1,94 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The golden file beacons-v1.bin holds {@link TestBeacons#all()} in version 1 of the format.
+ * If it does not match anymore the format changed and servers which decode version 1 break.
+ */
+public class BeaconBinaryCodecTest {
+
+    private final Gson gson = new Gson();
+
+    private static byte[] readGoldenFile() throws IOException {
+        InputStream in = BeaconBinaryCodecTest.class.getResourceAsStream("beacons-v1.bin");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the beacons like a JSON response of the same beacons would be
+     */
+    private static ArrayList<SimpleBeacon> decodeAsJson(List<SimpleBeacon> simpleBeacons) throws IOException {
+        List<byte[]> encoded = new ArrayList<>();
+        for (SimpleBeacon simpleBeacon : simpleBeacons) {
+            encoded.add(BeaconJsonWriter.encode(simpleBeacon));
+        }
+        return BeaconJsonReader.readArray(new InputStreamReader(
+                new ByteArrayInputStream(BeaconJsonWriter.joinArray(encoded)), StandardCharsets.UTF_8), new ArrayList<Long>());
+    }
+
+    @Test
+    public void encodesLikeTheGoldenFile() throws Exception {
+        assertArrayEquals(readGoldenFile(), BeaconBinaryCodec.encode(TestBeacons.all()));
+    }
+
+    @Test
+    public void decodesTheGoldenFileLikeJson() throws Exception {
+        ArrayList<SimpleBeacon> decoded = BeaconBinaryCodec.decode(new ByteArrayInputStream(readGoldenFile()), new ArrayList<Long>());
+        assertEquals(gson.toJson(decodeAsJson(TestBeacons.all())), gson.toJson(decoded));
+    }
+
+    @Test
+    public void keepsNonCanonicalUuids() throws Exception {
+        SimpleBeacon simpleBeacon = TestBeacons.iBeacon();
+        simpleBeacon.altbeaconIBeaconData.uuid = "2F234454-CF6D-4A0F-ADF2-F4911BA9FFA6";
+        simpleBeacon.id = 17;
+        ArrayList<SimpleBeacon> decoded = BeaconBinaryCodec.decode(new ByteArrayInputStream(
+                BeaconBinaryCodec.encode(Collections.singletonList(simpleBeacon))), new ArrayList<Long>());
+        assertEquals("2F234454-CF6D-4A0F-ADF2-F4911BA9FFA6", decoded.get(0).altbeaconIBeaconData.uuid);
+        assertEquals(17, decoded.get(0).id);
+    }
+
+    @Test
+    public void encodesEmptyLists() throws Exception {
+        byte[] encoded = BeaconBinaryCodec.encode(new ArrayList<SimpleBeacon>());
+        assertEquals(0, BeaconBinaryCodec.decode(new ByteArrayInputStream(encoded), new ArrayList<Long>()).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFormats() throws Exception {
+        BeaconBinaryCodec.decode(new ByteArrayInputStream("[{}]".getBytes(StandardCharsets.UTF_8)), new ArrayList<Long>());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedData() throws Exception {
+        byte[] golden = readGoldenFile();
+        byte[] truncated = new byte[golden.length / 2];
+        System.arraycopy(golden, 0, truncated, 0, truncated.length);
+        BeaconBinaryCodec.decode(new ByteArrayInputStream(truncated), new ArrayList<Long>());
+    }
+}
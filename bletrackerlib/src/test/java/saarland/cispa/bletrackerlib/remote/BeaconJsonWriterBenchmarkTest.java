@@ -0,0 +1,85 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.google.gson.Gson;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.Benchmark;
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the upload encoding with the former one: a new Gson per beacon, a RemoteBeaconObject copy
+ * and the round trip through JSONObject JsonObjectRequest needed
+ */
+@Category(Benchmark.class)
+public class BeaconJsonWriterBenchmarkTest {
+
+    private static final int ROUNDS = 20000;
+
+    @Test
+    public void benchmark() throws Exception {
+        List<SimpleBeacon> simpleBeacons = TestBeacons.all();
+        // warm up both before measuring
+        runWriter(simpleBeacons);
+        runGson(simpleBeacons);
+        long[] writer = runWriter(simpleBeacons);
+        long[] gson = runGson(simpleBeacons);
+        long beacons = (long) ROUNDS * simpleBeacons.size();
+        String result = String.format("Gson + JSONObject: %d ns, %d bytes allocated per beacon; "
+                        + "JsonWriter: %d ns, %d bytes allocated per beacon",
+                gson[0] / beacons, gson[1] / beacons, writer[0] / beacons, writer[1] / beacons);
+        assertTrue(result, writer[0] < gson[0]);
+        if (gson[1] > 0) {
+            assertTrue(result, writer[1] < gson[1]);
+        }
+    }
+
+    private static long[] runWriter(List<SimpleBeacon> simpleBeacons) {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int length = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (SimpleBeacon simpleBeacon : simpleBeacons) {
+                length += BeaconJsonWriter.encode(simpleBeacon).length;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(length > 0);
+        return new long[]{nanos, allocatedBytes() - bytes};
+    }
+
+    private static long[] runGson(List<SimpleBeacon> simpleBeacons) throws Exception {
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int length = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (SimpleBeacon simpleBeacon : simpleBeacons) {
+                String json = new Gson().toJson(new RemoteBeaconObject(simpleBeacon));
+                length += new JSONObject(json).toString().getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(length > 0);
+        return new long[]{nanos, allocatedBytes() - bytes};
+    }
+
+    /**
+     * @return the bytes the current thread allocated so far or 0 if the JVM does not count them
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
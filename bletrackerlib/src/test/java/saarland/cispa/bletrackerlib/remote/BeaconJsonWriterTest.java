@@ -0,0 +1,112 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BeaconJsonWriterTest {
+
+    private final Gson gson = new Gson();
+
+    private static String string(byte[] json) {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void decodesLikeTheGsonEncoding() {
+        for (SimpleBeacon simpleBeacon : TestBeacons.all()) {
+            RemoteBeaconObject written = gson.fromJson(string(BeaconJsonWriter.encode(simpleBeacon)), RemoteBeaconObject.class);
+            RemoteBeaconObject expected = gson.fromJson(gson.toJson(new RemoteBeaconObject(simpleBeacon)), RemoteBeaconObject.class);
+            assertEquals(gson.toJson(expected), gson.toJson(written));
+        }
+    }
+
+    @Test
+    public void omitsNullAndZeroFields() {
+        SimpleBeacon simpleBeacon = TestBeacons.eddystoneUrl();
+        simpleBeacon.bluetoothName = null;
+        simpleBeacon.manufacturer = 0;
+        simpleBeacon.distance = Double.NaN;
+        JsonObject object = new JsonParser().parse(string(BeaconJsonWriter.encode(simpleBeacon))).getAsJsonObject();
+        assertFalse(object.has("BluetoothName"));
+        assertFalse(object.has("Manufacturer"));
+        assertFalse(object.has("Distance"));
+        assertFalse(object.has("LocationLat"));
+        assertFalse(object.has("UUID"));
+        assertEquals("https://example.com/beacon?id=\"4\"", object.get("Url").getAsString());
+        assertEquals(-90, object.get("SignalStrength").getAsInt());
+    }
+
+    @Test
+    public void reusedWriterDoesNotLeakFields() {
+        BeaconJsonWriter.encode(TestBeacons.ruuvi());
+        JsonObject object = new JsonParser().parse(string(BeaconJsonWriter.encode(TestBeacons.iBeacon()))).getAsJsonObject();
+        assertFalse(object.has("Humidity"));
+        assertEquals("IBEACON_LAYOUT", object.get("BeaconType").getAsString());
+    }
+
+    @Test
+    public void writesSummaries() {
+        SimpleBeacon simpleBeacon = TestBeacons.iBeacon();
+        JsonObject object = new JsonParser().parse(string(BeaconJsonWriter.encodeSummary(simpleBeacon,
+                "2019-03-01 10:14:30", 12, -90, -60))).getAsJsonObject();
+        assertEquals("2019-03-01 10:14:30", object.get("FirstSeen").getAsString());
+        assertEquals(simpleBeacon.timestamp, object.get("LastSeen").getAsString());
+        assertEquals(12, object.get("Count").getAsInt());
+        assertEquals(-90, object.get("MinSignalStrength").getAsInt());
+        assertEquals(-60, object.get("MaxSignalStrength").getAsInt());
+    }
+
+    @Test
+    public void joinsArrays() {
+        List<byte[]> encoded = new ArrayList<>();
+        for (SimpleBeacon simpleBeacon : TestBeacons.all()) {
+            encoded.add(BeaconJsonWriter.encode(simpleBeacon));
+        }
+        JsonArray array = new JsonParser().parse(string(BeaconJsonWriter.joinArray(encoded))).getAsJsonArray();
+        assertEquals(5, array.size());
+        assertEquals("[]", string(BeaconJsonWriter.joinArray(new ArrayList<byte[]>())));
+    }
+
+    @Test
+    public void readsWhatItWrites() throws Exception {
+        List<byte[]> encoded = new ArrayList<>();
+        for (SimpleBeacon simpleBeacon : TestBeacons.all()) {
+            encoded.add(BeaconJsonWriter.encode(simpleBeacon));
+        }
+        String json = string(BeaconJsonWriter.joinArray(encoded));
+        ArrayList<SimpleBeacon> read = BeaconJsonReader.readArray(new StringReader(json), new ArrayList<Long>());
+        RemoteBeaconObject[] objects = gson.fromJson(json, RemoteBeaconObject[].class);
+        assertEquals(objects.length, read.size());
+        for (int i = 0; i < objects.length; i++) {
+            assertEquals(gson.toJson(objects[i].GetSimpleBeacon()), gson.toJson(read.get(i)));
+        }
+    }
+
+    @Test
+    public void readsDeletionsAndEmptyBodies() throws Exception {
+        ArrayList<Long> deletedIds = new ArrayList<>();
+        ArrayList<SimpleBeacon> read = BeaconJsonReader.readArray(new StringReader(
+                "[{\"ID\": 5, \"Deleted\": true}, {\"ID\": 6, \"BeaconType\": \"IBEACON_LAYOUT\", \"Unknown\": [1, {}]}, null]"), deletedIds);
+        assertEquals(Arrays.asList(5L), deletedIds);
+        assertEquals(1, read.size());
+        assertEquals(6, read.get(0).id);
+        assertTrue(BeaconJsonReader.readArray(new StringReader(""), deletedIds).isEmpty());
+        assertTrue(BeaconJsonReader.readArray(new StringReader("null"), deletedIds).isEmpty());
+    }
+}
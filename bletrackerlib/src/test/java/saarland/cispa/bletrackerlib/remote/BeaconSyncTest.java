@@ -0,0 +1,134 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BeaconSyncTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubServer server;
+    private TestTransport transport;
+    private RemoteConnection connection;
+    private String path;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer();
+        transport = new TestTransport();
+        RemotePreferences remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        connection = new RemoteConnection(server.getUrl("/beacons"), new TestContext(folder.getRoot()), remotePreferences, transport);
+        path = new URL(connection.getApiUrl(7, 8, 49, 50)).getPath();
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+        server.stop();
+    }
+
+    private static final class Collector implements RemoteRequestReceiver {
+        ArrayList<SimpleBeacon> beacons;
+
+        @Override
+        public void onBeaconsReceived(ArrayList<SimpleBeacon> beacons) {
+            this.beacons = beacons;
+        }
+
+        @Override
+        public void onBeaconReceiveError(String errorMessage) {
+        }
+    }
+
+    /**
+     * A response body with a beacon for every ID and a removal for every negative ID
+     */
+    private static String body(int... ids) {
+        StringBuilder json = new StringBuilder("[");
+        for (int id : ids) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            if (id < 0) {
+                json.append("{\"ID\":").append(-id).append(",\"Deleted\":true}");
+            } else {
+                SimpleBeacon simpleBeacon = TestBeacons.iBeacon();
+                simpleBeacon.signalStrength = -id;
+                json.append(new String(BeaconJsonWriter.encode(simpleBeacon)).replaceFirst("\\{", "{\"ID\":" + id + ","));
+            }
+        }
+        return json.append(']').toString();
+    }
+
+    private ArrayList<SimpleBeacon> sync() throws InterruptedException {
+        Collector receiver = new Collector();
+        connection.syncBeacons(7, 8, 49, 50, receiver);
+        transport.awaitIdle();
+        return receiver.beacons;
+    }
+
+    private static List<Long> ids(List<SimpleBeacon> beacons) {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (SimpleBeacon simpleBeacon : beacons) {
+            ids.add(simpleBeacon.id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void mergesChangesSinceTheCursor() throws Exception {
+        server.enqueue(path, 200, body(1, 2), "X-Sync-Cursor", "c1");
+        server.enqueue(path, 200, body(2, -1, 3), "X-Sync-Cursor", "c 2");
+        server.enqueue(path, 200, body(5), "X-Sync-Cursor", "c3", "X-Sync-Full", "true");
+
+        assertEquals(Arrays.asList(1L, 2L), ids(sync()));
+        ArrayList<SimpleBeacon> merged = sync();
+        assertEquals(Arrays.asList(2L, 3L), ids(merged));
+        assertEquals(-2, merged.get(0).signalStrength);
+        assertEquals(Arrays.asList(5L), ids(sync()));
+
+        List<StubServer.Received> requests = server.getRequests(path);
+        assertNull(requests.get(0).query);
+        assertEquals("since=c1", requests.get(1).query);
+        assertEquals("since=c+2", requests.get(2).query);
+    }
+
+    @Test
+    public void endpointsWithoutCursorGetFullRequests() throws Exception {
+        server.enqueue(path, 200, body(1, 2));
+        server.enqueue(path, 200, body(2));
+
+        assertEquals(Arrays.asList(1L, 2L), ids(sync()));
+        assertEquals(Arrays.asList(2L), ids(sync()));
+
+        List<StubServer.Received> requests = server.getRequests(path);
+        assertNull(requests.get(0).query);
+        assertNull(requests.get(1).query);
+    }
+
+    @Test
+    public void clearedStateSyncsTheFullSet() throws Exception {
+        server.enqueue(path, 200, body(1), "X-Sync-Cursor", "c1");
+        server.enqueue(path, 200, body(4), "X-Sync-Cursor", "c2");
+
+        sync();
+        connection.clearSyncState();
+        assertEquals(Arrays.asList(4L), ids(sync()));
+        assertNull(server.getRequests(path).get(1).query);
+    }
+}
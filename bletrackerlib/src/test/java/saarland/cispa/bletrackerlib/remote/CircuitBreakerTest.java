@@ -0,0 +1,181 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.ClientError;
+import com.android.volley.Header;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.ServerError;
+import com.android.volley.VolleyError;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CircuitBreakerTest {
+
+    private FakeClock clock;
+    private double jitter;
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() {
+        RemotePreferences remotePreferences = new RemotePreferences();
+        remotePreferences.setCircuitFailureThreshold(3);
+        remotePreferences.setCircuitOpenDelay(1000);
+        remotePreferences.setCircuitMaxOpenDelay(4000);
+        clock = new FakeClock();
+        jitter = 0;
+        circuitBreaker = new CircuitBreaker(remotePreferences, clock, new Random() {
+            @Override
+            public double nextDouble() {
+                return jitter;
+            }
+        });
+    }
+
+    private static VolleyError status(int statusCode, String... headers) {
+        List<Header> list = new ArrayList<>();
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            list.add(new Header(headers[i], headers[i + 1]));
+        }
+        NetworkResponse response = new NetworkResponse(statusCode, new byte[0], false, 0, list);
+        return statusCode >= 500 ? new ServerError(response) : new ClientError(response);
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            circuitBreaker.onFailure(circuitBreaker.allowRequest(), new NoConnectionError());
+        }
+    }
+
+    @Test
+    public void opensAfterTheThreshold() {
+        fail(2);
+        assertEquals(CircuitState.CLOSED, circuitBreaker.getState());
+        fail(1);
+        assertEquals(CircuitState.OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.DENIED, circuitBreaker.allowRequest());
+        // half of the open delay with the smallest jitter
+        assertEquals(500, circuitBreaker.getDelay());
+    }
+
+    @Test
+    public void probeClosesTheCircuit() {
+        fail(3);
+        clock.advance(500);
+        assertEquals(CircuitState.HALF_OPEN, circuitBreaker.getState());
+        long probe = circuitBreaker.allowRequest();
+        assertNotEquals(CircuitBreaker.DENIED, probe);
+        // only one probe at a time
+        assertEquals(CircuitBreaker.DENIED, circuitBreaker.allowRequest());
+        circuitBreaker.onSuccess(probe, null);
+        assertEquals(CircuitState.CLOSED, circuitBreaker.getState());
+        assertNotEquals(CircuitBreaker.DENIED, circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void failedProbeOpensWithALongerDelay() {
+        fail(3);
+        clock.advance(500);
+        circuitBreaker.onFailure(circuitBreaker.allowRequest(), status(503));
+        assertEquals(CircuitState.OPEN, circuitBreaker.getState());
+        assertEquals(1000, circuitBreaker.getDelay());
+        clock.advance(1000);
+        circuitBreaker.onFailure(circuitBreaker.allowRequest(), status(503));
+        assertEquals(2000, circuitBreaker.getDelay());
+        clock.advance(2000);
+        circuitBreaker.onFailure(circuitBreaker.allowRequest(), status(503));
+        // capped by the max open delay
+        clock.advance(2000);
+        circuitBreaker.onFailure(circuitBreaker.allowRequest(), status(503));
+        assertEquals(2000, circuitBreaker.getDelay());
+    }
+
+    @Test
+    public void jitterSpreadsTheSecondHalfOfTheDelay() {
+        jitter = 0.5;
+        fail(3);
+        assertEquals(750, circuitBreaker.getDelay());
+    }
+
+    @Test
+    public void staleSuccessDoesNotCloseTheCircuit() {
+        long stale = circuitBreaker.allowRequest();
+        fail(3);
+        clock.advance(500);
+        long probe = circuitBreaker.allowRequest();
+
+        // sent before the circuit opened, it says nothing about the endpoint now
+        circuitBreaker.onSuccess(stale, null);
+        assertEquals(CircuitState.HALF_OPEN, circuitBreaker.getState());
+        assertEquals(CircuitBreaker.DENIED, circuitBreaker.allowRequest());
+
+        circuitBreaker.onFailure(probe, status(503));
+        assertEquals(CircuitState.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void staleFailuresDoNotOpenTheCircuit() {
+        long[] stale = {circuitBreaker.allowRequest(), circuitBreaker.allowRequest(), circuitBreaker.allowRequest()};
+        fail(3);
+        clock.advance(500);
+        circuitBreaker.onSuccess(circuitBreaker.allowRequest(), null);
+
+        for (long permit : stale) {
+            circuitBreaker.onFailure(permit, new NoConnectionError());
+        }
+        assertEquals(CircuitState.CLOSED, circuitBreaker.getState());
+        fail(2);
+        assertEquals(CircuitState.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void formatNegotiationIsNoHealthSignal() {
+        fail(3);
+        clock.advance(500);
+        long probe = circuitBreaker.allowRequest();
+        circuitBreaker.release(probe);
+        assertEquals(CircuitState.HALF_OPEN, circuitBreaker.getState());
+
+        // the resent request is the next probe
+        probe = circuitBreaker.allowRequest();
+        assertNotEquals(CircuitBreaker.DENIED, probe);
+        circuitBreaker.onFailure(probe, status(415));
+        assertEquals(CircuitState.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.onSuccess(circuitBreaker.allowRequest(), null);
+        assertEquals(CircuitState.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void clientErrorsDoNotResetTheFailures() {
+        fail(2);
+        circuitBreaker.onFailure(circuitBreaker.allowRequest(), status(400));
+        fail(1);
+        assertEquals(CircuitState.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void retryAfterOpensAtLeastThatLong() {
+        circuitBreaker.onFailure(circuitBreaker.allowRequest(), status(429, "Retry-After", "30"));
+        assertEquals(CircuitState.OPEN, circuitBreaker.getState());
+        assertEquals(30000, circuitBreaker.getDelay());
+    }
+
+    @Test
+    public void rateLimitHintOfASuccessOpensTheCircuit() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-RateLimit-Remaining", "0");
+        headers.put("X-RateLimit-Reset", "10");
+        circuitBreaker.onSuccess(circuitBreaker.allowRequest(), headers);
+        assertEquals(CircuitState.OPEN, circuitBreaker.getState());
+        assertEquals(10000, circuitBreaker.getDelay());
+    }
+}
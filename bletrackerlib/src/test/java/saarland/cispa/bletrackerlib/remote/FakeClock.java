@@ -0,0 +1,19 @@
+package saarland.cispa.bletrackerlib.remote;
+
+/**
+ * {@link Clock} which only moves when the test advances it
+ */
+
+final class FakeClock implements Clock {
+
+    private long now = 1000000;
+
+    @Override
+    public synchronized long now() {
+        return now;
+    }
+
+    synchronized void advance(long millis) {
+        now += millis;
+    }
+}
@@ -0,0 +1,184 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.os.Handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlushCoordinatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeClock clock;
+    private FakeHandler handler;
+    private FlushCoordinator coordinator;
+    private TestTransport transport;
+    private final List<Integer> released = new ArrayList<>();
+    private int batchFlushes = 0;
+
+    /**
+     * Handler which keeps the posted runnable until the test runs it
+     */
+    private final class FakeHandler extends Handler {
+        Runnable runnable;
+        long runAt;
+
+        @Override
+        public boolean postDelayed(Runnable r, long delayMillis) {
+            runnable = r;
+            runAt = clock.now() + delayMillis;
+            return true;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            if (runnable == r) {
+                runnable = null;
+            }
+        }
+
+        void run() {
+            Runnable r = runnable;
+            runnable = null;
+            r.run();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        handler = new FakeHandler();
+        coordinator = new FlushCoordinator(clock, handler);
+        transport = new TestTransport();
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+    }
+
+    private RemoteConnection connect() {
+        RemotePreferences remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        // records the released uploads instead of sending them
+        return new RemoteConnection("http://127.0.0.1:1/beacons", new TestContext(folder.getRoot()), remotePreferences, transport) {
+            @Override
+            void release(BeaconPayload payload, UploadLane lane) {
+                released.add(payload.simpleBeacon.hashcode);
+            }
+
+            @Override
+            void flushBatch() {
+                batchFlushes++;
+            }
+        };
+    }
+
+    private static BeaconPayload payload(int hashcode) {
+        SimpleBeacon simpleBeacon = new SimpleBeacon("IBEACON_LAYOUT", -70, -59, 0x4c, "C4:7C:8D:6A:3B:01", null, 1.5, null);
+        simpleBeacon.hashcode = hashcode;
+        return new BeaconPayload(simpleBeacon);
+    }
+
+    @Test
+    public void doesNotHoldWithoutCadence() {
+        assertFalse(coordinator.hold(connect(), payload(1), UploadLane.HIGH));
+        assertEquals(0, coordinator.getHeldCount());
+        assertEquals(0, coordinator.getNextFlushTime());
+    }
+
+    @Test
+    public void releasesAtTheNextMultipleOfTheCadence() {
+        coordinator.setFlushCadence(60 * 1000);
+        RemoteConnection connection = connect();
+        assertTrue(coordinator.hold(connection, payload(1), UploadLane.HIGH));
+        clock.advance(5000);
+        assertTrue(coordinator.hold(connection, payload(2), UploadLane.LOW));
+
+        // the clock starts at 1,000,000ms, the next multiple of a minute is 1,020,000ms
+        assertEquals(1020000, coordinator.getNextFlushTime());
+        assertEquals(1020000, handler.runAt);
+        assertEquals(2, coordinator.getHeldCount());
+
+        clock.advance(15000);
+        handler.run();
+        assertEquals(Arrays.asList(1, 2), released);
+        assertEquals(1, batchFlushes);
+        assertEquals(0, coordinator.getHeldCount());
+        assertEquals(0, coordinator.getNextFlushTime());
+    }
+
+    @Test
+    public void maxLatencyBoundsTheHoldTime() {
+        coordinator.setFlushCadence(10 * 60 * 1000);
+        coordinator.setFlushMaxLatency(2 * 60 * 1000);
+        coordinator.hold(connect(), payload(1), UploadLane.HIGH);
+        assertEquals(1000000 + 2 * 60 * 1000, coordinator.getNextFlushTime());
+    }
+
+    @Test
+    public void screenOffUsesTheLongerCadence() {
+        coordinator.setFlushCadence(60 * 1000);
+        coordinator.setScreenOffFlushCadence(5 * 60 * 1000);
+        coordinator.setScreenOn(false);
+        coordinator.hold(connect(), payload(1), UploadLane.HIGH);
+        assertEquals(1200000, coordinator.getNextFlushTime());
+
+        // back on, the short cadence applies again
+        coordinator.setScreenOn(true);
+        assertEquals(1020000, coordinator.getNextFlushTime());
+    }
+
+    @Test
+    public void earlyRunnableWaitsUntilDue() {
+        coordinator.setFlushCadence(60 * 1000);
+        coordinator.hold(connect(), payload(1), UploadLane.HIGH);
+        clock.advance(10000);
+        handler.run();
+        assertTrue(released.isEmpty());
+        assertEquals(1020000, handler.runAt);
+
+        clock.advance(10000);
+        handler.run();
+        assertEquals(Arrays.asList(1), released);
+    }
+
+    @Test
+    public void networkActivityReleasesTheBurst() {
+        coordinator.setFlushCadence(60 * 1000);
+        RemoteConnection first = connect();
+        RemoteConnection second = connect();
+        coordinator.hold(first, payload(1), UploadLane.HIGH);
+        coordinator.hold(second, payload(2), UploadLane.HIGH);
+        coordinator.hold(first, payload(3), UploadLane.HIGH);
+
+        coordinator.onNetworkActivity();
+        assertEquals(Arrays.asList(1, 2, 3), released);
+        // one batch flush per connection
+        assertEquals(2, batchFlushes);
+        assertEquals(null, handler.runnable);
+    }
+
+    @Test
+    public void turningTheCadenceOffReleasesEverything() {
+        coordinator.setFlushCadence(60 * 1000);
+        coordinator.hold(connect(), payload(1), UploadLane.HIGH);
+        coordinator.setFlushCadence(0);
+        assertEquals(Arrays.asList(1), released);
+        assertFalse(coordinator.hold(connect(), payload(2), UploadLane.HIGH));
+    }
+}
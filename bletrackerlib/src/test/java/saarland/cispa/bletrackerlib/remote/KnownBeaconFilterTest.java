@@ -0,0 +1,129 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KnownBeaconFilterTest {
+
+    // 1% false positives for 1000 beacons
+    private static final int BITS = 9586;
+    private static final int HASHES = 7;
+
+    /**
+     * Encodes a filter or a delta the way the server does
+     * @param hashcodes the beacons which are set
+     */
+    static byte[] encode(boolean delta, long version, long baseVersion, int bitCount, int hashCount, int... hashcodes) {
+        byte[] bits = new byte[(bitCount + 7) / 8];
+        for (int hashcode : hashcodes) {
+            long hash = 0xcbf29ce484222325L;
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                hash ^= (hashcode >>> shift) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            long h1 = hash & 0xffffffffL;
+            long h2 = hash >>> 32;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (int) ((h1 + i * h2) % bitCount);
+                bits[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        try {
+            data.writeBytes("KBF1");
+            data.writeByte(delta ? 1 : 0);
+            data.writeLong(version);
+            data.writeLong(baseVersion);
+            data.writeInt(bitCount);
+            data.writeInt(hashCount);
+            data.write(bits);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static KnownBeaconFilter read(byte[] encoded, KnownBeaconFilter base) throws IOException {
+        return KnownBeaconFilter.read(new ByteArrayInputStream(encoded), base);
+    }
+
+    private static int[] range(int first, int count) {
+        int[] hashcodes = new int[count];
+        for (int i = 0; i < count; i++) {
+            hashcodes[i] = first + i * 7919;
+        }
+        return hashcodes;
+    }
+
+    @Test
+    public void containsEveryBeaconOfTheFilter() throws IOException {
+        int[] hashcodes = range(-5000000, 1000);
+        KnownBeaconFilter filter = read(encode(false, 1, 0, BITS, HASHES, hashcodes), null);
+        for (int hashcode : hashcodes) {
+            assertTrue(filter.contains(hashcode));
+        }
+    }
+
+    @Test
+    public void staysWithinTheFalsePositiveRate() throws IOException {
+        KnownBeaconFilter filter = read(encode(false, 1, 0, BITS, HASHES, range(-5000000, 1000)), null);
+        int falsePositives = 0;
+        int[] others = range(1, 100000);
+        for (int hashcode : others) {
+            if (filter.contains(hashcode)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positive rate " + falsePositives / 1000.0 + "%", falsePositives < others.length * 0.015);
+    }
+
+    @Test
+    public void appliesADeltaOnTopOfItsBaseVersion() throws IOException {
+        KnownBeaconFilter base = read(encode(false, 1, 0, BITS, HASHES, 11, 12), null);
+        assertFalse(base.contains(13));
+
+        KnownBeaconFilter filter = read(encode(true, 2, 1, BITS, HASHES, 13), base);
+        assertEquals(2, filter.version);
+        assertTrue(filter.contains(11));
+        assertTrue(filter.contains(12));
+        assertTrue(filter.contains(13));
+        // the base filter is not changed
+        assertFalse(base.contains(13));
+    }
+
+    @Test
+    public void rejectsADeltaWhichDoesNotFitTheBase() throws IOException {
+        KnownBeaconFilter base = read(encode(false, 1, 0, BITS, HASHES, 11), null);
+        assertNull(read(encode(true, 3, 2, BITS, HASHES, 13), base));
+        assertNull(read(encode(true, 2, 1, BITS * 2, HASHES, 13), base));
+        assertNull(read(encode(true, 2, 1, BITS, HASHES, 13), null));
+    }
+
+    @Test
+    public void rejectsInvalidFilters() {
+        byte[] wrongMagic = encode(false, 1, 0, BITS, HASHES, 11);
+        wrongMagic[3] = '2';
+        byte[] truncated = encode(false, 1, 0, BITS, HASHES, 11);
+        truncated = Arrays.copyOf(truncated, truncated.length - 1);
+        for (byte[] encoded : new byte[][] {wrongMagic, truncated, encode(false, 1, 0, 0, HASHES), encode(false, 1, 0, 64, 33)}) {
+            try {
+                read(encoded, null);
+                fail();
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KnownBeaconsTest {
+
+    private static final int BITS = 1024;
+    private static final int HASHES = 5;
+    private static final int REFRESH_INTERVAL = 60 * 1000;
+    // the region of TestBeacons.iBeacon() with the default region size of 0.1 degrees
+    private static final String REGION_PATH = "/beacons/known/1/70/492";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubServer server;
+    private TestTransport transport;
+    private FakeClock clock;
+    private KnownBeacons knownBeacons;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer();
+        transport = new TestTransport();
+        clock = new FakeClock();
+        RemotePreferences remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        remotePreferences.setKnownBeaconFilterRefreshInterval(REFRESH_INTERVAL);
+        String url = server.getUrl("/beacons");
+        RemoteConnection connection = new RemoteConnection(url, new TestContext(folder.getRoot()), remotePreferences, transport);
+        knownBeacons = new KnownBeacons(connection, url, remotePreferences, clock);
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+        server.stop();
+    }
+
+    private static SimpleBeacon beacon(int hashcode) {
+        SimpleBeacon simpleBeacon = TestBeacons.iBeacon();
+        simpleBeacon.hashcode = hashcode;
+        return simpleBeacon;
+    }
+
+    private static SimpleBeacon inRegion(int x) {
+        SimpleBeacon simpleBeacon = beacon(1);
+        simpleBeacon.location = new SimpleBeacon.Location(x * 0.1 + 0.05, 0.05, 10);
+        return simpleBeacon;
+    }
+
+    @Test
+    public void loadsTheFilterOfARegionWithTheFirstSighting() throws Exception {
+        server.respond(REGION_PATH, 200, KnownBeaconFilterTest.encode(false, 1, 0, BITS, HASHES, 1, 2));
+        // unknown until the filter is loaded
+        assertFalse(knownBeacons.isKnown(beacon(1)));
+        transport.awaitIdle();
+
+        assertTrue(knownBeacons.isKnown(beacon(1)));
+        assertTrue(knownBeacons.isKnown(beacon(2)));
+        assertFalse(knownBeacons.isKnown(beacon(3)));
+        assertEquals(1, server.getRequestCount(REGION_PATH));
+        assertEquals(KnownBeaconFilter.CONTENT_TYPE, server.getRequests(REGION_PATH).get(0).getHeader("Accept"));
+
+        // no location, no region
+        SimpleBeacon withoutLocation = beacon(1);
+        withoutLocation.location = null;
+        assertFalse(knownBeacons.isKnown(withoutLocation));
+    }
+
+    @Test
+    public void refreshesWithADeltaOnTopOfTheLoadedVersion() throws Exception {
+        server.enqueue(REGION_PATH, 200, KnownBeaconFilterTest.encode(false, 1, 0, BITS, HASHES, 1));
+        server.enqueue(REGION_PATH, 200, KnownBeaconFilterTest.encode(true, 2, 1, BITS, HASHES, 3));
+        server.enqueue(REGION_PATH, 304, "");
+        knownBeacons.isKnown(beacon(1));
+        transport.awaitIdle();
+
+        clock.advance(REFRESH_INTERVAL - 1);
+        assertFalse(knownBeacons.isKnown(beacon(3)));
+        assertEquals(1, server.getRequestCount(REGION_PATH));
+        clock.advance(1);
+        knownBeacons.isKnown(beacon(3));
+        transport.awaitIdle();
+        assertTrue(knownBeacons.isKnown(beacon(1)));
+        assertTrue(knownBeacons.isKnown(beacon(3)));
+
+        // not modified keeps the filter
+        clock.advance(REFRESH_INTERVAL);
+        knownBeacons.isKnown(beacon(1));
+        transport.awaitIdle();
+        assertTrue(knownBeacons.isKnown(beacon(3)));
+
+        List<StubServer.Received> requests = server.getRequests(REGION_PATH);
+        assertEquals(3, requests.size());
+        assertNull(requests.get(0).query);
+        assertEquals("since=1", requests.get(1).query);
+        assertEquals("since=2", requests.get(2).query);
+    }
+
+    @Test
+    public void loadsTheFullFilterIfTheDeltaDoesNotFit() throws Exception {
+        server.enqueue(REGION_PATH, 200, KnownBeaconFilterTest.encode(false, 1, 0, BITS, HASHES, 1));
+        server.enqueue(REGION_PATH, 200, KnownBeaconFilterTest.encode(true, 3, 2, BITS, HASHES, 3));
+        server.enqueue(REGION_PATH, 200, KnownBeaconFilterTest.encode(false, 3, 0, BITS, HASHES, 3));
+        knownBeacons.isKnown(beacon(1));
+        transport.awaitIdle();
+
+        clock.advance(REFRESH_INTERVAL);
+        knownBeacons.isKnown(beacon(1));
+        transport.awaitIdle();
+
+        List<StubServer.Received> requests = server.getRequests(REGION_PATH);
+        assertEquals(3, requests.size());
+        assertEquals("since=1", requests.get(1).query);
+        assertNull(requests.get(2).query);
+        assertTrue(knownBeacons.isKnown(beacon(3)));
+        assertFalse(knownBeacons.isKnown(beacon(1)));
+    }
+
+    @Test
+    public void keepsTheOldFilterIfTheRefreshFails() throws Exception {
+        server.enqueue(REGION_PATH, 200, KnownBeaconFilterTest.encode(false, 1, 0, BITS, HASHES, 1));
+        server.enqueue(REGION_PATH, 500, "");
+        knownBeacons.isKnown(beacon(1));
+        transport.awaitIdle();
+
+        clock.advance(REFRESH_INTERVAL);
+        knownBeacons.isKnown(beacon(1));
+        transport.awaitIdle();
+        assertTrue(knownBeacons.isKnown(beacon(1)));
+        // tried again after the next refresh interval only
+        assertEquals(2, server.getRequestCount(REGION_PATH));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedRegion() throws Exception {
+        for (int x = 0; x <= 16; x++) {
+            server.respond("/beacons/known/1/" + x + "/0", 200, KnownBeaconFilterTest.encode(false, 1, 0, BITS, HASHES, 1));
+        }
+        for (int x = 0; x < 16; x++) {
+            knownBeacons.isKnown(inRegion(x));
+        }
+        transport.awaitIdle();
+        // region 0 was used last, region 1 is the least recently used one now
+        knownBeacons.isKnown(inRegion(0));
+        knownBeacons.isKnown(inRegion(16));
+        transport.awaitIdle();
+
+        assertTrue(knownBeacons.isKnown(inRegion(0)));
+        assertEquals(1, server.getRequestCount("/beacons/known/1/0/0"));
+        assertFalse(knownBeacons.isKnown(inRegion(1)));
+        transport.awaitIdle();
+        assertEquals(2, server.getRequestCount("/beacons/known/1/1/0"));
+        assertTrue(knownBeacons.isKnown(inRegion(1)));
+    }
+}
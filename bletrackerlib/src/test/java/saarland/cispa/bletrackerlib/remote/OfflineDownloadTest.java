@@ -0,0 +1,179 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OfflineDownloadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubServer server;
+    private TestTransport transport;
+    private RemotePreferences remotePreferences;
+    private RemoteConnection connection;
+    private int storesOpened = 0;
+    private String tilePath;
+    private String otherTilePath;
+
+    private final class Listener implements OfflineDownloadListener {
+        final List<Integer> progress = new ArrayList<>();
+        boolean complete = false;
+        boolean failed = false;
+        int total;
+
+        @Override
+        public synchronized void onDownloadProgress(String region, int tilesDone, int tilesTotal) {
+            progress.add(tilesDone);
+            total = tilesTotal;
+        }
+
+        @Override
+        public synchronized void onDownloadComplete(String region) {
+            complete = true;
+        }
+
+        @Override
+        public synchronized void onDownloadError(String region, String errorMessage) {
+            failed = true;
+        }
+    }
+
+    private static final class Collector implements RemoteRequestReceiver {
+        ArrayList<SimpleBeacon> beacons;
+
+        @Override
+        public void onBeaconsReceived(ArrayList<SimpleBeacon> beacons) {
+            this.beacons = beacons;
+        }
+
+        @Override
+        public void onBeaconReceiveError(String errorMessage) {
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer();
+        transport = new TestTransport();
+        remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        remotePreferences.setOfflineTileSize(1);
+        connection = connect();
+        tilePath = new URL(connection.getApiUrl(7, 8, 49, 50)).getPath();
+        otherTilePath = new URL(connection.getApiUrl(8, 9, 49, 50)).getPath();
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+        server.stop();
+    }
+
+    /**
+     * A connection whose offline store runs on the test threads, like the app after a restart if called again
+     */
+    private RemoteConnection connect() {
+        return new RemoteConnection(server.getUrl("/beacons"), new TestContext(folder.getRoot()), remotePreferences, transport) {
+            @Override
+            OfflineStore openOfflineStore() {
+                storesOpened++;
+                return new OfflineStore(OfflineStore.getDirectory(new TestContext(folder.getRoot()), server.getUrl("/beacons"), 1),
+                        new OfflineStoreTest.DirectHandler(), new OfflineStoreTest.DirectHandler());
+            }
+        };
+    }
+
+    /**
+     * A response body with one beacon with the ID
+     */
+    private static String body(int id) {
+        String json = new String(BeaconJsonWriter.encode(TestBeacons.iBeacon()));
+        return "[" + json.replaceFirst("\\{", "{\"ID\":" + id + ",") + "]";
+    }
+
+    private Listener download(double longitudeEnd) throws Exception {
+        Listener listener = new Listener();
+        connection.downloadRegion("home", 7.5, longitudeEnd, 49.5, 49.6, listener);
+        transport.awaitIdle();
+        return listener;
+    }
+
+    private ArrayList<SimpleBeacon> request() throws Exception {
+        Collector receiver = new Collector();
+        connection.requestBeacons(7.0, 7.9, 49.0, 49.9, receiver);
+        transport.awaitIdle();
+        return receiver.beacons;
+    }
+
+    @Test
+    public void requestsDoNotOpenTheStoreBeforeADownload() throws Exception {
+        server.respond(tilePath, 200, "[]");
+        server.respond(new URL(connection.getApiUrl(7.0, 7.9, 49.0, 49.9)).getPath(), 200, body(1));
+        assertEquals(1, request().size());
+        assertEquals(1, request().size());
+        assertEquals(0, storesOpened);
+    }
+
+    @Test
+    public void answersRequestsFromTheDownloadedRegion() throws Exception {
+        server.respond(tilePath, 200, body(1), "X-Sync-Cursor", "c1");
+        server.respond(otherTilePath, 200, body(2), "X-Sync-Cursor", "c1");
+        Listener listener = download(8.5);
+        assertTrue(listener.complete);
+        assertFalse(listener.failed);
+        assertEquals(2, listener.total);
+        assertEquals(0, (int) listener.progress.get(0));
+        assertEquals(2, (int) listener.progress.get(listener.progress.size() - 1));
+        assertEquals(1, storesOpened);
+
+        ArrayList<SimpleBeacon> beacons = request();
+        assertEquals(1, beacons.size());
+        assertEquals(1, beacons.get(0).id);
+        assertEquals(1, server.getRequestCount(tilePath));
+
+        // after a restart the first request finds the store
+        connection = connect();
+        assertEquals(1, request().size());
+        assertEquals(2, storesOpened);
+        assertEquals(1, server.getRequestCount(tilePath));
+    }
+
+    @Test
+    public void continuesAnInterruptedDownloadAndRefreshesWithTheCursor() throws Exception {
+        server.respond(tilePath, 200, body(1), "X-Sync-Cursor", "c1");
+        server.respond(otherTilePath, 500, "");
+        assertTrue(download(7.6).complete);
+        // the region grows, only the new tile is downloaded
+        assertTrue(download(8.5).failed);
+        assertEquals(1, server.getRequestCount(tilePath));
+
+        server.respond(otherTilePath, 200, body(2), "X-Sync-Cursor", "c1");
+        Listener listener = download(8.5);
+        assertTrue(listener.complete);
+        assertEquals(1, (int) listener.progress.get(0));
+        assertEquals(1, server.getRequestCount(tilePath));
+        assertEquals(2, server.getRequestCount(otherTilePath));
+
+        Listener refresh = new Listener();
+        connection.refreshRegion("home", refresh);
+        transport.awaitIdle();
+        assertTrue(refresh.complete);
+        List<StubServer.Received> requests = server.getRequests(tilePath);
+        assertEquals(2, requests.size());
+        assertEquals("since=c1", requests.get(1).query);
+    }
+}
@@ -0,0 +1,193 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.os.Handler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OfflineStoreTest {
+
+    private static final long TILE = TileCache.key(7, 49);
+    private static final long OTHER_TILE = TileCache.key(8, 49);
+    // two names with the same hash
+    private static final String NAME = "Aa";
+    private static final String COLLIDING_NAME = "BB";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private OfflineStore store;
+    private OfflineRegion prepared;
+    private LinkedHashMap<Long, String> pending;
+    private ArrayList<SimpleBeacon> read;
+
+    /**
+     * Handler which runs every runnable right away, one at a time like the storage and the main thread
+     */
+    static final class DirectHandler extends Handler {
+        @Override
+        public boolean post(Runnable r) {
+            synchronized (DirectHandler.class) {
+                r.run();
+            }
+            return true;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        assertEquals(NAME.hashCode(), COLLIDING_NAME.hashCode());
+        directory = new File(folder.getRoot(), "offline");
+        store = open();
+    }
+
+    private OfflineStore open() {
+        return new OfflineStore(directory, new DirectHandler(), new DirectHandler());
+    }
+
+    private void prepare(OfflineRegion region, String name) {
+        prepared = null;
+        pending = null;
+        store.prepare(region, name, new OfflineStore.PrepareCallback() {
+            @Override
+            public void onPrepared(OfflineRegion region, LinkedHashMap<Long, String> tiles) {
+                prepared = region;
+                pending = tiles;
+            }
+        });
+    }
+
+    private void save(long key, List<SimpleBeacon> changed, List<Long> deletedIds, boolean full, String cursor) {
+        final boolean[] saved = {false};
+        store.saveTile(key, changed, deletedIds, full, cursor, new OfflineStore.SaveCallback() {
+            @Override
+            public void onSaved(boolean result) {
+                saved[0] = result;
+            }
+        });
+        assertTrue(saved[0]);
+    }
+
+    private ArrayList<SimpleBeacon> read(Long... keys) {
+        read = null;
+        store.readTiles(Arrays.asList(keys), new OfflineStore.ReadCallback() {
+            @Override
+            public void onRead(ArrayList<SimpleBeacon> simpleBeacons) {
+                read = simpleBeacons;
+            }
+        });
+        return read;
+    }
+
+    private int countRegionFiles() {
+        int count = 0;
+        for (String fileName : directory.list()) {
+            if (fileName.endsWith(".region")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static SimpleBeacon beacon(long id) {
+        SimpleBeacon simpleBeacon = TestBeacons.iBeacon();
+        simpleBeacon.id = id;
+        return simpleBeacon;
+    }
+
+    private static List<Long> ids(List<SimpleBeacon> simpleBeacons) {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (SimpleBeacon simpleBeacon : simpleBeacons) {
+            ids.add(simpleBeacon.id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void storesTilesAndFindsThemAfterReopening() {
+        assertFalse(directory.exists());
+        prepare(new OfflineRegion(NAME, new ArrayList<>(Arrays.asList(TILE, OTHER_TILE))), null);
+        assertEquals(Arrays.asList(TILE, OTHER_TILE), new ArrayList<>(pending.keySet()));
+        save(TILE, Arrays.asList(beacon(1), beacon(2)), new ArrayList<Long>(), true, "c1");
+        assertTrue(store.hasTiles(Collections.singletonList(TILE), 0));
+        assertFalse(store.hasTiles(Arrays.asList(TILE, OTHER_TILE), 0));
+
+        store = open();
+        assertTrue(store.hasTiles(Collections.singletonList(TILE), 0));
+        assertEquals(Arrays.asList(1L, 2L), ids(read(TILE)));
+        // an interrupted download continues with the missing tiles
+        prepare(new OfflineRegion(NAME, new ArrayList<>(Arrays.asList(TILE, OTHER_TILE))), null);
+        assertEquals(Collections.singletonList(OTHER_TILE), new ArrayList<>(pending.keySet()));
+    }
+
+    @Test
+    public void mergesADeltaIntoTheStoredTile() {
+        save(TILE, Arrays.asList(beacon(1), beacon(2)), new ArrayList<Long>(), true, "c1");
+        save(TILE, Collections.singletonList(beacon(3)), Collections.singletonList(1L), false, "c2");
+        assertEquals(Arrays.asList(2L, 3L), ids(read(TILE)));
+
+        prepare(new OfflineRegion(NAME, new ArrayList<>(Collections.singletonList(TILE))), null);
+        // a refresh gets every tile with its cursor
+        prepare(null, NAME);
+        assertEquals("c2", pending.get(TILE));
+    }
+
+    @Test
+    public void keepsRegionsWhoseNamesShareAHash() {
+        prepare(new OfflineRegion(NAME, new ArrayList<>(Collections.singletonList(TILE))), null);
+        prepare(new OfflineRegion(COLLIDING_NAME, new ArrayList<>(Collections.singletonList(OTHER_TILE))), null);
+        save(TILE, Collections.singletonList(beacon(1)), new ArrayList<Long>(), true, null);
+        save(OTHER_TILE, Collections.singletonList(beacon(2)), new ArrayList<Long>(), true, null);
+
+        prepare(null, NAME);
+        assertEquals(NAME, prepared.name);
+        assertEquals(Collections.singletonList(TILE), prepared.tiles);
+        prepare(null, COLLIDING_NAME);
+        assertEquals(Collections.singletonList(OTHER_TILE), prepared.tiles);
+
+        // replacing a region keeps its file
+        prepare(new OfflineRegion(COLLIDING_NAME, new ArrayList<>(Arrays.asList(OTHER_TILE, TILE))), null);
+        assertEquals(2, countRegionFiles());
+
+        store.deleteRegion(NAME);
+        prepare(null, NAME);
+        assertNull(prepared);
+        // the tiles are still part of the other region
+        assertTrue(store.hasTiles(Arrays.asList(TILE, OTHER_TILE), 0));
+
+        store.deleteRegion(COLLIDING_NAME);
+        prepare(null, COLLIDING_NAME);
+        assertNull(prepared);
+        assertFalse(store.hasTiles(Collections.singletonList(TILE), 0));
+        assertFalse(store.hasTiles(Collections.singletonList(OTHER_TILE), 0));
+    }
+
+    @Test
+    public void dropsTilesWhichCanNotBeRead() throws Exception {
+        save(TILE, Collections.singletonList(beacon(1)), new ArrayList<Long>(), true, null);
+        File tile = new File(directory, "7_49.tile");
+        assertTrue(tile.isFile());
+        assertTrue(tile.delete());
+        assertTrue(tile.createNewFile());
+
+        assertTrue(read(TILE).isEmpty());
+        assertFalse(store.hasTiles(Collections.singletonList(TILE), 0));
+    }
+}
@@ -0,0 +1,137 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SendFilterTest {
+
+    private static final int SEND_INTERVAL = 15 * 1000;
+    private static final int HEARTBEAT_INTERVAL = 60 * 1000;
+    private static final int KNOWN_HEARTBEAT_INTERVAL = 10 * 60 * 1000;
+    private static final long START = 1551434400000L;
+
+    private RemotePreferences preferences;
+    private SendFilter sendFilter;
+    private int knownLookups = 0;
+    private boolean known = false;
+
+    @Before
+    public void setUp() {
+        preferences = new RemotePreferences();
+        preferences.setSendMode(SendMode.DO_SEND_BEACONS);
+        preferences.setSendInterval(SEND_INTERVAL);
+        preferences.setHeartbeatInterval(HEARTBEAT_INTERVAL);
+        preferences.setKnownBeaconHeartbeatInterval(KNOWN_HEARTBEAT_INTERVAL);
+        // answers from the test instead of loaded filters
+        KnownBeacons knownBeacons = new KnownBeacons(null, "http://localhost", preferences, new FakeClock()) {
+            @Override
+            synchronized boolean isKnown(SimpleBeacon simpleBeacon) {
+                knownLookups++;
+                return known;
+            }
+        };
+        sendFilter = new SendFilter(preferences, knownBeacons);
+    }
+
+    /**
+     * @param time the time since the start of the test in ms
+     */
+    private static BeaconPayload sighting(SimpleBeacon simpleBeacon, long time) {
+        // the format DateParser reads
+        simpleBeacon.timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date(START + time));
+        return new BeaconPayload(simpleBeacon);
+    }
+
+    @Test
+    public void sendsNewBeaconsFirstAndRepeatsThemAfterTheSendInterval() {
+        assertEquals(UploadLane.HIGH, sendFilter.classify(sighting(TestBeacons.iBeacon(), 0)));
+        assertNull(sendFilter.classify(sighting(TestBeacons.iBeacon(), SEND_INTERVAL - 1000)));
+        assertEquals(UploadLane.LOW, sendFilter.classify(sighting(TestBeacons.iBeacon(), SEND_INTERVAL)));
+        // sensor readings keep their priority
+        assertEquals(UploadLane.HIGH, sendFilter.classify(sighting(TestBeacons.ruuvi(), 0)));
+        assertEquals(UploadLane.HIGH, sendFilter.classify(sighting(TestBeacons.ruuvi(), SEND_INTERVAL)));
+    }
+
+    @Test
+    public void onChangeSendsChangesAndHeartbeats() {
+        preferences.setSendPolicy(SendPolicy.ON_CHANGE);
+        assertEquals(UploadLane.HIGH, sendFilter.classify(sighting(TestBeacons.iBeacon(), 0)));
+        assertNull(sendFilter.classify(sighting(TestBeacons.iBeacon(), SEND_INTERVAL)));
+
+        SimpleBeacon moved = TestBeacons.iBeacon();
+        moved.location = new SimpleBeacon.Location(moved.location.locationLong + 0.001, moved.location.locationLat, 10);
+        assertEquals(UploadLane.NORMAL, sendFilter.classify(sighting(moved, SEND_INTERVAL)));
+
+        SimpleBeacon louder = TestBeacons.iBeacon();
+        louder.location = moved.location;
+        louder.signalStrength += preferences.getChangeSignalStrength();
+        assertEquals(UploadLane.NORMAL, sendFilter.classify(sighting(louder, 2 * SEND_INTERVAL)));
+
+        louder.signalStrength += 1;
+        assertNull(sendFilter.classify(sighting(louder, 3 * SEND_INTERVAL)));
+        assertEquals(UploadLane.LOW, sendFilter.classify(sighting(louder, 2 * SEND_INTERVAL + HEARTBEAT_INTERVAL)));
+    }
+
+    @Test
+    public void knownBeaconsAreOnlySentEveryKnownHeartbeat() {
+        known = true;
+        assertEquals(UploadLane.LOW, sendFilter.classify(sighting(TestBeacons.iBeacon(), 0)));
+        assertNull(sendFilter.classify(sighting(TestBeacons.iBeacon(), HEARTBEAT_INTERVAL)));
+        assertEquals(UploadLane.LOW, sendFilter.classify(sighting(TestBeacons.iBeacon(), KNOWN_HEARTBEAT_INTERVAL)));
+
+        // sensor readings are news, the filter is not asked
+        int lookups = knownLookups;
+        assertEquals(UploadLane.HIGH, sendFilter.classify(sighting(TestBeacons.ruuvi(), 0)));
+        assertEquals(lookups, knownLookups);
+
+        preferences.setKnownBeaconHeartbeatInterval(0);
+        assertNull(sendFilter.classify(sighting(TestBeacons.altBeacon(), 0)));
+    }
+
+    @Test
+    public void sendModeIsCheckedBeforeTheKnownBeacons() {
+        preferences.setSendMode(SendMode.DO_NOT_SEND_BEACONS);
+        assertNull(sendFilter.classify(sighting(TestBeacons.iBeacon(), 0)));
+        assertEquals(0, knownLookups);
+
+        preferences.setSendMode(SendMode.DO_ONLY_SEND_IF_BEACONS_HAVE_GPS);
+        assertNull(sendFilter.classify(sighting(TestBeacons.eddystoneUrl(), 0)));
+        assertEquals(0, knownLookups);
+        // a dropped sighting is not remembered as sent
+        preferences.setSendMode(SendMode.DO_SEND_BEACONS);
+        assertEquals(UploadLane.HIGH, sendFilter.classify(sighting(TestBeacons.eddystoneUrl(), 0)));
+    }
+
+    @Test
+    public void sightingsWithoutTimeAreAlwaysSent() {
+        SimpleBeacon simpleBeacon = TestBeacons.iBeacon();
+        simpleBeacon.timestamp = null;
+        assertEquals(UploadLane.NORMAL, sendFilter.classify(new BeaconPayload(simpleBeacon)));
+        assertEquals(UploadLane.NORMAL, sendFilter.classify(new BeaconPayload(simpleBeacon)));
+    }
+
+    @Test
+    public void forgetsTheLeastRecentlySentBeacons() {
+        SimpleBeacon first = TestBeacons.iBeacon();
+        first.hashcode = 0;
+        sendFilter.classify(sighting(first, 0));
+        for (int i = 1; i <= 1024; i++) {
+            SimpleBeacon simpleBeacon = TestBeacons.iBeacon();
+            simpleBeacon.hashcode = i;
+            sendFilter.classify(sighting(simpleBeacon, 0));
+        }
+        // the first beacon was evicted and is new again, the last one is still remembered
+        SimpleBeacon last = TestBeacons.iBeacon();
+        last.hashcode = 1024;
+        assertNull(sendFilter.classify(sighting(last, 1000)));
+        assertEquals(UploadLane.HIGH, sendFilter.classify(sighting(first, 1000)));
+    }
+}
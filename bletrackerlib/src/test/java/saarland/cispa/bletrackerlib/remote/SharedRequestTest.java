@@ -0,0 +1,113 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class SharedRequestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubServer server;
+    private TestTransport transport;
+    private RemoteConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer();
+        transport = new TestTransport();
+        RemotePreferences remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        connection = new RemoteConnection(server.getUrl("/beacons"), new TestContext(folder.getRoot()), remotePreferences, transport);
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+        server.stop();
+    }
+
+    private static final class Collector implements RemoteRequestReceiver {
+        ArrayList<SimpleBeacon> beacons;
+
+        @Override
+        public void onBeaconsReceived(ArrayList<SimpleBeacon> beacons) {
+            this.beacons = beacons;
+        }
+
+        @Override
+        public void onBeaconReceiveError(String errorMessage) {
+        }
+    }
+
+    @Test
+    public void concurrentQueriesShareOneOriginRequest() throws Exception {
+        String path = new URL(connection.getApiUrl(7, 8, 49, 50)).getPath();
+        List<byte[]> beacons = Arrays.asList(BeaconJsonWriter.encode(TestBeacons.iBeacon()), BeaconJsonWriter.encode(TestBeacons.altBeacon()));
+        server.respond(path, 200, new String(BeaconJsonWriter.joinArray(beacons), "UTF-8"));
+        server.setDelay(300);
+
+        Collector[] receivers = new Collector[3];
+        for (int i = 0; i < receivers.length; i++) {
+            receivers[i] = new Collector();
+            connection.requestBeacons(7, 8, 49, 50, receivers[i]);
+        }
+        transport.awaitIdle();
+
+        assertEquals(1, server.getRequestCount(path));
+        assertEquals(1, connection.getQueryCount());
+        assertEquals(2, connection.getCoalescedQueryCount());
+        for (Collector receiver : receivers) {
+            assertEquals(2, receiver.beacons.size());
+        }
+        assertNotSame(receivers[0].beacons, receivers[1].beacons);
+    }
+
+    @Test
+    public void subscribersGetTheirOwnPage() {
+        HashMap<String, SharedRequest> inFlight = new HashMap<>();
+        SharedRequest shared = new SharedRequest(inFlight, "key");
+        inFlight.put("key", shared);
+        final ArrayList<BeaconQueryRequest.Page> received = new ArrayList<>();
+        final ArrayList<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            shared.subscribe(new RemoteQuery(), new Response.Listener<BeaconQueryRequest.Page>() {
+                @Override
+                public void onResponse(BeaconQueryRequest.Page page) {
+                    received.add(page);
+                    sizes.add(page.beacons.size() + page.deletedIds.size());
+                    // a subscriber which changes its page must not change the page of the others
+                    page.beacons.clear();
+                    page.deletedIds.clear();
+                }
+            }, null);
+        }
+
+        ArrayList<SimpleBeacon> beacons = new ArrayList<>(TestBeacons.all());
+        ArrayList<Long> deletedIds = new ArrayList<>(Arrays.asList(1L, 2L));
+        shared.listener.onResponse(new BeaconQueryRequest.Page(beacons, deletedIds, null, "\"v1\"", false, 100, null, false));
+
+        assertEquals(Arrays.asList(7, 7), sizes);
+        assertNotSame(received.get(0).beacons, received.get(1).beacons);
+        assertNotSame(received.get(0).deletedIds, received.get(1).deletedIds);
+        assertEquals("\"v1\"", received.get(0).etag);
+        assertTrue(inFlight.isEmpty());
+    }
+}
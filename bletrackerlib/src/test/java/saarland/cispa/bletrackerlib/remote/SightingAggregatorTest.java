@@ -0,0 +1,155 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SightingAggregatorTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RemotePreferences remotePreferences;
+    private TestTransport transport;
+    private final List<BeaconPayload> summaries = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        remotePreferences.setSendMode(SendMode.DO_SEND_BEACONS);
+        remotePreferences.setAggregationWindow(60 * 1000);
+        transport = new TestTransport();
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+    }
+
+    private RemoteConnection connect() {
+        // records the released summaries instead of sending them
+        return new RemoteConnection("http://127.0.0.1:1/beacons", new TestContext(folder.getRoot()), remotePreferences, transport) {
+            @Override
+            void release(BeaconPayload payload, UploadLane lane) {
+                summaries.add(payload);
+            }
+        };
+    }
+
+    private static SimpleBeacon sighting(int signalStrength, double distance, SimpleBeacon.Location location, String timestamp) {
+        SimpleBeacon simpleBeacon = TestBeacons.iBeacon();
+        simpleBeacon.signalStrength = signalStrength;
+        simpleBeacon.distance = distance;
+        simpleBeacon.location = location;
+        simpleBeacon.timestamp = timestamp;
+        return simpleBeacon;
+    }
+
+    private static JSONObject json(BeaconPayload payload) throws Exception {
+        return new JSONObject(new String(payload.getJson(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void summarizesTheWindowPerBeacon() throws Exception {
+        SightingAggregator aggregator = new SightingAggregator(connect(), remotePreferences);
+        aggregator.add(sighting(-70, 2, new SimpleBeacon.Location(7.0, 49.0, 12.5), "2019-03-01T10:15:30"));
+        aggregator.add(sighting(-80, -1, new SimpleBeacon.Location(7.1, 49.1, 5), "2019-03-01T10:15:31"));
+        aggregator.add(sighting(-60, 4, null, "2019-03-01T10:15:32"));
+        aggregator.add(TestBeacons.ruuvi());
+        aggregator.close();
+
+        assertEquals(2, summaries.size());
+        BeaconPayload payload = summaries.get(0);
+        assertTrue(payload.summary);
+        SimpleBeacon summary = payload.simpleBeacon;
+        assertEquals(-70, summary.signalStrength);
+        // the unknown distance is not part of the mean
+        assertEquals(3, summary.distance, DELTA);
+        assertEquals(5, summary.location.locationRadius, DELTA);
+        assertEquals(7.1, summary.location.locationLong, DELTA);
+        assertEquals("2019-03-01T10:15:32", summary.timestamp);
+        JSONObject json = json(payload);
+        assertEquals(3, json.getInt("Count"));
+        assertEquals(-80, json.getInt("MinSignalStrength"));
+        assertEquals(-60, json.getInt("MaxSignalStrength"));
+        assertEquals("2019-03-01T10:15:30", json.getString("FirstSeen"));
+        assertEquals("2019-03-01T10:15:32", json.getString("LastSeen"));
+
+        assertEquals(TestBeacons.ruuvi().hashcode, summaries.get(1).simpleBeacon.hashcode);
+        assertEquals(1, json(summaries.get(1)).getInt("Count"));
+    }
+
+    @Test
+    public void keepsAnUnknownDistanceIfNoneIsKnown() {
+        SightingAggregator aggregator = new SightingAggregator(connect(), remotePreferences);
+        aggregator.add(sighting(-70, -1, null, "2019-03-01T10:15:30"));
+        aggregator.add(sighting(-72, -1, null, "2019-03-01T10:15:31"));
+        aggregator.close();
+
+        assertEquals(1, summaries.size());
+        assertEquals(-1, summaries.get(0).simpleBeacon.distance, DELTA);
+        assertNull(summaries.get(0).simpleBeacon.location);
+    }
+
+    @Test
+    public void startsEveryWindowEmpty() throws Exception {
+        SightingAggregator aggregator = new SightingAggregator(connect(), remotePreferences);
+        for (int i = 0; i < 20; i++) {
+            SimpleBeacon simpleBeacon = sighting(-70, 1, null, "2019-03-01T10:15:30");
+            simpleBeacon.hashcode = i;
+            aggregator.add(simpleBeacon);
+        }
+        aggregator.close();
+        assertEquals(20, summaries.size());
+
+        summaries.clear();
+        aggregator.add(sighting(-90, 8, null, "2019-03-01T10:16:30"));
+        aggregator.close();
+        assertEquals(1, summaries.size());
+        assertEquals(-90, summaries.get(0).simpleBeacon.signalStrength);
+        assertEquals(8, summaries.get(0).simpleBeacon.distance, DELTA);
+        assertEquals(1, json(summaries.get(0)).getInt("Count"));
+
+        // nothing to emit
+        aggregator.close();
+        assertEquals(1, summaries.size());
+    }
+
+    @Test
+    public void onlyAggregatesSightingsWhichPassTheSendFilter() throws Exception {
+        remotePreferences.setSendMode(SendMode.DO_ONLY_SEND_IF_BEACONS_HAVE_GPS);
+        RemoteConnection connection = connect();
+        // no location
+        SimpleBeacon withoutLocation = TestBeacons.eddystoneUrl();
+        withoutLocation.timestamp = "2019-03-01T10:15:30";
+        connection.sendBeacon(withoutLocation);
+        connection.sendBeacon(sighting(-70, 2, new SimpleBeacon.Location(7.0, 49.0, 10), "2019-03-01T10:15:30"));
+        // within the send interval
+        connection.sendBeacon(sighting(-90, 6, new SimpleBeacon.Location(7.0, 49.0, 10), "2019-03-01T10:15:35"));
+        connection.sendBeacon(sighting(-80, 4, new SimpleBeacon.Location(7.0, 49.0, 10), "2019-03-01T10:15:45"));
+        connection.flush();
+
+        assertEquals(1, summaries.size());
+        SimpleBeacon summary = summaries.get(0).simpleBeacon;
+        assertEquals(TestBeacons.iBeacon().hashcode, summary.hashcode);
+        assertEquals(-75, summary.signalStrength);
+        assertEquals(3, summary.distance, DELTA);
+        assertEquals(2, json(summaries.get(0)).getInt("Count"));
+    }
+}
@@ -0,0 +1,212 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * A local HTTP or HTTPS server which answers with scripted responses and counts the requests per path
+ */
+
+final class StubServer {
+
+    private final HttpServer server;
+    private final Map<String, Reply> replies = new HashMap<>();
+    private final Map<String, ArrayDeque<Reply>> scripts = new HashMap<>();
+    private final Map<String, List<Received>> received = new HashMap<>();
+    private volatile long delay = 0;
+
+    static final class Reply {
+        final int status;
+        final byte[] body;
+        final String[] headers;
+
+        Reply(int status, byte[] body, String... headers) {
+            this.status = status;
+            this.body = body;
+            this.headers = headers;
+        }
+    }
+
+    static final class Received {
+        final String method;
+        final String query;
+        final Map<String, List<String>> headers;
+        final byte[] body;
+
+        Received(String method, String query, Map<String, List<String>> headers, byte[] body) {
+            this.method = method;
+            this.query = query;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String getHeader(String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (header.getKey() != null && header.getKey().equalsIgnoreCase(name)) {
+                    return header.getValue().get(0);
+                }
+            }
+            return null;
+        }
+    }
+
+    StubServer() throws IOException {
+        this(null);
+    }
+
+    /**
+     * @param sslContext the context with the key of the server for HTTPS or null for HTTP.
+     *                   HTTPS is limited to TLS 1.2, so resumed sessions keep their session ID.
+     */
+    StubServer(SSLContext sslContext) throws IOException {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+        if (sslContext != null) {
+            HttpsServer httpsServer = HttpsServer.create(address, 0);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext) {
+                @Override
+                public void configure(HttpsParameters params) {
+                    params.setProtocols(new String[] {"TLSv1.2"});
+                }
+            });
+            server = httpsServer;
+        } else {
+            server = HttpServer.create(address, 0);
+        }
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                answer(exchange);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    /**
+     * Answers every request to a path with the same response
+     * @param headers header names and values alternating
+     */
+    synchronized void respond(String path, int status, String body, String... headers) {
+        respond(path, status, body.getBytes(StandardCharsets.UTF_8), headers);
+    }
+
+    /**
+     * Answers every request to a path with the same binary response
+     * @param headers header names and values alternating
+     */
+    synchronized void respond(String path, int status, byte[] body, String... headers) {
+        replies.put(path, new Reply(status, body, headers));
+    }
+
+    /**
+     * Answers the next request to a path with a response, before the response set by respond
+     * @param headers header names and values alternating
+     */
+    synchronized void enqueue(String path, int status, String body, String... headers) {
+        enqueue(path, status, body.getBytes(StandardCharsets.UTF_8), headers);
+    }
+
+    /**
+     * Answers the next request to a path with a binary response, before the response set by respond
+     * @param headers header names and values alternating
+     */
+    synchronized void enqueue(String path, int status, byte[] body, String... headers) {
+        ArrayDeque<Reply> script = scripts.get(path);
+        if (script == null) {
+            script = new ArrayDeque<>();
+            scripts.put(path, script);
+        }
+        script.add(new Reply(status, body, headers));
+    }
+
+    /**
+     * Lets every answer wait, so concurrent requests overlap
+     */
+    void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    String getUrl(String path) {
+        return (server instanceof HttpsServer ? "https" : "http") + "://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    synchronized int getRequestCount(String path) {
+        List<Received> requests = received.get(path);
+        return requests != null ? requests.size() : 0;
+    }
+
+    synchronized List<Received> getRequests(String path) {
+        List<Received> requests = received.get(path);
+        return requests != null ? new ArrayList<>(requests) : new ArrayList<Received>();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        byte[] body = readAll(exchange.getRequestBody());
+        Reply reply;
+        synchronized (this) {
+            List<Received> requests = received.get(path);
+            if (requests == null) {
+                requests = new ArrayList<>();
+                received.put(path, requests);
+            }
+            requests.add(new Received(exchange.getRequestMethod(), exchange.getRequestURI().getRawQuery(),
+                    exchange.getRequestHeaders(), body));
+            ArrayDeque<Reply> script = scripts.get(path);
+            reply = script != null && !script.isEmpty() ? script.poll() : replies.get(path);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (reply == null) {
+            reply = new Reply(404, new byte[0]);
+        }
+        for (int i = 0; i + 1 < reply.headers.length; i += 2) {
+            exchange.getResponseHeaders().add(reply.headers[i], reply.headers[i + 1]);
+        }
+        boolean empty = reply.body.length == 0 || reply.status == 204 || reply.status == 304;
+        exchange.sendResponseHeaders(reply.status, empty ? -1 : reply.body.length);
+        if (!empty) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(reply.body);
+        }
+        exchange.close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
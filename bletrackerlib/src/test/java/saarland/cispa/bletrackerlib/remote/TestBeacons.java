@@ -0,0 +1,70 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+/**
+ * One beacon of every type with all the fields the type has
+ */
+
+final class TestBeacons {
+
+    private TestBeacons() {
+    }
+
+    static SimpleBeacon iBeacon() {
+        SimpleBeacon simpleBeacon = new SimpleBeacon(SimpleBeaconLayouts.IBEACON_LAYOUT.name(), -71, -59, 0x4c,
+                "C4:7C:8D:6A:3B:01", "kontakt", 2.25, "2019-03-01 10:15:30");
+        simpleBeacon.hashcode = 123456789;
+        simpleBeacon.location = new SimpleBeacon.Location(7.0452, 49.2577, 12.5);
+        simpleBeacon.altbeaconIBeaconData = new SimpleBeacon.AltbeaconIBeaconData(
+                "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6", "1", "2");
+        return simpleBeacon;
+    }
+
+    static SimpleBeacon altBeacon() {
+        SimpleBeacon simpleBeacon = new SimpleBeacon(SimpleBeaconLayouts.ALTBEACON_LAYOUT.name(), -80, -61, 0x0118,
+                "C4:7C:8D:6A:3B:02", null, 4.5, "2019-03-01 10:15:31");
+        simpleBeacon.hashcode = -987654321;
+        simpleBeacon.location = new SimpleBeacon.Location(7.0453, 49.2578, 8);
+        simpleBeacon.altbeaconIBeaconData = new SimpleBeacon.AltbeaconIBeaconData(
+                "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6", "3", "65535");
+        return simpleBeacon;
+    }
+
+    static SimpleBeacon eddystoneUid() {
+        SimpleBeacon simpleBeacon = new SimpleBeacon(SimpleBeaconLayouts.EDDYSTONE_UID_LAYOUT.name(), -65, -59, 0,
+                "C4:7C:8D:6A:3B:03", "eddy", 1.1, "2019-03-01 10:15:32");
+        simpleBeacon.hashcode = 42;
+        simpleBeacon.location = new SimpleBeacon.Location(-122.084, 37.422, 30);
+        simpleBeacon.eddystoneUidData = new SimpleBeacon.EddystoneUID("0x00010203040506070809", "0x0a0b0c0d0e0f");
+        simpleBeacon.telemetry = new SimpleBeacon.Telemetry(0, 3000, 23.5, 100, 1000);
+        return simpleBeacon;
+    }
+
+    static SimpleBeacon eddystoneUrl() {
+        SimpleBeacon simpleBeacon = new SimpleBeacon(SimpleBeaconLayouts.EDDYSTONE_URL_LAYOUT.name(), -90, -59, 0,
+                "C4:7C:8D:6A:3B:04", null, 12.75, "2019-03-01 10:15:33");
+        simpleBeacon.hashcode = 7;
+        simpleBeacon.eddystoneUrlData = new SimpleBeacon.EddystoneURL("https://example.com/beacon?id=\"4\"");
+        return simpleBeacon;
+    }
+
+    static SimpleBeacon ruuvi() {
+        SimpleBeacon simpleBeacon = new SimpleBeacon(SimpleBeaconLayouts.RUUVI_LAYOUT.name(), -75, -59, 0,
+                "C4:7C:8D:6A:3B:05", "Ruuvi 3B05", 3.0, "2019-03-01 10:15:34");
+        simpleBeacon.hashcode = 99;
+        simpleBeacon.location = new SimpleBeacon.Location(2.3522, 48.8566, 5);
+        simpleBeacon.eddystoneUrlData = new SimpleBeacon.EddystoneURL("https://ruu.vi/#BEAtAMLEv");
+        simpleBeacon.ruuvi = new SimpleBeacon.Ruuvi(45.5, 1003.25, 21.75);
+        return simpleBeacon;
+    }
+
+    static List<SimpleBeacon> all() {
+        return new ArrayList<>(Arrays.asList(iBeacon(), altBeacon(), eddystoneUid(), eddystoneUrl(), ruuvi()));
+    }
+}
@@ -0,0 +1,35 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import java.io.File;
+
+/**
+ * Context which only provides the files and cache directories
+ */
+
+final class TestContext extends ContextWrapper {
+
+    private final File directory;
+
+    TestContext(File directory) {
+        super(null);
+        this.directory = directory;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return directory;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return directory;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+}
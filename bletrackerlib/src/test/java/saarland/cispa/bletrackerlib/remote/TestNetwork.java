@@ -0,0 +1,129 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.ClientError;
+import com.android.volley.Header;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link Network} on HttpURLConnection which maps the status codes to errors like the BasicNetwork of Volley does.
+ * It does not need the Apache HTTP classes BasicNetwork and HurlStack refer to, they are not on the unit test class path.
+ */
+
+final class TestNetwork implements Network {
+
+    private final SSLSocketFactory socketFactory;
+
+    TestNetwork(SSLSocketFactory socketFactory) {
+        this.socketFactory = socketFactory;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        long startTime = System.currentTimeMillis();
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+            if (socketFactory != null && connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+            }
+            connection.setConnectTimeout(request.getTimeoutMs());
+            connection.setReadTimeout(request.getTimeoutMs());
+            connection.setUseCaches(false);
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            connection.setRequestMethod(getMethod(request));
+            byte[] body = request.getBody();
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", request.getBodyContentType());
+                OutputStream out = connection.getOutputStream();
+                out.write(body);
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            List<Header> headers = new ArrayList<>();
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                if (header.getKey() != null) {
+                    for (String value : header.getValue()) {
+                        headers.add(new Header(header.getKey(), value));
+                    }
+                }
+            }
+            long networkTime = System.currentTimeMillis() - startTime;
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new NetworkResponse(status, null, true, networkTime, headers);
+            }
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            NetworkResponse response = new NetworkResponse(status, readAll(in), false, networkTime, headers);
+            if (status >= 200 && status <= 299) {
+                return response;
+            }
+            if (status == 401 || status == 403) {
+                throw new AuthFailureError(response);
+            }
+            if (status >= 400 && status <= 499) {
+                throw new ClientError(response);
+            }
+            throw new ServerError(response);
+        } catch (SocketTimeoutException e) {
+            throw new TimeoutError();
+        } catch (IOException e) {
+            throw new NoConnectionError(e);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static String getMethod(Request<?> request) {
+        switch (request.getMethod()) {
+            case Request.Method.POST:
+                return "POST";
+            case Request.Method.PUT:
+                return "PUT";
+            case Request.Method.DELETE:
+                return "DELETE";
+            case Request.Method.HEAD:
+                return "HEAD";
+            default:
+                return "GET";
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (in == null) {
+            return out.toByteArray();
+        }
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
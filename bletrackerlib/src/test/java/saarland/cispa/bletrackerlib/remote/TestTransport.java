@@ -0,0 +1,104 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.NoCache;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import static org.junit.Assert.fail;
+
+/**
+ * {@link Transport} for tests: a Volley queue without cache which delivers the responses on its network threads
+ * instead of the main thread, so a test can wait until all requests of a connection are done
+ */
+
+final class TestTransport implements Transport {
+
+    private static final long TIMEOUT = 10 * 1000;
+
+    private final RequestQueue queue;
+    private final TransportStats stats = new TransportStats();
+    private final Map<Request<?>, Runnable> finishedCallbacks = new IdentityHashMap<>();
+    private final Map<Request<?>, Long> startTimes = new IdentityHashMap<>();
+    private int pending = 0;
+
+    TestTransport() {
+        this(null);
+    }
+
+    /**
+     * @param socketFactory the socket factory for HTTPS or null for the default one,
+     *                      it is wrapped like the one of a {@link VolleyTransport} to count the handshakes
+     */
+    @SuppressWarnings("deprecation")
+    TestTransport(SSLSocketFactory socketFactory) {
+        queue = new RequestQueue(new NoCache(), new TestNetwork(socketFactory != null
+                ? new HandshakeCountingSocketFactory(socketFactory, stats) : null), 4, new ExecutorDelivery(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }));
+        queue.addRequestFinishedListener(new RequestQueue.RequestFinishedListener<Object>() {
+            @Override
+            public void onRequestFinished(Request<Object> request) {
+                Runnable finished;
+                Long startTime;
+                synchronized (TestTransport.this) {
+                    finished = finishedCallbacks.remove(request);
+                    startTime = startTimes.remove(request);
+                }
+                if (startTime != null) {
+                    stats.finished(System.currentTimeMillis() - startTime);
+                }
+                if (finished != null) {
+                    finished.run();
+                }
+                synchronized (TestTransport.this) {
+                    pending--;
+                    TestTransport.this.notifyAll();
+                }
+            }
+        });
+        queue.start();
+    }
+
+    @Override
+    public synchronized void send(Request<?> request, Runnable finished) {
+        pending++;
+        startTimes.put(request, System.currentTimeMillis());
+        if (finished != null) {
+            finishedCallbacks.put(request, finished);
+        }
+        queue.add(request);
+    }
+
+    @Override
+    public TransportStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Waits until no request is in flight anymore, including the ones sent by the callbacks of finished requests
+     */
+    synchronized void awaitIdle() throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (pending > 0) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+                fail(pending + " requests did not finish");
+            }
+            wait(remaining);
+        }
+    }
+
+    void stop() {
+        queue.stop();
+    }
+}
@@ -0,0 +1,102 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class TileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubServer server;
+    private TestTransport transport;
+    private RemoteConnection connection;
+    private String tilePath;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubServer();
+        transport = new TestTransport();
+        RemotePreferences remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        remotePreferences.setTileSize(1);
+        remotePreferences.setPageSize(1);
+        connection = new RemoteConnection(server.getUrl("/beacons"), new TestContext(folder.getRoot()), remotePreferences, transport);
+        tilePath = new URL(connection.getApiUrl(0, 1, 0, 1)).getPath();
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+        server.stop();
+    }
+
+    private static String page(int id) {
+        SimpleBeacon simpleBeacon = TestBeacons.iBeacon();
+        simpleBeacon.location = new SimpleBeacon.Location(0.5, 0.5, 1);
+        String json = new String(BeaconJsonWriter.joinArray(Arrays.asList(BeaconJsonWriter.encode(simpleBeacon))));
+        return json.replaceFirst("\\{", "{\"ID\":" + id + ",");
+    }
+
+    private static final class Collector implements RemoteRequestReceiver {
+        ArrayList<SimpleBeacon> beacons;
+
+        @Override
+        public void onBeaconsReceived(ArrayList<SimpleBeacon> beacons) {
+            this.beacons = beacons;
+        }
+
+        @Override
+        public void onBeaconReceiveError(String errorMessage) {
+        }
+    }
+
+    @Test
+    public void countsOneMissPerTile() throws Exception {
+        server.enqueue(tilePath, 200, page(1), "X-Next-Page-Token", "2");
+        server.enqueue(tilePath, 200, page(2), "ETag", "\"v1\"");
+        Collector receiver = new Collector();
+        connection.requestBeacons(0.2, 0.8, 0.2, 0.8, receiver);
+        transport.awaitIdle();
+
+        assertEquals(2, server.getRequestCount(tilePath));
+        assertEquals(2, receiver.beacons.size());
+        assertEquals(1, connection.getTileCacheStats().getMisses());
+        assertEquals(0, connection.getTileCacheStats().getHits());
+    }
+
+    @Test
+    public void receiversGetTheirOwnLists() throws Exception {
+        server.enqueue(tilePath, 200, page(1), "X-Next-Page-Token", "2");
+        server.enqueue(tilePath, 200, page(2));
+        Collector first = new Collector();
+        Collector second = new Collector();
+        connection.addRemoteReceiver(first);
+        connection.addRemoteReceiver(second);
+        connection.requestBeacons(0.2, 0.8, 0.2, 0.8);
+        transport.awaitIdle();
+
+        assertNotSame(first.beacons, second.beacons);
+        first.beacons.clear();
+        assertEquals(2, second.beacons.size());
+
+        // the cached tile is not changed by the receivers either
+        Collector cached = new Collector();
+        connection.requestBeacons(0.2, 0.8, 0.2, 0.8, cached);
+        assertEquals(2, cached.beacons.size());
+        assertEquals(1, connection.getTileCacheStats().getHits());
+        assertEquals(2, server.getRequestCount(tilePath));
+    }
+}
@@ -0,0 +1,135 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.ArrayList;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TransportTlsTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final long DELAY = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeyStore serverKeys;
+    private StubServer server;
+    private TestTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        // self-signed certificate for 127.0.0.1
+        serverKeys = KeyStore.getInstance("JKS");
+        InputStream in = getClass().getResourceAsStream("stub-server.jks");
+        try {
+            serverKeys.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(serverKeys, PASSWORD);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), null, null);
+        server = new StubServer(sslContext);
+        server.setDelay(DELAY);
+    }
+
+    @After
+    public void tearDown() {
+        if (transport != null) {
+            transport.stop();
+        }
+        server.stop();
+    }
+
+    private static final class Collector implements RemoteRequestReceiver {
+        ArrayList<SimpleBeacon> beacons;
+        String errorMessage;
+
+        @Override
+        public void onBeaconsReceived(ArrayList<SimpleBeacon> beacons) {
+            this.beacons = beacons;
+        }
+
+        @Override
+        public void onBeaconReceiveError(String errorMessage) {
+            this.errorMessage = errorMessage;
+        }
+    }
+
+    private RemoteConnection connect(KeyStore trusted) throws Exception {
+        transport = new TestTransport(VolleyTransport.getPinnedSocketFactory(trusted));
+        RemotePreferences remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        return new RemoteConnection(server.getUrl("/beacons"), new TestContext(folder.getRoot()), remotePreferences, transport);
+    }
+
+    /**
+     * The handshake listeners run on their own thread, so the counters are updated a little after the response
+     */
+    private static void awaitHandshakes(TransportStats stats, long handshakes) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (stats.getHandshakes() < handshakes && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void resumesSessionsOfThePinnedContext() throws Exception {
+        RemoteConnection connection = connect(serverKeys);
+        String path = new URL(connection.getApiUrl(7, 8, 49, 50)).getPath();
+        // the server closes every connection, so every request needs a handshake
+        server.respond(path, 200, "[]", "Connection", "close");
+
+        for (int i = 0; i < 3; i++) {
+            Collector receiver = new Collector();
+            connection.requestBeacons(7, 8, 49, 50, receiver);
+            transport.awaitIdle();
+            assertNull(receiver.errorMessage);
+            assertEquals(0, receiver.beacons.size());
+        }
+
+        TransportStats stats = transport.getStats();
+        awaitHandshakes(stats, 3);
+        // all but the first handshake resume the TLS session
+        assertEquals(3, stats.getHandshakes());
+        assertEquals(2, stats.getResumedHandshakes());
+        assertEquals(3, stats.getRequests());
+        assertTrue(stats.getAverageLatency() >= DELAY);
+        assertTrue(stats.getMaxLatency() >= stats.getAverageLatency());
+    }
+
+    @Test
+    public void rejectsCertificatesOutsideTheKeyStore() throws Exception {
+        KeyStore empty = KeyStore.getInstance(KeyStore.getDefaultType());
+        empty.load(null, null);
+        RemoteConnection connection = connect(empty);
+        String path = new URL(connection.getApiUrl(7, 8, 49, 50)).getPath();
+        server.respond(path, 200, "[]");
+
+        Collector receiver = new Collector();
+        connection.requestBeacons(7, 8, 49, 50, receiver);
+        transport.awaitIdle();
+
+        assertNull(receiver.beacons);
+        assertNotNull(receiver.errorMessage);
+        assertEquals(0, server.getRequestCount(path));
+    }
+}
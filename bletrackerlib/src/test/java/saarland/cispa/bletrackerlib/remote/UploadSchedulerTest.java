@@ -0,0 +1,183 @@
+package saarland.cispa.bletrackerlib.remote;
+
+import android.os.Handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UploadSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<UploadLane> startedLanes = new ArrayList<>();
+    private final List<Integer> startedHashcodes = new ArrayList<>();
+    private TestTransport transport;
+    private RemotePreferences remotePreferences;
+    private UploadScheduler scheduler;
+    private FakeHandler handler;
+    private long denyDelay = -1;
+
+    /**
+     * Handler which keeps the posted runnable until the test runs it
+     */
+    private static final class FakeHandler extends Handler {
+        Runnable runnable;
+        long delay;
+
+        @Override
+        public boolean postDelayed(Runnable r, long delayMillis) {
+            runnable = r;
+            delay = delayMillis;
+            return true;
+        }
+
+        void run() {
+            Runnable r = runnable;
+            runnable = null;
+            r.run();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        remotePreferences = new RemotePreferences();
+        remotePreferences.setOfflineQueueEnabled(false);
+        remotePreferences.setMaxUploadsInFlight(1);
+        transport = new TestTransport();
+        handler = new FakeHandler();
+        // records the started uploads instead of sending them, denies them like an open circuit if asked to
+        RemoteConnection connection = new RemoteConnection("http://127.0.0.1:1/beacons",
+                new TestContext(folder.getRoot()), remotePreferences, transport) {
+            @Override
+            void start(BeaconPayload payload, UploadLane lane) {
+                startedLanes.add(lane);
+                startedHashcodes.add(payload.simpleBeacon.hashcode);
+                if (denyDelay >= 0) {
+                    scheduler.onDenied(denyDelay);
+                }
+            }
+        };
+        scheduler = new UploadScheduler(connection, remotePreferences, handler);
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+    }
+
+    private static BeaconPayload payload(int hashcode) {
+        SimpleBeacon simpleBeacon = new SimpleBeacon("IBEACON_LAYOUT", -70, -59, 0x4c, "C4:7C:8D:6A:3B:01", null, 1.5, null);
+        simpleBeacon.hashcode = hashcode;
+        return new BeaconPayload(simpleBeacon);
+    }
+
+    private void submit(UploadLane lane, int count, int firstHashcode) {
+        for (int i = 0; i < count; i++) {
+            scheduler.submit(payload(firstHashcode + i), lane);
+        }
+    }
+
+    private void finish(int count) {
+        for (int i = 0; i < count; i++) {
+            scheduler.onFinished();
+        }
+    }
+
+    @Test
+    public void picksLanesBySmoothWeightedRoundRobin() {
+        // takes the only slot
+        scheduler.submit(payload(0), UploadLane.LOW);
+        submit(UploadLane.HIGH, 8, 100);
+        submit(UploadLane.NORMAL, 8, 200);
+        submit(UploadLane.LOW, 8, 300);
+        assertEquals(1, startedLanes.size());
+
+        finish(14);
+        List<UploadLane> order = startedLanes.subList(1, 15);
+        UploadLane h = UploadLane.HIGH, n = UploadLane.NORMAL, l = UploadLane.LOW;
+        assertEquals(Arrays.asList(h, n, h, l, h, n, h, h, n, h, l, h, n, h), order);
+        // first in first out within a lane
+        assertEquals(Arrays.asList(0, 100, 200, 101, 300), startedHashcodes.subList(0, 5));
+    }
+
+    @Test
+    public void lowerLanesGetTheSlotsWhenHigherOnesAreEmpty() {
+        scheduler.submit(payload(0), UploadLane.HIGH);
+        submit(UploadLane.LOW, 3, 300);
+        finish(3);
+        assertEquals(Arrays.asList(UploadLane.HIGH, UploadLane.LOW, UploadLane.LOW, UploadLane.LOW), startedLanes);
+        assertEquals(0, scheduler.getQueueDepth(UploadLane.LOW));
+    }
+
+    @Test
+    public void shedsTheLowestLaneWhenFull() {
+        remotePreferences.setUploadQueueSize(3);
+        scheduler.submit(payload(0), UploadLane.HIGH);
+        submit(UploadLane.LOW, 2, 300);
+        submit(UploadLane.NORMAL, 1, 200);
+
+        // the oldest low upload makes room for the high one
+        submit(UploadLane.HIGH, 1, 100);
+        assertEquals(1, scheduler.getShedCount());
+        assertEquals(1, scheduler.getQueueDepth(UploadLane.LOW));
+        assertEquals(1, scheduler.getQueueDepth(UploadLane.HIGH));
+
+        // a low upload only replaces the other low one
+        submit(UploadLane.LOW, 1, 302);
+        assertEquals(2, scheduler.getShedCount());
+        finish(3);
+        assertEquals(Arrays.asList(0, 100, 200, 302), startedHashcodes);
+    }
+
+    @Test
+    public void dropsANewUploadOfALowerLane() {
+        remotePreferences.setUploadQueueSize(2);
+        scheduler.submit(payload(0), UploadLane.HIGH);
+        submit(UploadLane.HIGH, 1, 100);
+        submit(UploadLane.NORMAL, 1, 200);
+        submit(UploadLane.LOW, 1, 300);
+        assertEquals(1, scheduler.getShedCount());
+        assertEquals(0, scheduler.getQueueDepth(UploadLane.LOW));
+        assertEquals(1, scheduler.getQueueDepth(UploadLane.NORMAL));
+    }
+
+    @Test
+    public void pausesWhileTheCircuitDeniesUploads() {
+        remotePreferences.setMaxUploadsInFlight(4);
+        denyDelay = 5000;
+        submit(UploadLane.NORMAL, 10, 200);
+        // only the first upload was tried, the others wait for the circuit
+        assertEquals(Arrays.asList(200), startedHashcodes);
+        assertEquals(9, scheduler.getQueueDepth(UploadLane.NORMAL));
+        assertEquals(5000, handler.delay);
+        submit(UploadLane.HIGH, 1, 100);
+        assertEquals(1, startedHashcodes.size());
+
+        // a half-open circuit has no delay while its probe is in flight
+        denyDelay = 0;
+        handler.run();
+        assertEquals(Arrays.asList(200, 100), startedHashcodes);
+        assertEquals(1000, handler.delay);
+
+        denyDelay = -1;
+        handler.run();
+        assertNull(handler.runnable);
+        assertEquals(Arrays.asList(200, 100, 201, 202, 203, 204), startedHashcodes);
+        finish(5);
+        assertEquals(11, startedHashcodes.size());
+        assertEquals(0, scheduler.getQueueDepth(UploadLane.NORMAL));
+    }
+}
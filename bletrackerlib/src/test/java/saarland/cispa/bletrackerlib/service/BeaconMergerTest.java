@@ -0,0 +1,73 @@
+package saarland.cispa.bletrackerlib.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+import static org.junit.Assert.assertEquals;
+
+public class BeaconMergerTest {
+
+    private static final String MAC = "C4:7C:8D:6A:3B:01";
+
+    private static SimpleBeacon uid(String mac) {
+        SimpleBeacon simpleBeacon = new SimpleBeacon(SimpleBeaconLayouts.EDDYSTONE_UID_LAYOUT.name(), -70, -59, 0, mac, null, 1, null);
+        simpleBeacon.eddystoneUidData = new SimpleBeacon.EddystoneUID("0x00010203040506070809", "0x0a0b0c0d0e0f");
+        simpleBeacon.hashcode = 1;
+        return simpleBeacon;
+    }
+
+    private static SimpleBeacon url(String mac) {
+        SimpleBeacon simpleBeacon = new SimpleBeacon(SimpleBeaconLayouts.EDDYSTONE_URL_LAYOUT.name(), -60, -59, 0, mac, null, 2, null);
+        simpleBeacon.eddystoneUrlData = new SimpleBeacon.EddystoneURL("https://example.com");
+        simpleBeacon.hashcode = 2;
+        return simpleBeacon;
+    }
+
+    private static SimpleBeacon iBeacon(String mac, String major, int hashcode) {
+        SimpleBeacon simpleBeacon = new SimpleBeacon(SimpleBeaconLayouts.IBEACON_LAYOUT.name(), -80, -59, 0x4c, mac, null, 3, null);
+        simpleBeacon.altbeaconIBeaconData = new SimpleBeacon.AltbeaconIBeaconData("2f234454-cf6d-4a0f-adf2-f4911ba9ffa6", major, "1");
+        simpleBeacon.hashcode = hashcode;
+        return simpleBeacon;
+    }
+
+    @Test
+    public void mergesFramesOfOneDevice() {
+        ArrayList<SimpleBeacon> merged = new BeaconMerger().merge(Arrays.asList(url(MAC), uid(MAC)));
+        assertEquals(1, merged.size());
+        SimpleBeacon device = merged.get(0);
+        assertEquals(SimpleBeaconLayouts.EDDYSTONE_UID_LAYOUT.name(), device.beaconType);
+        assertEquals(-60, device.signalStrength);
+        assertEquals("https://example.com", device.eddystoneUrlData.url);
+        assertEquals("0x0a0b0c0d0e0f", device.eddystoneUidData.instanceId);
+    }
+
+    @Test
+    public void keepsHashcodeOfFirstFrameAcrossCycles() {
+        BeaconMerger merger = new BeaconMerger();
+        assertEquals(2, merger.merge(Arrays.asList(url(MAC))).get(0).hashcode);
+        // the higher ranked UID frame shows up, the device keeps its identity
+        assertEquals(2, merger.merge(Arrays.asList(uid(MAC), url(MAC))).get(0).hashcode);
+        // and also if only the UID frame is received
+        assertEquals(2, merger.merge(Arrays.asList(uid(MAC))).get(0).hashcode);
+    }
+
+    @Test
+    public void keepsDifferentIdentitiesOfOneAddressApart() {
+        ArrayList<SimpleBeacon> merged = new BeaconMerger().merge(Arrays.asList(
+                iBeacon(MAC, "1", 10), iBeacon(MAC, "2", 20), iBeacon(MAC, "1", 10)));
+        assertEquals(2, merged.size());
+        assertEquals(10, merged.get(0).hashcode);
+        assertEquals(20, merged.get(1).hashcode);
+    }
+
+    @Test
+    public void doesNotMergeOtherAddresses() {
+        ArrayList<SimpleBeacon> merged = new BeaconMerger().merge(Arrays.asList(uid(MAC), uid("00:11:22:33:44:55"), uid(null)));
+        assertEquals(3, merged.size());
+    }
+}
@@ -0,0 +1,105 @@
+package saarland.cispa.bletrackerlib.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.BleTrackerPreferences;
+import saarland.cispa.bletrackerlib.data.SimpleBeacon;
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BeaconSamplerTest {
+
+    private static final long SECOND = 1000;
+
+    private BeaconSampler sampler;
+
+    @Before
+    public void setUp() {
+        // near up to 2m, far from 20m, far and static beacons every 60s
+        sampler = new BeaconSampler(new BleTrackerPreferences());
+    }
+
+    private static SimpleBeacon beacon(int hashcode, int signalStrength, double distance) {
+        SimpleBeacon simpleBeacon = new SimpleBeacon(SimpleBeaconLayouts.IBEACON_LAYOUT.name(), signalStrength, -59, 0x4c,
+                "C4:7C:8D:6A:3B:01", null, distance, null);
+        simpleBeacon.hashcode = hashcode;
+        return simpleBeacon;
+    }
+
+    /**
+     * Sees a beacon once per second and returns the seconds in which it was forwarded
+     */
+    private List<Long> forwardedSeconds(int hashcode, int signalStrength, double distance, long from, long to) {
+        List<Long> forwarded = new ArrayList<>();
+        for (long second = from; second <= to; second++) {
+            if (!sampler.sample(Collections.singletonList(beacon(hashcode, signalStrength, distance)), second * SECOND).isEmpty()) {
+                forwarded.add(second);
+            }
+        }
+        return forwarded;
+    }
+
+    @Test
+    public void nearBeaconsAreForwardedEveryCycle() {
+        assertEquals(11, forwardedSeconds(1, -60, 1.5, 0, 10).size());
+    }
+
+    @Test
+    public void farStaticBeaconsAreForwardedEveryMaxInterval() {
+        assertEquals(Arrays.asList(0L, 60L, 120L), forwardedSeconds(1, -90, 30, 0, 120));
+    }
+
+    @Test
+    public void intervalGrowsWithTheDistance() {
+        // half way between near and far
+        assertEquals(Arrays.asList(0L, 30L, 60L), forwardedSeconds(1, -80, 11, 0, 60));
+    }
+
+    @Test
+    public void movingBeaconsAreForwardedEveryCycle() {
+        List<Long> forwarded = new ArrayList<>();
+        for (long second = 0; second <= 20; second++) {
+            // the signal gets 5 dBm stronger per second
+            SimpleBeacon simpleBeacon = beacon(1, (int) (-100 + 5 * second), 30);
+            if (!sampler.sample(Collections.singletonList(simpleBeacon), second * SECOND).isEmpty()) {
+                forwarded.add(second);
+            }
+        }
+        // once the smoothed rate of change is fast enough, every cycle
+        for (long second = 5; second <= 20; second++) {
+            assertTrue("second " + second, forwarded.contains(second));
+        }
+    }
+
+    @Test
+    public void keepsTheStateOfManyBeacons() {
+        List<SimpleBeacon> simpleBeacons = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            simpleBeacons.add(beacon(i, -90, 30));
+        }
+        assertEquals(100, sampler.sample(simpleBeacons, 0).size());
+        assertEquals(0, sampler.sample(simpleBeacons, SECOND).size());
+        assertEquals(100, sampler.sample(simpleBeacons, 60 * SECOND).size());
+    }
+
+    @Test
+    public void prunedSlotsKeepTheStateOfTheMovedBeacon() {
+        // the first beacon is only seen once, the second one stays
+        sampler.sample(Arrays.asList(beacon(1, -90, 30), beacon(2, -90, 30)), 0);
+        assertEquals(Arrays.asList(60L, 120L), forwardedSeconds(2, -90, 30, 1, 130));
+        // the first beacon is pruned after 120s and the second one moved into its slot,
+        // it still knows it was forwarded at 120s
+        assertEquals(Arrays.asList(180L), forwardedSeconds(2, -90, 30, 131, 180));
+
+        // a pruned beacon is new again and forwarded right away
+        assertEquals(1, sampler.sample(Collections.singletonList(beacon(1, -90, 30)), 181 * SECOND).size());
+    }
+}
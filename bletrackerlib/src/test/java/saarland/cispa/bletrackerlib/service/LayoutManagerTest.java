@@ -0,0 +1,173 @@
+package saarland.cispa.bletrackerlib.service;
+
+import org.altbeacon.beacon.Beacon;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import saarland.cispa.bletrackerlib.BleTrackerPreferences;
+import saarland.cispa.bletrackerlib.data.SimpleBeaconLayouts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LayoutManagerTest {
+
+    private static final int PRUNE_TIMEOUT = 60 * 1000;
+    private static final int PROBE_INTERVAL = 5 * 60 * 1000;
+    private static final int PROBE_DURATION = 30 * 1000;
+
+    private final List<SimpleBeaconLayouts> parsers = new ArrayList<>();
+    private BleTrackerPreferences preferences;
+    private LayoutManager layoutManager;
+    private int appliedSettings = 0;
+    private boolean locked = false;
+
+    @Before
+    public void setUp() {
+        preferences = new BleTrackerPreferences();
+        preferences.setLayoutProbeInterval(PROBE_INTERVAL);
+        preferences.setLayoutProbeDuration(PROBE_DURATION);
+        // keeps the parsers in a list instead of an AltBeacon beacon manager
+        layoutManager = new LayoutManager(null, preferences) {
+            @Override
+            void clearParsers() {
+                parsers.clear();
+            }
+
+            @Override
+            void register(SimpleBeaconLayouts layout) {
+                if (locked) {
+                    throw new UnsupportedOperationException();
+                }
+                parsers.add(layout);
+            }
+
+            @Override
+            void unregister(SimpleBeaconLayouts layout) {
+                if (locked) {
+                    throw new UnsupportedOperationException();
+                }
+                parsers.remove(layout);
+            }
+
+            @Override
+            void applySettings() {
+                appliedSettings++;
+            }
+        };
+    }
+
+    private static Beacon beacon(final String parserIdentifier, final int serviceUuid, final Long... extraDataFields) {
+        return new Beacon() {
+            @Override
+            public String getParserIdentifier() {
+                return parserIdentifier;
+            }
+
+            @Override
+            public int getServiceUuid() {
+                return serviceUuid;
+            }
+
+            @Override
+            public List<Long> getExtraDataFields() {
+                return Arrays.asList(extraDataFields);
+            }
+        };
+    }
+
+    @Test
+    public void defaultProfileRegistersAllLayouts() {
+        layoutManager.applyProfile();
+        assertEquals(Arrays.asList(SimpleBeaconLayouts.values()), parsers);
+        assertEquals(1, appliedSettings);
+    }
+
+    @Test
+    public void layoutsCanBeChangedAtRuntime() {
+        preferences.setLayouts(EnumSet.of(SimpleBeaconLayouts.IBEACON_LAYOUT));
+        layoutManager.applyProfile();
+
+        layoutManager.enableLayout(SimpleBeaconLayouts.RUUVI_LAYOUT);
+        assertTrue(layoutManager.isActive(SimpleBeaconLayouts.RUUVI_LAYOUT));
+        layoutManager.disableLayout(SimpleBeaconLayouts.IBEACON_LAYOUT);
+        assertFalse(layoutManager.isActive(SimpleBeaconLayouts.IBEACON_LAYOUT));
+        assertEquals(Arrays.asList(SimpleBeaconLayouts.RUUVI_LAYOUT), parsers);
+        assertEquals(EnumSet.of(SimpleBeaconLayouts.RUUVI_LAYOUT), preferences.getLayouts());
+        assertEquals(3, appliedSettings);
+
+        // nothing to change
+        layoutManager.enableLayout(SimpleBeaconLayouts.RUUVI_LAYOUT);
+        assertEquals(3, appliedSettings);
+    }
+
+    @Test
+    public void telemetryCountsOnlyForEddystoneFrames() {
+        layoutManager.onMatch(beacon(SimpleBeaconLayouts.EDDYSTONE_UID_LAYOUT.name(), 0xfeaa, 0L, 3000L, 5120L, 10L, 100L), 0);
+        // the data field of an AltBeacon is no telemetry
+        layoutManager.onMatch(beacon(SimpleBeaconLayouts.ALTBEACON_LAYOUT.name(), 0, 7L), 0);
+        layoutManager.onMatch(beacon(SimpleBeaconLayouts.EDDYSTONE_TLM_LAYOUT.name(), 0xfeaa, 0L, 3000L, 5120L, 10L, 100L), 0);
+        layoutManager.onMatch(beacon("unknown", 0), 0);
+
+        assertEquals(1, layoutManager.getMatchCount(SimpleBeaconLayouts.EDDYSTONE_UID_LAYOUT));
+        assertEquals(1, layoutManager.getMatchCount(SimpleBeaconLayouts.ALTBEACON_LAYOUT));
+        assertEquals(2, layoutManager.getMatchCount(SimpleBeaconLayouts.EDDYSTONE_TLM_LAYOUT));
+        assertEquals(0, layoutManager.getMatchCount(SimpleBeaconLayouts.IBEACON_LAYOUT));
+    }
+
+    @Test
+    public void prunesLayoutsWithoutMatchAndProbesThem() {
+        preferences.setLayouts(EnumSet.of(SimpleBeaconLayouts.IBEACON_LAYOUT, SimpleBeaconLayouts.RUUVI_LAYOUT));
+        preferences.setLayoutPruneTimeout(PRUNE_TIMEOUT);
+        layoutManager.applyProfile();
+        long start = System.currentTimeMillis();
+
+        layoutManager.onMatch(SimpleBeaconLayouts.IBEACON_LAYOUT, false, start + PRUNE_TIMEOUT - 1000);
+        layoutManager.onCycle(start + PRUNE_TIMEOUT);
+        assertEquals(Arrays.asList(SimpleBeaconLayouts.IBEACON_LAYOUT), parsers);
+
+        // the probe starts after the probe interval
+        long pruned = start + PRUNE_TIMEOUT;
+        layoutManager.onCycle(pruned + PROBE_INTERVAL - 1);
+        assertFalse(layoutManager.isActive(SimpleBeaconLayouts.RUUVI_LAYOUT));
+        layoutManager.onCycle(pruned + PROBE_INTERVAL);
+        assertTrue(layoutManager.isActive(SimpleBeaconLayouts.RUUVI_LAYOUT));
+
+        // a probe without match ends after the probe duration
+        long probe = pruned + PROBE_INTERVAL;
+        layoutManager.onCycle(probe + PROBE_DURATION);
+        assertFalse(layoutManager.isActive(SimpleBeaconLayouts.RUUVI_LAYOUT));
+
+        // a probe with a match keeps the layout
+        probe += PROBE_DURATION + PROBE_INTERVAL;
+        layoutManager.onCycle(probe);
+        layoutManager.onMatch(SimpleBeaconLayouts.RUUVI_LAYOUT, false, probe + 1000);
+        layoutManager.onCycle(probe + PROBE_DURATION);
+        assertTrue(layoutManager.isActive(SimpleBeaconLayouts.RUUVI_LAYOUT));
+        assertEquals(1, layoutManager.getMatchCount(SimpleBeaconLayouts.RUUVI_LAYOUT));
+    }
+
+    @Test
+    public void lockedParsersStayAsTheyAre() {
+        preferences.setLayoutPruneTimeout(PRUNE_TIMEOUT);
+        layoutManager.applyProfile();
+        int applied = appliedSettings;
+        locked = true;
+
+        layoutManager.disableLayout(SimpleBeaconLayouts.RUUVI_LAYOUT);
+        // the layout is gone from the profile, the scanner still uses it until the next start
+        assertTrue(layoutManager.isActive(SimpleBeaconLayouts.RUUVI_LAYOUT));
+        assertFalse(preferences.getLayouts().contains(SimpleBeaconLayouts.RUUVI_LAYOUT));
+
+        layoutManager.onCycle(System.currentTimeMillis() + PRUNE_TIMEOUT);
+        assertTrue(layoutManager.isActive(SimpleBeaconLayouts.IBEACON_LAYOUT));
+        assertEquals(applied, appliedSettings);
+    }
+}